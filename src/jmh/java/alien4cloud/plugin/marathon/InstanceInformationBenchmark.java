@@ -0,0 +1,78 @@
+package alien4cloud.plugin.marathon;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import alien4cloud.paas.model.InstanceInformation;
+import alien4cloud.plugin.marathon.location.MarathonLocationConfiguratorFactory;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import alien4cloud.plugin.marathon.service.BuilderService;
+import alien4cloud.plugin.marathon.service.EventService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.events.converters.DeploymentEventConverter;
+import alien4cloud.plugin.marathon.service.model.events.converters.StatusEventConverter;
+import mesosphere.marathon.client.model.v2.Task;
+import mesosphere.marathon.client.utils.ModelUtils;
+
+/**
+ * Cost of mapping the Marathon tasks of an app into the instance information displayed by Alien.
+ * Lives in the orchestrator's package to benchmark the mapping of a single task, which is not part of the orchestrator's API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstanceInformationBenchmark {
+
+    private static final String TASK = "{\"id\":\"group-0_app-0.e3c2ba2c-fe9c-11e6-a5f6-0242ac110003\",\"appId\":\"/group-0/app-0\","
+            + "\"host\":\"agent-0\",\"ports\":[31000,31001],\"state\":\"TASK_RUNNING\",\"slaveId\":\"20140909-054127-177048842-5050-1494-0\","
+            + "\"stagedAt\":\"2017-03-01T23:29:29.158Z\",\"startedAt\":\"2017-03-01T23:29:30.158Z\",\"version\":\"2017-03-01T23:29:29.158Z\"";
+
+    private MarathonOrchestrator orchestrator;
+
+    private Task healthyTask;
+
+    private Task uncheckedTask;
+
+    private Task stagingTask;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final MappingService mappingService = new MappingService();
+        final MetricsRegistry metricsRegistry = new MetricsRegistry();
+        orchestrator = new MarathonOrchestrator(new BuilderService(mappingService, metricsRegistry), mappingService,
+                new EventService(mappingService, new DeploymentEventConverter(mappingService), new StatusEventConverter(mappingService), metricsRegistry),
+                metricsRegistry, new MarathonLocationConfiguratorFactory());
+        healthyTask = ModelUtils.GSON.fromJson(TASK + ",\"healthCheckResults\":[{\"alive\":true,\"consecutiveFailures\":0}]}", Task.class);
+        uncheckedTask = ModelUtils.GSON.fromJson(TASK + "}", Task.class);
+        stagingTask = ModelUtils.GSON.fromJson(TASK.replace("TASK_RUNNING", "TASK_STAGING") + "}", Task.class);
+    }
+
+    @Benchmark
+    public InstanceInformation mapHealthyTask() {
+        return orchestrator.getInstanceInformation(healthyTask);
+    }
+
+    @Benchmark
+    public InstanceInformation mapUncheckedTask() {
+        return orchestrator.getInstanceInformation(uncheckedTask);
+    }
+
+    @Benchmark
+    public InstanceInformation mapStagingTask() {
+        return orchestrator.getInstanceInformation(stagingTask);
+    }
+}
@@ -0,0 +1,66 @@
+package alien4cloud.plugin.marathon.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import alien4cloud.plugin.marathon.service.DeploymentFixtures;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.mapping.AppMapping;
+
+/**
+ * Cost of resolving the Alien deployment and node template of the app of a status event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppResolutionBenchmark {
+
+    /**
+     * Number of deployed groups, with 10 apps each.
+     */
+    @Param({ "10", "1000" })
+    private int groups;
+
+    private MappingService mappingService;
+
+    private String[] mappedAppIds;
+
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mappingService = new MappingService();
+        mappingService.init("benchmark", DeploymentFixtures.deploymentContexts(groups, 10));
+        mappingService.awaitResolutions();
+
+        mappedAppIds = new String[1024];
+        for (int i = 0; i < mappedAppIds.length; i++) {
+            mappedAppIds[i] = "/group-" + (i % groups) + "/app-" + (i % 10);
+        }
+    }
+
+    @Benchmark
+    public AppMapping resolveMappedApp() {
+        return mappingService.resolveApp(mappedAppIds[next++ & 1023]);
+    }
+
+    @Benchmark
+    public AppMapping resolveForeignApp() {
+        return mappingService.resolveApp("/marathon-lb/haproxy");
+    }
+}
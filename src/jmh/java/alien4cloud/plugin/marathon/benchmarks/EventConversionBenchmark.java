@@ -0,0 +1,96 @@
+package alien4cloud.plugin.marathon.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.paas.model.PaaSDeploymentStatusMonitorEvent;
+import alien4cloud.paas.model.PaaSInstanceStateMonitorEvent;
+import alien4cloud.plugin.marathon.service.DeploymentFixtures;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.events.converters.DeploymentEventConverter;
+import alien4cloud.plugin.marathon.service.model.events.converters.StatusEventConverter;
+import alien4cloud.plugin.marathon.service.model.events.deployments.DeploymentSuccessEvent;
+import alien4cloud.plugin.marathon.service.model.events.status.HealthStatusChangedEvent;
+import alien4cloud.plugin.marathon.service.model.events.status.StatusUpdateEvent;
+import mesosphere.marathon.client.utils.ModelUtils;
+
+/**
+ * Throughput of the conversion of Marathon events into Alien monitor events, from the JSON received on the event stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventConversionBenchmark {
+
+    private static final String STATUS_UPDATE_EVENT = "{\"eventType\":\"status_update_event\",\"timestamp\":\"2017-03-01T23:29:30.158Z\","
+            + "\"slaveId\":\"20140909-054127-177048842-5050-1494-0\",\"taskId\":\"group-0_app-0.e3c2ba2c-fe9c-11e6-a5f6-0242ac110003\","
+            + "\"taskStatus\":\"TASK_RUNNING\",\"appId\":\"/group-0/app-0\",\"host\":\"agent-0\",\"ports\":[31000],\"version\":\"2017-03-01T23:29:29.158Z\"}";
+
+    private static final String HEALTH_STATUS_CHANGED_EVENT = "{\"eventType\":\"health_status_changed_event\",\"timestamp\":\"2017-03-01T23:29:30.158Z\","
+            + "\"appId\":\"/group-0/app-0\",\"taskId\":\"group-0_app-0.e3c2ba2c-fe9c-11e6-a5f6-0242ac110003\",\"version\":\"2017-03-01T23:29:29.158Z\","
+            + "\"alive\":true}";
+
+    private static final String DEPLOYMENT_SUCCESS_EVENT = "{\"eventType\":\"deployment_success\",\"timestamp\":\"2017-03-01T23:29:30.158Z\","
+            + "\"id\":\"marathon-deployment-0\"}";
+
+    private StatusEventConverter statusEventConverter;
+
+    private DeploymentEventConverter deploymentEventConverter;
+
+    private StatusUpdateEvent statusUpdateEvent;
+
+    private DeploymentSuccessEvent deploymentSuccessEvent;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final MappingService mappingService = new MappingService();
+        mappingService.init("benchmark", DeploymentFixtures.deploymentContexts(1, 1));
+        mappingService.awaitResolutions();
+        mappingService.registerDeploymentInfo("marathon-deployment-0", "alien-deployment-0", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+
+        statusEventConverter = new StatusEventConverter(mappingService);
+        deploymentEventConverter = new DeploymentEventConverter(mappingService);
+        statusUpdateEvent = ModelUtils.GSON.fromJson(STATUS_UPDATE_EVENT, StatusUpdateEvent.class);
+        deploymentSuccessEvent = ModelUtils.GSON.fromJson(DEPLOYMENT_SUCCESS_EVENT, DeploymentSuccessEvent.class);
+    }
+
+    @Benchmark
+    public PaaSInstanceStateMonitorEvent convertStatusUpdate() {
+        return statusEventConverter.fromStatusUpdateEvent(statusUpdateEvent);
+    }
+
+    @Benchmark
+    public PaaSInstanceStateMonitorEvent parseAndConvertStatusUpdate() {
+        return statusEventConverter.fromStatusUpdateEvent(ModelUtils.GSON.fromJson(STATUS_UPDATE_EVENT, StatusUpdateEvent.class));
+    }
+
+    @Benchmark
+    public PaaSInstanceStateMonitorEvent parseAndConvertHealthStatusChanged() {
+        return statusEventConverter.fromHealthStatusChangedEvent(ModelUtils.GSON.fromJson(HEALTH_STATUS_CHANGED_EVENT, HealthStatusChangedEvent.class));
+    }
+
+    @Benchmark
+    public PaaSDeploymentStatusMonitorEvent convertDeploymentSuccess() {
+        return deploymentEventConverter.fromDeploymentSuccessEvent(deploymentSuccessEvent);
+    }
+
+    @Benchmark
+    public PaaSDeploymentStatusMonitorEvent parseAndConvertDeploymentSuccess() {
+        return deploymentEventConverter.fromDeploymentSuccessEvent(ModelUtils.GSON.fromJson(DEPLOYMENT_SUCCESS_EVENT, DeploymentSuccessEvent.class));
+    }
+}
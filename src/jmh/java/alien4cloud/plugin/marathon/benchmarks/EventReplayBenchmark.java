@@ -0,0 +1,82 @@
+package alien4cloud.plugin.marathon.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.replay.EventCapture;
+import alien4cloud.plugin.marathon.service.replay.EventCapture.CapturedEvent;
+import alien4cloud.plugin.marathon.service.replay.EventReplayer;
+
+/**
+ * Regression benchmark of the handling of Marathon's event stream: replays a capture through the event service at maximum speed.
+ *
+ * The capture is set by the <code>replay.capture</code> system property, eg. one recorded in production, otherwise a synthetic stream is captured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventReplayBenchmark {
+
+    private static final int SYNTHETIC_EVENTS = 10000;
+
+    private List<CapturedEvent> events;
+
+    private EventReplayer replayer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final String capture = System.getProperty("replay.capture");
+        events = EventCapture.read(capture != null ? Paths.get(capture) : syntheticCapture());
+        replayer = new EventReplayer(new MappingService());
+    }
+
+    /**
+     * Capture a stream of deployments: for each, its plan, the updates of its tasks, then its success.
+     */
+    private static Path syntheticCapture() throws IOException {
+        final Path directory = Files.createTempDirectory("marathon-events");
+        try (EventCapture capture = EventCapture.create(directory)) {
+            for (int i = 0; i < SYNTHETIC_EVENTS; i++) {
+                final int deployment = i / 10;
+                final String timestamp = "\"timestamp\":\"2017-03-01T23:29:30.158Z\"";
+                if (i % 10 == 0) {
+                    capture.record("deployment_info", "{\"eventType\":\"deployment_info\"," + timestamp + ",\"plan\":{\"id\":\"marathon-deployment-"
+                            + deployment + "\"},\"currentStep\":{\"actions\":[]}}");
+                } else if (i % 10 == 9) {
+                    capture.record("deployment_success", "{\"eventType\":\"deployment_success\"," + timestamp + ",\"id\":\"marathon-deployment-"
+                            + deployment + "\"}");
+                } else {
+                    capture.record("status_update_event", "{\"eventType\":\"status_update_event\"," + timestamp + ",\"slaveId\":\"agent-0\","
+                            + "\"taskId\":\"group-" + deployment + "_app-" + i % 10 + ".e3c2ba2c\",\"taskStatus\":\"TASK_RUNNING\",\"appId\":\"/group-"
+                            + deployment + "/app-" + i % 10 + "\",\"host\":\"agent-0\",\"ports\":[31000],\"version\":\"2017-03-01T23:29:29.158Z\"}");
+                }
+            }
+            return capture.getFile();
+        }
+    }
+
+    @Benchmark
+    public EventReplayer.Report replay() throws InterruptedException {
+        return replayer.replay(events, 0);
+    }
+}
@@ -0,0 +1,36 @@
+package alien4cloud.plugin.marathon.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.replay.EventCapture;
+import alien4cloud.plugin.marathon.service.replay.EventCapture.CapturedEvent;
+import alien4cloud.plugin.marathon.service.replay.EventReplayer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Replays a capture of Marathon's event stream from the command line and logs the measures of the replay.
+ * <p>
+ * Usage: <code>EventReplayDriver &lt;capture&gt; [&lt;speed&gt;|max] [&lt;mapping journal directory&gt;]</code>, the journal being a copy of the
+ * journal of the captured location.
+ */
+@Slf4j
+public class EventReplayDriver {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0)
+            throw new IllegalArgumentException("Usage: EventReplayDriver <capture> [<speed>|max] [<mapping journal directory>]");
+        final Path capture = Paths.get(args[0]);
+        final double speed = args.length < 2 || "max".equals(args[1]) ? 0 : Double.parseDouble(args[1]);
+        final MappingService mappingService = new MappingService();
+        if (args.length > 2)
+            mappingService.openJournal(EventReplayer.REPLAY_ORCHESTRATOR_ID, Paths.get(args[2]), Integer.MAX_VALUE);
+
+        final List<CapturedEvent> events = EventCapture.read(capture);
+        log.info("Replaying " + events.size() + " events of " + capture + " at " + (speed > 0 ? speed + "x" : "maximum speed"));
+        log.info(new EventReplayer(mappingService).replay(events, speed).toString());
+    }
+}
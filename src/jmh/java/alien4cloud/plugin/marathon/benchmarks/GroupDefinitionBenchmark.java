@@ -0,0 +1,148 @@
+package alien4cloud.plugin.marathon.benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.alien4cloud.tosca.model.definitions.ImplementationArtifact;
+import org.alien4cloud.tosca.model.definitions.Interface;
+import org.alien4cloud.tosca.model.definitions.Operation;
+import org.alien4cloud.tosca.model.definitions.ScalarPropertyValue;
+import org.alien4cloud.tosca.model.templates.Capability;
+import org.alien4cloud.tosca.model.templates.NodeTemplate;
+import org.alien4cloud.tosca.model.templates.ScalingPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.CharStreams;
+import com.google.gson.stream.JsonWriter;
+
+import alien4cloud.model.deployment.Deployment;
+import alien4cloud.paas.model.PaaSNodeTemplate;
+import alien4cloud.paas.model.PaaSTopology;
+import alien4cloud.paas.model.PaaSTopologyDeploymentContext;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import alien4cloud.plugin.marathon.service.BuilderService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import mesosphere.marathon.client.model.v2.Group;
+
+/**
+ * Cost of building the Marathon group definition of synthetic topologies of increasing size, with and without the app definitions already
+ * cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupDefinitionBenchmark {
+
+    /**
+     * Number of nodes of the topology.
+     */
+    @Param({ "10", "100", "1000" })
+    private int nodes;
+
+    /**
+     * Whether the definitions of the apps are already cached, as when a topology is redeployed.
+     */
+    @Param({ "true", "false" })
+    private boolean cached;
+
+    private MappingService mappingService;
+
+    private BuilderService builderService;
+
+    private PaaSTopologyDeploymentContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mappingService = new MappingService();
+        builderService = new BuilderService(mappingService, new MetricsRegistry());
+        context = deploymentContext(nodes);
+    }
+
+    @Setup(Level.Invocation)
+    public void resetCache() {
+        if (!cached)
+            builderService = new BuilderService(mappingService, new MetricsRegistry());
+    }
+
+    @Benchmark
+    public Group buildGroupDefinition() {
+        final Group group = builderService.buildGroupDefinition(context);
+        builderService.forgetGroup(group.getId());
+        return group;
+    }
+
+    @Benchmark
+    public Writer writeGroupDefinition() throws IOException {
+        final Writer writer = CharStreams.nullWriter();
+        builderService.writeGroupDefinition(context, new JsonWriter(writer));
+        builderService.forgetGroup(context.getDeploymentPaaSId().toLowerCase());
+        return writer;
+    }
+
+    private static PaaSTopologyDeploymentContext deploymentContext(int nodeCount) {
+        final List<PaaSNodeTemplate> nodes = Lists.newArrayList();
+        final Map<String, PaaSNodeTemplate> allNodes = Maps.newHashMap();
+        for (int i = 0; i < nodeCount; i++) {
+            final NodeTemplate template = nodeTemplate(i);
+            final PaaSNodeTemplate paaSNodeTemplate = new PaaSNodeTemplate("Node-" + i, template);
+            paaSNodeTemplate.setInterfaces(template.getInterfaces());
+            paaSNodeTemplate.setScalingPolicy(new ScalingPolicy(1, 1, 1));
+            nodes.add(paaSNodeTemplate);
+            allNodes.put(paaSNodeTemplate.getId(), paaSNodeTemplate);
+        }
+
+        final PaaSTopologyDeploymentContext context = new PaaSTopologyDeploymentContext();
+        final Deployment deployment = new Deployment();
+        deployment.setId("alien-deployment");
+        deployment.setOrchestratorDeploymentId("Benchmark-Deployment");
+        context.setDeployment(deployment);
+        final PaaSTopology topology = new PaaSTopology();
+        topology.setNonNatives(nodes);
+        topology.setVolumes(Lists.newArrayList());
+        topology.setAllNodes(allNodes);
+        context.setPaaSTopology(topology);
+        return context;
+    }
+
+    private static NodeTemplate nodeTemplate(int index) {
+        final NodeTemplate template = new NodeTemplate();
+        template.setCapabilities(Maps.newHashMap());
+        template.setInterfaces(Maps.newHashMap());
+        template.setProperties(Maps.newHashMap());
+        template.getProperties().put("cpu_share", new ScalarPropertyValue("0.5"));
+        template.getProperties().put("mem_share", new ScalarPropertyValue("128.0"));
+
+        final Capability endpoint = new Capability();
+        endpoint.setType("alien.capabilities.endpoint.Docker");
+        endpoint.setProperties(Maps.newHashMap());
+        endpoint.getProperties().put("port", new ScalarPropertyValue(String.valueOf(8000 + index % 1000)));
+        template.getCapabilities().put("endpoint", endpoint);
+
+        final Interface standard = new Interface();
+        final Operation create = new Operation();
+        create.setImplementationArtifact(new ImplementationArtifact("image-" + index % 10));
+        standard.setOperations(Maps.newHashMap());
+        standard.getOperations().put("create", create);
+        template.getInterfaces().put("tosca.interfaces.node.lifecycle.Standard", standard);
+        return template;
+    }
+}
@@ -0,0 +1,92 @@
+package alien4cloud.plugin.marathon.benchmarks;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.plugin.marathon.service.DeploymentFixtures;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.mapping.AlienDeploymentMapping;
+import alien4cloud.plugin.marathon.service.model.mapping.AppMapping;
+
+/**
+ * Throughput of the mapping lookups made by the event threads while deployments are registered and removed concurrently.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingContentionBenchmark {
+
+    private static final int GROUPS = 1000;
+
+    private MappingService mappingService;
+
+    private String[] mappedAppIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mappingService = new MappingService();
+        mappingService.init("benchmark", DeploymentFixtures.deploymentContexts(GROUPS, 10));
+        mappingService.awaitResolutions();
+        for (int group = 0; group < GROUPS; group++) {
+            mappingService.registerDeploymentInfo("marathon-deployment-" + group, "alien-deployment-" + group, DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        }
+
+        mappedAppIds = new String[1024];
+        for (int i = 0; i < mappedAppIds.length; i++) {
+            mappedAppIds[i] = "/group-" + (i % GROUPS) + "/app-" + (i % 10);
+        }
+    }
+
+    /**
+     * Per thread cursor, so that the threads do not contend on it.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = 0;
+
+        int next() {
+            return next++;
+        }
+    }
+
+    @Benchmark
+    @Group("lookups")
+    @GroupThreads(3)
+    public AppMapping resolveApp(Cursor cursor) {
+        return mappingService.resolveApp(mappedAppIds[cursor.next() & 1023]);
+    }
+
+    @Benchmark
+    @Group("lookups")
+    @GroupThreads(3)
+    public Optional<AlienDeploymentMapping> getDeploymentInfo(Cursor cursor) {
+        return mappingService.getAlienDeploymentInfo("marathon-deployment-" + (cursor.next() % GROUPS));
+    }
+
+    @Benchmark
+    @Group("lookups")
+    @GroupThreads(1)
+    public void registerAndRemoveDeployment(Cursor cursor) {
+        final String marathonDeploymentId = "transient-deployment-" + (cursor.next() & 1023);
+        mappingService.registerDeploymentInfo(marathonDeploymentId, "alien-deployment-0", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        mappingService.removeAlienDeploymentInfo(marathonDeploymentId);
+    }
+}
@@ -3,20 +3,31 @@ package alien4cloud.plugin.marathon;
 import static com.google.common.collect.Maps.newHashMap;
 import static java.util.Collections.emptyMap;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import com.google.common.base.Functions;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import alien4cloud.orchestrators.plugin.ILocationConfiguratorPlugin;
 import alien4cloud.orchestrators.plugin.IOrchestratorPlugin;
@@ -32,11 +43,32 @@ import alien4cloud.paas.model.InstanceStatus;
 import alien4cloud.paas.model.NodeOperationExecRequest;
 import alien4cloud.paas.model.PaaSDeploymentContext;
 import alien4cloud.paas.model.PaaSTopologyDeploymentContext;
+import alien4cloud.plugin.marathon.autoscaling.Autoscaler;
+import alien4cloud.plugin.marathon.autoscaling.AutoscalingPolicy;
+import alien4cloud.plugin.marathon.autoscaling.MesosAgentStatisticsProvider;
+import alien4cloud.plugin.marathon.client.MarathonApiMetrics;
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
 import alien4cloud.plugin.marathon.config.MarathonConfig;
+import alien4cloud.plugin.marathon.config.ServiceDiscoveryMode;
+import alien4cloud.plugin.marathon.deployment.AppScaler;
+import alien4cloud.plugin.marathon.deployment.DeploymentBatcher;
+import alien4cloud.plugin.marathon.deployment.DeploymentScheduler;
+import alien4cloud.plugin.marathon.deployment.DeploymentScheduler.Priority;
+import alien4cloud.plugin.marathon.deployment.ForcedUndeployer;
+import alien4cloud.plugin.marathon.deployment.MappingReaper;
+import alien4cloud.plugin.marathon.deployment.PodDeployer;
 import alien4cloud.plugin.marathon.location.MarathonLocationConfiguratorFactory;
+import alien4cloud.plugin.marathon.metrics.DeploymentTrace;
+import alien4cloud.plugin.marathon.metrics.MetricsEndpoint;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import alien4cloud.plugin.marathon.metrics.PrometheusExporter;
+import alien4cloud.plugin.marathon.reconciliation.Reconciler;
 import alien4cloud.plugin.marathon.service.BuilderService;
 import alien4cloud.plugin.marathon.service.EventService;
 import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.builders.PodBuilder;
+import alien4cloud.plugin.marathon.service.model.marathon.Pod;
+import alien4cloud.plugin.marathon.service.model.marathon.PodStatus;
 import alien4cloud.utils.MapUtil;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -45,7 +77,6 @@ import mesosphere.marathon.client.Marathon;
 import mesosphere.marathon.client.MarathonClient;
 import mesosphere.marathon.client.model.v2.App;
 import mesosphere.marathon.client.model.v2.Deployment;
-import mesosphere.marathon.client.model.v2.GetAppResponse;
 import mesosphere.marathon.client.model.v2.Group;
 import mesosphere.marathon.client.model.v2.HealthCheckResult;
 import mesosphere.marathon.client.model.v2.Result;
@@ -63,59 +94,320 @@ import mesosphere.marathon.client.utils.MarathonException;
 @Scope("prototype")
 public class MarathonOrchestrator implements IOrchestratorPlugin<MarathonConfig> {
 
+    /**
+     * Number of mapping changes after which the mappings journal is compacted.
+     */
+    private static final int MAPPING_JOURNAL_SNAPSHOT_THRESHOLD = 10000;
+
+    /**
+     * Time, in milliseconds, a long poll waits for more events once an event is queued, so that bursts of events are delivered together.
+     */
+    private static final long EVENT_POLL_LINGER = 20;
+
     private final @NonNull BuilderService builderService;
 
     private final @NonNull MappingService mappingService;
 
     private final @NonNull EventService eventService;
 
+    private final @NonNull MetricsRegistry metricsRegistry;
+
     private @NonNull MarathonLocationConfiguratorFactory marathonLocationConfiguratorFactory;
 
     private Marathon marathonClient;
 
+    private MarathonRestClient marathonRestClient;
+
+    private DeploymentBatcher deploymentBatcher;
+
+    private PodDeployer podDeployer;
+
+    private DeploymentScheduler deploymentScheduler;
+
+    private ForcedUndeployer forcedUndeployer;
+
+    private AppScaler appScaler;
+
+    private Autoscaler autoscaler;
+
+    private MappingReaper mappingReaper;
+
+    private Reconciler reconciler;
+
+    private MetricsEndpoint metricsEndpoint;
+
+    private Consumer<String> deploymentCompletionListener;
+
+    private String orchestratorId;
+
+    /**
+     * Time, in milliseconds, Alien's polls for events are held until events are queued. 0 disables long polling.
+     */
+    private int eventPollTimeout;
+
+    /**
+     * How the containers of this location reach the endpoints they are connected to.
+     */
+    private ServiceDiscoveryMode serviceDiscoveryMode;
+
+    /**
+     * Time the orchestrator started to be configured at, to report its startup time.
+     */
+    private long startupBegin;
+
     @Override
     public void setConfiguration(String orchestratorId, MarathonConfig marathonConfig) throws PluginConfigurationException {
+        this.orchestratorId = orchestratorId;
+        startupBegin = System.currentTimeMillis();
+        eventPollTimeout = marathonConfig.getEventPollTimeout();
+        serviceDiscoveryMode = marathonConfig.getServiceDiscoveryMode();
+        eventService.setEventRateCap(orchestratorId, marathonConfig.getEventRateCap());
         // Set up the connexion to Marathon
-        marathonClient = MarathonClient.getInstance(marathonConfig.getMarathonURL());
-        eventService.subscribe(marathonConfig.getMarathonURL().concat("/v2"));
+        // Every call to Marathon is measured
+        final MarathonApiMetrics apiMetrics = new MarathonApiMetrics(metricsRegistry, orchestratorId);
+        marathonClient = apiMetrics.instrument(MarathonClient.getInstance(marathonConfig.getMarathonURL()));
+        marathonRestClient = new MarathonRestClient(marathonConfig.getMarathonURL(), apiMetrics);
+        podDeployer = new PodDeployer(mappingService, marathonRestClient, eventService);
+        if (marathonConfig.getMetricsPort() > 0) {
+            try {
+                metricsEndpoint = MetricsEndpoint.acquire(marathonConfig.getMetricsPort(), new PrometheusExporter(metricsRegistry));
+            } catch (IOException e) {
+                log.error("Unable to serve the metrics on port " + marathonConfig.getMetricsPort(), e);
+            }
+        }
+        deploymentScheduler = new DeploymentScheduler(orchestratorId, marathonConfig.getMaxConcurrentDeployments(), metricsRegistry);
+        if (marathonConfig.getDeploymentBatchWindow() > 0)
+            deploymentBatcher = new DeploymentBatcher(marathonConfig.getDeploymentBatchWindow(), builderService, serviceDiscoveryMode, mappingService,
+                    marathonRestClient, deploymentScheduler, eventService);
+        appScaler = new AppScaler(marathonClient, marathonRestClient, deploymentScheduler, marathonConfig.getScaleCoalescingWindow());
+        if (marathonConfig.getAutoscalingPeriod() > 0)
+            autoscaler = new Autoscaler(new MesosAgentStatisticsProvider(marathonClient, marathonConfig.getMesosAgentPort()), appScaler, eventService,
+                    TimeUnit.SECONDS.toMillis(marathonConfig.getAutoscalingPeriod()));
+        if (marathonConfig.isForceUndeploy())
+            forcedUndeployer = new ForcedUndeployer(marathonClient, marathonRestClient, mappingService, deploymentScheduler, eventService);
+        if (!marathonConfig.getMappingJournalDirectory().isEmpty()) {
+            // Restore the mappings, including the deployments in flight, before listening to events. Each location has a journal of its own
+            try {
+                mappingService.openJournal(orchestratorId, Paths.get(marathonConfig.getMappingJournalDirectory()).resolve(orchestratorId),
+                        MAPPING_JOURNAL_SNAPSHOT_THRESHOLD);
+            } catch (IOException e) {
+                log.error("Unable to open the Marathon mappings journal, mappings will not be persisted", e);
+            }
+        }
+        mappingReaper = new MappingReaper(orchestratorId, marathonClient, marathonRestClient, mappingService, metricsRegistry,
+                TimeUnit.MINUTES.toMillis(marathonConfig.getMappingTtl()), marathonConfig.getMaxMappings());
+        // Release the scheduler's slots as Marathon deployments end
+        deploymentCompletionListener = deploymentScheduler::onDeploymentCompleted;
+        eventService.addDeploymentCompletionListener(deploymentCompletionListener);
+        if (marathonConfig.getReconciliationPeriod() > 0)
+            reconciler = new Reconciler(orchestratorId, marathonClient, marathonRestClient, mappingService, eventService, this::getInstanceInformation,
+                    deploymentCompletionListener, TimeUnit.SECONDS.toMillis(marathonConfig.getReconciliationPeriod()),
+                    marathonConfig.getReconciliationBudget());
+        if (!marathonConfig.getEventSpillDirectory().isEmpty()) {
+            try {
+                // Each location spills its events to a directory of its own
+                eventService.enableSpill(orchestratorId, Paths.get(marathonConfig.getEventSpillDirectory()).resolve(orchestratorId),
+                        marathonConfig.getEventSpillThreshold());
+            } catch (IOException e) {
+                log.error("Unable to spill the monitor events, they will be held in memory", e);
+            }
+        }
+        if (!marathonConfig.getEventCaptureDirectory().isEmpty()) {
+            try {
+                eventService.startCapture(orchestratorId, Paths.get(marathonConfig.getEventCaptureDirectory()).resolve(orchestratorId));
+            } catch (IOException e) {
+                log.error("Unable to capture the Marathon events", e);
+            }
+        }
+        eventService.subscribe(orchestratorId, marathonConfig.getMarathonURL().concat("/v2"));
     }
 
     @Override
     public void init(Map<String, PaaSTopologyDeploymentContext> activeDeployments) {
-        // Init mapping
-        mappingService.init(activeDeployments.values());
+        // Init mapping: the apps of the groups are resolved in the background
+        mappingService.init(orchestratorId, activeDeployments.values());
+        activeDeployments.values().forEach(this::watchAutoscaledApps);
+
+        final long startupTime = System.currentTimeMillis() - startupBegin;
+        metricsRegistry.gauge(MetricsRegistry.id("marathon_startup_milliseconds", "orchestrator", orchestratorId), () -> startupTime);
+        log.info("Marathon orchestrator " + orchestratorId + " started in " + startupTime + " ms with " + activeDeployments.size() + " active deployments");
+    }
+
+    /**
+     * Hand the apps of the nodes which have an autoscaling policy to the autoscaler.
+     */
+    private void watchAutoscaledApps(PaaSTopologyDeploymentContext paaSTopologyDeploymentContext) {
+        if (autoscaler == null)
+            return;
+        final String groupID = paaSTopologyDeploymentContext.getDeploymentPaaSId().toLowerCase();
+        paaSTopologyDeploymentContext.getPaaSTopology().getNonNatives()
+                .forEach(paaSNodeTemplate -> AutoscalingPolicy.fromProperties(paaSNodeTemplate.getTemplate().getProperties())
+                        .ifPresent(policy -> autoscaler.watch(paaSTopologyDeploymentContext.getDeploymentId(),
+                                "/" + groupID + "/" + paaSNodeTemplate.getId().toLowerCase(), paaSNodeTemplate.getId(), policy)));
+    }
+
+    /**
+     * Release the resources held by the orchestrator.
+     */
+    public void destroy() {
+        if (reconciler != null)
+            reconciler.shutdown();
+        if (deploymentBatcher != null)
+            deploymentBatcher.shutdown();
+        if (autoscaler != null)
+            autoscaler.shutdown();
+        if (appScaler != null)
+            appScaler.shutdown();
+        if (deploymentScheduler != null) {
+            eventService.removeDeploymentCompletionListener(deploymentCompletionListener);
+            deploymentScheduler.shutdown();
+        }
+        if (mappingReaper != null)
+            mappingReaper.shutdown();
+        if (marathonRestClient != null)
+            marathonRestClient.close();
+        metricsRegistry.removeGauge(MetricsRegistry.id("marathon_startup_milliseconds", "orchestrator", orchestratorId));
+        if (metricsEndpoint != null)
+            metricsEndpoint.release();
+        eventService.releaseParkedPolls(orchestratorId);
+        eventService.disableSpill(orchestratorId);
+        eventService.unsubscribe(orchestratorId);
+        mappingService.forgetInitialization(orchestratorId);
+        mappingService.closeJournal(orchestratorId);
     }
 
     @Override
     public void deploy(PaaSTopologyDeploymentContext paaSTopologyDeploymentContext, IPaaSCallback<?> iPaaSCallback) {
-        Group group = builderService.buildGroupDefinition(paaSTopologyDeploymentContext);
-        try {
-            Result result = marathonClient.createGroup(group);
-            // Store the deployment ID to handle event mapping
-            mappingService.registerDeploymentInfo(result.getDeploymentId(), paaSTopologyDeploymentContext.getDeploymentId(),
-                    DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
-        } catch (MarathonException e) {
-            log.error("Failure while deploying - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+        mappingService.claimDeployment(orchestratorId, paaSTopologyDeploymentContext.getDeploymentId());
+        // Traced until Marathon reports the end of the deployment
+        final DeploymentTrace trace = mappingService.startDeploymentTrace(paaSTopologyDeploymentContext.getDeploymentId());
+        watchAutoscaledApps(paaSTopologyDeploymentContext);
+        if (deploymentBatcher != null) {
+            // Submitted with the other deployments requested in the same batch window
+            deploymentBatcher.submit(paaSTopologyDeploymentContext);
+            return;
         }
+        deploymentScheduler.schedule(Priority.DEPLOY, paaSTopologyDeploymentContext.getDeploymentId(), () -> {
+            trace.endPhase(DeploymentTrace.QUEUE);
+            final String deploymentId = paaSTopologyDeploymentContext.getDeploymentId();
+            final ListMultimap<String, Pod> pods = ArrayListMultimap.create();
+            final Result result;
+            try {
+                // The group definition is streamed to Marathon as it is built
+                result = marathonRestClient.createGroup(jsonWriter -> {
+                    final long buildStart = System.nanoTime();
+                    builderService.writeGroupDefinition(paaSTopologyDeploymentContext, serviceDiscoveryMode, jsonWriter, pod -> {
+                        pods.put(deploymentId, pod);
+                        podDeployer.register(deploymentId, pod);
+                    });
+                    trace.recordNested(DeploymentTrace.BUILD, buildStart);
+                });
+            } catch (MarathonException e) {
+                log.error("Failure while deploying - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+                podDeployer.discard(pods);
+                eventService.publishDeploymentFailure(deploymentId, "Marathon rejected the deployment - Got error code [" + e.getStatus()
+                        + "] with message: " + e.getMessage());
+                return Optional.empty();
+            } catch (RuntimeException e) {
+                // Eg. a definition which cannot be built
+                log.error("Failure while deploying", e);
+                podDeployer.discard(pods);
+                eventService.publishDeploymentFailure(deploymentId, "The deployment could not be submitted to Marathon: " + e.getMessage());
+                return Optional.empty();
+            }
+            builderService.groupDeployed(paaSTopologyDeploymentContext);
+            // Store the deployment ID to handle event mapping
+            mappingService.registerDeploymentInfo(result.getDeploymentId(), deploymentId, DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+            // Pods are created in the group once it exists, each one is a Marathon deployment of its own
+            podDeployer.create(pods);
+            trace.endPhase(DeploymentTrace.SUBMIT);
+            return Optional.ofNullable(result.getDeploymentId());
+        }, () -> log.info("Deployment " + paaSTopologyDeploymentContext.getDeploymentId() + " cancelled before reaching Marathon"));
         // No callback
     }
 
     @Override
     public void update(PaaSTopologyDeploymentContext deploymentContext, IPaaSCallback<?> callback) {
-        return;
+        if (builderService.isUnchanged(deploymentContext)) {
+            // Nothing to update
+            callback.onSuccess(null);
+            return;
+        }
+        mappingService.claimDeployment(orchestratorId, deploymentContext.getDeploymentId());
+        if (autoscaler != null)
+            autoscaler.unwatch(deploymentContext.getDeploymentId());
+        watchAutoscaledApps(deploymentContext);
+        deploymentScheduler.schedule(Priority.DEPLOY, deploymentContext.getDeploymentId(), () -> {
+            final String deploymentId = deploymentContext.getDeploymentId();
+            final String groupID = deploymentContext.getDeploymentPaaSId().toLowerCase();
+            // Pods are not part of the group definition: the ones the topology no longer holds are deleted apart
+            final Set<String> previousPodNames = mappedPodNames(groupID);
+            final ListMultimap<String, Pod> pods = ArrayListMultimap.create();
+            final Result result;
+            try {
+                // Marathon replaces the apps of the group with the ones of the topology, and removes the others
+                result = marathonRestClient.updateGroup(groupID,
+                        jsonWriter -> builderService.writeGroupDefinition(deploymentContext, serviceDiscoveryMode, jsonWriter, pod -> {
+                            pods.put(deploymentId, pod);
+                            podDeployer.register(deploymentId, pod);
+                        }), false);
+            } catch (MarathonException e) {
+                log.error("Failure while updating - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+                podDeployer.discard(pods);
+                callback.onFailure(e);
+                return Optional.empty();
+            } catch (RuntimeException e) {
+                // Eg. a definition which cannot be built
+                log.error("Failure while updating", e);
+                podDeployer.discard(pods);
+                callback.onFailure(e);
+                return Optional.empty();
+            }
+            builderService.groupDeployed(deploymentContext);
+            mappingService.registerDeploymentInfo(result.getDeploymentId(), deploymentId, DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+            podDeployer.update(pods);
+            previousPodNames.removeAll(mappedPodNames(groupID));
+            podDeployer.delete(deploymentId, previousPodNames.stream().map(podName -> "/" + groupID + "/" + podName).collect(Collectors.toList()));
+            callback.onSuccess(null);
+            return Optional.ofNullable(result.getDeploymentId());
+        }, () -> callback.onFailure(new CancellationException("Update cancelled")));
     }
 
     @Override
     public void undeploy(PaaSDeploymentContext paaSDeploymentContext, IPaaSCallback<?> iPaaSCallback) {
-        // TODO: Add force option in Marathon-client to always force undeployment - better : cancel running deployment
-        try {
-            Result result = marathonClient.deleteGroup(paaSDeploymentContext.getDeploymentPaaSId().toLowerCase());
-            mappingService.registerDeploymentInfo(result.getDeploymentId(), paaSDeploymentContext.getDeploymentId(), DeploymentStatus.UNDEPLOYMENT_IN_PROGRESS);
-        } catch (MarathonException e) {
-            log.error("Failure while undeploying - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
-            iPaaSCallback.onFailure(e);
-        }
-        iPaaSCallback.onSuccess(null);
+        mappingService.claimDeployment(orchestratorId, paaSDeploymentContext.getDeploymentId());
+        if (autoscaler != null)
+            autoscaler.unwatch(paaSDeploymentContext.getDeploymentId());
+        // Work still waiting for Marathon is now pointless
+        if (deploymentBatcher != null)
+            deploymentBatcher.cancel(paaSDeploymentContext.getDeploymentId());
+        // Scaling would recreate apps of the group being deleted
+        appScaler.cancel(paaSDeploymentContext.getDeploymentId());
+        deploymentScheduler.cancel(paaSDeploymentContext.getDeploymentId());
+
+        final DeploymentScheduler.DeploymentWork undeployment = () -> {
+            try {
+                final String groupId = paaSDeploymentContext.getDeploymentPaaSId().toLowerCase();
+                // Forced undeployment cancels the deployments running on the group rather than waiting for them
+                Result result = forcedUndeployer != null ? forcedUndeployer.undeploy(groupId) : marathonClient.deleteGroup(groupId);
+                builderService.forgetGroup(groupId);
+                // The end of the undeployment is reported by Marathon's event stream
+                mappingService.registerDeploymentInfo(result.getDeploymentId(), paaSDeploymentContext.getDeploymentId(),
+                        DeploymentStatus.UNDEPLOYMENT_IN_PROGRESS);
+                iPaaSCallback.onSuccess(null);
+                return Optional.ofNullable(result.getDeploymentId());
+            } catch (MarathonException e) {
+                log.error("Failure while undeploying - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+                iPaaSCallback.onFailure(e);
+                return Optional.empty();
+            }
+        };
+        if (forcedUndeployer != null)
+            // The deployments it cancels hold the slots until they end: waiting for a slot would wait for them
+            deploymentScheduler.runNow(paaSDeploymentContext.getDeploymentId(), undeployment);
+        else
+            deploymentScheduler.schedule(Priority.UNDEPLOY, paaSDeploymentContext.getDeploymentId(), undeployment,
+                    () -> iPaaSCallback.onFailure(new CancellationException("Undeployment cancelled")));
     }
 
     @Override
@@ -150,21 +442,11 @@ public class MarathonOrchestrator implements IOrchestratorPlugin<MarathonConfig>
     private DeploymentStatus getTopologyDeploymentStatus(Group group) throws RuntimeException {
         try {
             return marathonClient.getDeployments().stream() // Retrieve deployments
-                    .filter(deployment ->
                     // If any deployment affects an app from the group, then it means the group is undertaking deployment
-                    deployment.getAffectedApps().stream().anyMatch(s -> s.matches("^//" + group.getId() + "//"))).findFirst().map(this::getRunningDeploymentStatus) // A
-                                                                                                                                                                    // deployment
-                                                                                                                                                                    // matches
-                                                                                                                                                                    // -
-                                                                                                                                                                    // check
-                                                                                                                                                                    // if
-                                                                                                                                                                    // it
-                                                                                                                                                                    // is
-                                                                                                                                                                    // deploying
-                                                                                                                                                                    // or
-                                                                                                                                                                    // undeploying
-                    .orElseGet(() -> getDeployedTopologyStatus(group));// No deployment but the group exists in Marathon => the topology is deployed, check
-                                                                       // states
+                    .filter(deployment -> ForcedUndeployer.affectsGroup(deployment, group.getId())).findFirst()
+                    .map(this::getRunningDeploymentStatus) // A deployment matches - check if it is deploying or undeploying
+                    .orElseGet(() -> getDeployedTopologyStatus(group)); // No deployment but the group exists in Marathon => the topology is
+                                                                        // deployed, check states
         } catch (MarathonException e) {
             log.error("Failure reaching for deployments - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
             throw new RuntimeException(e);
@@ -182,13 +464,39 @@ public class MarathonOrchestrator implements IOrchestratorPlugin<MarathonConfig>
         action.getType().matches("^StopApplication$")) ? DeploymentStatus.DEPLOYMENT_IN_PROGRESS : DeploymentStatus.UNDEPLOYMENT_IN_PROGRESS;
     }
 
+    /**
+     * @return the names of the pods of a group, found from the group's mapping.
+     */
+    private Set<String> mappedPodNames(String groupID) {
+        return mappingService.getMarathonAppMapping(groupID)
+                .map(groupMapping -> groupMapping.getAppIdToNodeTemplateIdMap().entrySet().stream()
+                        .map(appMapping -> PodBuilder.podName(appMapping.getKey(), appMapping.getValue())).filter(Optional::isPresent).map(Optional::get)
+                        .collect(Collectors.toSet()))
+                .orElse(Sets.newHashSet());
+    }
+
     /**
      * Given a deployed topology, get its status.
      * 
      * @param group The Marathon application group.
-     * @return <code>DeploymentStatus.DEPLOYED</code> if all apps are healthy or <code>DeploymentStatus.FAILURE</code> if not.
+     * @return <code>DeploymentStatus.DEPLOYED</code> if all apps and pods are healthy or <code>DeploymentStatus.FAILURE</code> if not.
      */
     private DeploymentStatus getDeployedTopologyStatus(Group group) throws RuntimeException {
+        // Pods are not listed in the group returned by the Marathon client: they are found from the group's mapping
+        final String groupID = group.getId().startsWith("/") ? group.getId().substring(1) : group.getId();
+        for (String podName : mappedPodNames(groupID)) {
+            try {
+                final String podStatus = marathonRestClient.getPodStatus(groupID + "/" + podName).getStatus();
+                if ("DEGRADED".equals(podStatus) || "TERMINAL".equals(podStatus))
+                    return DeploymentStatus.FAILURE;
+            } catch (MarathonException e) {
+                log.error("Failure reaching for pods - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+                if (e.getStatus() == 404)
+                    return DeploymentStatus.FAILURE; // The pod could not be created
+                throw new RuntimeException(e);
+            }
+        }
+
         // First, we retrieve the Apps info from marathon
         List<App> appInfo = Lists.newArrayList();
         group.getApps().forEach(app -> {
@@ -224,13 +532,24 @@ public class MarathonOrchestrator implements IOrchestratorPlugin<MarathonConfig>
             Map<String, InstanceInformation> instancesInfo = newHashMap();
             final String appID = groupID + "/" + paaSNodeTemplate.getId().toLowerCase();
 
+            final Optional<String> podName = PodBuilder.podName(paaSNodeTemplate);
             try {
-                // Marathon tasks are alien instances
-                final Collection<Task> tasks = marathonClient.getAppTasks(appID).getTasks();
-                tasks.forEach(task -> {
-                    final InstanceInformation instanceInformation = this.getInstanceInformation(task);
-                    instancesInfo.put(task.getId(), instanceInformation);
-                });
+                if (podName.isPresent()) {
+                    // Each instance of a pod runs a task of each of its containers
+                    final PodStatus podStatus = marathonRestClient.getPodStatus(groupID + "/" + podName.get());
+                    Optional.ofNullable(podStatus.getInstances()).orElse(Collections.emptyList())
+                            .forEach(instance -> Optional.ofNullable(instance.getContainers()).orElse(Collections.emptyList()).stream()
+                                    .filter(container -> paaSNodeTemplate.getId().toLowerCase().equals(container.getName())).findFirst()
+                                    .ifPresent(container -> instancesInfo.put(instance.getId() + "." + container.getName(),
+                                            this.getInstanceInformation(instance, container))));
+                } else {
+                    // Marathon tasks are alien instances
+                    final Collection<Task> tasks = marathonClient.getAppTasks(appID).getTasks();
+                    tasks.forEach(task -> {
+                        final InstanceInformation instanceInformation = this.getInstanceInformation(task);
+                        instancesInfo.put(task.getId(), instanceInformation);
+                    });
+                }
 
                 topologyInfo.put(paaSNodeTemplate.getId(), instancesInfo);
             } catch (MarathonException e) {
@@ -263,30 +582,53 @@ public class MarathonOrchestrator implements IOrchestratorPlugin<MarathonConfig>
     }
 
     /**
-     * Get instance information, eg. status and runtime properties, from a Marathon Task.
+     * Get instance information, eg. status and runtime properties, from a Marathon Task. It only depends on the task.
      * 
      * @param task A Marathon Task
      * @return An InstanceInformation
      */
-    private InstanceInformation getInstanceInformation(Task task) {
+    InstanceInformation getInstanceInformation(Task task) {
+        // Retrieve health checks results - if no healthcheck then assume healthy
+        return getInstanceInformation(task.getHost(), Collections2.transform(task.getPorts(), Functions.toStringFunction()), task.getState(),
+                () -> Optional.ofNullable(task.getHealthCheckResults())
+                        .map(healthCheckResults -> healthCheckResults.stream().findFirst().map(HealthCheckResult::isAlive)
+                                .map(alive -> alive ? InstanceStatus.SUCCESS : InstanceStatus.FAILURE).orElse(InstanceStatus.PROCESSING))
+                        .orElse(InstanceStatus.SUCCESS));
+    }
+
+    /**
+     * Get instance information from the container of a Marathon pod instance.
+     *
+     * @param instance the pod instance
+     * @param container the status of the container in the instance
+     * @return An InstanceInformation
+     */
+    private InstanceInformation getInstanceInformation(PodStatus.Instance instance, PodStatus.ContainerStatus container) {
+        // The health of the container is a condition - if no healthcheck then assume healthy
+        return getInstanceInformation(instance.getAgentHostname(),
+                Optional.ofNullable(container.getEndpoints()).orElse(Collections.emptyList()).stream()
+                        .map(PodStatus.EndpointStatus::getAllocatedHostPort).filter(port -> port != null).map(String::valueOf).collect(Collectors.toList()),
+                container.getStatus(),
+                () -> Optional.ofNullable(container.getConditions()).orElse(Collections.emptyList()).stream()
+                        .filter(condition -> "healthy".equals(condition.getName())).findFirst()
+                        .map(condition -> Boolean.valueOf(condition.getValue()) ? InstanceStatus.SUCCESS : InstanceStatus.FAILURE)
+                        .orElse(InstanceStatus.SUCCESS));
+    }
+
+    private InstanceInformation getInstanceInformation(String host, Collection<String> ports, String mesosState, Supplier<InstanceStatus> runningStatus) {
         final Map<String, String> runtimeProps = newHashMap();
 
         // Outputs Marathon endpoints as host:port1,port2, ...
-        final Collection<String> ports = Collections2.transform(task.getPorts(), Functions.toStringFunction());
-        runtimeProps.put("endpoint", "http://".concat(task.getHost().concat(":").concat(String.join(",", ports))));
+        runtimeProps.put("endpoint", "http://".concat(String.valueOf(host).concat(":").concat(String.join(",", ports))));
 
         InstanceStatus instanceStatus;
         String state;
 
         // Leverage Mesos's TASK_STATUS - TODO: add Mesos 1.0 task states
-        switch (task.getState()) {
+        switch (String.valueOf(mesosState)) {
         case "TASK_RUNNING":
             state = "started";
-            // Retrieve health checks results - if no healthcheck then assume healthy
-            instanceStatus = Optional.ofNullable(task.getHealthCheckResults())
-                    .map(healthCheckResults -> healthCheckResults.stream().findFirst().map(HealthCheckResult::isAlive)
-                            .map(alive -> alive ? InstanceStatus.SUCCESS : InstanceStatus.FAILURE).orElse(InstanceStatus.PROCESSING))
-                    .orElse(InstanceStatus.SUCCESS);
+            instanceStatus = runningStatus.get();
             break;
         case "TASK_STARTING":
             state = "starting";
@@ -310,7 +652,11 @@ public class MarathonOrchestrator implements IOrchestratorPlugin<MarathonConfig>
 
     @Override
     public void getEventsSince(Date date, int i, IPaaSCallback<AbstractMonitorEvent[]> iPaaSCallback) {
-        iPaaSCallback.onSuccess(eventService.flushEvents());
+        if (eventPollTimeout > 0)
+            // Long poll: the callback is completed once events are queued
+            eventService.pollEvents(orchestratorId, i > 0 ? i : Integer.MAX_VALUE, eventPollTimeout, EVENT_POLL_LINGER, iPaaSCallback::onSuccess);
+        else
+            iPaaSCallback.onSuccess(eventService.flushEvents(orchestratorId));
     }
 
     @Override
@@ -340,24 +686,18 @@ public class MarathonOrchestrator implements IOrchestratorPlugin<MarathonConfig>
 
     @Override
     public void scale(PaaSDeploymentContext paaSDeploymentContext, String nodeTemplateId, int instances, IPaaSCallback<?> iPaaSCallback) {
-        String appId = paaSDeploymentContext.getDeploymentPaaSId().toLowerCase() + "/" + nodeTemplateId.toLowerCase();
-        try {
-            // retrieve the app
-            Optional.ofNullable(marathonClient.getApp(appId)).map(GetAppResponse::getApp).map(App::getInstances).ifPresent(currentInstances -> {
-                currentInstances += instances;
-                App app = new App();
-                app.setInstances(currentInstances);
-                try {
-                    marathonClient.updateApp(appId, app, true);
-                    iPaaSCallback.onSuccess(null);
-                } catch (MarathonException e) {
-                    log.error("Failure while scaling - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
-                    iPaaSCallback.onFailure(e);
-                }
-            });
-
-        } catch (MarathonException e) {
-            e.printStackTrace();
+        final String groupID = paaSDeploymentContext.getDeploymentPaaSId().toLowerCase();
+        final Optional<String> podName = mappingService.getMarathonAppMapping(groupID)
+                .flatMap(groupMapping -> groupMapping.getAppIdToNodeTemplateIdMap().entrySet().stream()
+                        .filter(appMapping -> nodeTemplateId.equals(appMapping.getValue())).map(Map.Entry::getKey).findFirst())
+                .flatMap(mappedAppId -> PodBuilder.podName(mappedAppId, nodeTemplateId));
+        // Merged with the other scale requests received for the app within the coalescing window
+        if (podName.isPresent()) {
+            // The containers of a pod are scaled along with it
+            log.info("Scaling pod " + podName.get() + " of node " + nodeTemplateId + ", with all its containers");
+            appScaler.scalePodBy(groupID + "/" + podName.get(), paaSDeploymentContext.getDeploymentId(), instances, iPaaSCallback);
+        } else {
+            appScaler.scaleBy(groupID + "/" + nodeTemplateId.toLowerCase(), paaSDeploymentContext.getDeploymentId(), instances, iPaaSCallback);
         }
     }
 
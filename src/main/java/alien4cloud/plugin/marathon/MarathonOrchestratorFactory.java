@@ -33,7 +33,7 @@ public class MarathonOrchestratorFactory implements IOrchestratorPluginFactory<M
 
     @Override
     public void destroy(MarathonOrchestrator marathonOrchestrator) {
-        // Garbage collected
+        marathonOrchestrator.destroy();
     }
 
     @Override
@@ -1,12 +1,20 @@
 package alien4cloud.plugin.marathon;
 
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+
 /**
  * @author Adrian Fraisse
  */
 @Configuration
 @ComponentScan(basePackages = "alien4cloud.plugin.marathon")
 public class PluginConfiguration {
+
+    @Bean
+    public MetricsRegistry metricsRegistry() {
+        return new MetricsRegistry();
+    }
 }
@@ -0,0 +1,32 @@
+package alien4cloud.plugin.marathon.autoscaling;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Resource usage of the running tasks of a Marathon app, averaged over its tasks.
+ */
+@Getter
+@AllArgsConstructor
+public class AppStatistics {
+
+    /**
+     * Number of instances of the app, as configured in Marathon. Tasks being staged or restarted are counted.
+     */
+    private final int instances;
+
+    /**
+     * Number of tasks the statistics were computed from.
+     */
+    private final int tasks;
+
+    /**
+     * CPU usage, as a ratio of the tasks' CPU limit.
+     */
+    private final double cpuUtilization;
+
+    /**
+     * Resident memory, as a ratio of the tasks' memory limit.
+     */
+    private final double memoryUtilization;
+}
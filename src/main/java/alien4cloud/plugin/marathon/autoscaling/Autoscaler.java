@@ -0,0 +1,152 @@
+package alien4cloud.plugin.marathon.autoscaling;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import alien4cloud.paas.IPaaSCallback;
+import alien4cloud.paas.model.PaaSMessageMonitorEvent;
+import alien4cloud.plugin.marathon.deployment.AppScaler;
+import alien4cloud.plugin.marathon.service.EventService;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Periodically scales the apps which have an autoscaling policy, according to their resource usage.
+ *
+ * Usage within the policy's tolerance does not trigger any scaling, and cooldowns after each scaling leave time for new instances to take load. Each
+ * decision is published as a monitor event of the app's deployment.
+ */
+@Slf4j
+public class Autoscaler {
+
+    /**
+     * Time, in milliseconds, the shutdown waits for the evaluation in progress before releasing the statistics provider.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10000;
+
+    private final TaskStatisticsProvider statisticsProvider;
+
+    private final AppScaler appScaler;
+
+    private final EventService eventService;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Watched apps, by app id.
+     */
+    private final Map<String, WatchedApp> watchedApps = Maps.newConcurrentMap();
+
+    public Autoscaler(TaskStatisticsProvider statisticsProvider, AppScaler appScaler, EventService eventService, long evaluationPeriod) {
+        this.statisticsProvider = statisticsProvider;
+        this.appScaler = appScaler;
+        this.eventService = eventService;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("marathon-autoscaler-%d").setDaemon(true).build());
+        this.executor.scheduleWithFixedDelay(this::evaluate, evaluationPeriod, evaluationPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start autoscaling an app.
+     *
+     * @param deploymentId the Alien deployment of the app
+     * @param appId the Marathon app id
+     * @param nodeTemplateId the node template of the app
+     * @param policy the node's autoscaling policy
+     */
+    public void watch(String deploymentId, String appId, String nodeTemplateId, AutoscalingPolicy policy) {
+        watchedApps.put(appId, new WatchedApp(deploymentId, nodeTemplateId, policy));
+    }
+
+    /**
+     * Stop autoscaling the apps of a deployment.
+     *
+     * @param deploymentId the Alien deployment
+     */
+    public void unwatch(String deploymentId) {
+        watchedApps.entrySet().removeIf(watched -> {
+            if (deploymentId.equals(watched.getValue().deploymentId)) {
+                statisticsProvider.forget(watched.getKey());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    void evaluate() {
+        watchedApps.forEach((appId, watched) -> {
+            try {
+                statisticsProvider.getStatistics(appId).ifPresent(statistics -> evaluate(appId, watched, statistics));
+            } catch (RuntimeException e) {
+                log.error("Failure while evaluating autoscaling of " + appId, e);
+            }
+        });
+    }
+
+    private void evaluate(String appId, WatchedApp watched, AppStatistics statistics) {
+        // Tasks being staged or crash-looping are not sampled, but they are instances of the app
+        final int currentInstances = statistics.getInstances();
+        final int desiredInstances = watched.policy.desiredInstances(currentInstances, statistics);
+        if (desiredInstances == currentInstances)
+            return;
+
+        final long now = System.currentTimeMillis();
+        final long cooldown = desiredInstances > currentInstances ? watched.policy.getScaleUpCooldown() : watched.policy.getScaleDownCooldown();
+        if (now - watched.lastScaling < cooldown)
+            return;
+        watched.lastScaling = now;
+
+        final String decision = String.format("Autoscaling %s from %d to %d instances (cpu %.0f%%, memory %.0f%%)", watched.nodeTemplateId, currentInstances,
+                desiredInstances, statistics.getCpuUtilization() * 100, statistics.getMemoryUtilization() * 100);
+        log.info(decision);
+        publish(watched.deploymentId, decision);
+
+        appScaler.scaleTo(appId, watched.deploymentId, desiredInstances, new IPaaSCallback<Object>() {
+            @Override
+            public void onSuccess(Object data) {
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                publish(watched.deploymentId, "Autoscaling of " + watched.nodeTemplateId + " failed: " + throwable.getMessage());
+            }
+        });
+    }
+
+    private void publish(String deploymentId, String message) {
+        final PaaSMessageMonitorEvent event = new PaaSMessageMonitorEvent();
+        event.setDeploymentId(deploymentId);
+        event.setDate(new Date().getTime());
+        event.setMessage(message);
+        eventService.publish(event);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            // The evaluation in progress still reaches the agents
+            executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        statisticsProvider.close();
+    }
+
+    private static class WatchedApp {
+        private final String deploymentId;
+        private final String nodeTemplateId;
+        private final AutoscalingPolicy policy;
+        /** Time of the last scaling, guarded by the evaluation thread */
+        private long lastScaling = 0;
+
+        private WatchedApp(String deploymentId, String nodeTemplateId, AutoscalingPolicy policy) {
+            this.deploymentId = deploymentId;
+            this.nodeTemplateId = nodeTemplateId;
+            this.policy = policy;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package alien4cloud.plugin.marathon.autoscaling;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.alien4cloud.tosca.model.definitions.AbstractPropertyValue;
+import org.alien4cloud.tosca.model.definitions.ScalarPropertyValue;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Autoscaling policy of a node template, as declared by the <code>autoscaling_*</code> properties of <code>alien.nodes.marathon.Container</code>.
+ */
+@Getter
+@AllArgsConstructor
+public class AutoscalingPolicy {
+
+    private final int minInstances;
+
+    private final int maxInstances;
+
+    /**
+     * Target CPU usage, as a ratio of the CPU share.
+     */
+    private final double targetCpu;
+
+    /**
+     * Target memory usage, as a ratio of the memory share.
+     */
+    private final double targetMemory;
+
+    /**
+     * Relative deviation from the targets tolerated before scaling.
+     */
+    private final double tolerance;
+
+    /**
+     * Minimum delay after a scaling before scaling up, in milliseconds.
+     */
+    private final long scaleUpCooldown;
+
+    /**
+     * Minimum delay after a scaling before scaling down, in milliseconds.
+     */
+    private final long scaleDownCooldown;
+
+    /**
+     * @param properties the properties of a node template
+     * @return the node's policy, if autoscaling is enabled for the node
+     */
+    public static Optional<AutoscalingPolicy> fromProperties(Map<String, AbstractPropertyValue> properties) {
+        if (properties == null || !Boolean.valueOf(scalar(properties, "autoscaling_enabled", "false")))
+            return Optional.empty();
+        return Optional.of(new AutoscalingPolicy(Integer.valueOf(scalar(properties, "autoscaling_min_instances", "1")),
+                Integer.valueOf(scalar(properties, "autoscaling_max_instances", "10")), Double.valueOf(scalar(properties, "autoscaling_target_cpu", "0.75")),
+                Double.valueOf(scalar(properties, "autoscaling_target_memory", "0.8")), Double.valueOf(scalar(properties, "autoscaling_tolerance", "0.1")),
+                TimeUnit.SECONDS.toMillis(Long.valueOf(scalar(properties, "autoscaling_scale_up_cooldown", "60"))),
+                TimeUnit.SECONDS.toMillis(Long.valueOf(scalar(properties, "autoscaling_scale_down_cooldown", "300")))));
+    }
+
+    private static String scalar(Map<String, AbstractPropertyValue> properties, String name, String defaultValue) {
+        return Optional.ofNullable(properties.get(name)).filter(ScalarPropertyValue.class::isInstance).map(value -> ((ScalarPropertyValue) value).getValue())
+                .orElse(defaultValue);
+    }
+
+    /**
+     * Compute the number of instances which brings the app's usage back to the targets.
+     *
+     * @param currentInstances the current number of instances
+     * @param statistics the app's resource usage
+     * @return the number of instances the app should have, which is the current one while usage is within tolerance
+     */
+    public int desiredInstances(int currentInstances, AppStatistics statistics) {
+        // The most constrained resource drives the scaling
+        final double usageRatio = Math.max(statistics.getCpuUtilization() / targetCpu, statistics.getMemoryUtilization() / targetMemory);
+        int desired = currentInstances;
+        if (usageRatio > 1 + tolerance || usageRatio < 1 - tolerance)
+            desired = (int) Math.ceil(currentInstances * usageRatio);
+        return Math.min(maxInstances, Math.max(minInstances, desired));
+    }
+}
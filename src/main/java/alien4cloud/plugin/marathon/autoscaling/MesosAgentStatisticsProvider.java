@@ -0,0 +1,144 @@
+package alien4cloud.plugin.marathon.autoscaling;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.MediaType;
+
+import org.glassfish.jersey.client.ClientProperties;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import lombok.extern.slf4j.Slf4j;
+import mesosphere.marathon.client.Marathon;
+import mesosphere.marathon.client.model.v2.Task;
+import mesosphere.marathon.client.utils.MarathonException;
+
+/**
+ * Computes the resource usage of Marathon apps from the <code>/monitor/statistics</code> endpoint of the Mesos agents running their tasks.
+ *
+ * CPU usage is derived from the CPU time consumed between two samples, hence the statistics of a task are only available from its second sample.
+ * Only running tasks are sampled, the number of instances is the one of the app's definition.
+ */
+@Slf4j
+public class MesosAgentStatisticsProvider implements TaskStatisticsProvider {
+
+    private final Marathon marathonClient;
+
+    private final int agentPort;
+
+    /**
+     * Time, in milliseconds, to connect to an agent and to wait for its statistics: an unreachable agent must not hold the autoscaling of the others.
+     */
+    private static final int CONNECT_TIMEOUT = 2000;
+
+    private static final int READ_TIMEOUT = 5000;
+
+    private final Client client = ClientBuilder.newBuilder().property(ClientProperties.CONNECT_TIMEOUT, CONNECT_TIMEOUT)
+            .property(ClientProperties.READ_TIMEOUT, READ_TIMEOUT).build();
+
+    private final JsonParser jsonParser = new JsonParser();
+
+    /**
+     * Last CPU sample of each running task, by app id then by Mesos executor id (which is the Marathon task id).
+     */
+    private final Map<String, Map<String, CpuSample>> lastCpuSamples = Maps.newConcurrentMap();
+
+    public MesosAgentStatisticsProvider(Marathon marathonClient, int agentPort) {
+        this.marathonClient = marathonClient;
+        this.agentPort = agentPort;
+    }
+
+    @Override
+    public Optional<AppStatistics> getStatistics(String appId) {
+        final int instances;
+        final Collection<Task> tasks;
+        try {
+            instances = marathonClient.getApp(appId).getApp().getInstances();
+            tasks = marathonClient.getAppTasks(appId).getTasks();
+        } catch (MarathonException e) {
+            log.error("Failure while reaching for tasks - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+            return Optional.empty();
+        }
+
+        final List<Double> cpuUtilizations = Lists.newArrayList();
+        final List<Double> memoryUtilizations = Lists.newArrayList();
+        final Map<String, CpuSample> previousSamples = lastCpuSamples.getOrDefault(appId, Maps.newHashMap());
+        // Samples of tasks which are gone are dropped
+        final Map<String, CpuSample> samples = Maps.newHashMap();
+        // One call per agent
+        tasks.stream().filter(task -> "TASK_RUNNING".equals(task.getState())).collect(Collectors.groupingBy(Task::getHost)).forEach((host, hostTasks) -> {
+            final Map<String, JsonObject> executorStatistics = getExecutorStatistics(host);
+            hostTasks.stream().filter(task -> executorStatistics.containsKey(task.getId())).forEach(task -> {
+                final JsonObject stats = executorStatistics.get(task.getId());
+                memoryUtilizations.add(stats.get("mem_rss_bytes").getAsDouble() / stats.get("mem_limit_bytes").getAsDouble());
+
+                final CpuSample sample = new CpuSample(stats.get("cpus_user_time_secs").getAsDouble() + stats.get("cpus_system_time_secs").getAsDouble(),
+                        stats.get("timestamp").getAsDouble());
+                samples.put(task.getId(), sample);
+                final CpuSample previous = previousSamples.get(task.getId());
+                if (previous != null && sample.timestamp > previous.timestamp)
+                    cpuUtilizations.add((sample.cpuTime - previous.cpuTime) / (sample.timestamp - previous.timestamp) / stats.get("cpus_limit").getAsDouble());
+            });
+        });
+        lastCpuSamples.put(appId, samples);
+
+        if (cpuUtilizations.isEmpty())
+            return Optional.empty();
+        return Optional.of(new AppStatistics(instances, memoryUtilizations.size(), average(cpuUtilizations), average(memoryUtilizations)));
+    }
+
+    @Override
+    public void forget(String appId) {
+        lastCpuSamples.remove(appId);
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    /**
+     * @return the statistics of the executors of a Mesos agent, by executor id.
+     */
+    private Map<String, JsonObject> getExecutorStatistics(String host) {
+        final Map<String, JsonObject> statistics = Maps.newHashMap();
+        try {
+            final String body = client.target("http://" + host + ":" + agentPort).path("monitor/statistics").request(MediaType.APPLICATION_JSON_TYPE)
+                    .get(String.class);
+            final JsonArray executors = jsonParser.parse(body).getAsJsonArray();
+            for (JsonElement executor : executors) {
+                statistics.put(executor.getAsJsonObject().get("executor_id").getAsString(), executor.getAsJsonObject().getAsJsonObject("statistics"));
+            }
+        } catch (ProcessingException | WebApplicationException e) {
+            log.warn("Unable to get statistics from Mesos agent " + host + ": " + e.getMessage());
+        }
+        return statistics;
+    }
+
+    private static double average(List<Double> values) {
+        return values.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+    }
+
+    private static class CpuSample {
+        private final double cpuTime;
+        private final double timestamp;
+
+        private CpuSample(double cpuTime, double timestamp) {
+            this.cpuTime = cpuTime;
+            this.timestamp = timestamp;
+        }
+    }
+}
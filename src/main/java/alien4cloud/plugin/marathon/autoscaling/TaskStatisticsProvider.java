@@ -0,0 +1,30 @@
+package alien4cloud.plugin.marathon.autoscaling;
+
+import java.util.Optional;
+
+/**
+ * Provides the resource usage of the tasks of Marathon apps.
+ */
+@FunctionalInterface
+public interface TaskStatisticsProvider {
+
+    /**
+     * @param appId the Marathon app id
+     * @return the resource usage of the app's tasks, or nothing if it cannot be computed yet
+     */
+    Optional<AppStatistics> getStatistics(String appId);
+
+    /**
+     * Release what is kept about an app which is no longer watched.
+     *
+     * @param appId the Marathon app id
+     */
+    default void forget(String appId) {
+    }
+
+    /**
+     * Release the resources of the provider, once the autoscaler stopped.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,85 @@
+package alien4cloud.plugin.marathon.client;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import alien4cloud.plugin.marathon.metrics.Histogram;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import lombok.RequiredArgsConstructor;
+import mesosphere.marathon.client.Marathon;
+import mesosphere.marathon.client.utils.MarathonException;
+
+/**
+ * Records the latency and the errors of the calls made to Marathon's API, by operation.
+ */
+@RequiredArgsConstructor
+public class MarathonApiMetrics {
+
+    private final MetricsRegistry metricsRegistry;
+
+    private final String orchestratorId;
+
+    /**
+     * A call to Marathon's API.
+     */
+    @FunctionalInterface
+    public interface MarathonCall<T> {
+        T call() throws MarathonException;
+    }
+
+    /**
+     * Make a call to Marathon, recording its latency and its failure if any.
+     *
+     * @param operation the name of the operation, eg. <code>createGroup</code>
+     * @param call the call
+     * @return the result of the call
+     * @throws MarathonException if the call fails
+     */
+    public <T> T record(String operation, MarathonCall<T> call) throws MarathonException {
+        final long start = System.nanoTime();
+        try {
+            return call.call();
+        } catch (MarathonException e) {
+            error(operation, String.valueOf(e.getStatus()));
+            throw e;
+        } catch (RuntimeException e) {
+            error(operation, "client");
+            throw e;
+        } finally {
+            latency(operation).observeSince(start);
+        }
+    }
+
+    /**
+     * Instrument the calls made through the Marathon java client.
+     *
+     * @param marathon the client
+     * @return a client recording the metrics of each call, by method name
+     */
+    public Marathon instrument(Marathon marathon) {
+        return (Marathon) Proxy.newProxyInstance(Marathon.class.getClassLoader(), new Class<?>[] { Marathon.class }, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class)
+                return method.invoke(marathon, args);
+            final long start = System.nanoTime();
+            try {
+                return method.invoke(marathon, args);
+            } catch (InvocationTargetException e) {
+                final Throwable cause = e.getCause();
+                error(method.getName(), cause instanceof MarathonException ? String.valueOf(((MarathonException) cause).getStatus()) : "client");
+                throw cause;
+            } finally {
+                latency(method.getName()).observeSince(start);
+            }
+        });
+    }
+
+    private Histogram latency(String operation) {
+        return metricsRegistry.histogram("marathon_api_request_milliseconds", Histogram.LATENCY_BUCKETS, "orchestrator", orchestratorId, "operation",
+                operation);
+    }
+
+    private void error(String operation, String status) {
+        metricsRegistry.counter(MetricsRegistry.id("marathon_api_errors_total", "orchestrator", orchestratorId, "operation", operation, "status", status))
+                .increment();
+    }
+}
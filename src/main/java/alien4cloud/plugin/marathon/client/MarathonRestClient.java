@@ -0,0 +1,298 @@
+package alien4cloud.plugin.marathon.client;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import alien4cloud.plugin.marathon.service.model.marathon.Pod;
+import alien4cloud.plugin.marathon.service.model.marathon.PodStatus;
+import lombok.extern.slf4j.Slf4j;
+import mesosphere.marathon.client.model.v2.Result;
+import mesosphere.marathon.client.utils.MarathonException;
+import mesosphere.marathon.client.utils.ModelUtils;
+
+/**
+ * Client for the Marathon REST API calls which are not covered by the Marathon java client.
+ * Request bodies are streamed to Marathon rather than serialized in memory first.
+ */
+@Slf4j
+public class MarathonRestClient {
+
+    /**
+     * Writes a JSON request body.
+     */
+    @FunctionalInterface
+    public interface JsonBodyWriter {
+        void write(JsonWriter jsonWriter) throws IOException;
+    }
+
+    private final Client client;
+
+    private final WebTarget apiTarget;
+
+    private final MarathonApiMetrics apiMetrics;
+
+    public MarathonRestClient(String marathonURL, MarathonApiMetrics apiMetrics) {
+        // Chunked transfer encoding: bodies are not buffered to compute their length
+        this.client = ClientBuilder.newBuilder().property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED).build();
+        this.apiTarget = client.target(marathonURL).path("v2");
+        this.apiMetrics = apiMetrics;
+    }
+
+    /**
+     * Create a group in Marathon.
+     *
+     * @param groupDefinition writes the group definition
+     * @return The result of the call, with the id of the Marathon deployment
+     * @throws MarathonException if Marathon rejects the group
+     */
+    public Result createGroup(JsonBodyWriter groupDefinition) throws MarathonException {
+        return call("createGroup", () -> apiTarget.path("groups").request(MediaType.APPLICATION_JSON_TYPE).post(jsonEntity(groupDefinition)),
+                Result.class);
+    }
+
+    /**
+     * Update a group in Marathon: its apps are replaced with the ones of the definition, the apps it no longer defines are removed.
+     *
+     * @param groupId the id of the group
+     * @param groupDefinition writes the new definition of the group
+     * @param force if true, the update is applied even if a deployment is running on the group
+     * @return The result of the call, with the id of the Marathon deployment
+     * @throws MarathonException if Marathon rejects the update
+     */
+    public Result updateGroup(String groupId, JsonBodyWriter groupDefinition, boolean force) throws MarathonException {
+        return call("updateGroup", () -> apiTarget.path("groups").path(groupId).queryParam("force", force).request(MediaType.APPLICATION_JSON_TYPE)
+                .put(jsonEntity(groupDefinition)), Result.class);
+    }
+
+    /**
+     * Create a pod in Marathon.
+     *
+     * @param pod the pod definition
+     * @return The id of the Marathon deployment of the pod
+     * @throws MarathonException if Marathon rejects the pod
+     */
+    public String createPod(Pod pod) throws MarathonException {
+        return apiMetrics.record("createPod", () -> podDeployment(() -> apiTarget.path("pods").request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(ModelUtils.GSON.toJson(pod), MediaType.APPLICATION_JSON_TYPE))));
+    }
+
+    /**
+     * @param podId the id of the pod
+     * @return the definition of the pod, as returned by Marathon
+     * @throws MarathonException if the pod cannot be found, or Marathon cannot be reached
+     */
+    public JsonObject getPod(String podId) throws MarathonException {
+        return call("getPod", () -> apiTarget.path("pods").path(podId).request(MediaType.APPLICATION_JSON_TYPE).get(), JsonObject.class);
+    }
+
+    /**
+     * Update the definition of a pod.
+     *
+     * @param podId the id of the pod
+     * @param pod the new definition of the pod
+     * @param force if true, the update is applied even if a deployment is running on the pod
+     * @return The id of the Marathon deployment of the pod
+     * @throws MarathonException if Marathon rejects the update
+     */
+    public String updatePod(String podId, JsonObject pod, boolean force) throws MarathonException {
+        return apiMetrics.record("updatePod", () -> podDeployment(() -> apiTarget.path("pods").path(podId).queryParam("force", force)
+                .request(MediaType.APPLICATION_JSON_TYPE).put(Entity.entity(ModelUtils.GSON.toJson(pod), MediaType.APPLICATION_JSON_TYPE))));
+    }
+
+    /**
+     * Delete a pod from Marathon.
+     *
+     * @param podId the id of the pod
+     * @param force if true, the pod is deleted even if a deployment is running on it
+     * @return The id of the Marathon deployment removing the pod
+     * @throws MarathonException if the pod cannot be deleted
+     */
+    public String deletePod(String podId, boolean force) throws MarathonException {
+        return apiMetrics.record("deletePod", () -> podDeployment(() -> apiTarget.path("pods").path(podId).queryParam("force", force)
+                .request(MediaType.APPLICATION_JSON_TYPE).delete()));
+    }
+
+    private String podDeployment(RequestSupplier request) throws MarathonException {
+        final Response response;
+        try {
+            response = request.get();
+        } catch (ProcessingException e) {
+            throw new MarathonException(503, e.getMessage());
+        }
+        try {
+            final String responseBody = response.readEntity(String.class);
+            if (response.getStatus() >= 400) {
+                throw new MarathonException(response.getStatus(), responseBody);
+            }
+            // The deployment is only given as a header
+            return response.getHeaderString("Marathon-Deployment-Id");
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * @param podId the id of the pod
+     * @return the status of the pod's instances
+     * @throws MarathonException if the pod cannot be found, or Marathon cannot be reached
+     */
+    public PodStatus getPodStatus(String podId) throws MarathonException {
+        return call("getPodStatus", () -> apiTarget.path("pods").path(podId + "::status").request(MediaType.APPLICATION_JSON_TYPE).get(),
+                PodStatus.class);
+    }
+
+    /**
+     * Update the root group of Marathon.
+     *
+     * @param groupUpdate writes the update of the root group
+     * @return The result of the call, with the id of the Marathon deployment
+     * @throws MarathonException if Marathon rejects the update
+     */
+    public Result updateRootGroup(JsonBodyWriter groupUpdate) throws MarathonException {
+        return call("updateRootGroup", () -> apiTarget.path("groups").request(MediaType.APPLICATION_JSON_TYPE).put(jsonEntity(groupUpdate)),
+                Result.class);
+    }
+
+    /**
+     * @return the ids of the groups right under Marathon's root group.
+     * @throws MarathonException if Marathon cannot be reached
+     */
+    public List<String> getTopLevelGroupIds() throws MarathonException {
+        final JsonObject rootGroup = call("getGroups",
+                () -> apiTarget.path("groups").queryParam("embed", "group.groups").request(MediaType.APPLICATION_JSON_TYPE).get(), JsonObject.class);
+        final List<String> groupIds = Lists.newArrayList();
+        Optional.ofNullable(rootGroup.getAsJsonArray("groups"))
+                .ifPresent(groups -> groups.forEach(group -> groupIds.add(group.getAsJsonObject().get("id").getAsString())));
+        return groupIds;
+    }
+
+    /**
+     * Digest the groups right under Marathon's root group in a single call. The digest of a group changes with its version, eg. any change to its
+     * definition, and with the task counts of its apps, eg. tasks launched, killed or turning unhealthy.
+     *
+     * @return the digest of each group, by group id without leading slash.
+     * @throws MarathonException if Marathon cannot be reached
+     */
+    public Map<String, String> getTopLevelGroupDigests() throws MarathonException {
+        final JsonObject rootGroup = call("getGroups", () -> apiTarget.path("groups").queryParam("embed", "group.groups", "group.apps", "group.apps.counts")
+                .request(MediaType.APPLICATION_JSON_TYPE).get(), JsonObject.class);
+        final Map<String, String> groupDigests = Maps.newHashMap();
+        Optional.ofNullable(rootGroup.getAsJsonArray("groups")).ifPresent(groups -> groups.forEach(group -> {
+            final String groupId = group.getAsJsonObject().get("id").getAsString();
+            final Hasher hasher = Hashing.murmur3_128().newHasher();
+            digest(group.getAsJsonObject(), hasher);
+            groupDigests.put(groupId.startsWith("/") ? groupId.substring(1) : groupId, hasher.hash().toString());
+        }));
+        return groupDigests;
+    }
+
+    private static void digest(JsonObject group, Hasher hasher) {
+        Optional.ofNullable(group.get("version")).ifPresent(version -> hasher.putString(version.getAsString(), StandardCharsets.UTF_8));
+        Optional.ofNullable(group.getAsJsonArray("apps")).ifPresent(apps -> apps.forEach(app -> {
+            final JsonObject appObject = app.getAsJsonObject();
+            hasher.putString(appObject.get("id").getAsString(), StandardCharsets.UTF_8);
+            for (String count : new String[] { "instances", "tasksStaged", "tasksRunning", "tasksHealthy", "tasksUnhealthy" })
+                Optional.ofNullable(appObject.get(count)).ifPresent(value -> hasher.putInt(value.getAsInt()));
+        }));
+        Optional.ofNullable(group.getAsJsonArray("groups")).ifPresent(groups -> groups.forEach(subGroup -> digest(subGroup.getAsJsonObject(), hasher)));
+    }
+
+    /**
+     * Cancel a running Marathon deployment.
+     *
+     * @param deploymentId the id of the Marathon deployment
+     * @param force if true, the deployment is stopped as is, without any rollback deployment
+     * @throws MarathonException if the deployment cannot be cancelled, eg. 404 if it already ended
+     */
+    public void cancelDeployment(String deploymentId, boolean force) throws MarathonException {
+        call("cancelDeployment",
+                () -> apiTarget.path("deployments").path(deploymentId).queryParam("force", force).request(MediaType.APPLICATION_JSON_TYPE).delete(),
+                Void.class);
+    }
+
+    /**
+     * Delete a group from Marathon.
+     *
+     * @param groupId the id of the group
+     * @param force if true, the group is deleted even if a deployment is running on it
+     * @return The result of the call, with the id of the Marathon deployment
+     * @throws MarathonException if the group cannot be deleted
+     */
+    public Result deleteGroup(String groupId, boolean force) throws MarathonException {
+        return call("deleteGroup",
+                () -> apiTarget.path("groups").path(groupId).queryParam("force", force).request(MediaType.APPLICATION_JSON_TYPE).delete(),
+                Result.class);
+    }
+
+    private Entity<StreamingOutput> jsonEntity(JsonBodyWriter bodyWriter) {
+        final StreamingOutput body = outputStream -> {
+            // Same settings as the serialization of the Marathon model, eg. HTML-safe escaping, so that bodies are byte for byte the same
+            final JsonWriter jsonWriter = ModelUtils.GSON.newJsonWriter(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)));
+            bodyWriter.write(jsonWriter);
+            jsonWriter.flush();
+        };
+        return Entity.entity(body, MediaType.APPLICATION_JSON_TYPE);
+    }
+
+    private <T> T call(String operation, RequestSupplier request, Class<T> responseType) throws MarathonException {
+        return apiMetrics.record(operation, () -> call(request, responseType));
+    }
+
+    private <T> T call(RequestSupplier request, Class<T> responseType) throws MarathonException {
+        final Response response;
+        try {
+            response = request.get();
+        } catch (ProcessingException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                // Failure while writing the request body
+                throw (RuntimeException) e.getCause();
+            }
+            throw new MarathonException(503, e.getMessage());
+        }
+        try {
+            final String responseBody = response.readEntity(String.class);
+            if (response.getStatus() >= 400) {
+                throw new MarathonException(response.getStatus(), responseBody);
+            }
+            return responseType == Void.class ? null : ModelUtils.GSON.fromJson(responseBody, responseType);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Release the connections of the client.
+     */
+    public void close() {
+        client.close();
+    }
+
+    @FunctionalInterface
+    private interface RequestSupplier {
+        Response get();
+    }
+}
@@ -1,7 +1,6 @@
 package alien4cloud.plugin.marathon.config;
 
 import alien4cloud.ui.form.annotation.FormProperties;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -12,9 +11,111 @@ import lombok.Setter;
 @Getter
 @Setter
 @NoArgsConstructor
-@AllArgsConstructor
-@FormProperties({ "marathonURL" })
+@FormProperties({ "marathonURL", "deploymentBatchWindow", "maxConcurrentDeployments", "forceUndeploy", "scaleCoalescingWindow", "autoscalingPeriod", "mesosAgentPort", "mappingJournalDirectory", "mappingTtl", "maxMappings", "reconciliationPeriod",
+        "reconciliationBudget", "serviceDiscoveryMode", "metricsPort", "eventCaptureDirectory", "eventPollTimeout", "eventRateCap", "eventSpillDirectory",
+        "eventSpillThreshold" })
 public class MarathonConfig {
 
     private String marathonURL;
+
+    /**
+     * Deployments requested within this time window, in milliseconds, are submitted to Marathon as a single deployment plan. 0 disables batching.
+     */
+    private int deploymentBatchWindow = 0;
+
+    /**
+     * Maximum number of Marathon deployments run concurrently by the plugin. Further deployments, undeployments and scalings wait for a slot, by
+     * priority. 0 means no limit.
+     */
+    private int maxConcurrentDeployments = 0;
+
+    /**
+     * Undeployments cancel the Marathon deployments running on the topology's group then force its deletion.
+     */
+    private boolean forceUndeploy = false;
+
+    /**
+     * Scale requests received for an app within this time window, in milliseconds, are merged into a single scaling.
+     */
+    private int scaleCoalescingWindow = 500;
+
+    /**
+     * Period, in seconds, of the evaluation of the autoscaling policies of the nodes. 0 disables autoscaling.
+     */
+    private int autoscalingPeriod = 0;
+
+    /**
+     * Port of the Mesos agents' HTTP API, which provides the tasks' resource usage to the autoscaler.
+     */
+    private int mesosAgentPort = 5051;
+
+    /**
+     * Directory of the journal persisting the Marathon to Alien mappings, so that the deployments in flight are still tracked after a restart. Each
+     * location journals into a sub-directory named after its orchestrator id. Empty disables the journal.
+     */
+    private String mappingJournalDirectory = "";
+
+    /**
+     * Time to live, in minutes, of the mappings of Marathon deployments and groups. Expired mappings are removed once Marathon confirms the
+     * deployment ended or the group is gone.
+     */
+    private int mappingTtl = 60;
+
+    /**
+     * Maximum number of Marathon deployments, and of groups, tracked. The oldest mappings are evicted beyond.
+     */
+    private int maxMappings = 10000;
+
+    /**
+     * Period, in seconds, of the reconciliation of the state known by Alien with Marathon's, which corrects missed events and changes made out of
+     * Alien. 0 disables the reconciliation.
+     */
+    private int reconciliationPeriod = 60;
+
+    /**
+     * Maximum number of apps whose tasks are fetched from Marathon in a reconciliation cycle.
+     */
+    private int reconciliationBudget = 100;
+
+    /**
+     * How connected containers reach each other: through the internal Marathon-LB, or through layer-4 virtual IPs which bypass the HAProxy hop.
+     */
+    private ServiceDiscoveryMode serviceDiscoveryMode = ServiceDiscoveryMode.MARATHON_LB;
+
+    /**
+     * Port on which the plugin's metrics are served at <code>/metrics</code>, in the Prometheus text format. 0 disables the endpoint.
+     */
+    private int metricsPort = 0;
+
+    /**
+     * Directory into which Marathon's raw event stream is captured, to be replayed offline by the <code>EventReplayer</code>. Each location captures
+     * its events into a subdirectory named after its orchestrator id. Empty disables the capture.
+     */
+    private String eventCaptureDirectory = "";
+
+    /**
+     * Time, in milliseconds, Alien's polls for events are held until events are queued. 0 returns the queued events right away.
+     */
+    private int eventPollTimeout = 0;
+
+    /**
+     * Maximum number of instance events per deployment and per minute. Beyond it, eg. for a crash-looping app, they are summarized to the latest
+     * state of each instance, so that the events of the other deployments are not delayed. 0 disables the cap.
+     */
+    private int eventRateCap = 0;
+
+    /**
+     * Directory to which the monitor events overflow while Alien does not poll them, eg. during its restart. Empty keeps all the events in memory.
+     * Each location spills to a sub-directory named after its orchestrator.
+     */
+    private String eventSpillDirectory = "";
+
+    /**
+     * Number of monitor events held in memory before overflowing to the spill directory.
+     */
+    private int eventSpillThreshold = 10000;
+
+    public MarathonConfig(String marathonURL) {
+        this.marathonURL = marathonURL;
+    }
 }
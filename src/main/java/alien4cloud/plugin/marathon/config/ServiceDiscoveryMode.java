@@ -0,0 +1,15 @@
+package alien4cloud.plugin.marathon.config;
+
+/**
+ * How the containers of a deployment reach the endpoints they are connected to.
+ */
+public enum ServiceDiscoveryMode {
+    /**
+     * Each endpoint gets a service port on the internal Marathon-LB, consumers connect through HAProxy.
+     */
+    MARATHON_LB,
+    /**
+     * Each endpoint gets a layer-4 virtual IP, consumers connect directly to the tasks through the Mesos agents' load balancer.
+     */
+    VIP
+}
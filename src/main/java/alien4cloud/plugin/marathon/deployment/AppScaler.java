@@ -0,0 +1,232 @@
+package alien4cloud.plugin.marathon.deployment;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonObject;
+
+import alien4cloud.paas.IPaaSCallback;
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
+import alien4cloud.plugin.marathon.deployment.DeploymentScheduler.Priority;
+import lombok.extern.slf4j.Slf4j;
+import mesosphere.marathon.client.Marathon;
+import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.model.v2.GetAppResponse;
+import mesosphere.marathon.client.utils.MarathonException;
+
+/**
+ * Scales Marathon apps and pods. The scale requests received for an app within a time window are merged into a single target number of instances,
+ * which is applied with a single forced update of the app - or not at all if the app already runs that many instances. Pods are scaled as a whole,
+ * with all their containers.
+ *
+ * Each request's callback is called exactly once, with the outcome of the update which covered it.
+ */
+@Slf4j
+public class AppScaler {
+
+    private final Marathon marathonClient;
+
+    private final MarathonRestClient marathonRestClient;
+
+    private final DeploymentScheduler deploymentScheduler;
+
+    private final long coalescingWindow;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Scale requests waiting for the end of their app's window, by app id. Guarded by <code>this</code>.
+     */
+    private final Map<String, PendingScale> pendingScales = Maps.newHashMap();
+
+    public AppScaler(Marathon marathonClient, MarathonRestClient marathonRestClient, DeploymentScheduler deploymentScheduler, long coalescingWindow) {
+        this.marathonClient = marathonClient;
+        this.marathonRestClient = marathonRestClient;
+        this.deploymentScheduler = deploymentScheduler;
+        this.coalescingWindow = coalescingWindow;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("marathon-app-scaler-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Add instances to, or remove instances from, an app.
+     *
+     * @param appId the Marathon app id
+     * @param deploymentId the Alien deployment of the app
+     * @param delta the number of instances to add, negative to remove instances
+     * @param callback called once the app is scaled
+     */
+    public void scaleBy(String appId, String deploymentId, int delta, IPaaSCallback<?> callback) {
+        request(appId, false, deploymentId, pending -> pending.delta += delta, callback);
+    }
+
+    /**
+     * Add instances to, or remove instances from, a pod.
+     *
+     * @param podId the Marathon pod id
+     * @param deploymentId the Alien deployment of the pod
+     * @param delta the number of instances to add, negative to remove instances
+     * @param callback called once the pod is scaled
+     */
+    public void scalePodBy(String podId, String deploymentId, int delta, IPaaSCallback<?> callback) {
+        request(podId, true, deploymentId, pending -> pending.delta += delta, callback);
+    }
+
+    /**
+     * Set the number of instances of an app.
+     *
+     * @param appId the Marathon app id
+     * @param deploymentId the Alien deployment of the app
+     * @param instances the number of instances
+     * @param callback called once the app is scaled
+     */
+    public void scaleTo(String appId, String deploymentId, int instances, IPaaSCallback<?> callback) {
+        request(appId, false, deploymentId, pending -> {
+            // Overrides the requests received so far
+            pending.instances = instances;
+            pending.delta = 0;
+        }, callback);
+    }
+
+    private synchronized void request(String appId, boolean pod, String deploymentId, Consumer<PendingScale> merge, IPaaSCallback<?> callback) {
+        PendingScale pending = pendingScales.get(appId);
+        if (pending == null) {
+            pending = new PendingScale(deploymentId, pod);
+            pendingScales.put(appId, pending);
+            executor.schedule(() -> flush(appId), coalescingWindow, TimeUnit.MILLISECONDS);
+        }
+        merge.accept(pending);
+        pending.callbacks.add(callback);
+    }
+
+    /**
+     * Fail the scale requests of an Alien deployment still waiting for the end of their window, eg. once it is undeployed.
+     *
+     * @param deploymentId the Alien deployment id
+     * @return the number of apps whose scaling was cancelled
+     */
+    public int cancel(String deploymentId) {
+        final List<PendingScale> cancelled = Lists.newArrayList();
+        synchronized (this) {
+            pendingScales.values().removeIf(pending -> deploymentId.equals(pending.deploymentId) && cancelled.add(pending));
+        }
+        // Notify outside of the lock
+        cancelled.forEach(pending -> pending.fail(new CancellationException("Scaling cancelled by the undeployment")));
+        return cancelled.size();
+    }
+
+    private void flush(String appId) {
+        final PendingScale pending;
+        synchronized (this) {
+            pending = pendingScales.remove(appId);
+        }
+        if (pending == null)
+            return;
+
+        final Priority priority = pending.instances == null && pending.delta < 0 ? Priority.SCALE_DOWN : Priority.SCALE_UP;
+        deploymentScheduler.schedule(priority, pending.deploymentId, () -> {
+            if (pending.pod)
+                return applyToPod(appId, pending);
+            apply(appId, pending);
+            // The Marathon client does not return the id of the scaling deployment: its slot is released right away
+            return Optional.empty();
+        }, () -> pending.fail(new CancellationException("Scaling of " + appId + " cancelled")));
+    }
+
+    private void apply(String appId, PendingScale pending) {
+        try {
+            final int currentInstances = Optional.ofNullable(marathonClient.getApp(appId)).map(GetAppResponse::getApp).map(App::getInstances)
+                    .orElseThrow(() -> new MarathonException(404, "App " + appId + " not found"));
+            final int targetInstances = Math.max(0, (pending.instances != null ? pending.instances : currentInstances) + pending.delta);
+
+            if (targetInstances != currentInstances) {
+                App app = new App();
+                app.setInstances(targetInstances);
+                marathonClient.updateApp(appId, app, true);
+            }
+            pending.succeed();
+        } catch (MarathonException e) {
+            log.error("Failure while scaling - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+            pending.fail(e);
+        } catch (RuntimeException e) {
+            log.error("Failure while scaling " + appId, e);
+            pending.fail(e);
+        }
+    }
+
+    /**
+     * @return the id of the Marathon deployment scaling the pod, if any
+     */
+    private Optional<String> applyToPod(String podId, PendingScale pending) {
+        try {
+            final JsonObject pod = marathonRestClient.getPod(podId);
+            final JsonObject scaling = Optional.ofNullable(pod.getAsJsonObject("scaling")).orElseGet(JsonObject::new);
+            final int currentInstances = scaling.has("instances") ? scaling.get("instances").getAsInt() : 1;
+            final int targetInstances = Math.max(0, (pending.instances != null ? pending.instances : currentInstances) + pending.delta);
+
+            Optional<String> marathonDeploymentId = Optional.empty();
+            if (targetInstances != currentInstances) {
+                // The definition is sent back as is, but for its version which is set by Marathon
+                pod.remove("version");
+                scaling.addProperty("kind", "fixed");
+                scaling.addProperty("instances", targetInstances);
+                pod.add("scaling", scaling);
+                marathonDeploymentId = Optional.ofNullable(marathonRestClient.updatePod(podId, pod, true));
+            }
+            pending.succeed();
+            return marathonDeploymentId;
+        } catch (MarathonException e) {
+            log.error("Failure while scaling pod - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+            pending.fail(e);
+        } catch (RuntimeException e) {
+            log.error("Failure while scaling pod " + podId, e);
+            pending.fail(e);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Fail pending requests and stop.
+     */
+    public void shutdown() {
+        final List<PendingScale> cancelled;
+        synchronized (this) {
+            cancelled = Lists.newArrayList(pendingScales.values());
+            pendingScales.clear();
+        }
+        cancelled.forEach(pending -> pending.fail(new CancellationException("Scaling cancelled")));
+        executor.shutdown();
+    }
+
+    private static class PendingScale {
+        private final String deploymentId;
+        /** Whether the scaled id is the one of a pod */
+        private final boolean pod;
+        /** Absolute number of instances requested, if any */
+        private Integer instances;
+        /** Instances to add to the absolute or current number of instances */
+        private int delta = 0;
+        private final List<IPaaSCallback<?>> callbacks = Lists.newArrayList();
+
+        private PendingScale(String deploymentId, boolean pod) {
+            this.deploymentId = deploymentId;
+            this.pod = pod;
+        }
+
+        private void succeed() {
+            callbacks.forEach(callback -> callback.onSuccess(null));
+        }
+
+        private void fail(Throwable throwable) {
+            callbacks.forEach(callback -> callback.onFailure(throwable));
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package alien4cloud.plugin.marathon.deployment;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.stream.JsonWriter;
+
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.paas.model.PaaSTopologyDeploymentContext;
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
+import alien4cloud.plugin.marathon.config.ServiceDiscoveryMode;
+import alien4cloud.plugin.marathon.metrics.DeploymentTrace;
+import alien4cloud.plugin.marathon.service.BuilderService;
+import alien4cloud.plugin.marathon.service.EventService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.marathon.Pod;
+import lombok.extern.slf4j.Slf4j;
+import mesosphere.marathon.client.model.v2.Result;
+import mesosphere.marathon.client.utils.MarathonException;
+
+/**
+ * Gathers the deployments requested within a time window and submits them to Marathon as a single update of the root group, hence as a single
+ * Marathon deployment plan.
+ *
+ * A root group update replaces the list of top-level groups: groups already deployed are listed by id only, which leaves them untouched. Note that a
+ * top-level group created by a third party between the listing and the update would be removed by the update, so batching is only enabled on demand.
+ *
+ * Marathon rejects a root group update as a whole: when a batch is rejected, its deployments are submitted again one by one, so that only the
+ * invalid ones fail.
+ */
+@Slf4j
+public class DeploymentBatcher {
+
+    private final long batchWindow;
+
+    private final BuilderService builderService;
+
+    private final ServiceDiscoveryMode serviceDiscoveryMode;
+
+    private final MappingService mappingService;
+
+    private final MarathonRestClient marathonRestClient;
+
+    private final DeploymentScheduler deploymentScheduler;
+
+    private final EventService eventService;
+
+    private final PodDeployer podDeployer;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Deployments waiting for the end of the current batch window. Guarded by <code>this</code>.
+     */
+    private final List<PaaSTopologyDeploymentContext> pendingDeployments = Lists.newArrayList();
+
+    /**
+     * Batches waiting for a slot of the scheduler, which lose the deployments cancelled meanwhile. Guarded by <code>this</code>.
+     */
+    private final List<List<PaaSTopologyDeploymentContext>> scheduledBatches = Lists.newArrayList();
+
+    public DeploymentBatcher(long batchWindow, BuilderService builderService, ServiceDiscoveryMode serviceDiscoveryMode, MappingService mappingService,
+            MarathonRestClient marathonRestClient, DeploymentScheduler deploymentScheduler, EventService eventService) {
+        this.batchWindow = batchWindow;
+        this.builderService = builderService;
+        this.serviceDiscoveryMode = serviceDiscoveryMode;
+        this.mappingService = mappingService;
+        this.marathonRestClient = marathonRestClient;
+        this.deploymentScheduler = deploymentScheduler;
+        this.eventService = eventService;
+        this.podDeployer = new PodDeployer(mappingService, marathonRestClient, eventService);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("marathon-deployment-batcher-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Add a deployment to the current batch. The batch is submitted at the end of the batch window opened by its first deployment.
+     *
+     * @param paaSTopologyDeploymentContext the deployment to submit
+     */
+    public synchronized void submit(PaaSTopologyDeploymentContext paaSTopologyDeploymentContext) {
+        pendingDeployments.add(paaSTopologyDeploymentContext);
+        if (pendingDeployments.size() == 1) {
+            executor.schedule(this::flush, batchWindow, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Remove a deployment from the current batch, or from a batch waiting for a slot of the scheduler.
+     *
+     * @param deploymentId the Alien deployment id
+     * @return true if the deployment was waiting in a batch
+     */
+    public synchronized boolean cancel(String deploymentId) {
+        boolean cancelled = pendingDeployments.removeIf(context -> deploymentId.equals(context.getDeploymentId()));
+        for (List<PaaSTopologyDeploymentContext> batch : scheduledBatches)
+            cancelled |= batch.removeIf(context -> deploymentId.equals(context.getDeploymentId()));
+        return cancelled;
+    }
+
+    private void flush() {
+        final List<PaaSTopologyDeploymentContext> batch;
+        synchronized (this) {
+            if (pendingDeployments.isEmpty())
+                return;
+            batch = Lists.newArrayList(pendingDeployments);
+            pendingDeployments.clear();
+            scheduledBatches.add(batch);
+        }
+
+        // The whole batch is a single Marathon deployment, hence it takes a single slot
+        deploymentScheduler.schedule(DeploymentScheduler.Priority.DEPLOY, batch.size() == 1 ? batch.get(0).getDeploymentId() : null,
+                () -> submitScheduled(batch), () -> {
+                    unschedule(batch);
+                    log.warn("Deployment of a batch of " + batch.size() + " deployments cancelled");
+                });
+    }
+
+    /**
+     * Submit the deployments of a batch which were not cancelled while it waited for a slot.
+     */
+    private Optional<String> submitScheduled(List<PaaSTopologyDeploymentContext> batch) {
+        final List<PaaSTopologyDeploymentContext> remainingBatch = unschedule(batch);
+        if (remainingBatch.isEmpty()) {
+            log.info("All the deployments of a batch were cancelled before reaching Marathon");
+            return Optional.empty();
+        }
+        return submit(remainingBatch);
+    }
+
+    /**
+     * @return the deployments of the batch which were not cancelled.
+     */
+    private synchronized List<PaaSTopologyDeploymentContext> unschedule(List<PaaSTopologyDeploymentContext> batch) {
+        // Batches are compared by identity: two emptied batches are equal
+        scheduledBatches.removeIf(scheduledBatch -> scheduledBatch == batch);
+        return Lists.newArrayList(batch);
+    }
+
+    private Optional<String> submit(List<PaaSTopologyDeploymentContext> batch) {
+        endPhase(batch, DeploymentTrace.QUEUE);
+        final ListMultimap<String, Pod> pods = ArrayListMultimap.create();
+        final Result result;
+        try {
+            // Nothing to batch for a single deployment: simply create the group
+            result = batch.size() == 1 ? createGroup(batch.get(0), pods) : updateRootGroup(batch, pods);
+        } catch (MarathonException e) {
+            log.error("Failure while deploying a batch of " + batch.size() + " deployments - Got error code [" + e.getStatus() + "] with message: "
+                    + e.getMessage());
+            podDeployer.discard(pods);
+            if (e.getStatus() >= 400 && e.getStatus() < 500)
+                // Rejected: find out which deployments are invalid
+                retryOneByOne(batch, "Marathon rejected the deployment: " + e.getMessage());
+            else
+                fail(batch, "Marathon could not be reached - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+            return Optional.empty();
+        } catch (RuntimeException e) {
+            // Eg. a definition which cannot be built
+            log.error("Failure while deploying a batch of " + batch.size() + " deployments", e);
+            podDeployer.discard(pods);
+            retryOneByOne(batch, "The deployment could not be submitted to Marathon: " + e.getMessage());
+            return Optional.empty();
+        }
+        batch.forEach(builderService::groupDeployed);
+        if (batch.size() == 1)
+            mappingService.registerDeploymentInfo(result.getDeploymentId(), batch.get(0).getDeploymentId(), DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        else
+            // Store the deployment ID to route the deployment's events to each Alien deployment
+            mappingService.registerBatchDeploymentInfo(result.getDeploymentId(),
+                    batch.stream().map(PaaSTopologyDeploymentContext::getDeploymentId).collect(Collectors.toList()), DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        podDeployer.create(pods);
+        endPhase(batch, DeploymentTrace.SUBMIT);
+        return Optional.ofNullable(result.getDeploymentId());
+    }
+
+    private Result createGroup(PaaSTopologyDeploymentContext deploymentContext, ListMultimap<String, Pod> pods) throws MarathonException {
+        return marathonRestClient.createGroup(jsonWriter -> writeGroupDefinition(deploymentContext, jsonWriter, pods));
+    }
+
+    private Result updateRootGroup(List<PaaSTopologyDeploymentContext> batch, ListMultimap<String, Pod> pods) throws MarathonException {
+        // Listed right before the update, whose body is streamed as it is built: a group created by a third party is only removed if it is created
+        // within this round trip
+        final Set<String> batchGroupIds = batch.stream().map(context -> "/" + context.getDeploymentPaaSId().toLowerCase()).collect(Collectors.toSet());
+        final List<String> untouchedGroupIds = marathonRestClient.getTopLevelGroupIds().stream().filter(groupId -> !batchGroupIds.contains(groupId))
+                .collect(Collectors.toList());
+
+        return marathonRestClient.updateRootGroup(jsonWriter -> {
+            jsonWriter.beginObject();
+            jsonWriter.name("groups").beginArray();
+            for (String groupId : untouchedGroupIds) {
+                // A group update without apps nor groups leaves the group as is
+                jsonWriter.beginObject().name("id").value(groupId).endObject();
+            }
+            for (PaaSTopologyDeploymentContext deploymentContext : batch) {
+                writeGroupDefinition(deploymentContext, jsonWriter, pods);
+            }
+            jsonWriter.endArray();
+            jsonWriter.endObject();
+        });
+    }
+
+    /**
+     * Submit each deployment of a failed batch on its own, so that only the invalid ones fail. A deployment which was already on its own fails.
+     */
+    private void retryOneByOne(List<PaaSTopologyDeploymentContext> batch, String failureMessage) {
+        if (batch.size() == 1) {
+            fail(batch, failureMessage);
+            return;
+        }
+        log.warn("Submitting the " + batch.size() + " deployments of the failed batch one by one");
+        batch.forEach(deploymentContext -> deploymentScheduler.schedule(DeploymentScheduler.Priority.DEPLOY, deploymentContext.getDeploymentId(),
+                () -> submit(Collections.singletonList(deploymentContext)),
+                () -> log.info("Deployment " + deploymentContext.getDeploymentId() + " cancelled before reaching Marathon")));
+    }
+
+    private void fail(List<PaaSTopologyDeploymentContext> batch, String message) {
+        batch.forEach(deploymentContext -> eventService.publishDeploymentFailure(deploymentContext.getDeploymentId(), message));
+    }
+
+    /**
+     * Write the group definition of a deployment, recording its build in the deployment's trace.
+     */
+    private void writeGroupDefinition(PaaSTopologyDeploymentContext deploymentContext, JsonWriter jsonWriter, ListMultimap<String, Pod> pods)
+            throws IOException {
+        final long buildStart = System.nanoTime();
+        builderService.writeGroupDefinition(deploymentContext, serviceDiscoveryMode, jsonWriter, pod -> {
+            pods.put(deploymentContext.getDeploymentId(), pod);
+            podDeployer.register(deploymentContext.getDeploymentId(), pod);
+        });
+        mappingService.getDeploymentTrace(deploymentContext.getDeploymentId()).ifPresent(trace -> trace.recordNested(DeploymentTrace.BUILD, buildStart));
+    }
+
+    private void endPhase(List<PaaSTopologyDeploymentContext> batch, String phase) {
+        batch.forEach(context -> mappingService.getDeploymentTrace(context.getDeploymentId()).ifPresent(trace -> trace.endPhase(phase)));
+    }
+
+    /**
+     * Submit pending deployments and stop.
+     */
+    public void shutdown() {
+        executor.execute(this::flush);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(batchWindow, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package alien4cloud.plugin.marathon.deployment;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Caps the number of Marathon deployments running concurrently for a Marathon cluster.
+ *
+ * Work waiting for a slot is ordered by priority - undeployments and scale downs first, as they free resources - then by submission order. A slot is
+ * held from the submission of the work until Marathon reports the end of the deployment it started. Without limit, work is run right away in the
+ * calling thread.
+ */
+@Slf4j
+public class DeploymentScheduler {
+
+    /**
+     * Priority of the work, highest first.
+     */
+    public enum Priority {
+        UNDEPLOY, SCALE_DOWN, SCALE_UP, DEPLOY
+    }
+
+    /**
+     * Work submitting a deployment to Marathon.
+     */
+    @FunctionalInterface
+    public interface DeploymentWork {
+        /**
+         * @return the id of the Marathon deployment started, if any.
+         */
+        Optional<String> run();
+    }
+
+    /**
+     * Slots are released after this delay if Marathon never reports the end of a deployment, eg. when events were missed.
+     */
+    private static final long DEPLOYMENT_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+
+    /**
+     * Ends of deployments reported before the work which started them returned are kept for this delay.
+     */
+    private static final long EARLY_COMPLETION_RETENTION = TimeUnit.MINUTES.toMillis(1);
+
+    private final String orchestratorId;
+
+    private final int maxConcurrentDeployments;
+
+    private final MetricsRegistry metricsRegistry;
+
+    private final ExecutorService workExecutor;
+
+    private final ScheduledExecutorService timeoutExecutor;
+
+    /**
+     * Pending work. Guarded by <code>this</code>.
+     */
+    private final PriorityQueue<PendingWork> pendingWork = new PriorityQueue<>();
+
+    /**
+     * Work running but which did not start a Marathon deployment yet. Guarded by <code>this</code>.
+     */
+    private int submittingWork = 0;
+
+    /**
+     * Work run right away which did not start a Marathon deployment yet. Guarded by <code>this</code>.
+     */
+    private int forcedWork = 0;
+
+    /**
+     * Running Marathon deployments with their start time. Guarded by <code>this</code>.
+     */
+    private final Map<String, Long> activeDeployments = Maps.newHashMap();
+
+    /**
+     * Marathon deployments which ended while work was submitting, with their end time: Marathon may report the end of a deployment before the
+     * request which started it returns. Guarded by <code>this</code>.
+     */
+    private final Map<String, Long> earlyCompletions = Maps.newHashMap();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder scheduledWork = new LongAdder();
+
+    private final LongAdder totalWaitTime = new LongAdder();
+
+    private volatile long lastWaitTime = 0;
+
+    public DeploymentScheduler(String orchestratorId, int maxConcurrentDeployments, MetricsRegistry metricsRegistry) {
+        this.orchestratorId = orchestratorId;
+        this.maxConcurrentDeployments = maxConcurrentDeployments;
+        this.metricsRegistry = metricsRegistry;
+        this.workExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("marathon-deployment-scheduler-%d").setDaemon(true).build());
+        this.timeoutExecutor = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("marathon-deployment-timeout-%d").setDaemon(true).build());
+        this.timeoutExecutor.scheduleWithFixedDelay(this::releaseTimedOutDeployments, 1, 1, TimeUnit.MINUTES);
+
+        metricsRegistry.gauge(metricId("marathon_scheduler_queue_length"), this::getQueueLength);
+        metricsRegistry.gauge(metricId("marathon_scheduler_active_deployments"), this::getActiveDeployments);
+        metricsRegistry.gauge(metricId("marathon_scheduler_last_wait_milliseconds"), this::getLastWaitTime);
+        metricsRegistry.gauge(metricId("marathon_scheduler_average_wait_milliseconds"), this::getAverageWaitTime);
+    }
+
+    /**
+     * Schedule work for an Alien deployment.
+     *
+     * @param priority the priority of the work
+     * @param deploymentId the Alien deployment the work applies to, used for cancellation
+     * @param work the work
+     * @param onCancel called if the work is cancelled before running
+     */
+    public void schedule(Priority priority, String deploymentId, DeploymentWork work, Runnable onCancel) {
+        if (maxConcurrentDeployments <= 0) {
+            // No limit
+            scheduledWork.increment();
+            lastWaitTime = 0;
+            work.run();
+            return;
+        }
+        synchronized (this) {
+            pendingWork.add(new PendingWork(priority, sequence.getAndIncrement(), deploymentId, work, onCancel, System.currentTimeMillis()));
+            dispatch();
+        }
+    }
+
+    /**
+     * Run work right away, whatever the free slots, eg. a forced undeployment which cancels the Marathon deployments holding the slots. The
+     * Marathon deployment it starts takes a slot.
+     *
+     * @param deploymentId the Alien deployment the work applies to
+     * @param work the work
+     */
+    public void runNow(String deploymentId, DeploymentWork work) {
+        scheduledWork.increment();
+        lastWaitTime = 0;
+        synchronized (this) {
+            forcedWork++;
+        }
+        workExecutor.execute(() -> {
+            Optional<String> marathonDeploymentId = Optional.empty();
+            try {
+                marathonDeploymentId = work.run();
+            } catch (RuntimeException e) {
+                log.error("Failure while running work for deployment " + deploymentId, e);
+            } finally {
+                synchronized (this) {
+                    forcedWork--;
+                    if (maxConcurrentDeployments > 0)
+                        marathonDeploymentId.ifPresent(this::started);
+                    clearEarlyCompletions();
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancel the pending work of an Alien deployment. Running work is not affected.
+     *
+     * @param deploymentId the Alien deployment
+     * @return the number of cancelled works
+     */
+    public int cancel(String deploymentId) {
+        final List<PendingWork> cancelled = Lists.newArrayList();
+        synchronized (this) {
+            Iterator<PendingWork> iterator = pendingWork.iterator();
+            while (iterator.hasNext()) {
+                PendingWork pending = iterator.next();
+                if (deploymentId.equals(pending.deploymentId)) {
+                    iterator.remove();
+                    cancelled.add(pending);
+                }
+            }
+        }
+        // Notify outside of the lock
+        cancelled.forEach(pending -> pending.onCancel.run());
+        return cancelled.size();
+    }
+
+    /**
+     * Release the slot of a Marathon deployment, if it was started by the scheduler.
+     *
+     * @param marathonDeploymentId the id of the Marathon deployment which ended
+     */
+    public synchronized void onDeploymentCompleted(String marathonDeploymentId) {
+        if (activeDeployments.remove(marathonDeploymentId) != null)
+            dispatch();
+        else if (submittingWork > 0 || forcedWork > 0)
+            // Possibly started by the work being submitted, whose request did not return yet
+            earlyCompletions.put(marathonDeploymentId, System.currentTimeMillis());
+    }
+
+    /**
+     * Hold a slot for a Marathon deployment started by work, unless it already ended. Must be called while holding the lock.
+     */
+    private void started(String marathonDeploymentId) {
+        if (earlyCompletions.remove(marathonDeploymentId) == null)
+            activeDeployments.put(marathonDeploymentId, System.currentTimeMillis());
+    }
+
+    /**
+     * Forget the early ends once no work is submitting, or after their retention. Must be called while holding the lock.
+     */
+    private void clearEarlyCompletions() {
+        if (submittingWork == 0 && forcedWork == 0)
+            earlyCompletions.clear();
+        else
+            earlyCompletions.values().removeIf(completion -> completion < System.currentTimeMillis() - EARLY_COMPLETION_RETENTION);
+    }
+
+    /**
+     * Run as much pending work as there are free slots. Must be called while holding the lock.
+     */
+    private void dispatch() {
+        while (!pendingWork.isEmpty() && submittingWork + activeDeployments.size() < maxConcurrentDeployments) {
+            final PendingWork next = pendingWork.poll();
+            submittingWork++;
+            workExecutor.execute(() -> run(next));
+        }
+    }
+
+    private void run(PendingWork pending) {
+        final long waitTime = System.currentTimeMillis() - pending.submissionTime;
+        scheduledWork.increment();
+        totalWaitTime.add(waitTime);
+        lastWaitTime = waitTime;
+
+        Optional<String> marathonDeploymentId = Optional.empty();
+        try {
+            marathonDeploymentId = pending.work.run();
+        } catch (RuntimeException e) {
+            log.error("Failure while running scheduled " + pending.priority + " work for deployment " + pending.deploymentId, e);
+        } finally {
+            synchronized (this) {
+                submittingWork--;
+                marathonDeploymentId.ifPresent(this::started);
+                clearEarlyCompletions();
+                dispatch();
+            }
+        }
+    }
+
+    private synchronized void releaseTimedOutDeployments() {
+        final long expiration = System.currentTimeMillis() - DEPLOYMENT_TIMEOUT;
+        if (activeDeployments.entrySet().removeIf(active -> {
+            if (active.getValue() < expiration) {
+                log.warn("No end received for Marathon deployment " + active.getKey() + ", releasing its slot");
+                return true;
+            }
+            return false;
+        }))
+            dispatch();
+    }
+
+    public synchronized int getQueueLength() {
+        return pendingWork.size();
+    }
+
+    public synchronized int getActiveDeployments() {
+        return submittingWork + activeDeployments.size();
+    }
+
+    /**
+     * @return the time waited by the last work, in milliseconds.
+     */
+    public long getLastWaitTime() {
+        return lastWaitTime;
+    }
+
+    /**
+     * @return the average time waited by work, in milliseconds.
+     */
+    public long getAverageWaitTime() {
+        final long count = scheduledWork.sum();
+        return count == 0 ? 0 : totalWaitTime.sum() / count;
+    }
+
+    /**
+     * Cancel pending work and stop.
+     */
+    public void shutdown() {
+        final List<PendingWork> cancelled;
+        synchronized (this) {
+            cancelled = Lists.newArrayList(pendingWork);
+            pendingWork.clear();
+        }
+        cancelled.forEach(pending -> pending.onCancel.run());
+        timeoutExecutor.shutdown();
+        workExecutor.shutdown();
+        metricsRegistry.removeGauge(metricId("marathon_scheduler_queue_length"));
+        metricsRegistry.removeGauge(metricId("marathon_scheduler_active_deployments"));
+        metricsRegistry.removeGauge(metricId("marathon_scheduler_last_wait_milliseconds"));
+        metricsRegistry.removeGauge(metricId("marathon_scheduler_average_wait_milliseconds"));
+    }
+
+    private String metricId(String name) {
+        return MetricsRegistry.id(name, "orchestrator", orchestratorId);
+    }
+
+    private static class PendingWork implements Comparable<PendingWork> {
+        private final Priority priority;
+        private final long sequence;
+        private final String deploymentId;
+        private final DeploymentWork work;
+        private final Runnable onCancel;
+        private final long submissionTime;
+
+        private PendingWork(Priority priority, long sequence, String deploymentId, DeploymentWork work, Runnable onCancel, long submissionTime) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.deploymentId = deploymentId;
+            this.work = work;
+            this.onCancel = onCancel;
+            this.submissionTime = submissionTime;
+        }
+
+        @Override
+        public int compareTo(PendingWork other) {
+            final int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package alien4cloud.plugin.marathon.deployment;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
+import alien4cloud.plugin.marathon.service.EventService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.mapping.AlienDeploymentMapping;
+import alien4cloud.plugin.marathon.service.model.mapping.MarathonAppsMapping;
+import lombok.extern.slf4j.Slf4j;
+import mesosphere.marathon.client.Marathon;
+import mesosphere.marathon.client.model.v2.Deployment;
+import mesosphere.marathon.client.model.v2.Result;
+import mesosphere.marathon.client.utils.MarathonException;
+
+/**
+ * Deletes a group from Marathon without waiting for the deployments running on it: they are cancelled first, then the group is force-deleted.
+ *
+ * A deployment spanning other groups, eg. a batch of several Alien deployments, is not cancelled for all of them: the forced deletion of the group
+ * overrides it, and the other Alien deployments it rolled out are reported as failed, so that they are redeployed.
+ */
+@Slf4j
+public class ForcedUndeployer {
+
+    private final Marathon marathonClient;
+
+    private final MarathonRestClient marathonRestClient;
+
+    private final MappingService mappingService;
+
+    private final DeploymentScheduler deploymentScheduler;
+
+    private final EventService eventService;
+
+    public ForcedUndeployer(Marathon marathonClient, MarathonRestClient marathonRestClient, MappingService mappingService,
+            DeploymentScheduler deploymentScheduler, EventService eventService) {
+        this.marathonClient = marathonClient;
+        this.marathonRestClient = marathonRestClient;
+        this.mappingService = mappingService;
+        this.deploymentScheduler = deploymentScheduler;
+        this.eventService = eventService;
+    }
+
+    /**
+     * Cancel the deployments running only on a group, then force its deletion. The Alien deployments rolled out along the group by an overridden
+     * deployment are reported as failed.
+     *
+     * @param groupId the id of the group
+     * @return The result of the deletion, with the id of the Marathon deployment removing the group
+     * @throws MarathonException if Marathon cannot be reached or refuses the deletion
+     */
+    public Result undeploy(String groupId) throws MarathonException {
+        final List<Deployment> runningDeployments = marathonClient.getDeployments().stream().filter(deployment -> affectsGroup(deployment, groupId))
+                .collect(Collectors.toList());
+        final List<String> runningDeploymentIds = runningDeployments.stream().filter(deployment -> !affectsOtherGroups(deployment, groupId))
+                .map(Deployment::getId).collect(Collectors.toList());
+        final List<String> sharedDeploymentIds = runningDeployments.stream().filter(deployment -> affectsOtherGroups(deployment, groupId))
+                .map(Deployment::getId).collect(Collectors.toList());
+        final Optional<String> undeployedDeploymentId = mappingService.getMarathonAppMapping(groupId.startsWith("/") ? groupId.substring(1) : groupId)
+                .map(MarathonAppsMapping::getAlienDeploymentId);
+
+        for (String deploymentId : runningDeploymentIds) {
+            try {
+                // Forced: the deployment is stopped as is, Marathon does not start a rollback deployment
+                marathonRestClient.cancelDeployment(deploymentId, true);
+            } catch (MarathonException e) {
+                if (e.getStatus() != 404) // 404: the deployment ended meanwhile
+                    throw e;
+            }
+            // A cancelled deployment neither succeeds nor fails: forget it and release its slot
+            mappingService.removeAlienDeploymentInfo(deploymentId);
+            deploymentScheduler.onDeploymentCompleted(deploymentId);
+            log.info("Cancelled Marathon deployment " + deploymentId + " running on group " + groupId);
+        }
+
+        final Result result = marathonRestClient.deleteGroup(groupId, true);
+        // Overridden by the forced deletion: the other Alien deployments it rolled out are left half-deployed
+        for (String deploymentId : sharedDeploymentIds) {
+            mappingService.getAlienDeploymentInfos(deploymentId).stream().map(AlienDeploymentMapping::getAlienDeploymentId)
+                    .filter(alienDeploymentId -> !undeployedDeploymentId.equals(Optional.of(alienDeploymentId))).distinct()
+                    .forEach(alienDeploymentId -> eventService.publishDeploymentFailure(alienDeploymentId, "Marathon deployment " + deploymentId
+                            + " was interrupted by the forced undeployment of group " + groupId + ", the deployment has to be redeployed"));
+            mappingService.removeAlienDeploymentInfo(deploymentId);
+            deploymentScheduler.onDeploymentCompleted(deploymentId);
+            log.info("Marathon deployment " + deploymentId + " running on group " + groupId + " and other groups was overridden by its deletion");
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the deployment affects an app outside of the group.
+     */
+    private static boolean affectsOtherGroups(Deployment deployment, String groupId) {
+        final String appIdPrefix = (groupId.startsWith("/") ? groupId : "/" + groupId) + "/";
+        return deployment.getAffectedApps() != null && deployment.getAffectedApps().stream().anyMatch(appId -> !appId.startsWith(appIdPrefix));
+    }
+
+    /**
+     * @param deployment a Marathon deployment
+     * @param groupId the id of a top-level group, with or without a leading slash
+     * @return true if the deployment affects an app of the group.
+     */
+    public static boolean affectsGroup(Deployment deployment, String groupId) {
+        final String appIdPrefix = (groupId.startsWith("/") ? groupId : "/" + groupId) + "/";
+        return deployment.getAffectedApps() != null && deployment.getAffectedApps().stream().anyMatch(appId -> appId.startsWith(appIdPrefix));
+    }
+}
@@ -0,0 +1,126 @@
+package alien4cloud.plugin.marathon.deployment;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import alien4cloud.plugin.marathon.service.MappingService;
+import lombok.extern.slf4j.Slf4j;
+import mesosphere.marathon.client.Marathon;
+import mesosphere.marathon.client.model.v2.Deployment;
+import mesosphere.marathon.client.utils.MarathonException;
+
+/**
+ * Bounds the Marathon to Alien mappings, which otherwise grow when the end of a deployment or an undeployment is missed.
+ *
+ * Deployment mappings older than the time to live, or the oldest ones beyond the maximum count, are removed once Marathon confirms the deployment is
+ * no longer running, group mappings once the group no longer exists: the mappings of live deployments are never evicted. Only the mappings of the
+ * orchestrator's deployments are reaped: the deployments and groups of the other locations are not listed by its Marathon.
+ */
+@Slf4j
+public class MappingReaper {
+
+    private final String orchestratorId;
+
+    private final Marathon marathonClient;
+
+    private final MarathonRestClient marathonRestClient;
+
+    private final MappingService mappingService;
+
+    private final MetricsRegistry metricsRegistry;
+
+    private final long timeToLive;
+
+    private final int maxMappings;
+
+    private final ScheduledExecutorService executor;
+
+    public MappingReaper(String orchestratorId, Marathon marathonClient, MarathonRestClient marathonRestClient, MappingService mappingService,
+            MetricsRegistry metricsRegistry, long timeToLive, int maxMappings) {
+        this.orchestratorId = orchestratorId;
+        this.marathonClient = marathonClient;
+        this.marathonRestClient = marathonRestClient;
+        this.mappingService = mappingService;
+        this.metricsRegistry = metricsRegistry;
+        this.timeToLive = timeToLive;
+        this.maxMappings = maxMappings;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("marathon-mapping-reaper-%d").setDaemon(true).build());
+        this.executor.scheduleWithFixedDelay(this::reap, 1, 1, TimeUnit.MINUTES);
+
+        // Counts of the orchestrator's own mappings
+        metricsRegistry.gauge(metricId("marathon_mappings_deployments"), () -> mappingService.getDeploymentMappingCount(orchestratorId));
+        metricsRegistry.gauge(metricId("marathon_mappings_groups"), () -> mappingService.getGroupMappingCount(orchestratorId));
+        metricsRegistry.gauge(metricId("marathon_mappings_apps"), () -> mappingService.getAppMappingCount(orchestratorId));
+        metricsRegistry.gauge(metricId("marathon_mappings_unresolved_groups"), () -> mappingService.getUnresolvedGroupCount(orchestratorId));
+    }
+
+    /**
+     * Remove the expired mappings.
+     */
+    void reap() {
+        try {
+            reapDeployments();
+            reapGroups();
+        } catch (RuntimeException e) {
+            log.error("Failure while expiring Marathon mappings", e);
+        }
+    }
+
+    private void reapDeployments() {
+        // Expired by age or beyond the maximum count, oldest first
+        final List<String> expired = mappingService.getExpiredDeploymentIds(orchestratorId, System.currentTimeMillis() - timeToLive, maxMappings);
+        if (expired.isEmpty())
+            return;
+        try {
+            final Set<String> running = marathonClient.getDeployments().stream().map(Deployment::getId).collect(Collectors.toSet());
+            expired.stream().filter(id -> !running.contains(id)).forEach(id -> {
+                log.info("Marathon deployment " + id + " is over, forgetting it");
+                mappingService.removeAlienDeploymentInfo(id);
+            });
+        } catch (MarathonException e) {
+            log.error("Failure while listing deployments - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+        }
+        if (mappingService.getDeploymentMappingCount(orchestratorId) > maxMappings)
+            log.warn("More than " + maxMappings + " Marathon deployments tracked, they are kept as long as Marathon runs them");
+    }
+
+    private void reapGroups() {
+        // Expired by age or beyond the maximum count, oldest first
+        final List<String> expired = mappingService.getExpiredGroupIds(orchestratorId, System.currentTimeMillis() - timeToLive, maxMappings);
+        if (expired.isEmpty())
+            return;
+        try {
+            final Set<String> existing = Sets.newHashSet();
+            marathonRestClient.getTopLevelGroupIds().forEach(id -> existing.add(id.startsWith("/") ? id.substring(1) : id));
+            expired.stream().filter(id -> !existing.contains(id)).forEach(id -> {
+                log.info("Marathon group " + id + " no longer exists, forgetting it");
+                mappingService.removeGroupMapping(id);
+            });
+        } catch (MarathonException e) {
+            log.error("Failure while listing groups - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+        }
+        if (mappingService.getGroupMappingCount(orchestratorId) > maxMappings)
+            log.warn("More than " + maxMappings + " Marathon groups tracked, they are kept as long as they exist in Marathon");
+    }
+
+    private String metricId(String name) {
+        return MetricsRegistry.id(name, "orchestrator", orchestratorId);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        metricsRegistry.removeGauge(metricId("marathon_mappings_deployments"));
+        metricsRegistry.removeGauge(metricId("marathon_mappings_groups"));
+        metricsRegistry.removeGauge(metricId("marathon_mappings_apps"));
+        metricsRegistry.removeGauge(metricId("marathon_mappings_unresolved_groups"));
+    }
+}
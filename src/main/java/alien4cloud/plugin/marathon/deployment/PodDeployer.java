@@ -0,0 +1,126 @@
+package alien4cloud.plugin.marathon.deployment;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import com.google.common.collect.ListMultimap;
+
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
+import alien4cloud.plugin.marathon.service.EventService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.marathon.Pod;
+import lombok.extern.slf4j.Slf4j;
+import mesosphere.marathon.client.utils.MarathonException;
+import mesosphere.marathon.client.utils.ModelUtils;
+
+/**
+ * Creates, updates and deletes the pods of a group once the group exists. Each pod is a Marathon deployment of its own.
+ *
+ * Each pod stands as a pending deployment of its Alien deployment as soon as it is built, ie. before the group is submitted: the deployment of the
+ * group cannot complete the Alien deployment before all its pods are created. When a pod cannot be created, the Alien deployment fails.
+ */
+@Slf4j
+public class PodDeployer {
+
+    private final MappingService mappingService;
+
+    private final MarathonRestClient marathonRestClient;
+
+    private final EventService eventService;
+
+    public PodDeployer(MappingService mappingService, MarathonRestClient marathonRestClient, EventService eventService) {
+        this.mappingService = mappingService;
+        this.marathonRestClient = marathonRestClient;
+        this.eventService = eventService;
+    }
+
+    /**
+     * Register a pod as a pending deployment of its Alien deployment, before its group is submitted.
+     *
+     * @param alienDeploymentId the id of the deployment in Alien
+     * @param pod the pod, built along with its group
+     */
+    public void register(String alienDeploymentId, Pod pod) {
+        mappingService.registerDeploymentInfo(MappingService.pendingPodDeploymentId(pod.getId()), alienDeploymentId,
+                DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+    }
+
+    /**
+     * Forget pods whose group was not submitted.
+     *
+     * @param pods the pods, by Alien deployment id
+     */
+    public void discard(ListMultimap<String, Pod> pods) {
+        pods.values().forEach(pod -> mappingService.removeAlienDeploymentInfo(MappingService.pendingPodDeploymentId(pod.getId())));
+    }
+
+    /**
+     * Create the pods of groups which were submitted. A deployment whose pod cannot be created fails, the pods of the other deployments are created.
+     *
+     * @param pods the pods, by Alien deployment id
+     */
+    public void create(ListMultimap<String, Pod> pods) {
+        for (String alienDeploymentId : pods.keySet()) {
+            submit(alienDeploymentId, pods.get(alienDeploymentId), "creating", marathonRestClient::createPod);
+        }
+    }
+
+    /**
+     * Update the pods of a group whose update was submitted. Marathon creates the pods which do not exist yet.
+     *
+     * @param pods the pods, by Alien deployment id
+     */
+    public void update(ListMultimap<String, Pod> pods) {
+        for (String alienDeploymentId : pods.keySet()) {
+            submit(alienDeploymentId, pods.get(alienDeploymentId), "updating",
+                    pod -> marathonRestClient.updatePod(pod.getId(), ModelUtils.GSON.toJsonTree(pod).getAsJsonObject(), false));
+        }
+    }
+
+    /**
+     * Delete pods which the topology of a deployment no longer holds.
+     *
+     * @param alienDeploymentId the id of the deployment in Alien
+     * @param podIds the ids of the pods
+     */
+    public void delete(String alienDeploymentId, Collection<String> podIds) {
+        for (String podId : podIds) {
+            try {
+                mappingService.registerDeploymentInfo(marathonRestClient.deletePod(podId, false), alienDeploymentId, DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+            } catch (MarathonException e) {
+                log.error("Failure while deleting pod " + podId + " - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+                eventService.publishDeploymentFailure(alienDeploymentId, "Marathon could not delete pod " + podId + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void submit(String alienDeploymentId, Collection<Pod> pods, String operation, PodSubmission submission) {
+        final Iterator<Pod> podIterator = pods.iterator();
+        while (podIterator.hasNext()) {
+            final Pod pod = podIterator.next();
+            final String pendingDeploymentId = MappingService.pendingPodDeploymentId(pod.getId());
+            try {
+                // Registered before the pending deployment is removed: the Alien deployment never looks complete in between
+                mappingService.registerDeploymentInfo(submission.submit(pod), alienDeploymentId, DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+                mappingService.removeAlienDeploymentInfo(pendingDeploymentId);
+            } catch (MarathonException e) {
+                log.error("Failure while " + operation + " pod " + pod.getId() + " - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+                mappingService.failDeploymentInfo(pendingDeploymentId);
+                // The other pods of the deployment are not submitted
+                podIterator.forEachRemaining(remaining -> mappingService.removeAlienDeploymentInfo(MappingService.pendingPodDeploymentId(remaining.getId())));
+                eventService.publishDeploymentFailure(alienDeploymentId, "Marathon rejected pod " + pod.getId() + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface PodSubmission {
+        /**
+         * @return the id of the Marathon deployment of the pod.
+         */
+        String submit(Pod pod) throws MarathonException;
+    }
+}
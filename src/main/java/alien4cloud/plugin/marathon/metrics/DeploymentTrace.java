@@ -0,0 +1,133 @@
+package alien4cloud.plugin.marathon.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import lombok.Getter;
+
+/**
+ * Times the phases of an Alien deployment, from the call of the orchestrator to the end of its Marathon deployments:
+ * <ul>
+ * <li>queue: waiting for the batch window and a deployment slot,</li>
+ * <li>build: building the Marathon definitions,</li>
+ * <li>submit: sending the definitions to Marathon, excluding their build,</li>
+ * <li>launch: Marathon's plan, until the last task of the deployment is running,</li>
+ * <li>health: waiting for the health and readiness checks of the running tasks.</li>
+ * </ul>
+ */
+public class DeploymentTrace {
+
+    public static final String QUEUE = "queue";
+    public static final String BUILD = "build";
+    public static final String SUBMIT = "submit";
+    public static final String LAUNCH = "launch";
+    public static final String HEALTH = "health";
+    public static final String TOTAL = "total";
+
+    @Getter
+    private final String alienDeploymentId;
+
+    /**
+     * Ids of the Marathon deployments of the Alien deployment, eg. of its group and of its pods.
+     */
+    @Getter
+    private final List<String> marathonDeploymentIds = new CopyOnWriteArrayList<>();
+
+    private final long start = System.nanoTime();
+
+    /**
+     * End of the last phase.
+     */
+    private long checkpoint = start;
+
+    /**
+     * Time spent in nested phases since the last checkpoint, deduced from the next phase.
+     */
+    private long nestedSinceCheckpoint = 0;
+
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
+    private volatile long lastTaskRunning = 0;
+
+    /**
+     * Duration of each phase in milliseconds, once finished.
+     */
+    private Map<String, Long> durations;
+
+    public DeploymentTrace(String alienDeploymentId) {
+        this.alienDeploymentId = alienDeploymentId;
+    }
+
+    /**
+     * End a phase, which started at the end of the previous one.
+     */
+    public synchronized void endPhase(String phase) {
+        final long now = System.nanoTime();
+        phaseNanos.merge(phase, now - checkpoint - nestedSinceCheckpoint, Long::sum);
+        checkpoint = now;
+        nestedSinceCheckpoint = 0;
+    }
+
+    /**
+     * Record a phase nested in the current one, eg. the build of a definition streamed to Marathon while it is submitted.
+     *
+     * @param phase the nested phase
+     * @param startNanos the start of the nested phase, from {@link System#nanoTime()}
+     */
+    public synchronized void recordNested(String phase, long startNanos) {
+        final long duration = System.nanoTime() - startNanos;
+        phaseNanos.merge(phase, duration, Long::sum);
+        nestedSinceCheckpoint += duration;
+    }
+
+    /**
+     * Notify that a task of the deployment is running.
+     */
+    public void taskRunning() {
+        lastTaskRunning = System.nanoTime();
+    }
+
+    /**
+     * Close the trace, once the Marathon deployments ended.
+     *
+     * @return the duration of each phase in milliseconds, and the total duration
+     */
+    public synchronized Map<String, Long> finish() {
+        if (durations != null)
+            return durations;
+        final long now = System.nanoTime();
+        if (lastTaskRunning > checkpoint) {
+            phaseNanos.put(LAUNCH, lastTaskRunning - checkpoint);
+            phaseNanos.put(HEALTH, now - lastTaskRunning);
+        } else {
+            // No task was seen running, eg. the deployment failed to launch any
+            phaseNanos.put(LAUNCH, now - checkpoint);
+        }
+        phaseNanos.put(TOTAL, now - start);
+        final Map<String, Long> finishedDurations = new LinkedHashMap<>();
+        phaseNanos.forEach((phase, nanos) -> finishedDurations.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        durations = Collections.unmodifiableMap(finishedDurations);
+        return durations;
+    }
+
+    /**
+     * @return the duration of each phase in milliseconds, once finished.
+     */
+    public synchronized Optional<Map<String, Long>> getDurations() {
+        return Optional.ofNullable(durations);
+    }
+
+    /**
+     * @return the phases and Marathon deployments, eg. <code>queue 12 ms, build 3 ms, ... (Marathon deployments: id1, id2)</code>
+     */
+    public String describe() {
+        return getDurations().map(phases -> phases.entrySet().stream().map(phase -> phase.getKey() + " " + phase.getValue() + " ms")
+                .collect(Collectors.joining(", "))).orElse("in progress") + " (Marathon deployments: " + String.join(", ", marathonDeploymentIds) + ")";
+    }
+}
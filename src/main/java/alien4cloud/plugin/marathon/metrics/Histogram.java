@@ -0,0 +1,100 @@
+package alien4cloud.plugin.marathon.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Getter;
+
+/**
+ * Distribution of observed values over fixed buckets, eg. latencies.
+ */
+public class Histogram {
+
+    /**
+     * Buckets of latencies in milliseconds, from a local call to a slow Marathon deployment request.
+     */
+    public static final double[] LATENCY_BUCKETS = { 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    /**
+     * Buckets of deployment durations in milliseconds, up to half an hour.
+     */
+    public static final double[] DEPLOYMENT_BUCKETS = { 100, 500, 1000, 5000, 10000, 30000, 60000, 120000, 300000, 600000, 1800000 };
+
+    /**
+     * Buckets of in-memory processing times in milliseconds.
+     */
+    public static final double[] PROCESSING_BUCKETS = { 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+    @Getter
+    private final String name;
+
+    @Getter
+    private final String[] labels;
+
+    /**
+     * Upper bounds of the buckets, ascending. Values above the last bound are only accounted in the count and sum.
+     */
+    private final double[] upperBounds;
+
+    private final LongAdder[] bucketCounts;
+
+    private final LongAdder count = new LongAdder();
+
+    private final DoubleAdder sum = new DoubleAdder();
+
+    Histogram(String name, String[] labels, double[] upperBounds) {
+        this.name = name;
+        this.labels = labels;
+        this.upperBounds = upperBounds.clone();
+        bucketCounts = new LongAdder[upperBounds.length];
+        Arrays.setAll(bucketCounts, i -> new LongAdder());
+    }
+
+    /**
+     * Record an observed value.
+     */
+    public void observe(double value) {
+        int bucket = Arrays.binarySearch(upperBounds, value);
+        if (bucket < 0)
+            bucket = -bucket - 1;
+        if (bucket < bucketCounts.length)
+            bucketCounts[bucket].increment();
+        count.increment();
+        sum.add(value);
+    }
+
+    /**
+     * Record the time elapsed since a start time, in milliseconds.
+     *
+     * @param startNanos the start time, from {@link System#nanoTime()}
+     */
+    public void observeSince(long startNanos) {
+        observe((System.nanoTime() - startNanos) / 1e6);
+    }
+
+    public double[] getUpperBounds() {
+        return upperBounds.clone();
+    }
+
+    /**
+     * @return the number of values lower or equal to each upper bound.
+     */
+    public long[] getCumulativeCounts() {
+        final long[] cumulativeCounts = new long[bucketCounts.length];
+        long total = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            total += bucketCounts[i].sum();
+            cumulativeCounts[i] = total;
+        }
+        return cumulativeCounts;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+}
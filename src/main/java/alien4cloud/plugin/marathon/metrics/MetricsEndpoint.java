@@ -0,0 +1,89 @@
+package alien4cloud.plugin.marathon.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves the plugin's metrics at <code>/metrics</code>, to be scraped by Prometheus.
+ * The metrics are shared by all the locations: the locations configured with the same port share the endpoint, which stops once all of them
+ * released it.
+ */
+@Slf4j
+public class MetricsEndpoint {
+
+    /**
+     * Endpoints being served, by port. Guarded by the class.
+     */
+    private static final Map<Integer, MetricsEndpoint> ENDPOINTS = Maps.newHashMap();
+
+    private final int port;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    /**
+     * Number of locations using the endpoint. Guarded by the class.
+     */
+    private int users;
+
+    /**
+     * Serve the metrics on a port, unless they are already served on it.
+     *
+     * @param port the port to listen on
+     * @param exporter formats the metrics
+     * @return the endpoint serving the port, to be released once no longer used
+     * @throws IOException if the port cannot be bound
+     */
+    public static synchronized MetricsEndpoint acquire(int port, PrometheusExporter exporter) throws IOException {
+        MetricsEndpoint endpoint = ENDPOINTS.get(port);
+        if (endpoint == null) {
+            endpoint = new MetricsEndpoint(port, exporter);
+            ENDPOINTS.put(port, endpoint);
+        }
+        endpoint.users++;
+        return endpoint;
+    }
+
+    private MetricsEndpoint(int port, PrometheusExporter exporter) throws IOException {
+        this.port = port;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("marathon-metrics-endpoint-%d").setDaemon(true).build());
+        server.setExecutor(executor);
+        server.createContext("/metrics", exchange -> {
+            final byte[] body = exporter.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", PrometheusExporter.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        server.start();
+        log.info("Serving the Marathon plugin metrics on port " + port);
+    }
+
+    /**
+     * Stop serving the metrics if no other location uses the endpoint.
+     */
+    public void release() {
+        synchronized (MetricsEndpoint.class) {
+            if (--users > 0)
+                return;
+            ENDPOINTS.remove(port);
+        }
+        server.stop(0);
+        executor.shutdownNow();
+        log.info("Stopped serving the Marathon plugin metrics on port " + port);
+    }
+}
@@ -0,0 +1,96 @@
+package alien4cloud.plugin.marathon.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Registry of the plugin's metrics.
+ * Metrics are identified by their name and labels, eg. <code>marathon_deployments_active{orchestrator="id"}</code>.
+ */
+public class MetricsRegistry {
+
+    private final ConcurrentMap<String, Supplier<? extends Number>> gauges = Maps.newConcurrentMap();
+
+    private final ConcurrentMap<String, LongAdder> counters = Maps.newConcurrentMap();
+
+    private final ConcurrentMap<String, Histogram> histograms = Maps.newConcurrentMap();
+
+    /**
+     * Format a metric id from its name and labels.
+     *
+     * @param name the metric name
+     * @param labels label names and values, alternatively
+     * @return the metric id
+     */
+    public static String id(String name, String... labels) {
+        if (labels.length == 0)
+            return name;
+        final StringBuilder id = new StringBuilder(name).append("{");
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0)
+                id.append(",");
+            id.append(labels[i]).append("=\"").append(labels[i + 1]).append("\"");
+        }
+        return id.append("}").toString();
+    }
+
+    /**
+     * Register a gauge, replacing any gauge with the same id.
+     */
+    public void gauge(String id, Supplier<? extends Number> valueSupplier) {
+        gauges.put(id, valueSupplier);
+    }
+
+    public void removeGauge(String id) {
+        gauges.remove(id);
+    }
+
+    /**
+     * @return the counter with the given id, created on first use.
+     */
+    public LongAdder counter(String id) {
+        return counters.computeIfAbsent(id, counterId -> new LongAdder());
+    }
+
+    /**
+     * @param name the metric name
+     * @param upperBounds upper bounds of the buckets, ascending, used when the histogram is created
+     * @param labels label names and values, alternatively
+     * @return the histogram with the given name and labels, created on first use.
+     */
+    public Histogram histogram(String name, double[] upperBounds, String... labels) {
+        return histograms.computeIfAbsent(id(name, labels), histogramId -> new Histogram(name, labels, upperBounds));
+    }
+
+    /**
+     * @return the current value of every metric, by id. Histograms are reported by their count and sum.
+     */
+    public Map<String, Number> snapshot() {
+        final Map<String, Number> snapshot = new TreeMap<>();
+        counters.forEach((id, counter) -> snapshot.put(id, counter.sum()));
+        gauges.forEach((id, gauge) -> snapshot.put(id, gauge.get()));
+        histograms.values().forEach(histogram -> {
+            snapshot.put(id(histogram.getName() + "_count", histogram.getLabels()), histogram.getCount());
+            snapshot.put(id(histogram.getName() + "_sum", histogram.getLabels()), histogram.getSum());
+        });
+        return snapshot;
+    }
+
+    Map<String, LongAdder> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    Map<String, Supplier<? extends Number>> getGauges() {
+        return Collections.unmodifiableMap(gauges);
+    }
+
+    Map<String, Histogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+}
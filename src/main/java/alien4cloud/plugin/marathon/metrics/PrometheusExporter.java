@@ -0,0 +1,94 @@
+package alien4cloud.plugin.marathon.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Writes the metrics of a registry in the Prometheus text exposition format.
+ */
+@RequiredArgsConstructor
+public class PrometheusExporter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry metricsRegistry;
+
+    /**
+     * @return the current metrics, in the text exposition format.
+     */
+    public String scrape() {
+        final StringWriter writer = new StringWriter();
+        try {
+            write(writer);
+        } catch (IOException e) {
+            // Not thrown by a StringWriter
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    public void write(Writer writer) throws IOException {
+        writeSamples(writer, new TreeMap<>(metricsRegistry.getCounters()), "counter");
+        final Map<String, Number> gauges = new TreeMap<>();
+        metricsRegistry.getGauges().forEach((id, gauge) -> gauges.put(id, gauge.get()));
+        writeSamples(writer, gauges, "gauge");
+
+        String typedName = null;
+        for (Histogram histogram : new TreeMap<>(metricsRegistry.getHistograms()).values()) {
+            if (!histogram.getName().equals(typedName)) {
+                typedName = histogram.getName();
+                writer.write("# TYPE " + typedName + " histogram\n");
+            }
+            final double[] upperBounds = histogram.getUpperBounds();
+            final long[] cumulativeCounts = histogram.getCumulativeCounts();
+            for (int i = 0; i < upperBounds.length; i++)
+                writeSample(writer, bucketId(histogram, formatValue(upperBounds[i])), cumulativeCounts[i]);
+            writeSample(writer, bucketId(histogram, "+Inf"), histogram.getCount());
+            writeSample(writer, MetricsRegistry.id(histogram.getName() + "_sum", histogram.getLabels()), histogram.getSum());
+            writeSample(writer, MetricsRegistry.id(histogram.getName() + "_count", histogram.getLabels()), histogram.getCount());
+        }
+        writer.flush();
+    }
+
+    private static void writeSamples(Writer writer, Map<String, ? extends Number> samples, String type) throws IOException {
+        String typedName = null;
+        for (Map.Entry<String, ? extends Number> sample : samples.entrySet()) {
+            final String name = nameOf(sample.getKey());
+            if (!name.equals(typedName)) {
+                typedName = name;
+                writer.write("# TYPE " + name + " " + type + "\n");
+            }
+            writeSample(writer, sample.getKey(), sample.getValue());
+        }
+    }
+
+    private static void writeSample(Writer writer, String id, Number value) throws IOException {
+        writer.write(id + " " + formatValue(value == null ? Double.NaN : value.doubleValue()) + "\n");
+    }
+
+    private static String bucketId(Histogram histogram, String upperBound) {
+        final String[] labels = new String[histogram.getLabels().length + 2];
+        System.arraycopy(histogram.getLabels(), 0, labels, 0, histogram.getLabels().length);
+        labels[labels.length - 2] = "le";
+        labels[labels.length - 1] = upperBound;
+        return MetricsRegistry.id(histogram.getName() + "_bucket", labels);
+    }
+
+    private static String nameOf(String id) {
+        final int labelsStart = id.indexOf('{');
+        return labelsStart < 0 ? id : id.substring(0, labelsStart);
+    }
+
+    private static String formatValue(double value) {
+        if (Double.isNaN(value))
+            return "NaN";
+        if (Double.isInfinite(value))
+            return value > 0 ? "+Inf" : "-Inf";
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value) : String.valueOf(value);
+    }
+}
@@ -0,0 +1,293 @@
+package alien4cloud.plugin.marathon.reconciliation;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.paas.model.InstanceInformation;
+import alien4cloud.paas.model.InstanceStatus;
+import alien4cloud.paas.model.PaaSDeploymentStatusMonitorEvent;
+import alien4cloud.paas.model.PaaSInstanceStateMonitorEvent;
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
+import alien4cloud.plugin.marathon.service.EventService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.mapping.AlienDeploymentMapping;
+import alien4cloud.plugin.marathon.service.model.mapping.MarathonAppsMapping;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import mesosphere.marathon.client.Marathon;
+import mesosphere.marathon.client.model.v2.Deployment;
+import mesosphere.marathon.client.model.v2.Task;
+import mesosphere.marathon.client.utils.MarathonException;
+
+/**
+ * Periodically compares the groups deployed by the plugin in Marathon with the mappings, and publishes events correcting the state known by Alien:
+ * deployments whose end event was missed, groups deleted out of Alien, tasks whose status events were missed.
+ *
+ * The group tree is fetched in a single call and digested: only the groups whose digest changed since their last inspection have their tasks fetched,
+ * within a budget of calls per cycle. Groups left over are inspected in the next cycles, each cycle resuming after the last group inspected.
+ *
+ * Only the mappings of the orchestrator's deployments are reconciled: the groups of the other locations are not listed by its Marathon.
+ */
+@Slf4j
+public class Reconciler {
+
+    private final String orchestratorId;
+
+    private final Marathon marathonClient;
+
+    private final MarathonRestClient marathonRestClient;
+
+    private final MappingService mappingService;
+
+    private final EventService eventService;
+
+    private final Function<Task, InstanceInformation> instanceInformation;
+
+    private final Consumer<String> deploymentCompletionListener;
+
+    private final int budget;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Digest of the groups at their last inspection, by group id. Only accessed by the reconciliation thread, as are the fields below.
+     */
+    private final Map<String, String> inspectedDigests = Maps.newHashMap();
+
+    /**
+     * State reported for each task, by group id then by task id.
+     */
+    private final Map<String, Map<String, ReportedTask>> reportedTasks = Maps.newHashMap();
+
+    /**
+     * Groups already mapped at the first cycle, not inspected yet: their first inspection records the state of their tasks without publishing it,
+     * as Alien already knows it. Null until the first cycle.
+     */
+    private Set<String> unrecordedGroups;
+
+    /**
+     * Mapped groups missing from Marathon in the last cycle. They are deemed deleted if still missing in the next one, as groups are mapped right
+     * before their creation.
+     */
+    private Set<String> missingGroups = Collections.emptySet();
+
+    /**
+     * Marathon deployments tracked but no longer running in the last cycle. Their end is deemed missed if they are still tracked in the next one, as
+     * their end event may be in flight.
+     */
+    private Set<String> endedDeployments = Collections.emptySet();
+
+    /**
+     * Last group inspected, the next cycle inspects the groups after it first so that groups which keep changing do not starve the other ones.
+     */
+    private String lastInspectedGroup;
+
+    /**
+     * @param orchestratorId the id of the orchestrator whose deployments are reconciled
+     * @param instanceInformation computes the state of an Alien instance from a Marathon task
+     * @param deploymentCompletionListener notified with the id of each Marathon deployment whose end was missed
+     * @param period period of the reconciliation, in milliseconds
+     * @param budget maximum number of apps whose tasks are fetched in a cycle
+     */
+    public Reconciler(String orchestratorId, Marathon marathonClient, MarathonRestClient marathonRestClient, MappingService mappingService,
+            EventService eventService, Function<Task, InstanceInformation> instanceInformation, Consumer<String> deploymentCompletionListener, long period,
+            int budget) {
+        this.orchestratorId = orchestratorId;
+        this.marathonClient = marathonClient;
+        this.marathonRestClient = marathonRestClient;
+        this.mappingService = mappingService;
+        this.eventService = eventService;
+        this.instanceInformation = instanceInformation;
+        this.deploymentCompletionListener = deploymentCompletionListener;
+        this.budget = budget;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("marathon-reconciler-%d").setDaemon(true).build());
+        this.executor.scheduleWithFixedDelay(this::reconcile, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a reconciliation cycle.
+     */
+    void reconcile() {
+        try {
+            final Map<String, String> groupDigests = marathonRestClient.getTopLevelGroupDigests();
+            reconcileDeployments(groupDigests);
+            final Set<String> deploymentsInFlight = mappingService.getTrackedDeploymentIds(orchestratorId).stream()
+                    .flatMap(marathonDeploymentId -> mappingService.getAlienDeploymentInfos(marathonDeploymentId).stream())
+                    .map(AlienDeploymentMapping::getAlienDeploymentId).collect(Collectors.toSet());
+            reconcileGroups(groupDigests, deploymentsInFlight);
+        } catch (MarathonException e) {
+            log.error("Failure while reconciling with Marathon - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+        } catch (RuntimeException e) {
+            log.error("Failure while reconciling with Marathon", e);
+        }
+    }
+
+    /**
+     * Publish the end of the tracked deployments which are no longer running, inferred from the existence of their groups.
+     */
+    private void reconcileDeployments(Map<String, String> groupDigests) throws MarathonException {
+        final Set<String> tracked = mappingService.getTrackedDeploymentIds(orchestratorId);
+        if (tracked.isEmpty()) {
+            endedDeployments = Collections.emptySet();
+            return;
+        }
+        final Set<String> running = marathonClient.getDeployments().stream().map(Deployment::getId).collect(Collectors.toSet());
+        final Set<String> ended = Sets.difference(tracked, running).immutableCopy();
+
+        Sets.intersection(ended, endedDeployments).forEach(marathonDeploymentId -> {
+            final Collection<AlienDeploymentMapping> deploymentMappings = mappingService.getAlienDeploymentInfos(marathonDeploymentId);
+            mappingService.removeAlienDeploymentInfo(marathonDeploymentId);
+            deploymentMappings.forEach(deploymentMapping -> {
+                final boolean deployed = mappingService.getGroupMappings(orchestratorId).entrySet().stream()
+                        .anyMatch(entry -> entry.getValue().getAlienDeploymentId().equals(deploymentMapping.getAlienDeploymentId())
+                                && groupDigests.containsKey(entry.getKey()));
+                final DeploymentStatus status;
+                if (deploymentMapping.getStatus() == DeploymentStatus.UNDEPLOYMENT_IN_PROGRESS)
+                    status = deployed ? DeploymentStatus.FAILURE : DeploymentStatus.UNDEPLOYED;
+                else
+                    status = deployed ? DeploymentStatus.DEPLOYED : DeploymentStatus.FAILURE;
+                log.warn("Missed the end of Marathon deployment " + marathonDeploymentId + ", deployment " + deploymentMapping.getAlienDeploymentId()
+                        + " is deemed " + status);
+                publishDeploymentStatus(deploymentMapping.getAlienDeploymentId(), status);
+                if (status == DeploymentStatus.UNDEPLOYED)
+                    mappingService.removeGroupMappings(deploymentMapping.getAlienDeploymentId());
+            });
+            deploymentCompletionListener.accept(marathonDeploymentId);
+        });
+        endedDeployments = Sets.difference(ended, endedDeployments).immutableCopy();
+    }
+
+    /**
+     * Publish the deletion of the missing groups, and inspect the changed ones within the budget.
+     */
+    private void reconcileGroups(Map<String, String> groupDigests, Set<String> deploymentsInFlight) {
+        final Set<String> missing = Sets.newHashSet();
+        int remainingBudget = budget;
+        final NavigableMap<String, MarathonAppsMapping> groupMappings = Maps.newTreeMap();
+        groupMappings.putAll(mappingService.getGroupMappings(orchestratorId));
+        if (unrecordedGroups == null)
+            unrecordedGroups = Sets.newHashSet(groupMappings.keySet());
+        final Iterable<Map.Entry<String, MarathonAppsMapping>> roundRobin = lastInspectedGroup == null ? groupMappings.entrySet()
+                : Iterables.concat(groupMappings.tailMap(lastInspectedGroup, false).entrySet(), groupMappings.headMap(lastInspectedGroup, true).entrySet());
+        for (Map.Entry<String, MarathonAppsMapping> groupMapping : roundRobin) {
+            final String groupId = groupMapping.getKey();
+            final String alienDeploymentId = groupMapping.getValue().getAlienDeploymentId();
+            if (deploymentsInFlight.contains(alienDeploymentId))
+                // Events are on their way
+                continue;
+
+            final String digest = groupDigests.get(groupId);
+            if (digest == null) {
+                if (missingGroups.contains(groupId)) {
+                    log.warn("Marathon group " + groupId + " is gone, deployment " + alienDeploymentId + " is deemed undeployed");
+                    publishDeploymentStatus(alienDeploymentId, DeploymentStatus.UNDEPLOYED);
+                    mappingService.removeGroupMapping(groupId);
+                    reportedTasks.remove(groupId);
+                } else {
+                    missing.add(groupId);
+                }
+            } else if (!digest.equals(inspectedDigests.get(groupId))) {
+                final MarathonAppsMapping resolvedMapping = mappingService.getMarathonAppMapping(groupId).orElse(groupMapping.getValue());
+                final int appCount = resolvedMapping.getAppIdToNodeTemplateIdMap().size();
+                // A group is inspected at once, the first one even beyond the budget so that large groups are inspected too
+                if (appCount > remainingBudget && remainingBudget < budget)
+                    continue;
+                if (inspect(groupId, resolvedMapping))
+                    inspectedDigests.put(groupId, digest);
+                lastInspectedGroup = groupId;
+                remainingBudget -= appCount;
+            }
+        }
+        missingGroups = missing;
+        final Set<String> mappedGroups = mappingService.getGroupMappings(orchestratorId).keySet();
+        inspectedDigests.keySet().retainAll(mappedGroups);
+        reportedTasks.keySet().retainAll(mappedGroups);
+        unrecordedGroups.retainAll(mappedGroups);
+    }
+
+    /**
+     * Publish the state of the tasks of a group which changed since they were last reported.
+     *
+     * @return false if the tasks could not be retrieved.
+     */
+    private boolean inspect(String groupId, MarathonAppsMapping groupMapping) {
+        final Map<String, ReportedTask> previouslyReported = reportedTasks.getOrDefault(groupId, Collections.emptyMap());
+        final boolean recordOnly = unrecordedGroups.contains(groupId);
+        final Map<String, ReportedTask> reported = Maps.newHashMap();
+        for (Map.Entry<String, String> appMapping : groupMapping.getAppIdToNodeTemplateIdMap().entrySet()) {
+            final Collection<Task> tasks;
+            try {
+                tasks = marathonClient.getAppTasks("/" + groupId + "/" + appMapping.getKey()).getTasks();
+            } catch (MarathonException e) {
+                if (e.getStatus() != 404) { // 404: the app was deleted
+                    log.error("Failure while reaching for tasks - Got error code [" + e.getStatus() + "] with message: " + e.getMessage());
+                    return false;
+                }
+                continue;
+            }
+            tasks.forEach(task -> {
+                final InstanceInformation information = instanceInformation.apply(task);
+                final ReportedTask reportedTask = new ReportedTask(appMapping.getValue(), information.getState(), information.getInstanceStatus());
+                reported.put(task.getId(), reportedTask);
+                if (!recordOnly && !reportedTask.equals(previouslyReported.get(task.getId())))
+                    publishInstanceState(groupMapping.getAlienDeploymentId(), task.getId(), reportedTask);
+            });
+        }
+        // Tasks which are gone
+        previouslyReported.forEach((taskId, reportedTask) -> {
+            if (!reported.containsKey(taskId))
+                publishInstanceState(groupMapping.getAlienDeploymentId(), taskId,
+                        new ReportedTask(reportedTask.nodeTemplateId, "deleted", InstanceStatus.MAINTENANCE));
+        });
+        reportedTasks.put(groupId, reported);
+        unrecordedGroups.remove(groupId);
+        return true;
+    }
+
+    private void publishDeploymentStatus(String alienDeploymentId, DeploymentStatus status) {
+        final PaaSDeploymentStatusMonitorEvent event = new PaaSDeploymentStatusMonitorEvent();
+        event.setDeploymentId(alienDeploymentId);
+        event.setDeploymentStatus(status);
+        event.setDate(System.currentTimeMillis());
+        eventService.publish(event);
+    }
+
+    private void publishInstanceState(String alienDeploymentId, String taskId, ReportedTask reportedTask) {
+        final PaaSInstanceStateMonitorEvent event = new PaaSInstanceStateMonitorEvent();
+        event.setDeploymentId(alienDeploymentId);
+        event.setNodeTemplateId(reportedTask.nodeTemplateId);
+        event.setInstanceId(taskId);
+        event.setInstanceState(reportedTask.state);
+        event.setInstanceStatus(reportedTask.status);
+        event.setDate(System.currentTimeMillis());
+        eventService.publish(event);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class ReportedTask {
+        private final String nodeTemplateId;
+        private final String state;
+        private final InstanceStatus status;
+    }
+}
@@ -1,11 +1,18 @@
 package alien4cloud.plugin.marathon.service;
 
+import java.io.IOException;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
 
 import alien4cloud.utils.services.PropertyValueService;
 import org.alien4cloud.tosca.model.definitions.*;
@@ -21,6 +28,8 @@ import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
 
 import alien4cloud.exception.InvalidArgumentException;
 import alien4cloud.paas.function.FunctionEvaluator;
@@ -28,14 +37,23 @@ import alien4cloud.paas.model.PaaSNodeTemplate;
 import alien4cloud.paas.model.PaaSRelationshipTemplate;
 import alien4cloud.paas.model.PaaSTopology;
 import alien4cloud.paas.model.PaaSTopologyDeploymentContext;
+import alien4cloud.plugin.marathon.config.ServiceDiscoveryMode;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
 import alien4cloud.plugin.marathon.service.builders.AppBuilder;
+import alien4cloud.plugin.marathon.service.builders.AppDefinitionCache;
+import alien4cloud.plugin.marathon.service.builders.AppDefinitionFragment;
 import alien4cloud.plugin.marathon.service.builders.ExternalVolumeBuilder;
+import alien4cloud.plugin.marathon.service.builders.HealthCheckBuilder;
+import alien4cloud.plugin.marathon.service.builders.PodBuilder;
 import alien4cloud.plugin.marathon.service.builders.PortBuilder;
+import alien4cloud.plugin.marathon.service.builders.ReadinessCheckBuilder;
+import alien4cloud.plugin.marathon.service.model.marathon.Pod;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import mesosphere.marathon.client.model.v2.App;
 import mesosphere.marathon.client.model.v2.Group;
+import mesosphere.marathon.client.utils.ModelUtils;
 
 /**
  * Service for transformation of Alien PaaSTopologies into Marathon Groups and Apps definitions.
@@ -50,6 +68,18 @@ public class BuilderService {
 
     private final @NonNull MappingService mappingService;
 
+    private final @NonNull MetricsRegistry metricsRegistry;
+
+    /**
+     * Domain of the layer-4 virtual IPs.
+     */
+    private static final String VIP_DOMAIN = ".marathon.l4lb.thisdcos.directory";
+
+    /**
+     * Port of the virtual IPs of endpoints whose port is allocated dynamically.
+     */
+    private static final int DEFAULT_VIP_PORT = 80;
+
     /**
      * We allocate Service Ports starting from 10000.
      * TODO: Store in DB or retrieve from Marathon
@@ -57,23 +87,92 @@ public class BuilderService {
     private final AtomicInteger servicePortIncrement = new AtomicInteger(10000);
 
     /**
-     * Map to store service ports allocated to marathon endpoints. Used to fulfill relationships requirements. // TODO store this in ES
+     * Deployment-agnostic App definitions, by node template content.
      */
-    private final Map<String, Integer> mapPortEndpoints = Maps.newHashMap();
+    private final AppDefinitionCache appDefinitionCache = new AppDefinitionCache(1024);
 
     /**
-     * Map an Alien deployment context to a Marathon group definition.
+     * For each group, the content hashes of the nodes it was last deployed from. Used to detect no-op updates.
+     */
+    private final Map<String, Set<String>> groupContentHashes = Maps.newConcurrentMap();
+
+    /**
+     * Map an Alien deployment context to a Marathon group definition, whose containers reach their endpoints through Marathon-LB.
      *
      * @param paaSTopologyDeploymentContext the deployment to process
      * @return A Marathon Group definition
      */
     public Group buildGroupDefinition(PaaSTopologyDeploymentContext paaSTopologyDeploymentContext) {
+        return buildGroupDefinition(paaSTopologyDeploymentContext, ServiceDiscoveryMode.MARATHON_LB, BuilderService::rejectPod);
+    }
+
+    /**
+     * Map an Alien deployment context to a Marathon group definition, and to the pods of the group.
+     *
+     * @param paaSTopologyDeploymentContext the deployment to process
+     * @param serviceDiscoveryMode how the containers reach the endpoints they are connected to
+     * @param podConsumer receives the pods of the group, which are created apart from the group
+     * @return A Marathon Group definition
+     */
+    public Group buildGroupDefinition(PaaSTopologyDeploymentContext paaSTopologyDeploymentContext, ServiceDiscoveryMode serviceDiscoveryMode,
+            Consumer<Pod> podConsumer) {
         // Setup parent group
         Group parentGrp = new Group();
+        parentGrp.setApps(Lists.newArrayList());
+        parentGrp.setId(buildGroupDefinition(paaSTopologyDeploymentContext, serviceDiscoveryMode, parentGrp.getApps()::add, podConsumer));
+        return parentGrp;
+    }
+
+    /**
+     * Map an Alien deployment context to a Marathon group definition, written as JSON as the Apps are built.
+     * The result is equivalent to the serialization of {@link #buildGroupDefinition(PaaSTopologyDeploymentContext)} but the group is never held in
+     * memory as a whole.
+     *
+     * @param paaSTopologyDeploymentContext the deployment to process
+     * @param jsonWriter where to write the group definition
+     * @throws IOException if the group definition cannot be written
+     */
+    public void writeGroupDefinition(PaaSTopologyDeploymentContext paaSTopologyDeploymentContext, JsonWriter jsonWriter) throws IOException {
+        writeGroupDefinition(paaSTopologyDeploymentContext, ServiceDiscoveryMode.MARATHON_LB, jsonWriter, BuilderService::rejectPod);
+    }
+
+    /**
+     * Map an Alien deployment context to a Marathon group definition, written as JSON as the Apps are built, and to the pods of the group.
+     *
+     * @param paaSTopologyDeploymentContext the deployment to process
+     * @param serviceDiscoveryMode how the containers reach the endpoints they are connected to
+     * @param jsonWriter where to write the group definition
+     * @param podConsumer receives the pods of the group, which are created apart from the group
+     * @throws IOException if the group definition cannot be written
+     */
+    public void writeGroupDefinition(PaaSTopologyDeploymentContext paaSTopologyDeploymentContext, ServiceDiscoveryMode serviceDiscoveryMode,
+            JsonWriter jsonWriter, Consumer<Pod> podConsumer) throws IOException {
+        jsonWriter.beginObject();
+        jsonWriter.name("id").value(paaSTopologyDeploymentContext.getDeploymentPaaSId().toLowerCase());
+        jsonWriter.name("apps").beginArray();
+        try {
+            buildGroupDefinition(paaSTopologyDeploymentContext, serviceDiscoveryMode, app -> ModelUtils.GSON.toJson(app, app.getClass(), jsonWriter),
+                    podConsumer);
+        } catch (JsonIOException e) {
+            throw new IOException(e);
+        }
+        jsonWriter.endArray();
+        jsonWriter.endObject();
+    }
+
+    /**
+     * Map an Alien deployment context to the Apps of a Marathon group.
+     *
+     * @param paaSTopologyDeploymentContext the deployment to process
+     * @param serviceDiscoveryMode how the containers reach the endpoints they are connected to
+     * @param appConsumer receives each App as soon as it is built
+     * @param podConsumer receives each pod once all its containers are built
+     * @return The Marathon group id
+     */
+    private String buildGroupDefinition(PaaSTopologyDeploymentContext paaSTopologyDeploymentContext, ServiceDiscoveryMode serviceDiscoveryMode,
+            Consumer<App> appConsumer, Consumer<Pod> podConsumer) {
         // Group id == pass topology deployment id.
         final String groupID = paaSTopologyDeploymentContext.getDeploymentPaaSId().toLowerCase();
-        parentGrp.setId(groupID);
-        parentGrp.setApps(Lists.newArrayList());
 
         // Initialize a new group mapping
         mappingService.registerGroupMapping(groupID, paaSTopologyDeploymentContext.getDeploymentId());
@@ -84,6 +183,13 @@ public class BuilderService {
                 .orElseThrow(() -> new InvalidArgumentException("The topology does not contain any non-native nodes."));
         final List<PaaSNodeTemplate> volumes = Optional.ofNullable(paaSTopologyDeploymentContext.getPaaSTopology().getVolumes())
                 .orElse(Collections.emptyList());
+        // Nodes sharing a pod name are the containers of a single Marathon pod. Apps cannot depend on pods.
+        final Map<String, PodBuilder> pods = Maps.newLinkedHashMap();
+        final Set<String> podMemberIds = nonNatives.stream().filter(node -> PodBuilder.podName(node).isPresent()).map(node -> node.getId().toLowerCase())
+                .collect(Collectors.toSet());
+        // Service ports allocated to the endpoints of the group, to fulfill relationships requirements. Groups are built concurrently, each with its own.
+        // TODO store this in ES
+        final Map<String, Integer> mapPortEndpoints = Maps.newHashMap();
         nonNatives.forEach(node -> {
             // Find volumes attached to the node
             final List<PaaSNodeTemplate> attachedVolumes = volumes.stream()
@@ -91,28 +197,164 @@ public class BuilderService {
                             .filter(paaSRelationshipTemplate -> paaSRelationshipTemplate.instanceOf("alien.relationships.MountDockerVolume")).findFirst()
                             .map(paaSRelationshipTemplate -> paaSRelationshipTemplate.getTemplate().getTarget()).orElse("").equals(node.getId()))
                     .collect(Collectors.toList());
-            // Build the app definition and add it to the group
-            final App app = buildAppDefinition(groupID, node, paaSTopologyDeploymentContext.getPaaSTopology(), attachedVolumes);
-            parentGrp.getApps().add(app);
-            // Register app mapping
-            mappingService.registerAppMapping(groupID, app.getId(), node.getId());
+            final Optional<String> podName = PodBuilder.podName(node);
+            // Build the app definition
+            final App app = buildAppDefinition(groupID, node, paaSTopologyDeploymentContext.getPaaSTopology(), attachedVolumes, podName.isPresent(),
+                    serviceDiscoveryMode, mapPortEndpoints);
+            if (podName.isPresent()) {
+                // Add it to its pod, and register the container mapping
+                pods.computeIfAbsent(podName.get(), name -> PodBuilder.builder("/" + groupID + "/" + name)).container(app);
+                mappingService.registerAppMapping(groupID, PodBuilder.mappedAppId(node), node.getId());
+            } else {
+                // Add it to the group, and register the app mapping
+                if (app.getDependencies() != null && app.getDependencies().removeAll(podMemberIds) && app.getDependencies().isEmpty())
+                    app.setDependencies(null);
+                appConsumer.accept(app);
+                mappingService.registerAppMapping(groupID, app.getId(), node.getId());
+            }
         });
+        pods.values().forEach(podBuilder -> podConsumer.accept(podBuilder.build()));
+        return groupID;
+    }
+
+    /**
+     * Check whether a deployment context would result in the same Marathon group definition as the one last built for this deployment.
+     *
+     * @param paaSTopologyDeploymentContext the deployment to check
+     * @return true if none of the deployment's nodes changed since the group was last accepted by Marathon
+     */
+    public boolean isUnchanged(PaaSTopologyDeploymentContext paaSTopologyDeploymentContext) {
+        final Set<String> lastContentHashes = groupContentHashes.get(paaSTopologyDeploymentContext.getDeploymentPaaSId().toLowerCase());
+        return lastContentHashes != null && lastContentHashes.equals(contentHashes(paaSTopologyDeploymentContext));
+    }
 
-        // Clean the port endpoints map
-        mapPortEndpoints.clear();
+    /**
+     * Remember the nodes a group was built from once Marathon accepted it, so that updates which change nothing are detected.
+     *
+     * @param paaSTopologyDeploymentContext the deployment whose group was accepted
+     */
+    public void groupDeployed(PaaSTopologyDeploymentContext paaSTopologyDeploymentContext) {
+        groupContentHashes.put(paaSTopologyDeploymentContext.getDeploymentPaaSId().toLowerCase(), contentHashes(paaSTopologyDeploymentContext));
+    }
 
-        return parentGrp;
+    /**
+     * Forget about a group that has been undeployed.
+     *
+     * @param groupID the Marathon group id
+     */
+    public void forgetGroup(String groupID) {
+        groupContentHashes.remove(groupID);
+    }
+
+    /**
+     * @return the number of app definitions cached.
+     */
+    public int getAppDefinitionCacheSize() {
+        return appDefinitionCache.size();
+    }
+
+    /**
+     * The cache is shared by all the orchestrators, hence its gauge is registered once.
+     */
+    @PostConstruct
+    public void registerMetrics() {
+        metricsRegistry.gauge("marathon_app_definition_cache_size", this::getAppDefinitionCacheSize);
+    }
+
+    private Set<String> contentHashes(PaaSTopologyDeploymentContext paaSTopologyDeploymentContext) {
+        final PaaSTopology paaSTopology = paaSTopologyDeploymentContext.getPaaSTopology();
+        return Stream
+                .concat(Optional.ofNullable(paaSTopology.getNonNatives()).map(List::stream).orElse(Stream.empty()),
+                        Optional.ofNullable(paaSTopology.getVolumes()).map(List::stream).orElse(Stream.empty()))
+                .map(AppDefinitionCache::keyOf).collect(Collectors.toSet());
     }
 
     /**
      * Map an alien PaaSNodeTemplate to a Marathon App Definition.
+     * The deployment-agnostic part of the definition is built once per node template content and cached, only deployment specific settings
+     * (service ports or virtual IPs, inputs resolved against relationships targets, volumes) are applied for each deployment.
      *
      * @param paaSNodeTemplate the node template to map
      * @param paaSTopology the topology the node belongs to
+     * @param podContainer whether the App is a container of a pod, which gets no service port
+     * @param serviceDiscoveryMode how the containers reach the endpoints they are connected to
+     * @param mapPortEndpoints the service ports allocated to the endpoints of the group so far
      * @return a Marathon App definition
      */
     private App buildAppDefinition(String parentGroupID, PaaSNodeTemplate paaSNodeTemplate, PaaSTopology paaSTopology,
-            List<PaaSNodeTemplate> volumeNodeTemplates) {
+            List<PaaSNodeTemplate> volumeNodeTemplates, boolean podContainer, ServiceDiscoveryMode serviceDiscoveryMode,
+            Map<String, Integer> mapPortEndpoints) {
+        final AppDefinitionFragment fragment = appDefinitionCache.get(AppDefinitionCache.keyOf(paaSNodeTemplate),
+                () -> buildAppDefinitionFragment(paaSNodeTemplate));
+
+        final AppBuilder appBuilder = AppBuilder.from(fragment.newApp()).parentGroupID(parentGroupID);
+
+        if (serviceDiscoveryMode == ServiceDiscoveryMode.VIP) {
+            /*
+             * VIRTUAL IPS
+             * Each endpoint is given a layer-4 virtual IP, named after the deployment, the app and the capability. Consumers connect straight to
+             * the tasks, no service port is needed.
+             */
+            final Iterator<String> endpoints = fragment.getEndpoints().iterator();
+            appBuilder.virtualIPs(portMapping -> "/" + virtualIPName(parentGroupID, appBuilder.getAppID(), endpoints.next()) + ":"
+                    + virtualIPPort(String.valueOf(portMapping.getContainerPort())));
+        } else if (!podContainer && !fragment.getEndpoints().isEmpty()) {
+            /*
+             * SERVICE PORTS
+             * Each relationship implies the need to create a service port for the targeted capability.
+             * We keep track of service ports allocated to relationships' targets in order to allocate only one port per capability.
+             */
+            fragment.getTargetedEndpoints().forEach(targetedEndpoint -> mapPortEndpoints.computeIfAbsent(parentGroupID + "/" + targetedEndpoint,
+                    endpointID -> this.servicePortIncrement.getAndIncrement())); // We haven't processed the target already: we pre-allocate a service
+                                                                                 // port
+            final Iterator<String> endpoints = fragment.getEndpoints().iterator();
+            appBuilder.servicePorts(portMapping -> {
+                final String endpointID = parentGroupID + "/" + appBuilder.getAppID() + "/" + endpoints.next();
+                // If this node's capability is targeted by a relationship, we may already have pre-allocated a service port for it,
+                // otherwise allocate one and store the endpoint for further use by other apps
+                return mapPortEndpoints.computeIfAbsent(endpointID, id -> this.servicePortIncrement.getAndIncrement());
+            });
+            // The HAPROXY_GROUP label indicates which load balancer group this application should register to.
+            appBuilder.internallyLoadBalanced();
+        }
+
+        /*
+         * INPUTS targeting a requirement's capability
+         */
+        fragment.getPlaceholders().forEach((placeholder, function) -> appBuilder.replacePlaceholder(placeholder,
+                getPropertyFromReqTarget(paaSNodeTemplate, paaSTopology, function, parentGroupID, serviceDiscoveryMode, mapPortEndpoints)
+                        .orElse(null)));
+
+        /*
+         * External persistent Docker volumes using the RexRay driver
+         */
+        buildVolumesDefinition(volumeNodeTemplates, appBuilder);
+
+        /*
+         * UPGRADE STRATEGY
+         * Stateless apps keep Marathon's default (1.0 / 1.0), which starts every replacement before stopping the old instances.
+         * Apps with an external volume run a single instance, which must be stopped to release the volume before its replacement starts.
+         */
+        final Map<String, AbstractPropertyValue> nodeTemplateProperties = Optional.ofNullable(paaSNodeTemplate.getTemplate().getProperties())
+                .orElse(Collections.emptyMap());
+        final Optional<Double> minimumHealthCapacity = scalarProperty(nodeTemplateProperties, "upgrade_minimum_health_capacity").map(Double::valueOf);
+        final Optional<Double> maximumOverCapacity = scalarProperty(nodeTemplateProperties, "upgrade_maximum_over_capacity").map(Double::valueOf);
+        if (!volumeNodeTemplates.isEmpty()) {
+            appBuilder.upgradeStrategy(minimumHealthCapacity.orElse(0.0), maximumOverCapacity.orElse(0.0));
+        } else if (minimumHealthCapacity.isPresent() || maximumOverCapacity.isPresent()) {
+            appBuilder.upgradeStrategy(minimumHealthCapacity.orElse(1.0), maximumOverCapacity.orElse(1.0));
+        }
+
+        return appBuilder.build();
+    }
+
+    /**
+     * Map the deployment-agnostic part of an alien PaaSNodeTemplate to a Marathon App Definition.
+     *
+     * @param paaSNodeTemplate the node template to map
+     * @return the App definition, along with what has to be completed for each deployment.
+     */
+    private AppDefinitionFragment buildAppDefinitionFragment(PaaSNodeTemplate paaSNodeTemplate) {
         final NodeTemplate nodeTemplate = paaSNodeTemplate.getTemplate();
 
         /*
@@ -121,49 +363,48 @@ public class BuilderService {
          */
         final Operation createOperation = paaSNodeTemplate.getInterfaces().get("tosca.interfaces.node.lifecycle.Standard").getOperations().get("create");
 
-        // Initialize the App builder - A docker app with default healthcheck enabled.
-        AppBuilder appBuilder = AppBuilder.builder(paaSNodeTemplate.getId()).parentGroupID(parentGroupID)
+        // Initialize the App builder - A docker app
+        AppBuilder appBuilder = AppBuilder.builder(paaSNodeTemplate.getId())
                 .instances(Optional.ofNullable(paaSNodeTemplate.getScalingPolicy()).orElse(ScalingPolicy.NOT_SCALABLE_POLICY).getInitialInstances())
                 .docker(Optional.ofNullable(createOperation.getImplementationArtifact()).map(AbstractArtifact::getArtifactRef)
-                        .orElseThrow(() -> new NotImplementedException("Create implementation artifact should specify the image")))
-                .defaultHealthCheck();
+                        .orElseThrow(() -> new NotImplementedException("Create implementation artifact should specify the image")));
 
         /*
          * RELATIONSHIPS
          * Only connectsTo relationships are supported : an app can only connect to a container endpoint.
-         * Each relationship implies the need to create a service port for the targeted capability.
-         * We keep track of service ports allocated to relationships' targets in order to allocate only one port per capability.
          */
-        buildDependenciesDefinition(paaSNodeTemplate.getRelationshipTemplates(), appBuilder);
+        final List<String> targetedEndpoints = buildDependenciesDefinition(paaSNodeTemplate.getRelationshipTemplates(), appBuilder);
 
         /*
-         * External persistent Docker volumes using the RexRay driver
+         * CAPABILITIES
+         * Turn Alien endpoints capabilities into a PortMapping definition. A service port or a virtual IP is attributed to each endpoint for each
+         * deployment. This means that this node CAN be targeted by a ConnectsTo relationship.
          */
-        buildVolumesDefinition(volumeNodeTemplates, appBuilder);
+        final List<String> endpoints = buildPortDefinition(nodeTemplate.getCapabilities(), appBuilder);
 
         /*
-         * CAPABILITIES
-         * Turn Alien endpoints capabilities into a PortMapping definition and attribute a service port to each endpoint.
-         * This means that this node CAN be targeted by a ConnectsTo relationship.
-         * Register the app into the internal service discovery group.
+         * HEALTH AND READINESS CHECKS
+         * Settings are node properties, the checked endpoints are flagged by capability properties.
          */
-        buildPortDefinition(nodeTemplate.getCapabilities(), paaSNodeTemplate.getId().toLowerCase(), appBuilder);
+        buildChecksDefinition(nodeTemplate.getProperties(), nodeTemplate.getCapabilities(), endpoints, appBuilder);
 
         /*
          * INPUTS from the Create operation
          */
         /* Prefix-based mapping : ENV_ => Env var, OPT_ => docker option, ARG_ => Docker run args */
+        final Map<String, FunctionPropertyValue> placeholders = Maps.newLinkedHashMap();
         if (createOperation.getInputParameters() != null) {
             createOperation.getInputParameters().forEach((key, val) -> {
 
                 // Inputs can either be a ScalarValue or a pointer to a capability targeted by one of the node's requirements
                 // NOTE: This could be generalized into Alien parser
                 if (val instanceof FunctionPropertyValue && "get_property".equals(((FunctionPropertyValue) val).getFunction())
-                        && "REQ_TARGET".equals(((FunctionPropertyValue) val).getTemplateName()))
-                    // Get property of a requirement's targeted capability
-                    getPropertyFromReqTarget(paaSNodeTemplate, paaSTopology, (FunctionPropertyValue) val, parentGroupID)
-                            .ifPresent(value -> appBuilder.input(key, value));
-                else if (val instanceof ScalarPropertyValue)
+                        && "REQ_TARGET".equals(((FunctionPropertyValue) val).getTemplateName())) {
+                    // Get property of a requirement's targeted capability - depends on the deployment, resolved later on
+                    final String placeholder = "\0REQ_TARGET_" + placeholders.size() + "\0";
+                    placeholders.put(placeholder, (FunctionPropertyValue) val);
+                    appBuilder.input(key, placeholder);
+                } else if (val instanceof ScalarPropertyValue)
                     appBuilder.input(key, ((ScalarPropertyValue) val).getValue());
 
             });
@@ -174,7 +415,7 @@ public class BuilderService {
          */
         buildUserPropsDefinition(nodeTemplate.getProperties(), appBuilder);
 
-        return appBuilder.build();
+        return new AppDefinitionFragment(appBuilder.build(), endpoints, targetedEndpoints, placeholders);
     }
 
     private AppBuilder buildUserPropsDefinition(Map<String, AbstractPropertyValue> nodeTemplateProperties, AppBuilder appBuilder) {
@@ -207,23 +448,84 @@ public class BuilderService {
         return appBuilder;
     }
 
-    private AppBuilder buildPortDefinition(Map<String, Capability> capabilities, String appId, AppBuilder appBuilder) {
+    private AppBuilder buildChecksDefinition(Map<String, AbstractPropertyValue> nodeTemplateProperties, Map<String, Capability> capabilities,
+            List<String> endpoints, AppBuilder appBuilder) {
+        /* Health check - TCP on the first port by default */
+        final String protocol = scalarProperty(nodeTemplateProperties, "health_check_protocol").orElse("TCP");
+        final HealthCheckBuilder healthCheckBuilder = HealthCheckBuilder.builder(protocol)
+                .gracePeriodSeconds(scalarProperty(nodeTemplateProperties, "health_check_grace_period").map(Integer::valueOf).orElse(300))
+                .intervalSeconds(scalarProperty(nodeTemplateProperties, "health_check_interval").map(Integer::valueOf).orElse(15))
+                .timeoutSeconds(scalarProperty(nodeTemplateProperties, "health_check_timeout").map(Integer::valueOf).orElse(20))
+                .maxConsecutiveFailures(scalarProperty(nodeTemplateProperties, "health_check_max_consecutive_failures").map(Integer::valueOf).orElse(3));
+        if ("COMMAND".equals(protocol)) {
+            healthCheckBuilder.command(scalarProperty(nodeTemplateProperties, "health_check_command")
+                    .orElseThrow(() -> new InvalidArgumentException("A command must be provided for COMMAND health checks.")));
+        } else {
+            healthCheckBuilder.portIndex(Math.max(0, flaggedEndpointIndex(capabilities, endpoints, "health_check")));
+            if (protocol.contains("HTTP"))
+                healthCheckBuilder.path(scalarProperty(nodeTemplateProperties, "health_check_path").orElse("/"));
+        }
+        appBuilder.healthCheck(healthCheckBuilder.build());
+
+        /* Readiness check - on the flagged endpoint, enabled by a path */
+        final Optional<String> readinessPath = scalarProperty(nodeTemplateProperties, "readiness_check_path");
+        if (readinessPath.isPresent() && !endpoints.isEmpty()) {
+            final int portIndex = Math.max(0, flaggedEndpointIndex(capabilities, endpoints, "readiness_check"));
+            // Port names must be valid DNS labels
+            final String portName = endpoints.get(portIndex).toLowerCase().replaceAll("[^a-z0-9-]", "-");
+            appBuilder.portName(portIndex, portName).readinessCheck(ReadinessCheckBuilder.builder(portName)
+                    .protocol(scalarProperty(nodeTemplateProperties, "readiness_check_protocol").orElse("HTTP")).path(readinessPath.get())
+                    .intervalSeconds(scalarProperty(nodeTemplateProperties, "readiness_check_interval").map(Integer::valueOf).orElse(5))
+                    .timeoutSeconds(scalarProperty(nodeTemplateProperties, "readiness_check_timeout").map(Integer::valueOf).orElse(3))
+                    .httpStatusCodesForReady(Optional.ofNullable((ListPropertyValue) nodeTemplateProperties.get("readiness_check_status_codes"))
+                            .map(statusCodes -> statusCodes.getValue().stream().map(String::valueOf).map(Integer::valueOf).collect(Collectors.toList()))
+                            .orElse(Lists.newArrayList(200)))
+                    .build());
+        }
+        return appBuilder;
+    }
+
+    /**
+     * @return The index among the endpoints of the first capability with a true boolean property, -1 if none.
+     */
+    private static int flaggedEndpointIndex(Map<String, Capability> capabilities, List<String> endpoints, String flag) {
+        for (int i = 0; i < endpoints.size(); i++) {
+            final Capability capability = capabilities.get(endpoints.get(i));
+            if (capability.getProperties() != null && scalarProperty(capability.getProperties(), flag).map(Boolean::valueOf).orElse(false))
+                return i;
+        }
+        return -1;
+    }
+
+    private static void rejectPod(Pod pod) {
+        throw new InvalidArgumentException("Pod " + pod.getId() + " cannot be deployed along with the group.");
+    }
+
+    private static String virtualIPName(String groupID, String appID, String endpoint) {
+        return (groupID + "-" + appID + "-" + endpoint).toLowerCase().replaceAll("[^a-z0-9-]", "-");
+    }
+
+    private static int virtualIPPort(String endpointPort) {
+        return Optional.ofNullable(endpointPort).filter(port -> port.matches("\\d+")).map(Integer::valueOf).filter(port -> port > 0)
+                .orElse(DEFAULT_VIP_PORT);
+    }
+
+    private static Optional<String> scalarProperty(Map<String, AbstractPropertyValue> properties, String name) {
+        return Optional.ofNullable(properties.get(name)).filter(ScalarPropertyValue.class::isInstance).map(ScalarPropertyValue.class::cast)
+                .map(ScalarPropertyValue::getValue);
+    }
+
+    private List<String> buildPortDefinition(Map<String, Capability> capabilities, AppBuilder appBuilder) {
+        final List<String> endpoints = Lists.newArrayList();
         capabilities.forEach((name, capability) -> {
             if (capability.getType().contains("capabilities.endpoint")) { // FIXME : better check of capability types
 
                 // TODO: Attribute service port only if necessary, eg. the capability is targeted and ports are not statically allocated
-                final String endpointID = appBuilder.getParentGroupID() + "/" + appId + "/" + name;
-                final Integer servicePort = mapPortEndpoints.getOrDefault(endpointID, this.servicePortIncrement.getAndIncrement()); // If this node's capability
-                                                                                                                                    // is targeted by a
-                                                                                                                                    // relationship, we may
-                                                                                                                                    // already have
-                                                                                                                                    // pre-allocated a service
-                                                                                                                                    // port for it
-                mapPortEndpoints.put(endpointID, servicePort); // Store the endpoint for further use by other apps
+                endpoints.add(name);
 
                 // Build a port definition
                 PortBuilder portBuilder = PortBuilder.builder().containerPort(capability.getProperties().get("port") != null
-                        ? Integer.valueOf(((ScalarPropertyValue) capability.getProperties().get("port")).getValue()) : 0).servicePort(servicePort);
+                        ? Integer.valueOf(((ScalarPropertyValue) capability.getProperties().get("port")).getValue()) : 0);
 
                 // If the capability has a "docker_bridge_port_mapping" property, then use Docker bridge networking
                 if (capability.getProperties().containsKey("docker_bridge_port_mapping")) {
@@ -235,32 +537,27 @@ public class BuilderService {
                 } else
                     appBuilder.hostNetworking();
 
-                // TODO: set haproxy group only if necessary, eg. if there's a service port.
-                // The HAPROXY_GROUP label indicates which load balancer group this application should register to.
-                appBuilder.portMapping(portBuilder.build()).internallyLoadBalanced();
+                appBuilder.portMapping(portBuilder.build());
             }
         });
-        return appBuilder;
+        return endpoints;
     }
 
-    private AppBuilder buildDependenciesDefinition(List<PaaSRelationshipTemplate> relationships, AppBuilder appBuilder) {
+    private List<String> buildDependenciesDefinition(List<PaaSRelationshipTemplate> relationships, AppBuilder appBuilder) {
+        final List<String> targetedEndpoints = Lists.newArrayList();
         if (relationships != null) { // Get all the relationships this node is a source of
             relationships.stream().filter(rel -> rel.getSource().equalsIgnoreCase(appBuilder.getAppID())).forEach(relationshipTemplate -> {
                 // TODO: Validate that the targeted node is of Docker type (for hybrid topologies)
                 if (relationshipTemplate.instanceOf("tosca.relationships.ConnectsTo")) {
                     final RelationshipTemplate template = relationshipTemplate.getTemplate();
-                    final String endpointID = appBuilder.getParentGroupID() + "/" + template.getTarget().toLowerCase() + "/"
-                            + template.getTargetedCapabilityName();
-                    if (!mapPortEndpoints.containsKey(endpointID)) {
-                        // We haven't processed the target already: we pre-allocate a service port
-                        mapPortEndpoints.put(endpointID, this.servicePortIncrement.getAndIncrement());
-                    }
+                    // A service port has to be allocated to the target
+                    targetedEndpoints.add(template.getTarget().toLowerCase() + "/" + template.getTargetedCapabilityName());
                     // Add a dependency to the target
                     appBuilder.dependency(template.getTarget().toLowerCase());
                 }
             });
         }
-        return appBuilder;
+        return targetedEndpoints;
     }
 
     private AppBuilder buildVolumesDefinition(List<PaaSNodeTemplate> volumeNodeTemplates, AppBuilder appBuilder) {
@@ -294,14 +591,16 @@ public class BuilderService {
      * @param paaSNodeTemplate The source node of the relationships, wich defines the requirement.
      * @param paaSTopology the topology the node belongs to.
      * @param params the function parameters, e.g. the requirement name & property name to lookup.
+     * @param serviceDiscoveryMode how the containers reach the endpoints they are connected to.
+     * @param mapPortEndpoints the service ports allocated to the endpoints of the group.
      * @return a String representing the property value.
      */
     private Optional<String> getPropertyFromReqTarget(PaaSNodeTemplate paaSNodeTemplate, PaaSTopology paaSTopology, FunctionPropertyValue params,
-            String deploymentID) {
+            String deploymentID, ServiceDiscoveryMode serviceDiscoveryMode, Map<String, Integer> mapPortEndpoints) {
         // Search for the requirement's target by filter the relationships' templates of this node.
         // If a target is found, then lookup for the given property name in its capabilities.
         // For Docker containers X Marathon, the orchestrator replaces the PORT and IP_ADDRESS by the target's service port and the load balancer hostname
-        // respectively.
+        // respectively, or by the target's virtual IP port and address. Containers of the same pod connect on localhost.
         String requirementName = params.getCapabilityOrRequirementName();
         String propertyName = params.getElementNameToFetch();
 
@@ -316,7 +615,27 @@ public class BuilderService {
                     FunctionPropertyValue functionPropertyValue = new FunctionPropertyValue(params.getFunction(),
                             Lists.newArrayList("TARGET", targetedCapabilityName, propertyName));
 
-                    if (relationshipTemplate.instanceOf("tosca.relationships.ConnectsTo")) {
+                    final Optional<String> targetPod = Optional.ofNullable(paaSTopology.getAllNodes().get(target)).flatMap(PodBuilder::podName);
+                    if (relationshipTemplate.instanceOf("tosca.relationships.ConnectsTo") && targetPod.isPresent()
+                            && targetPod.equals(PodBuilder.podName(paaSNodeTemplate))) {
+                        // Containers of a pod share their network: connect on localhost, to the declared port
+                        if ("ip_address".equalsIgnoreCase(propertyName))
+                            return "localhost";
+                    } else if (relationshipTemplate.instanceOf("tosca.relationships.ConnectsTo") && serviceDiscoveryMode == ServiceDiscoveryMode.VIP) {
+                        // Virtual IPs: connect straight to the target's tasks
+                        if ("port".equalsIgnoreCase(propertyName))
+                            return String.valueOf(virtualIPPort(
+                                    FunctionEvaluator.evaluateGetPropertyFunction(functionPropertyValue, relationshipTemplate, paaSTopology.getAllNodes())));
+                        else if ("ip_address".equalsIgnoreCase(propertyName))
+                            return virtualIPName(deploymentID, target.toLowerCase(), targetedCapabilityName) + VIP_DOMAIN;
+                    } else if (relationshipTemplate.instanceOf("tosca.relationships.ConnectsTo") && targetPod.isPresent()) {
+                        // Pods have no service port: their host ports are allocated by Marathon, hence they are only reachable from other apps
+                        // through virtual IPs
+                        log.warn("App " + paaSNodeTemplate.getId() + " connects to pod " + targetPod.get() + " whose host ports are allocated by "
+                                + "Marathon: use the VIP service discovery to reach it");
+                        if ("ip_address".equalsIgnoreCase(propertyName))
+                            return targetPod.get() + "." + deploymentID + ".marathon.mesos";
+                    } else if (relationshipTemplate.instanceOf("tosca.relationships.ConnectsTo")) {
                         // Special marathon case: use service ports if the "Port" property is required.
                         final String endpointID = deploymentID + "/" + target.toLowerCase() + "/" + targetedCapabilityName;
                         if ("port".equalsIgnoreCase(propertyName)) {
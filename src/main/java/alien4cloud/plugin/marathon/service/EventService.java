@@ -1,8 +1,23 @@
 package alien4cloud.plugin.marathon.service;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
@@ -13,14 +28,26 @@ import org.glassfish.jersey.media.sse.SseFeature;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import alien4cloud.paas.model.AbstractMonitorEvent;
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.paas.model.PaaSDeploymentStatusMonitorEvent;
+import alien4cloud.paas.model.PaaSMessageMonitorEvent;
+import alien4cloud.plugin.marathon.metrics.DeploymentTrace;
+import alien4cloud.plugin.marathon.metrics.Histogram;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
 import alien4cloud.plugin.marathon.service.model.events.converters.DeploymentEventConverter;
 import alien4cloud.plugin.marathon.service.model.events.converters.StatusEventConverter;
+import alien4cloud.plugin.marathon.service.model.events.deployments.AbstractDeploymentEvent;
 import alien4cloud.plugin.marathon.service.model.events.deployments.DeploymentFailedEvent;
 import alien4cloud.plugin.marathon.service.model.events.deployments.DeploymentInfoEvent;
 import alien4cloud.plugin.marathon.service.model.events.deployments.DeploymentSuccessEvent;
 import alien4cloud.plugin.marathon.service.model.events.status.HealthStatusChangedEvent;
 import alien4cloud.plugin.marathon.service.model.events.status.StatusUpdateEvent;
+import alien4cloud.plugin.marathon.service.replay.EventCapture;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import mesosphere.marathon.client.utils.ModelUtils;
@@ -32,20 +59,71 @@ import mesosphere.marathon.client.utils.ModelUtils;
  */
 @Service
 @Slf4j
-@RequiredArgsConstructor(onConstructor=@__(@Autowired))
 public class EventService {
 
+    private final MappingService mappingService;
+
     private final DeploymentEventConverter deploymentEventConverter;
 
     private final StatusEventConverter statusEventConverter;
 
-    private final Queue<AbstractMonitorEvent> eventQueue = new LinkedList<>();;
+    private final MetricsRegistry metricsRegistry;
+
+    /**
+     * Events received before the mappings of their orchestrator are initialized are buffered, up to this count, so that they are not converted with
+     * unknown ids. Beyond it, the event stream waits for the mappings.
+     */
+    private static final int MAX_BUFFERED_EVENTS = 10000;
+
+    /**
+     * Events drained from each deployment in a round, so that the events of a deployment do not wait behind a noisy one.
+     */
+    private static final int EVENT_QUEUE_WEIGHT = 16;
+
+    /**
+     * Completes the long polls. Its thread is only started by the first long poll.
+     */
+    private final ScheduledExecutorService deliveryExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("marathon-event-delivery-%d").setDaemon(true).build());
+
+    /**
+     * Event streams of the orchestrators, with the monitor events queued for each one, by orchestrator id.
+     */
+    private final Map<String, EventStream> eventStreams = Maps.newConcurrentMap();
+
+    /**
+     * Notified with the id of each Marathon deployment which succeeded or failed.
+     */
+    private final List<Consumer<String>> deploymentCompletionListeners = new CopyOnWriteArrayList<>();
 
     /**
-     * Subscribe to Marathon event stream.
+     * Types of the Marathon events converted into monitor events.
+     */
+    public static final List<String> EVENT_TYPES = Collections.unmodifiableList(
+            Arrays.asList("status_update_event", "health_status_changed_event", "deployment_success", "deployment_failed", "deployment_info"));
+
+    private final Map<String, LongAdder> receivedCounters = Maps.newConcurrentMap();
+
+    private final Map<String, Histogram> conversionHistograms = Maps.newConcurrentMap();
+
+    @Autowired
+    public EventService(MappingService mappingService, DeploymentEventConverter deploymentEventConverter, StatusEventConverter statusEventConverter,
+            MetricsRegistry metricsRegistry) {
+        this.mappingService = mappingService;
+        this.deploymentEventConverter = deploymentEventConverter;
+        this.statusEventConverter = statusEventConverter;
+        this.metricsRegistry = metricsRegistry;
+        // The buffers of all the orchestrators are exported together
+        metricsRegistry.gauge("marathon_event_buffered_conversions",
+                () -> eventStreams.values().stream().mapToInt(EventStream::getBufferedConversionCount).sum());
+    }
+
+    /**
+     * Subscribe to the event stream of an orchestrator's Marathon. Its events are converted once the orchestrator's mappings are initialized.
+     * @param orchestratorId the id of the orchestrator
      * @param apiURL Marathon's api url.
      */
-    public void subscribe(String apiURL) {
+    public void subscribe(String orchestratorId, String apiURL) {
         // Setup an Event listener connected to Marathon's EventBus
         Client client = ClientBuilder.newBuilder().register(SseFeature.class).build();
         WebTarget target = client.target(apiURL.concat("/events"));
@@ -54,40 +132,496 @@ public class EventService {
         EventSource eventSource = EventSource.target(target).build();
 
         /* Register events listeners */
-        eventSource.register(inboundEvent -> eventQueue.add(statusEventConverter.fromStatusUpdateEvent(
-                ModelUtils.GSON.fromJson(inboundEvent.readData(String.class), StatusUpdateEvent.class)))
-            , "status_update_event");
+        EVENT_TYPES.forEach(
+                eventType -> eventSource.register(inboundEvent -> onEvent(orchestratorId, eventType, inboundEvent.readData(String.class)), eventType));
+        eventStream(orchestratorId).eventSource = eventSource;
 
-        eventSource.register(inboundEvent -> eventQueue.add(statusEventConverter.fromHealthStatusChangedEvent(
-                ModelUtils.GSON.fromJson(inboundEvent.readData(String.class), HealthStatusChangedEvent.class)))
-            , "health_status_changed_event");
+        convertOnceMapped(orchestratorId);
 
-        eventSource.register(inboundEvent -> eventQueue.add(deploymentEventConverter.fromDeploymentSuccessEvent(
-                ModelUtils.GSON.fromJson(inboundEvent.readData(String.class), DeploymentSuccessEvent.class)))
-            , "deployment_success");
+        if (!eventSource.isOpen()) eventSource.open();
+    }
 
-        eventSource.register(inboundEvent -> eventQueue.add(deploymentEventConverter.fromDeploymentFailedEvent(
-                ModelUtils.GSON.fromJson(inboundEvent.readData(String.class), DeploymentFailedEvent.class)))
-            , "deployment_failed");
+    /**
+     * Stop listening to the event stream of an orchestrator's Marathon, dropping the events not converted yet.
+     * @param orchestratorId the id of the orchestrator
+     */
+    public void unsubscribe(String orchestratorId) {
+        final EventStream stream = eventStreams.remove(orchestratorId);
+        if (stream == null)
+            return;
+        if (stream.eventSource != null)
+            stream.eventSource.close();
+        stream.stopCapture();
+        synchronized (stream) {
+            stream.closed = true;
+            stream.bufferedConversions.clear();
+            stream.notifyAll();
+        }
+        releaseParkedPolls(stream);
+        stream.queue.close();
+        metricsRegistry.removeGauge(queueLengthGaugeId(orchestratorId));
+    }
 
-        eventSource.register(inboundEvent -> eventQueue.add(deploymentEventConverter.fromDeploymentInfoEvent(
-                ModelUtils.GSON.fromJson(inboundEvent.readData(String.class), DeploymentInfoEvent.class)))
-            , "deployment_info");
+    /**
+     * Convert the events of an orchestrator received once its mappings are initialized, eg. when subscribing to Marathon or before replaying captured
+     * events.
+     * @param orchestratorId the id of the orchestrator
+     */
+    public void convertOnceMapped(String orchestratorId) {
+        final EventStream stream = eventStream(orchestratorId);
+        if (stream.conversionsScheduled.compareAndSet(false, true))
+            mappingService.whenInitialized(orchestratorId, () -> convertBufferedEvents(stream));
+    }
 
-        if (!eventSource.isOpen()) eventSource.open();
+    private EventStream eventStream(String orchestratorId) {
+        return eventStreams.computeIfAbsent(orchestratorId, this::newEventStream);
+    }
+
+    private EventStream newEventStream(String orchestratorId) {
+        final FairEventQueue queue = new FairEventQueue(metricsRegistry, orchestratorId, EVENT_QUEUE_WEIGHT);
+        metricsRegistry.gauge(queueLengthGaugeId(orchestratorId), queue::size);
+        return new EventStream(queue);
+    }
+
+    private static String queueLengthGaugeId(String orchestratorId) {
+        return MetricsRegistry.id("marathon_event_queue_length", "orchestrator", orchestratorId);
     }
 
     /**
-     * Poll all events from Marathon then flush the Queue.
-     * @return All events in the Queue.
+     * Handle an event of the Marathon event stream of an orchestrator: capture it if a capture is running, then convert it into monitor events.
+     *
+     * @param orchestratorId the id of the orchestrator
+     * @param eventType the type of the event, eg. <code>status_update_event</code>
+     * @param data the JSON data of the event
+     */
+    public void onEvent(String orchestratorId, String eventType, String data) {
+        final EventStream stream = eventStreams.get(orchestratorId);
+        if (stream == null)
+            return; // Unsubscribed
+        final EventCapture capture = stream.capture;
+        if (capture != null)
+            capture.record(eventType, data);
+        final Runnable conversion = parse(stream, eventType, data);
+        if (conversion == null)
+            return; // Not handled
+
+        receivedCounters.computeIfAbsent(eventType, type -> metricsRegistry.counter(MetricsRegistry.id("marathon_events_received_total", "type", type)))
+                .increment();
+        final Histogram conversionTime = conversionHistograms.computeIfAbsent(eventType,
+                type -> metricsRegistry.histogram("marathon_event_conversion_milliseconds", Histogram.PROCESSING_BUCKETS, "type", type));
+        convertWhenMapped(stream, () -> {
+            final long start = System.nanoTime();
+            conversion.run();
+            conversionTime.observeSince(start);
+        });
+    }
+
+    /**
+     * Parse the data of an event into its conversion, which queues the monitor events for the orchestrator of the stream.
+     *
+     * @return the conversion, or null if the type of event is not handled
+     */
+    private Runnable parse(EventStream stream, String eventType, String data) {
+        switch (eventType) {
+        case "status_update_event": {
+            final StatusUpdateEvent marathonEvent = ModelUtils.GSON.fromJson(data, StatusUpdateEvent.class);
+            return () -> queue(stream, statusEventConverter.fromStatusUpdateEvent(marathonEvent));
+        }
+        case "health_status_changed_event": {
+            final HealthStatusChangedEvent marathonEvent = ModelUtils.GSON.fromJson(data, HealthStatusChangedEvent.class);
+            return () -> queue(stream, statusEventConverter.fromHealthStatusChangedEvent(marathonEvent));
+        }
+        case "deployment_success": {
+            final DeploymentSuccessEvent marathonEvent = ModelUtils.GSON.fromJson(data, DeploymentSuccessEvent.class);
+            return () -> onDeploymentEvent(stream, marathonEvent, deploymentEventConverter::fromDeploymentSuccessEvent);
+        }
+        case "deployment_failed": {
+            final DeploymentFailedEvent marathonEvent = ModelUtils.GSON.fromJson(data, DeploymentFailedEvent.class);
+            return () -> onDeploymentEvent(stream, marathonEvent, deploymentEventConverter::fromDeploymentFailedEvent);
+        }
+        case "deployment_info": {
+            final DeploymentInfoEvent marathonEvent = ModelUtils.GSON.fromJson(data, DeploymentInfoEvent.class);
+            return () -> onDeploymentEvent(stream, marathonEvent, deploymentEventConverter::fromDeploymentInfoEvent);
+        }
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Capture the events of an orchestrator received from now on into a new file of a directory, replacing any running capture of the orchestrator.
+     *
+     * @param orchestratorId the id of the orchestrator
+     * @param directory the directory of the captures
+     * @throws IOException if the capture file cannot be created
+     */
+    public void startCapture(String orchestratorId, Path directory) throws IOException {
+        final EventCapture newCapture = EventCapture.create(directory);
+        log.info("Capturing the Marathon events of " + orchestratorId + " into " + newCapture.getFile());
+        final EventCapture previousCapture = eventStream(orchestratorId).capture;
+        eventStream(orchestratorId).capture = newCapture;
+        if (previousCapture != null)
+            previousCapture.close();
+    }
+
+    /**
+     * Stop capturing the events of an orchestrator.
+     *
+     * @param orchestratorId the id of the orchestrator
+     */
+    public void stopCapture(String orchestratorId) {
+        Optional.ofNullable(eventStreams.get(orchestratorId)).ifPresent(EventStream::stopCapture);
+    }
+
+    /**
+     * Convert an event right away if the mappings of its stream are initialized, later otherwise.
+     */
+    private void convertWhenMapped(EventStream stream, Runnable conversion) {
+        synchronized (stream) {
+            // Once the buffer is full, the stream waits rather than converting its events ahead of the buffered ones
+            while (!stream.mappingsInitialized && !stream.closed && stream.bufferedConversions.size() >= MAX_BUFFERED_EVENTS) {
+                try {
+                    stream.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (stream.closed)
+                return;
+            if (!stream.mappingsInitialized) {
+                stream.bufferedConversions.add(conversion);
+                return;
+            }
+        }
+        conversion.run();
+    }
+
+    private void convertBufferedEvents(EventStream stream) {
+        synchronized (stream) {
+            if (!stream.bufferedConversions.isEmpty())
+                log.info("Converting " + stream.bufferedConversions.size() + " events received before the mappings were initialized");
+            stream.bufferedConversions.forEach(Runnable::run);
+            stream.bufferedConversions.clear();
+            stream.mappingsInitialized = true;
+            stream.notifyAll();
+        }
+    }
+
+    /**
+     * Queue the monitor events of a deployment event. Batched Marathon deployments result in an event for each Alien deployment they cover.
+     */
+    private <T extends AbstractDeploymentEvent> void onDeploymentEvent(EventStream stream, T marathonEvent,
+            Function<T, PaaSDeploymentStatusMonitorEvent> converter) {
+        if (!(marathonEvent instanceof DeploymentInfoEvent)) {
+            deploymentCompletionListeners.forEach(listener -> listener.accept(marathonEvent.getId()));
+            recordDuration(stream, marathonEvent);
+        }
+        final List<PaaSDeploymentStatusMonitorEvent> monitorEvents = mappingService.isBatchDeployment(marathonEvent.getId())
+                ? deploymentEventConverter.fromBatchDeploymentEvent(marathonEvent) : Lists.newArrayList(converter.apply(marathonEvent));
+        monitorEvents.forEach(monitorEvent -> queue(stream, monitorEvent));
+        monitorEvents.forEach(monitorEvent -> reportTrace(stream, monitorEvent));
+    }
+
+    /**
+     * Export the phases of an Alien deployment whose trace was closed by a status event, and report them along the status event.
+     */
+    private void reportTrace(EventStream stream, PaaSDeploymentStatusMonitorEvent statusEvent) {
+        mappingService.removeFinishedDeploymentTrace(statusEvent.getDeploymentId()).ifPresent(trace -> {
+            final String outcome = statusEvent.getDeploymentStatus() == DeploymentStatus.DEPLOYED ? "success" : "failure";
+            trace.getDurations().ifPresent(durations -> durations.forEach((phase, duration) -> metricsRegistry.histogram(
+                    "marathon_deployment_phase_milliseconds", Histogram.DEPLOYMENT_BUCKETS, "phase", phase, "outcome", outcome).observe(duration)));
+
+            // Monitor events of the deployment status cannot carry more data
+            final PaaSMessageMonitorEvent messageEvent = new PaaSMessageMonitorEvent();
+            messageEvent.setDeploymentId(statusEvent.getDeploymentId());
+            messageEvent.setDate(statusEvent.getDate());
+            messageEvent.setMessage("Deployment phases: " + trace.describe());
+            queue(stream, messageEvent);
+        });
+    }
+
+    /**
+     * Measure how long the Alien deployments covered by a Marathon deployment took to roll out, from the submission of the Marathon deployment.
+     */
+    private void recordDuration(EventStream stream, AbstractDeploymentEvent marathonEvent) {
+        final boolean success = marathonEvent instanceof DeploymentSuccessEvent;
+        final String outcome = success ? "success" : "failure";
+        final long now = System.currentTimeMillis();
+        mappingService.getAlienDeploymentInfos(marathonEvent.getId()).forEach(deploymentMapping -> {
+            final long duration = now - deploymentMapping.getRegistrationTime();
+            metricsRegistry.counter(MetricsRegistry.id("marathon_deployment_duration_milliseconds_sum", "outcome", outcome)).add(duration);
+            metricsRegistry.counter(MetricsRegistry.id("marathon_deployment_duration_milliseconds_count", "outcome", outcome)).increment();
+
+            final PaaSMessageMonitorEvent messageEvent = new PaaSMessageMonitorEvent();
+            messageEvent.setDeploymentId(deploymentMapping.getAlienDeploymentId());
+            messageEvent.setDate(now);
+            messageEvent.setMessage((deploymentMapping.getStatus() == DeploymentStatus.UNDEPLOYMENT_IN_PROGRESS ? "Undeployment" : "Deployment")
+                    + (success ? " completed in " : " failed after ") + TimeUnit.MILLISECONDS.toSeconds(duration) + "s");
+            queue(stream, messageEvent);
+        });
+    }
+
+    /**
+     * Queue an event emitted by the plugin itself, for the orchestrator of its deployment.
+     * @param event the monitor event
+     */
+    public void publish(AbstractMonitorEvent event) {
+        final Optional<EventStream> stream = ownerStream(event.getDeploymentId());
+        if (stream.isPresent())
+            queue(stream.get(), event);
+        else
+            log.warn("Dropping a monitor event of deployment " + event.getDeploymentId() + ", which belongs to no running orchestrator");
+    }
+
+    /**
+     * Report the failure of an Alien deployment detected by the plugin itself, eg. when Marathon rejects its definitions. The trace of the
+     * deployment is closed.
+     * @param alienDeploymentId the id of the deployment in Alien
+     * @param message the cause of the failure
      */
-    public AbstractMonitorEvent[] flushEvents() {
-        ArrayList<AbstractMonitorEvent> events = new ArrayList<>(eventQueue.size());
-        AbstractMonitorEvent e;
-        while (( e = eventQueue.poll()) != null) {
-            events.add(e);
+    public void publishDeploymentFailure(String alienDeploymentId, String message) {
+        final Optional<EventStream> stream = ownerStream(alienDeploymentId);
+        if (!stream.isPresent()) {
+            log.warn("Dropping the failure of deployment " + alienDeploymentId + ", which belongs to no running orchestrator: " + message);
+            return;
         }
+        final long now = System.currentTimeMillis();
+        final PaaSMessageMonitorEvent messageEvent = new PaaSMessageMonitorEvent();
+        messageEvent.setDeploymentId(alienDeploymentId);
+        messageEvent.setDate(now);
+        messageEvent.setMessage(message);
+        queue(stream.get(), messageEvent);
+
+        final PaaSDeploymentStatusMonitorEvent statusEvent = new PaaSDeploymentStatusMonitorEvent();
+        statusEvent.setDeploymentId(alienDeploymentId);
+        statusEvent.setDeploymentStatus(DeploymentStatus.FAILURE);
+        statusEvent.setDate(now);
+        queue(stream.get(), statusEvent);
+        mappingService.getDeploymentTrace(alienDeploymentId).ifPresent(DeploymentTrace::finish);
+        reportTrace(stream.get(), statusEvent);
+    }
+
+    /**
+     * @return the stream of the orchestrator which owns a deployment, unless the orchestrator is not running.
+     */
+    private Optional<EventStream> ownerStream(String alienDeploymentId) {
+        return Optional.ofNullable(alienDeploymentId).flatMap(mappingService::getDeploymentOwner).map(eventStreams::get);
+    }
+
+    private void queue(EventStream stream, AbstractMonitorEvent event) {
+        stream.queue.add(event);
+        wakeParkedPoll(stream);
+    }
+
+    public void addDeploymentCompletionListener(Consumer<String> listener) {
+        deploymentCompletionListeners.add(listener);
+    }
+
+    public void removeDeploymentCompletionListener(Consumer<String> listener) {
+        deploymentCompletionListeners.remove(listener);
+    }
+
+    /**
+     * Flush the Queue of an orchestrator.
+     * @param orchestratorId the id of the orchestrator
+     * @return All events in the Queue.
+     */
+    public AbstractMonitorEvent[] flushEvents(String orchestratorId) {
+        return flushEvents(orchestratorId, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Flush up to a number of events from the Queue of an orchestrator.
+     * @param orchestratorId the id of the orchestrator
+     * @param maxEvents maximum number of events
+     * @return The oldest events in the Queue.
+     */
+    public AbstractMonitorEvent[] flushEvents(String orchestratorId, int maxEvents) {
+        return flushEvents(eventStream(orchestratorId), maxEvents);
+    }
+
+    private static AbstractMonitorEvent[] flushEvents(EventStream stream, int maxEvents) {
+        List<AbstractMonitorEvent> events = stream.queue.drain(maxEvents);
         return events.toArray(new AbstractMonitorEvent[events.size()]);
     }
 
+    /**
+     * Overflow the events of an orchestrator to memory-mapped segments in a directory, once a number of its events are held in memory, eg. while
+     * Alien stops polling.
+     * @param orchestratorId the id of the orchestrator
+     * @param directory the directory of the segments, used by this orchestrator only
+     * @param memoryThreshold the number of events held in memory before overflowing
+     * @throws IOException if the directory cannot be used
+     */
+    public void enableSpill(String orchestratorId, Path directory, int memoryThreshold) throws IOException {
+        eventStream(orchestratorId).queue.setSpill(EventSpill.open(directory, EventSpill.SEGMENT_SIZE), memoryThreshold);
+        log.info("Monitor events of " + orchestratorId + " beyond " + memoryThreshold + " are spilled to " + directory);
+    }
+
+    /**
+     * Hold all the events of an orchestrator in memory again, closing its spill.
+     * @param orchestratorId the id of the orchestrator
+     */
+    public void disableSpill(String orchestratorId) {
+        Optional.ofNullable(eventStreams.get(orchestratorId)).ifPresent(stream -> stream.queue.setSpill(null, 0));
+    }
+
+    /**
+     * Cap the rate of the instance events of each deployment of an orchestrator, beyond which they are summarized.
+     * @param orchestratorId the id of the orchestrator
+     * @param eventsPerMinute maximum number of instance events per deployment and per minute, 0 for no cap
+     */
+    public void setEventRateCap(String orchestratorId, int eventsPerMinute) {
+        eventStream(orchestratorId).queue.setRateCap(
+                eventsPerMinute <= 0 ? 0 : (int) Math.max(1, eventsPerMinute * FairEventQueue.RATE_WINDOW_MILLIS / TimeUnit.MINUTES.toMillis(1)));
+    }
+
+    /**
+     * The Marathon event stream of an orchestrator, and the monitor events queued for the orchestrator.
+     */
+    private static class EventStream {
+        /**
+         * Monitor events, queued by the event stream, deployment and reconciliation threads and flushed by Alien's polling.
+         */
+        private final FairEventQueue queue;
+        /**
+         * Long polls waiting for events, oldest first.
+         */
+        private final Queue<ParkedPoll> parkedPolls = new ConcurrentLinkedQueue<>();
+        /**
+         * Whether a wake of the parked polls is scheduled for the end of a rate window with summarized events.
+         */
+        private final AtomicBoolean summaryWakeScheduled = new AtomicBoolean();
+        private volatile EventSource eventSource;
+        /**
+         * Capture of the received events, if running.
+         */
+        private volatile EventCapture capture;
+        private final AtomicBoolean conversionsScheduled = new AtomicBoolean();
+        /**
+         * Conversions of the events received before the mappings are initialized. Guarded by the stream, as are the fields below.
+         */
+        private final List<Runnable> bufferedConversions = Lists.newArrayList();
+        private boolean mappingsInitialized = false;
+        private boolean closed = false;
+
+        private EventStream(FairEventQueue queue) {
+            this.queue = queue;
+        }
+
+        private synchronized int getBufferedConversionCount() {
+            return bufferedConversions.size();
+        }
+
+        private void stopCapture() {
+            final EventCapture currentCapture = capture;
+            capture = null;
+            if (currentCapture != null)
+                currentCapture.close();
+        }
+    }
+
+    /**
+     * A long poll, waiting for events.
+     */
+    @RequiredArgsConstructor
+    private static class ParkedPoll {
+        private final EventStream stream;
+        private final int maxEvents;
+        private final long lingerMillis;
+        private final Consumer<AbstractMonitorEvent[]> delivery;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean completed = new AtomicBoolean();
+        /**
+         * Whether its completion is already scheduled, once events are queued or its batch is full.
+         */
+        private final AtomicBoolean lingering = new AtomicBoolean();
+        private final AtomicBoolean batchFull = new AtomicBoolean();
+        private volatile ScheduledFuture<?> timeout;
+    }
+
+    /**
+     * Deliver events once they are queued, rather than right away: the poll is parked until its batch is full, or until a short linger after the
+     * first event is queued, or until a timeout. No thread is held while the poll is parked, the events are delivered by the delivery thread.
+     * <p>
+     * Polls are served in order, each with its own batch of the orchestrator's events.
+     *
+     * @param orchestratorId the id of the orchestrator
+     * @param maxEvents the maximum number of events delivered
+     * @param timeoutMillis the time after which the poll completes, even without events
+     * @param lingerMillis the time the poll waits for more events once an event is queued, so that bursts are delivered together
+     * @param delivery called with the events, possibly none
+     */
+    public void pollEvents(String orchestratorId, int maxEvents, long timeoutMillis, long lingerMillis, Consumer<AbstractMonitorEvent[]> delivery) {
+        final EventStream stream = eventStream(orchestratorId);
+        final ParkedPoll poll = new ParkedPoll(stream, Math.max(1, maxEvents), lingerMillis, delivery);
+        poll.timeout = deliveryExecutor.schedule(() -> completePoll(poll, "timeout"), timeoutMillis, TimeUnit.MILLISECONDS);
+        stream.parkedPolls.add(poll);
+        // Events may already be queued
+        wakeParkedPoll(stream);
+    }
+
+    /**
+     * Schedule the completion of the oldest parked poll of a stream, if events are queued or spilled, or once the summarized events are due.
+     */
+    private void wakeParkedPoll(EventStream stream) {
+        ParkedPoll poll;
+        while ((poll = stream.parkedPolls.peek()) != null && poll.completed.get())
+            stream.parkedPolls.remove(poll);
+        if (poll == null)
+            return;
+        final ParkedPoll oldestPoll = poll;
+        final int queued = stream.queue.pendingCount();
+        if (queued >= oldestPoll.maxEvents) {
+            if (oldestPoll.batchFull.compareAndSet(false, true))
+                deliveryExecutor.execute(() -> completePoll(oldestPoll, "batch"));
+        } else if (queued > 0) {
+            if (oldestPoll.lingering.compareAndSet(false, true))
+                deliveryExecutor.schedule(() -> completePoll(oldestPoll, "events"), oldestPoll.lingerMillis, TimeUnit.MILLISECONDS);
+        } else {
+            // Summarized events are only delivered at the end of their rate window
+            final long summaryDelay = stream.queue.nextSummaryDelay();
+            if (summaryDelay >= 0 && stream.summaryWakeScheduled.compareAndSet(false, true))
+                deliveryExecutor.schedule(() -> {
+                    stream.summaryWakeScheduled.set(false);
+                    wakeParkedPoll(stream);
+                }, summaryDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void completePoll(ParkedPoll poll, String trigger) {
+        if (!poll.completed.compareAndSet(false, true))
+            return;
+        poll.stream.parkedPolls.remove(poll);
+        if (poll.timeout != null)
+            poll.timeout.cancel(false);
+        final AbstractMonitorEvent[] events = flushEvents(poll.stream, poll.maxEvents);
+        metricsRegistry.histogram("marathon_event_poll_wait_milliseconds", Histogram.LATENCY_BUCKETS, "trigger", trigger).observeSince(poll.start);
+        metricsRegistry.counter(MetricsRegistry.id("marathon_event_polls_total", "result", events.length == 0 ? "empty" : "events")).increment();
+        try {
+            poll.delivery.accept(events);
+        } catch (RuntimeException e) {
+            log.error("Failure while delivering " + events.length + " events to Alien", e);
+        }
+        // The next poll may already have events
+        wakeParkedPoll(poll.stream);
+    }
+
+    /**
+     * Complete the parked polls of an orchestrator right away, eg. when the orchestrator is destroyed.
+     * @param orchestratorId the id of the orchestrator
+     */
+    public void releaseParkedPolls(String orchestratorId) {
+        Optional.ofNullable(eventStreams.get(orchestratorId)).ifPresent(this::releaseParkedPolls);
+    }
+
+    private void releaseParkedPolls(EventStream stream) {
+        ParkedPoll poll;
+        while ((poll = stream.parkedPolls.poll()) != null) {
+            final ParkedPoll releasedPoll = poll;
+            deliveryExecutor.execute(() -> completePoll(releasedPoll, "release"));
+        }
+    }
+
 }
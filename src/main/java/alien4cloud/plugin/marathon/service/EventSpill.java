@@ -0,0 +1,366 @@
+package alien4cloud.plugin.marathon.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import alien4cloud.paas.model.AbstractMonitorEvent;
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.paas.model.InstanceStatus;
+import alien4cloud.paas.model.PaaSDeploymentStatusMonitorEvent;
+import alien4cloud.paas.model.PaaSInstanceStateMonitorEvent;
+import alien4cloud.paas.model.PaaSMessageMonitorEvent;
+import lombok.extern.slf4j.Slf4j;
+import mesosphere.marathon.client.utils.ModelUtils;
+
+/**
+ * Overflow of the monitor events on disk, in memory-mapped segment files, read back in the order the events were appended.
+ * <p>
+ * Each record is its length as a varint followed by the event: its type, the delta of its date with the previous event of the segment, then its
+ * fields. Repeated strings, eg. deployment and node ids or states, are written once per segment and then referenced by index. Fully read segments
+ * are unmapped and deleted. The spill only bridges Alien outages: segments left by a previous run are deleted on open, as the reconciliation
+ * corrects the states.
+ */
+@Slf4j
+public class EventSpill implements Closeable {
+
+    public static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".spill";
+
+    private static final int INSTANCE_STATE = 1;
+    private static final int DEPLOYMENT_STATUS = 2;
+    private static final int MESSAGE = 3;
+    /**
+     * Other events, as the class name then JSON.
+     */
+    private static final int OTHER = 4;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    /**
+     * Segments being read first, the one being written last.
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private long nextSegmentId = 0;
+
+    private int size = 0;
+
+    private long byteSize = 0;
+
+    private final ByteArrayOutputStream scratch = new ByteArrayOutputStream(256);
+
+    /**
+     * Strings and date written or read so far in a segment.
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> ids = Maps.newHashMap();
+        private final List<String> strings = Lists.newArrayList();
+        private long lastDate = 0;
+    }
+
+    private static class Segment {
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private final Dictionary writeDictionary;
+        private final Dictionary readDictionary = new Dictionary();
+        private int writePosition = 0;
+        private int readPosition = 0;
+
+        private Segment(Path file, MappedByteBuffer buffer, Dictionary writeDictionary) {
+            this.file = file;
+            this.buffer = buffer;
+            this.writeDictionary = writeDictionary;
+        }
+    }
+
+    private EventSpill(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Open a spill in a directory, deleting the segments of a previous run.
+     *
+     * @param directory the directory of the segments, dedicated to the spill, created if needed
+     * @param segmentSize the size of the segments, in bytes
+     * @return the spill
+     * @throws IOException if the directory cannot be used
+     */
+    public static EventSpill open(Path directory, int segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> staleSegments = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path staleSegment : staleSegments)
+                Files.delete(staleSegment);
+        }
+        return new EventSpill(directory, segmentSize);
+    }
+
+    /**
+     * @return the number of events spilled and not read yet.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes of the events spilled and not read yet.
+     */
+    public synchronized long byteSize() {
+        return byteSize;
+    }
+
+    public synchronized void append(AbstractMonitorEvent event) throws IOException {
+        Segment segment = segments.peekLast();
+        byte[] record = segment == null ? null : encode(event, segment.writeDictionary);
+        if (record == null || record.length > segment.buffer.capacity() - segment.writePosition) {
+            // Strings are written again in a new segment, with its own dictionary
+            final Dictionary dictionary = new Dictionary();
+            record = encode(event, dictionary);
+            segment = newSegment(Math.max(segmentSize, record.length), dictionary);
+        }
+        segment.buffer.position(segment.writePosition);
+        segment.buffer.put(record);
+        segment.writePosition += record.length;
+        size++;
+        byteSize += record.length;
+    }
+
+    /**
+     * @return the oldest event not read yet, null if none.
+     */
+    public synchronized AbstractMonitorEvent poll() throws IOException {
+        Segment segment;
+        while ((segment = segments.peekFirst()) != null) {
+            if (segment.readPosition < segment.writePosition) {
+                final ByteBuffer record = segment.buffer.duplicate();
+                record.position(segment.readPosition);
+                final int length = (int) readVarLong(record);
+                record.limit(record.position() + length);
+                final int recordSize = record.limit() - segment.readPosition;
+                segment.readPosition = record.limit();
+                size--;
+                byteSize -= recordSize;
+                return decode(record, segment.readDictionary);
+            }
+            // Fully read, including the segment being written: the next event starts a new segment
+            segments.pollFirst();
+            unmap(segment);
+            Files.deleteIfExists(segment.file);
+        }
+        return null;
+    }
+
+    /**
+     * Delete the segments, dropping the events not read yet.
+     */
+    @Override
+    public synchronized void close() {
+        if (size > 0)
+            log.warn("Dropping " + size + " monitor events spilled to " + directory);
+        segments.forEach(segment -> {
+            unmap(segment);
+            try {
+                Files.deleteIfExists(segment.file);
+            } catch (IOException e) {
+                log.error("Failure while deleting the event spill segment " + segment.file + " - Got message: " + e.getMessage());
+            }
+        });
+        segments.clear();
+        size = 0;
+        byteSize = 0;
+    }
+
+    /**
+     * Release the mapping of a segment before its file is deleted, rather than when the buffer is collected: the file may not be deleted while it
+     * is mapped, and its pages stay reserved meanwhile. The segment is no longer read nor written.
+     */
+    private static void unmap(Segment segment) {
+        try {
+            try {
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Field unsafe = unsafeClass.getDeclaredField("theUnsafe");
+                unsafe.setAccessible(true);
+                unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(unsafe.get(null), segment.buffer);
+            } catch (NoSuchMethodException e) {
+                // Before Java 9, the buffer releases its mapping through its cleaner
+                final Method cleanerMethod = segment.buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(segment.buffer);
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Unable to unmap the event spill segment " + segment.file + ", left to the garbage collector - Got message: " + e.getMessage());
+        }
+    }
+
+    private Segment newSegment(int capacity, Dictionary dictionary) throws IOException {
+        final Path file = directory.resolve("events-" + nextSegmentId++ + SEGMENT_SUFFIX);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final Segment segment = new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity), dictionary);
+            segments.addLast(segment);
+            return segment;
+        }
+    }
+
+    /**
+     * Encode a record: its length, then the event.
+     */
+    private byte[] encode(AbstractMonitorEvent event, Dictionary dictionary) {
+        scratch.reset();
+        if (event instanceof PaaSInstanceStateMonitorEvent) {
+            final PaaSInstanceStateMonitorEvent instanceEvent = (PaaSInstanceStateMonitorEvent) event;
+            writeHeader(INSTANCE_STATE, event, dictionary);
+            writeString(instanceEvent.getNodeTemplateId(), dictionary);
+            writeString(instanceEvent.getInstanceId(), dictionary);
+            writeString(instanceEvent.getInstanceState(), dictionary);
+            writeString(instanceEvent.getInstanceStatus() == null ? null : instanceEvent.getInstanceStatus().name(), dictionary);
+        } else if (event instanceof PaaSDeploymentStatusMonitorEvent) {
+            final DeploymentStatus status = ((PaaSDeploymentStatusMonitorEvent) event).getDeploymentStatus();
+            writeHeader(DEPLOYMENT_STATUS, event, dictionary);
+            writeString(status == null ? null : status.name(), dictionary);
+        } else if (event instanceof PaaSMessageMonitorEvent) {
+            writeHeader(MESSAGE, event, dictionary);
+            writeString(((PaaSMessageMonitorEvent) event).getMessage(), null);
+        } else {
+            writeHeader(OTHER, event, dictionary);
+            writeString(event.getClass().getName(), dictionary);
+            writeString(ModelUtils.GSON.toJson(event), null);
+        }
+        final byte[] body = scratch.toByteArray();
+        scratch.reset();
+        writeVarLong(body.length);
+        scratch.write(body, 0, body.length);
+        return scratch.toByteArray();
+    }
+
+    private void writeHeader(int type, AbstractMonitorEvent event, Dictionary dictionary) {
+        scratch.write(type);
+        final long delta = event.getDate() - dictionary.lastDate;
+        writeVarLong((delta << 1) ^ (delta >> 63)); // Zigzag, as events are not ordered by date
+        dictionary.lastDate = event.getDate();
+        writeString(event.getDeploymentId(), dictionary);
+    }
+
+    /**
+     * Write a string: 0 for null, a reference to a string of the dictionary (odd), or the length of a literal (even) followed by its bytes.
+     *
+     * @param dictionary the dictionary the string is added to, null to write it as a literal, eg. for messages
+     */
+    private void writeString(String string, Dictionary dictionary) {
+        if (string == null) {
+            writeVarLong(0);
+            return;
+        }
+        if (dictionary != null) {
+            final Integer id = dictionary.ids.get(string);
+            if (id != null) {
+                writeVarLong(((long) id << 1) | 1);
+                return;
+            }
+            dictionary.ids.put(string, dictionary.ids.size());
+        }
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarLong((long) (bytes.length + 1) << 1);
+        scratch.write(bytes, 0, bytes.length);
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            scratch.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        scratch.write((int) value);
+    }
+
+    private static AbstractMonitorEvent decode(ByteBuffer record, Dictionary dictionary) throws IOException {
+        final int type = record.get();
+        final long zigzag = readVarLong(record);
+        final long date = dictionary.lastDate + ((zigzag >>> 1) ^ -(zigzag & 1));
+        dictionary.lastDate = date;
+        final String deploymentId = readString(record, dictionary, true);
+
+        final AbstractMonitorEvent event;
+        switch (type) {
+        case INSTANCE_STATE:
+            final PaaSInstanceStateMonitorEvent instanceEvent = new PaaSInstanceStateMonitorEvent();
+            instanceEvent.setNodeTemplateId(readString(record, dictionary, true));
+            instanceEvent.setInstanceId(readString(record, dictionary, true));
+            instanceEvent.setInstanceState(readString(record, dictionary, true));
+            final String instanceStatus = readString(record, dictionary, true);
+            instanceEvent.setInstanceStatus(instanceStatus == null ? null : InstanceStatus.valueOf(instanceStatus));
+            event = instanceEvent;
+            break;
+        case DEPLOYMENT_STATUS:
+            final PaaSDeploymentStatusMonitorEvent statusEvent = new PaaSDeploymentStatusMonitorEvent();
+            final String deploymentStatus = readString(record, dictionary, true);
+            statusEvent.setDeploymentStatus(deploymentStatus == null ? null : DeploymentStatus.valueOf(deploymentStatus));
+            event = statusEvent;
+            break;
+        case MESSAGE:
+            final PaaSMessageMonitorEvent messageEvent = new PaaSMessageMonitorEvent();
+            messageEvent.setMessage(readString(record, dictionary, false));
+            event = messageEvent;
+            break;
+        case OTHER:
+            final String className = readString(record, dictionary, true);
+            try {
+                event = (AbstractMonitorEvent) ModelUtils.GSON.fromJson(readString(record, dictionary, false), Class.forName(className));
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unknown monitor event " + className + " in the event spill", e);
+            }
+            break;
+        default:
+            throw new IOException("Unknown record type " + type + " in the event spill");
+        }
+        event.setDate(date);
+        event.setDeploymentId(deploymentId);
+        return event;
+    }
+
+    private static String readString(ByteBuffer record, Dictionary dictionary, boolean interned) {
+        final long value = readVarLong(record);
+        if (value == 0)
+            return null;
+        if ((value & 1) == 1)
+            return dictionary.strings.get((int) (value >>> 1));
+        final byte[] bytes = new byte[(int) (value >>> 1) - 1];
+        record.get(bytes);
+        final String string = new String(bytes, StandardCharsets.UTF_8);
+        if (interned)
+            dictionary.strings.add(string);
+        return string;
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalStateException("Malformed varint in the event spill");
+    }
+}
@@ -0,0 +1,399 @@
+package alien4cloud.plugin.marathon.service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import alien4cloud.paas.model.AbstractMonitorEvent;
+import alien4cloud.paas.model.PaaSInstanceStateMonitorEvent;
+import alien4cloud.paas.model.PaaSMessageMonitorEvent;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Queue of monitor events partitioned by Alien deployment, drained in weighted round-robin so that a noisy deployment, eg. with a crash-looping app,
+ * does not delay the events of the others.
+ * <p>
+ * Beyond a rate cap, the instance events of a deployment are summarized until the end of the rate window: only the latest event of each instance is
+ * kept, then delivered along a message counting the summarized events. The deployment is also demoted to one event per round meanwhile. Deployment
+ * status events and messages are never summarized: the summary is delivered ahead of them, so that they still follow the instance events.
+ * <p>
+ * Once a number of events are held in memory, eg. when Alien stops polling, the next events overflow to an {@link EventSpill} until it is read
+ * back, so that they are queued in the order they were added.
+ */
+@Slf4j
+public class FairEventQueue {
+
+    /**
+     * Length of the windows over which the rate of the instance events of a deployment is capped.
+     */
+    public static final long RATE_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Lane of the events not related to a deployment.
+     */
+    private static final String NO_DEPLOYMENT = "";
+
+    private final MetricsRegistry metricsRegistry;
+
+    /**
+     * Id of the orchestrator whose events are queued, which labels the gauges of the spill.
+     */
+    private final String orchestratorId;
+
+    /**
+     * Events drained from each deployment in a round, unless it is over the rate cap.
+     */
+    private final int weight;
+
+    private final LongSupplier clock;
+
+    /**
+     * Maximum number of instance events of a deployment queued per rate window. 0 disables the cap.
+     */
+    private volatile int rateCap = 0;
+
+    private final Map<String, Lane> lanes = Maps.newConcurrentMap();
+
+    /**
+     * Lanes with events to drain, each at most once, in round-robin order.
+     */
+    private final Queue<Lane> activeLanes = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Lanes with summarized events, delivered once their rate window ends.
+     */
+    private final Set<Lane> summarizingLanes = Sets.newConcurrentHashSet();
+
+    /**
+     * Overflow of the events, if any. Guarded by <code>spillLock</code>, as are the events added while the spill is set.
+     */
+    private volatile EventSpill spill;
+
+    private int memoryThreshold;
+
+    private final Object spillLock = new Object();
+
+    public FairEventQueue(MetricsRegistry metricsRegistry, String orchestratorId, int weight) {
+        this(metricsRegistry, orchestratorId, weight, System::currentTimeMillis);
+    }
+
+    FairEventQueue(MetricsRegistry metricsRegistry, String orchestratorId, int weight, LongSupplier clock) {
+        this.metricsRegistry = metricsRegistry;
+        this.orchestratorId = orchestratorId;
+        this.weight = weight;
+        this.clock = clock;
+    }
+
+    /**
+     * Events of a deployment. Guarded by itself.
+     */
+    private static class Lane {
+        private final String deploymentId;
+        private final Queue<AbstractMonitorEvent> events = new ArrayDeque<>();
+        /**
+         * Whether the lane is in the active lanes.
+         */
+        private boolean scheduled = false;
+        /**
+         * Whether the lane was removed, once drained and idle for a rate window.
+         */
+        private boolean retired = false;
+        private long windowStart;
+        private int windowCount = 0;
+        /**
+         * Latest summarized event of each instance, in the current window.
+         */
+        private final Map<String, PaaSInstanceStateMonitorEvent> summarizedStates = new LinkedHashMap<>();
+        private int summarizedEvents = 0;
+
+        private Lane(String deploymentId, long windowStart) {
+            this.deploymentId = deploymentId;
+            this.windowStart = windowStart;
+        }
+    }
+
+    public void setRateCap(int rateCap) {
+        this.rateCap = rateCap;
+    }
+
+    /**
+     * @return the number of events queued in memory, excluding the ones being summarized.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return the number of events to deliver: the ones queued in memory or spilled, and the summaries of the rate windows which ended.
+     */
+    public int pendingCount() {
+        final EventSpill currentSpill = spill;
+        final long now = clock.getAsLong();
+        int summaries = 0;
+        for (Lane lane : summarizingLanes) {
+            synchronized (lane) {
+                if (lane.summarizedEvents > 0 && now - lane.windowStart >= RATE_WINDOW_MILLIS)
+                    summaries += 1 + lane.summarizedStates.size();
+            }
+        }
+        return size.get() + (currentSpill == null ? 0 : currentSpill.size()) + summaries;
+    }
+
+    /**
+     * @return the time, in milliseconds, until the end of the first rate window with summarized events, or -1 if no event is summarized.
+     */
+    public long nextSummaryDelay() {
+        final long now = clock.getAsLong();
+        long delay = -1;
+        for (Lane lane : summarizingLanes) {
+            synchronized (lane) {
+                if (lane.summarizedEvents > 0) {
+                    final long laneDelay = Math.max(0, lane.windowStart + RATE_WINDOW_MILLIS - now);
+                    delay = delay < 0 ? laneDelay : Math.min(delay, laneDelay);
+                }
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * Overflow to a spill once a number of events are held in memory.
+     *
+     * @param newSpill the spill, null to hold all the events in memory
+     * @param newMemoryThreshold the number of events held in memory before overflowing
+     */
+    public void setSpill(EventSpill newSpill, int newMemoryThreshold) {
+        synchronized (spillLock) {
+            if (spill != null)
+                spill.close();
+            spill = newSpill;
+            memoryThreshold = newMemoryThreshold;
+        }
+        if (newSpill != null) {
+            metricsRegistry.gauge(MetricsRegistry.id("marathon_event_spill_events", "orchestrator", orchestratorId), newSpill::size);
+            metricsRegistry.gauge(MetricsRegistry.id("marathon_event_spill_bytes", "orchestrator", orchestratorId), newSpill::byteSize);
+        } else {
+            metricsRegistry.removeGauge(MetricsRegistry.id("marathon_event_spill_events", "orchestrator", orchestratorId));
+            metricsRegistry.removeGauge(MetricsRegistry.id("marathon_event_spill_bytes", "orchestrator", orchestratorId));
+        }
+    }
+
+    /**
+     * Close the spill, if any, and stop exporting the backlog of the deployments. The events held in memory can still be drained.
+     */
+    public void close() {
+        setSpill(null, 0);
+        lanes.keySet().forEach(deploymentId -> metricsRegistry.removeGauge(backlogGaugeId(deploymentId)));
+    }
+
+    public void add(AbstractMonitorEvent event) {
+        if (spill == null) {
+            enqueue(event, true);
+            return;
+        }
+        synchronized (spillLock) {
+            // Once events are spilled, the next ones follow them until they are read back
+            if (spill != null && (spill.size() > 0 || size.get() >= memoryThreshold)) {
+                try {
+                    spill.append(event);
+                    metricsRegistry.counter("marathon_events_spilled_total").increment();
+                    return;
+                } catch (IOException e) {
+                    log.error("Failure while spilling a monitor event - Kept in memory after the spilled events with message: " + e.getMessage());
+                    readSpill(Integer.MAX_VALUE);
+                }
+            }
+            enqueue(event, true);
+        }
+    }
+
+    /**
+     * Read spilled events back, up to the memory threshold.
+     */
+    private void readSpill() {
+        if (spill == null)
+            return;
+        synchronized (spillLock) {
+            readSpill(memoryThreshold);
+        }
+    }
+
+    /**
+     * Read spilled events back, up to a number of events held in memory. Guarded by <code>spillLock</code>.
+     * The rate cap is not applied again: the events are delivered as they are read back.
+     */
+    private void readSpill(int threshold) {
+        try {
+            AbstractMonitorEvent event;
+            while (spill != null && size.get() < threshold && (event = spill.poll()) != null)
+                enqueue(event, false);
+        } catch (IOException e) {
+            log.error("Failure while reading spilled monitor events - Dropping them with message: " + e.getMessage());
+            spill.close();
+        }
+    }
+
+    /**
+     * Add an event to the lane of its deployment.
+     *
+     * @param capped whether the instance event counts towards the rate cap, and is summarized beyond it
+     */
+    private void enqueue(AbstractMonitorEvent event, boolean capped) {
+        final String deploymentId = event.getDeploymentId() == null ? NO_DEPLOYMENT : event.getDeploymentId();
+        while (true) {
+            final Lane lane = lanes.computeIfAbsent(deploymentId, this::newLane);
+            synchronized (lane) {
+                if (lane.retired)
+                    continue; // Removed meanwhile
+                final long now = clock.getAsLong();
+                rollWindow(lane, now);
+                if (capped && event instanceof PaaSInstanceStateMonitorEvent && rateCap > 0 && ++lane.windowCount > rateCap) {
+                    final PaaSInstanceStateMonitorEvent instanceEvent = (PaaSInstanceStateMonitorEvent) event;
+                    lane.summarizedStates.put(instanceEvent.getInstanceId() == null ? instanceEvent.getNodeTemplateId() : instanceEvent.getInstanceId(),
+                            instanceEvent);
+                    lane.summarizedEvents++;
+                    summarizingLanes.add(lane);
+                } else {
+                    // The summarized states precede the events added after them, eg. the failure of the deployment
+                    flushSummary(lane, now);
+                    push(lane, event);
+                }
+                if (!lane.scheduled) {
+                    lane.scheduled = true;
+                    activeLanes.add(lane);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drain events, a round at a time: each deployment with events gives up to its weight of events per round.
+     *
+     * @param maxEvents the maximum number of events drained
+     * @return the events, in the order they were queued within each deployment
+     */
+    public List<AbstractMonitorEvent> drain(int maxEvents) {
+        readSpill();
+        final List<AbstractMonitorEvent> events = Lists.newArrayList();
+        boolean progress = true;
+        while (progress && events.size() < maxEvents) {
+            progress = false;
+            // Serve each active lane once
+            for (int lanesInRound = activeLanes.size(); lanesInRound > 0 && events.size() < maxEvents; lanesInRound--) {
+                final Lane lane = activeLanes.poll();
+                if (lane == null)
+                    break;
+                progress |= serve(lane, events, maxEvents);
+            }
+        }
+        retireIdleLanes();
+        return events;
+    }
+
+    /**
+     * Take up to the weight of a lane, then schedule it again if it still has events.
+     *
+     * @return true if events were taken
+     */
+    private boolean serve(Lane lane, List<AbstractMonitorEvent> events, int maxEvents) {
+        synchronized (lane) {
+            final long now = clock.getAsLong();
+            rollWindow(lane, now);
+            final int quantum = rateCap > 0 && lane.windowCount > rateCap ? 1 : weight;
+            int taken = 0;
+            AbstractMonitorEvent event;
+            while (taken < quantum && events.size() < maxEvents && (event = lane.events.poll()) != null) {
+                events.add(event);
+                size.decrementAndGet();
+                taken++;
+            }
+            if (!lane.events.isEmpty() || lane.summarizedEvents > 0)
+                activeLanes.add(lane);
+            else
+                lane.scheduled = false;
+            return taken > 0;
+        }
+    }
+
+    /**
+     * Remove the drained lanes whose rate window ended, with their backlog gauge.
+     */
+    private void retireIdleLanes() {
+        final long now = clock.getAsLong();
+        lanes.values().forEach(lane -> {
+            synchronized (lane) {
+                if (!lane.scheduled && now - lane.windowStart >= RATE_WINDOW_MILLIS) {
+                    // The gauge is removed first, as a new lane of the deployment registers its own once this one is removed
+                    lane.retired = true;
+                    metricsRegistry.removeGauge(backlogGaugeId(lane.deploymentId));
+                    lanes.remove(lane.deploymentId, lane);
+                }
+            }
+        });
+    }
+
+    /**
+     * Start a new rate window once the current one ended, queuing the summary of the events summarized in the current one.
+     */
+    private void rollWindow(Lane lane, long now) {
+        if (now - lane.windowStart < RATE_WINDOW_MILLIS)
+            return;
+        flushSummary(lane, now);
+        lane.windowStart = now;
+        lane.windowCount = 0;
+    }
+
+    /**
+     * Queue the summary of the events summarized so far, if any. The next instance events of the window are still summarized.
+     */
+    private void flushSummary(Lane lane, long now) {
+        if (lane.summarizedEvents == 0)
+            return;
+        final PaaSMessageMonitorEvent summary = new PaaSMessageMonitorEvent();
+        summary.setDeploymentId(lane.deploymentId.isEmpty() ? null : lane.deploymentId);
+        summary.setDate(now);
+        summary.setMessage(lane.summarizedEvents + " instance events summarized, beyond the cap of " + rateCap + " events per "
+                + TimeUnit.MILLISECONDS.toSeconds(RATE_WINDOW_MILLIS) + "s: latest state of " + lane.summarizedStates.size() + " instances follows");
+        push(lane, summary);
+        lane.summarizedStates.values().forEach(instanceEvent -> push(lane, instanceEvent));
+        metricsRegistry.counter("marathon_events_summarized_total").add(lane.summarizedEvents);
+        lane.summarizedStates.clear();
+        lane.summarizedEvents = 0;
+        summarizingLanes.remove(lane);
+    }
+
+    private void push(Lane lane, AbstractMonitorEvent event) {
+        lane.events.add(event);
+        size.incrementAndGet();
+    }
+
+    private Lane newLane(String deploymentId) {
+        final Lane lane = new Lane(deploymentId, clock.getAsLong());
+        metricsRegistry.gauge(backlogGaugeId(deploymentId), () -> {
+            synchronized (lane) {
+                return lane.events.size();
+            }
+        });
+        return lane;
+    }
+
+    private static String backlogGaugeId(String deploymentId) {
+        return MetricsRegistry.id("marathon_event_backlog", "deployment", deploymentId);
+    }
+}
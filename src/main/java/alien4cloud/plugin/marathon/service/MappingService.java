@@ -1,16 +1,40 @@
 package alien4cloud.plugin.marathon.service;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
 
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import alien4cloud.paas.model.DeploymentStatus;
 import alien4cloud.paas.model.PaaSTopologyDeploymentContext;
+import alien4cloud.plugin.marathon.metrics.DeploymentTrace;
+import alien4cloud.plugin.marathon.service.builders.PodBuilder;
+import alien4cloud.plugin.marathon.service.journal.MappingJournal;
 import alien4cloud.plugin.marathon.service.model.mapping.AlienDeploymentMapping;
+import alien4cloud.plugin.marathon.service.model.mapping.AppMapping;
 import alien4cloud.plugin.marathon.service.model.mapping.MarathonAppsMapping;
 import lombok.extern.slf4j.Slf4j;
 /**
@@ -27,11 +51,179 @@ public class MappingService {
      */
     private final Map<String, MarathonAppsMapping> marathonToAlienAppsMap = Maps.newConcurrentMap();
 
+    /**
+     * Index of the apps mapped in <code>marathonToAlienAppsMap</code>, by full Marathon app id (eg. /groupId/appId), to resolve status events in a
+     * single lookup.
+     */
+    private final Map<String, AppMapping> appIndex = Maps.newConcurrentMap();
+
     /**
      * Map marathon deployment ids, which are ephemeral, to alien deployment ids
      */
     private final Map<String, AlienDeploymentMapping> marathonToAlienDeploymentMap = Maps.newConcurrentMap();
 
+    /**
+     * Map marathon deployment ids of batched deployments, eg. a single Marathon deployment covering several Alien deployments.
+     */
+    private final Map<String, List<AlienDeploymentMapping>> marathonToAlienBatchMap = Maps.newConcurrentMap();
+
+    /**
+     * Traces of the Alien deployments in progress, by Alien deployment id, until their end is reported.
+     */
+    private final Map<String, DeploymentTrace> deploymentTraces = Maps.newConcurrentMap();
+
+    /**
+     * Orchestrator each Alien deployment belongs to, by Alien deployment id. The mappings of a deployment are tagged with its orchestrator, so that
+     * each location only journals and inspects its own mappings.
+     */
+    private final Map<String, String> deploymentOwners = Maps.newConcurrentMap();
+
+    /**
+     * Journals persisting the mappings changes, by orchestrator id.
+     */
+    private final Map<String, MappingJournal> journals = Maps.newConcurrentMap();
+
+    private static final MappingJournal.Handler NO_JOURNAL = new MappingJournal.Handler() {
+    };
+
+    /**
+     * Resolution of the apps of the groups registered at initialization, by group id, until they are resolved.
+     */
+    private final Map<String, FutureTask<Void>> pendingResolutions = Maps.newConcurrentMap();
+
+    private final ExecutorService resolutionExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("marathon-mapping-resolution-%d").setDaemon(true).build());
+
+    /**
+     * Completed once the groups of the active deployments of an orchestrator are registered, by orchestrator id.
+     */
+    private final Map<String, CompletableFuture<Void>> initializations = Maps.newConcurrentMap();
+
+    /**
+     * Guards the changes of the mappings and their journaling, so that the app index never maps the apps of a dropped group, and journals record
+     * the changes in the order they are applied. Lookups do not lock.
+     */
+    private final Object mappingLock = new Object();
+
+    /**
+     * Restore the mappings of an orchestrator from the journal of a directory, then journal their changes.
+     * @param orchestratorId the id of the orchestrator whose mappings are journaled
+     * @param directory the journal directory, dedicated to the orchestrator
+     * @param snapshotThreshold number of changes after which the journal is compacted into a snapshot
+     * @throws IOException if the journal cannot be read or written
+     */
+    public void openJournal(String orchestratorId, Path directory, int snapshotThreshold) throws IOException {
+        closeJournal(orchestratorId);
+        final MappingJournal journal = MappingJournal.open(directory, snapshotThreshold, new MappingJournal.Handler() {
+            @Override
+            public void deploymentRegistered(String marathonDeploymentId, String alienDeploymentId, DeploymentStatus status) {
+                claimDeployment(orchestratorId, alienDeploymentId);
+                marathonToAlienDeploymentMap.put(marathonDeploymentId, new AlienDeploymentMapping(alienDeploymentId, status, orchestratorId));
+            }
+
+            @Override
+            public void batchDeploymentRegistered(String marathonDeploymentId, Collection<String> alienDeploymentIds, DeploymentStatus status) {
+                alienDeploymentIds.forEach(alienDeploymentId -> claimDeployment(orchestratorId, alienDeploymentId));
+                marathonToAlienBatchMap.put(marathonDeploymentId, alienDeploymentIds.stream()
+                        .map(alienDeploymentId -> new AlienDeploymentMapping(alienDeploymentId, status, orchestratorId)).collect(Collectors.toList()));
+            }
+
+            @Override
+            public void deploymentRemoved(String marathonDeploymentId) {
+                marathonToAlienDeploymentMap.remove(marathonDeploymentId);
+                marathonToAlienBatchMap.remove(marathonDeploymentId);
+            }
+
+            @Override
+            public void groupRegistered(String groupId, String alienDeploymentId) {
+                claimDeployment(orchestratorId, alienDeploymentId);
+                putGroupMapping(groupId, alienDeploymentId, orchestratorId);
+            }
+
+            @Override
+            public void appRegistered(String groupId, String appId, String nodeTemplateId) {
+                putAppMapping(groupId, null, appId, nodeTemplateId);
+            }
+
+            @Override
+            public void groupRemoved(String groupId) {
+                dropGroupMapping(groupId);
+            }
+        }, handler -> writeState(orchestratorId, handler));
+        journals.put(orchestratorId, journal);
+        log.info("Restored " + getTrackedDeploymentIds(orchestratorId).size() + " running Marathon deployments and " + getGroupMappings(orchestratorId).size()
+                + " groups of orchestrator " + orchestratorId);
+    }
+
+    /**
+     * Stop journaling the mappings changes of an orchestrator.
+     * @param orchestratorId the id of the orchestrator
+     */
+    public void closeJournal(String orchestratorId) {
+        final MappingJournal journal = journals.remove(orchestratorId);
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.error("Failure while closing the Marathon mappings journal of orchestrator " + orchestratorId, e);
+            }
+        }
+    }
+
+    /**
+     * @return the handler journaling the changes of the mappings of an orchestrator.
+     */
+    private MappingJournal.Handler journalWriter(String orchestratorId) {
+        final MappingJournal journal = orchestratorId == null ? null : journals.get(orchestratorId);
+        return journal == null ? NO_JOURNAL : journal.writer();
+    }
+
+    /**
+     * Write the current mappings of an orchestrator to a handler. The mappings are copied under the lock of their changes, hence consistent.
+     */
+    private void writeState(String orchestratorId, MappingJournal.Handler handler) {
+        final List<Consumer<MappingJournal.Handler>> state = Lists.newArrayList();
+        synchronized (mappingLock) {
+            marathonToAlienDeploymentMap.forEach((marathonDeploymentId, mapping) -> {
+                if (orchestratorId.equals(mapping.getOrchestratorId()))
+                    state.add(target -> target.deploymentRegistered(marathonDeploymentId, mapping.getAlienDeploymentId(), mapping.getStatus()));
+            });
+            marathonToAlienBatchMap.forEach((marathonDeploymentId, mappings) -> {
+                if (!mappings.isEmpty() && orchestratorId.equals(mappings.get(0).getOrchestratorId())) {
+                    final List<String> alienDeploymentIds = mappings.stream().map(AlienDeploymentMapping::getAlienDeploymentId).collect(Collectors.toList());
+                    state.add(target -> target.batchDeploymentRegistered(marathonDeploymentId, alienDeploymentIds, mappings.get(0).getStatus()));
+                }
+            });
+            marathonToAlienAppsMap.forEach((groupId, mapping) -> {
+                if (orchestratorId.equals(mapping.getOrchestratorId())) {
+                    final Map<String, String> appIdToNodeTemplateIdMap = Maps.newHashMap(mapping.getAppIdToNodeTemplateIdMap());
+                    state.add(target -> {
+                        target.groupRegistered(groupId, mapping.getAlienDeploymentId());
+                        appIdToNodeTemplateIdMap.forEach((appId, nodeTemplateId) -> target.appRegistered(groupId, appId, nodeTemplateId));
+                    });
+                }
+            });
+        }
+        state.forEach(record -> record.accept(handler));
+    }
+
+    /**
+     * Record the orchestrator an Alien deployment belongs to, before any of its mappings is registered.
+     * @param orchestratorId the id of the orchestrator of the deployment's location
+     * @param alienDeploymentId the id of the deployment in Alien
+     */
+    public void claimDeployment(String orchestratorId, String alienDeploymentId) {
+        deploymentOwners.put(alienDeploymentId, orchestratorId);
+    }
+
+    /**
+     * @param alienDeploymentId the id of the deployment in Alien
+     * @return the id of the orchestrator the deployment belongs to, unless it was not claimed or was removed.
+     */
+    public Optional<String> getDeploymentOwner(String alienDeploymentId) {
+        return Optional.ofNullable(deploymentOwners.get(alienDeploymentId));
+    }
+
     /**
      * Register a running deployment into the MappingService.
      * @param marathonDeploymentId the id of the deployment in Marathon
@@ -39,36 +231,487 @@ public class MappingService {
      * @param status The running status of the deployment, Deploying or Undeploying.
      */
     public void registerDeploymentInfo(String marathonDeploymentId, String alienDeploymentId, DeploymentStatus status) {
-        marathonToAlienDeploymentMap.put(marathonDeploymentId, new AlienDeploymentMapping(alienDeploymentId, status));
+        final String orchestratorId = deploymentOwners.get(alienDeploymentId);
+        synchronized (mappingLock) {
+            marathonToAlienDeploymentMap.put(marathonDeploymentId, new AlienDeploymentMapping(alienDeploymentId, status, orchestratorId));
+            journalWriter(orchestratorId).deploymentRegistered(marathonDeploymentId, alienDeploymentId, status);
+        }
+        traceMarathonDeployment(marathonDeploymentId, alienDeploymentId, status);
+    }
+
+    /**
+     * Register a running deployment which covers several Alien deployments into the MappingService.
+     * @param marathonDeploymentId the id of the deployment in Marathon
+     * @param alienDeploymentIds the ids of the deployments in Alien
+     * @param status The running status of the deployments, Deploying or Undeploying.
+     */
+    public void registerBatchDeploymentInfo(String marathonDeploymentId, Collection<String> alienDeploymentIds, DeploymentStatus status) {
+        // The deployments of a batch belong to the orchestrator which batched them
+        final String orchestratorId = alienDeploymentIds.stream().map(deploymentOwners::get).filter(Objects::nonNull).findFirst().orElse(null);
+        synchronized (mappingLock) {
+            marathonToAlienBatchMap.put(marathonDeploymentId, alienDeploymentIds.stream()
+                    .map(alienDeploymentId -> new AlienDeploymentMapping(alienDeploymentId, status, orchestratorId)).collect(Collectors.toList()));
+            journalWriter(orchestratorId).batchDeploymentRegistered(marathonDeploymentId, alienDeploymentIds, status);
+        }
+        alienDeploymentIds.forEach(alienDeploymentId -> traceMarathonDeployment(marathonDeploymentId, alienDeploymentId, status));
+    }
+
+    private void traceMarathonDeployment(String marathonDeploymentId, String alienDeploymentId, DeploymentStatus status) {
+        if (status == DeploymentStatus.DEPLOYMENT_IN_PROGRESS && marathonDeploymentId != null)
+            getDeploymentTrace(alienDeploymentId).ifPresent(trace -> trace.getMarathonDeploymentIds().add(marathonDeploymentId));
+    }
+
+    /**
+     * Start tracing an Alien deployment, replacing any previous trace of the deployment.
+     * @param alienDeploymentId the id of the deployment in Alien
+     * @return the trace, correlated with the Marathon deployments registered for the Alien deployment
+     */
+    public DeploymentTrace startDeploymentTrace(String alienDeploymentId) {
+        final DeploymentTrace trace = new DeploymentTrace(alienDeploymentId);
+        deploymentTraces.put(alienDeploymentId, trace);
+        return trace;
+    }
+
+    public Optional<DeploymentTrace> getDeploymentTrace(String alienDeploymentId) {
+        return alienDeploymentId == null ? Optional.empty() : Optional.ofNullable(deploymentTraces.get(alienDeploymentId));
+    }
+
+    /**
+     * Stop tracking the trace of an Alien deployment if it is finished.
+     * @param alienDeploymentId the id of the deployment in Alien
+     * @return the finished trace, if any
+     */
+    public Optional<DeploymentTrace> removeFinishedDeploymentTrace(String alienDeploymentId) {
+        return getDeploymentTrace(alienDeploymentId).filter(trace -> trace.getDurations().isPresent())
+                .filter(trace -> deploymentTraces.remove(alienDeploymentId, trace));
     }
 
     public Optional<AlienDeploymentMapping> getAlienDeploymentInfo(String marathonDeploymentId) {
         return Optional.ofNullable(marathonToAlienDeploymentMap.get(marathonDeploymentId));
     }
 
+    public boolean isBatchDeployment(String marathonDeploymentId) {
+        return marathonToAlienBatchMap.containsKey(marathonDeploymentId);
+    }
+
+    /**
+     * @param marathonDeploymentId the id of the deployment in Marathon
+     * @return All the Alien deployments covered by the Marathon deployment.
+     */
+    public List<AlienDeploymentMapping> getAlienDeploymentInfos(String marathonDeploymentId) {
+        return Optional.ofNullable(marathonToAlienBatchMap.get(marathonDeploymentId))
+                .orElseGet(() -> getAlienDeploymentInfo(marathonDeploymentId).map(Collections::singletonList).orElse(Collections.emptyList()));
+    }
+
+    /**
+     * Check whether an Alien deployment is still being processed by other Marathon deployments, eg. the ones of the pods of its group.
+     * @param alienDeploymentId the id of the deployment in Alien
+     * @param marathonDeploymentId the id of the Marathon deployment to leave out
+     * @return true if another Marathon deployment of the Alien deployment is running
+     */
+    public boolean hasOtherRunningDeployments(String alienDeploymentId, String marathonDeploymentId) {
+        return Stream.concat(marathonToAlienDeploymentMap.entrySet().stream().filter(entry -> !entry.getKey().equals(marathonDeploymentId))
+                .map(Map.Entry::getValue),
+                marathonToAlienBatchMap.entrySet().stream().filter(entry -> !entry.getKey().equals(marathonDeploymentId))
+                        .flatMap(entry -> entry.getValue().stream()))
+                .anyMatch(mapping -> alienDeploymentId.equals(mapping.getAlienDeploymentId()) && mapping.getStatus() != DeploymentStatus.FAILURE);
+    }
+
+    /**
+     * Id standing for the Marathon deployment of a pod until Marathon accepts the pod, so that the deployment of the pod's group does not complete
+     * the Alien deployment meanwhile.
+     * @param podId the id of the pod
+     * @return the id under which the pending deployment is registered
+     */
+    public static String pendingPodDeploymentId(String podId) {
+        return "pending-pod:" + podId;
+    }
+
+    /**
+     * Record that a Marathon deployment of an Alien deployment could not be started, eg. the one of a pod, so that the Alien deployment fails once
+     * its other Marathon deployments complete. Forgotten right away if none of them is running.
+     * @param marathonDeploymentId the id under which the deployment was registered
+     */
+    public void failDeploymentInfo(String marathonDeploymentId) {
+        synchronized (mappingLock) {
+            final AlienDeploymentMapping mapping = marathonToAlienDeploymentMap.get(marathonDeploymentId);
+            if (mapping == null)
+                return;
+            if (hasOtherRunningDeployments(mapping.getAlienDeploymentId(), marathonDeploymentId)) {
+                marathonToAlienDeploymentMap.put(marathonDeploymentId,
+                        new AlienDeploymentMapping(mapping.getAlienDeploymentId(), DeploymentStatus.FAILURE, mapping.getOrchestratorId()));
+                journalWriter(mapping.getOrchestratorId()).deploymentRegistered(marathonDeploymentId, mapping.getAlienDeploymentId(),
+                        DeploymentStatus.FAILURE);
+            } else {
+                removeAlienDeploymentInfo(marathonDeploymentId);
+            }
+        }
+    }
+
+    /**
+     * @param alienDeploymentId the id of the deployment in Alien
+     * @return true if one of the Marathon deployments of the Alien deployment could not be started
+     */
+    public boolean hasFailedDeployments(String alienDeploymentId) {
+        return marathonToAlienDeploymentMap.values().stream()
+                .anyMatch(mapping -> alienDeploymentId.equals(mapping.getAlienDeploymentId()) && mapping.getStatus() == DeploymentStatus.FAILURE);
+    }
+
+    /**
+     * Forget the Marathon deployments of an Alien deployment which could not be started.
+     * @param alienDeploymentId the id of the deployment in Alien
+     * @return true if one of the Marathon deployments of the Alien deployment could not be started
+     */
+    public boolean removeFailedDeploymentInfos(String alienDeploymentId) {
+        synchronized (mappingLock) {
+            final List<String> failedDeploymentIds = marathonToAlienDeploymentMap.entrySet().stream()
+                    .filter(entry -> alienDeploymentId.equals(entry.getValue().getAlienDeploymentId())
+                            && entry.getValue().getStatus() == DeploymentStatus.FAILURE)
+                    .map(Map.Entry::getKey).collect(Collectors.toList());
+            failedDeploymentIds.forEach(this::removeAlienDeploymentInfo);
+            return !failedDeploymentIds.isEmpty();
+        }
+    }
+
     public void removeAlienDeploymentInfo(String marathonDeploymentId) {
-        marathonToAlienDeploymentMap.remove(marathonDeploymentId);
+        synchronized (mappingLock) {
+            final AlienDeploymentMapping mapping = marathonToAlienDeploymentMap.remove(marathonDeploymentId);
+            final List<AlienDeploymentMapping> batchMappings = marathonToAlienBatchMap.remove(marathonDeploymentId);
+            final AlienDeploymentMapping removed = mapping != null ? mapping : batchMappings == null || batchMappings.isEmpty() ? null : batchMappings.get(0);
+            if (removed != null)
+                journalWriter(removed.getOrchestratorId()).deploymentRemoved(marathonDeploymentId);
+        }
     }
 
     void registerGroupMapping(String groupId, String alienDeploymentId) {
-        marathonToAlienAppsMap.put(groupId, new MarathonAppsMapping(alienDeploymentId)); // TODO throw if already present ?
+        final String orchestratorId = deploymentOwners.get(alienDeploymentId);
+        synchronized (mappingLock) {
+            putGroupMapping(groupId, alienDeploymentId, orchestratorId); // TODO throw if already present ?
+            journalWriter(orchestratorId).groupRegistered(groupId, alienDeploymentId);
+        }
     }
 
     void registerAppMapping(String groupId, String appId, String nodeTemplateId) { // TODO throw if already present ?
-        marathonToAlienAppsMap.get(groupId).addAppToNodeTemplateMapping(appId, nodeTemplateId);
+        registerAppMapping(groupId, null, appId, nodeTemplateId);
+    }
+
+    private void registerAppMapping(String groupId, MarathonAppsMapping expectedGroupMapping, String appId, String nodeTemplateId) {
+        synchronized (mappingLock) {
+            if (putAppMapping(groupId, expectedGroupMapping, appId, nodeTemplateId))
+                journalWriter(marathonToAlienAppsMap.get(groupId).getOrchestratorId()).appRegistered(groupId, appId, nodeTemplateId);
+        }
+    }
+
+    private void putGroupMapping(String groupId, String alienDeploymentId, String orchestratorId) {
+        synchronized (mappingLock) {
+            // The apps of a previous deployment of the group are no longer mapped
+            dropGroupMapping(groupId);
+            marathonToAlienAppsMap.put(groupId, new MarathonAppsMapping(alienDeploymentId, orchestratorId));
+        }
+    }
+
+    /**
+     * Map an app of a group, unless the group is no longer mapped, or was registered again since the expected mapping.
+     * @return true if the app was mapped
+     */
+    private boolean putAppMapping(String groupId, MarathonAppsMapping expectedGroupMapping, String appId, String nodeTemplateId) {
+        synchronized (mappingLock) {
+            final MarathonAppsMapping groupMapping = marathonToAlienAppsMap.get(groupId);
+            if (groupMapping == null || (expectedGroupMapping != null && groupMapping != expectedGroupMapping))
+                return false;
+            groupMapping.addAppToNodeTemplateMapping(appId, nodeTemplateId);
+            appIndex.put("/" + groupId + "/" + appId, new AppMapping(groupMapping.getAlienDeploymentId(), nodeTemplateId));
+            return true;
+        }
+    }
+
+    private void dropGroupMapping(String groupId) {
+        synchronized (mappingLock) {
+            // Apps of a previous deployment of the group still being resolved are no longer mapped
+            Optional.ofNullable(pendingResolutions.remove(groupId)).ifPresent(resolution -> resolution.cancel(false));
+            Optional.ofNullable(marathonToAlienAppsMap.remove(groupId)).ifPresent(
+                    groupMapping -> groupMapping.getAppIdToNodeTemplateIdMap().keySet().forEach(appId -> appIndex.remove("/" + groupId + "/" + appId)));
+        }
+    }
+
+    /**
+     * Remove the mapping of a group and of its apps.
+     * @param groupId the Marathon group id
+     */
+    public void removeGroupMapping(String groupId) {
+        synchronized (mappingLock) {
+            Optional.ofNullable(marathonToAlienAppsMap.get(groupId)).ifPresent(groupMapping -> removeGroupMapping(groupId, groupMapping));
+        }
+    }
+
+    /**
+     * Remove the mapping of a group and of its apps, unless the group was registered again since the expected mapping.
+     */
+    private void removeGroupMapping(String groupId, MarathonAppsMapping expectedGroupMapping) {
+        synchronized (mappingLock) {
+            if (marathonToAlienAppsMap.get(groupId) != expectedGroupMapping)
+                return;
+            dropGroupMapping(groupId);
+            journalWriter(expectedGroupMapping.getOrchestratorId()).groupRemoved(groupId);
+        }
+    }
+
+    /**
+     * Remove the mappings of the groups of an Alien deployment, eg. once it is undeployed. The deployment no longer belongs to its orchestrator.
+     * The groups registered again by another deployment meanwhile keep their mapping.
+     * @param alienDeploymentId the id of the deployment in Alien
+     */
+    public void removeGroupMappings(String alienDeploymentId) {
+        deploymentTraces.remove(alienDeploymentId);
+        synchronized (mappingLock) {
+            marathonToAlienAppsMap.entrySet().stream().filter(entry -> alienDeploymentId.equals(entry.getValue().getAlienDeploymentId()))
+                    .collect(Collectors.toList()).forEach(entry -> removeGroupMapping(entry.getKey(), entry.getValue()));
+            deploymentOwners.remove(alienDeploymentId);
+        }
+    }
+
+    /**
+     * Select the Marathon deployments of an orchestrator whose mapping expired: the ones registered before a given time, and the oldest ones beyond a
+     * maximum count.
+     * @param orchestratorId the id of the orchestrator
+     * @param registeredBefore mappings registered before this time are expired
+     * @param maxCount maximum number of mappings
+     * @return the ids of the Marathon deployments whose mapping expired, oldest first.
+     */
+    public List<String> getExpiredDeploymentIds(String orchestratorId, long registeredBefore, int maxCount) {
+        final Map<String, Long> registrationTimes = Maps.newHashMap();
+        marathonToAlienDeploymentMap.forEach((marathonDeploymentId, mapping) -> {
+            if (orchestratorId.equals(mapping.getOrchestratorId()))
+                registrationTimes.put(marathonDeploymentId, mapping.getRegistrationTime());
+        });
+        marathonToAlienBatchMap.forEach((marathonDeploymentId, mappings) -> {
+            if (mappings.stream().anyMatch(mapping -> orchestratorId.equals(mapping.getOrchestratorId())))
+                registrationTimes.put(marathonDeploymentId, mappings.stream().mapToLong(AlienDeploymentMapping::getRegistrationTime).min().orElse(0));
+        });
+        return expired(registrationTimes, registeredBefore, maxCount);
+    }
+
+    /**
+     * Select the groups of an orchestrator whose mapping expired: the ones registered before a given time, and the oldest ones beyond a maximum count.
+     * @param orchestratorId the id of the orchestrator
+     * @param registeredBefore mappings registered before this time are expired
+     * @param maxCount maximum number of mappings
+     * @return the ids of the groups whose mapping expired, oldest first.
+     */
+    public List<String> getExpiredGroupIds(String orchestratorId, long registeredBefore, int maxCount) {
+        final Map<String, Long> registrationTimes = Maps.newHashMap();
+        getGroupMappings(orchestratorId).forEach((groupId, mapping) -> registrationTimes.put(groupId, mapping.getRegistrationTime()));
+        return expired(registrationTimes, registeredBefore, maxCount);
+    }
+
+    private static List<String> expired(Map<String, Long> registrationTimes, long registeredBefore, int maxCount) {
+        final List<String> oldestFirst = registrationTimes.entrySet().stream().sorted(Map.Entry.comparingByValue()).map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        final int overflow = Math.max(0, oldestFirst.size() - maxCount);
+        final List<String> expired = Lists.newArrayList();
+        for (int i = 0; i < oldestFirst.size(); i++) {
+            if (i < overflow || registrationTimes.get(oldestFirst.get(i)) < registeredBefore)
+                expired.add(oldestFirst.get(i));
+        }
+        return expired;
+    }
+
+    public int getDeploymentMappingCount() {
+        return marathonToAlienDeploymentMap.size() + marathonToAlienBatchMap.size();
     }
 
+    public int getGroupMappingCount() {
+        return marathonToAlienAppsMap.size();
+    }
+
+    public int getAppMappingCount() {
+        return appIndex.size();
+    }
+
+    public int getDeploymentMappingCount(String orchestratorId) {
+        return getTrackedDeploymentIds(orchestratorId).size();
+    }
+
+    public int getGroupMappingCount(String orchestratorId) {
+        return getGroupMappings(orchestratorId).size();
+    }
+
+    public int getAppMappingCount(String orchestratorId) {
+        return getGroupMappings(orchestratorId).values().stream().mapToInt(mapping -> mapping.getAppIdToNodeTemplateIdMap().size()).sum();
+    }
+
+    /**
+     * @param marathonGroupId the Marathon group id
+     * @return The mapping of the group, with its apps resolved.
+     */
     public Optional<MarathonAppsMapping> getMarathonAppMapping(String marathonGroupId) {
+        awaitResolution(marathonGroupId);
         return Optional.ofNullable(marathonToAlienAppsMap.get(marathonGroupId));
     }
 
-    public void init(Collection<PaaSTopologyDeploymentContext> activeDeployments) {
+    /**
+     * @return A read-only view of the group mappings, by group id. The apps of the groups being resolved may be missing.
+     */
+    public Map<String, MarathonAppsMapping> getGroupMappings() {
+        return Collections.unmodifiableMap(marathonToAlienAppsMap);
+    }
+
+    /**
+     * @param orchestratorId the id of an orchestrator
+     * @return The group mappings of the deployments of the orchestrator, by group id. The apps of the groups being resolved may be missing.
+     */
+    public Map<String, MarathonAppsMapping> getGroupMappings(String orchestratorId) {
+        return marathonToAlienAppsMap.entrySet().stream().filter(entry -> orchestratorId.equals(entry.getValue().getOrchestratorId()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    /**
+     * @return The ids of the Marathon deployments in flight, batched or not.
+     */
+    public Set<String> getTrackedDeploymentIds() {
+        final Set<String> deploymentIds = Sets.newHashSet(marathonToAlienDeploymentMap.keySet());
+        deploymentIds.addAll(marathonToAlienBatchMap.keySet());
+        return deploymentIds;
+    }
+
+    /**
+     * @param orchestratorId the id of an orchestrator
+     * @return The ids of the Marathon deployments in flight of the deployments of the orchestrator, batched or not.
+     */
+    public Set<String> getTrackedDeploymentIds(String orchestratorId) {
+        final Set<String> deploymentIds = Sets.newHashSet();
+        marathonToAlienDeploymentMap.forEach((marathonDeploymentId, mapping) -> {
+            if (orchestratorId.equals(mapping.getOrchestratorId()))
+                deploymentIds.add(marathonDeploymentId);
+        });
+        marathonToAlienBatchMap.forEach((marathonDeploymentId, mappings) -> {
+            if (mappings.stream().anyMatch(mapping -> orchestratorId.equals(mapping.getOrchestratorId())))
+                deploymentIds.add(marathonDeploymentId);
+        });
+        return deploymentIds;
+    }
+
+    /**
+     * Resolve the Alien deployment and node template of a Marathon app.
+     * Apps of a known group which are not mapped, eg. in nested groups, resolve to the group's deployment only.
+     * @param marathonAppId the full Marathon app id, eg. /groupId/appId
+     * @return The mapping of the app, <code>AppMapping.UNKNOWN</code> for apps not deployed by the plugin.
+     */
+    public AppMapping resolveApp(String marathonAppId) {
+        if (marathonAppId == null)
+            return AppMapping.UNKNOWN;
+        final AppMapping appMapping = appIndex.get(marathonAppId);
+        if (appMapping != null)
+            return appMapping;
+
+        // Not indexed: look for the top-level group, eg. the path element after the leading slash
+        final int groupStart = marathonAppId.startsWith("/") ? 1 : 0;
+        final int groupEnd = marathonAppId.indexOf('/', groupStart);
+        if (groupEnd < 0)
+            return AppMapping.UNKNOWN;
+        final String groupId = marathonAppId.substring(groupStart, groupEnd);
+        if (pendingResolutions.containsKey(groupId)) {
+            // Resolve the group's apps on first lookup
+            awaitResolution(groupId);
+            final AppMapping resolvedMapping = appIndex.get(marathonAppId);
+            if (resolvedMapping != null)
+                return resolvedMapping;
+        }
+        final MarathonAppsMapping groupMapping = marathonToAlienAppsMap.get(groupId);
+        return groupMapping == null ? AppMapping.UNKNOWN : new AppMapping(groupMapping.getAlienDeploymentId(), AppMapping.UNKNOWN.getNodeTemplateId());
+    }
+
+    /**
+     * Register the groups of the active deployments of an orchestrator. Their apps are resolved in the background, or on first lookup.
+     * @param orchestratorId the id of the orchestrator
+     * @param activeDeployments the active deployments
+     */
+    public void init(String orchestratorId, Collection<PaaSTopologyDeploymentContext> activeDeployments) {
         activeDeployments.forEach(context -> {
+            claimDeployment(orchestratorId, context.getDeploymentId());
             // Initialize a new group mapping
             final String groupId = context.getDeploymentPaaSId().toLowerCase();
-            // Fill app mapping
             registerGroupMapping(groupId, context.getDeploymentId());
-            context.getPaaSTopology().getNonNatives().forEach(nodeTemplate -> registerAppMapping(groupId, nodeTemplate.getId().toLowerCase(), nodeTemplate.getId()));
+            final MarathonAppsMapping groupMapping = marathonToAlienAppsMap.get(groupId);
+            final FutureTask<Void> resolution = new FutureTask<Void>(() -> resolveApps(groupId, groupMapping, context), null) {
+                @Override
+                protected void done() {
+                    pendingResolutions.remove(groupId, this);
+                }
+            };
+            pendingResolutions.put(groupId, resolution);
+            resolutionExecutor.execute(resolution);
         });
+        initialization(orchestratorId).complete(null);
+    }
+
+    /**
+     * Fill app mapping of a group, unless the group was registered again meanwhile.
+     */
+    private void resolveApps(String groupId, MarathonAppsMapping groupMapping, PaaSTopologyDeploymentContext context) {
+        context.getPaaSTopology().getNonNatives()
+                .forEach(nodeTemplate -> registerAppMapping(groupId, groupMapping, PodBuilder.mappedAppId(nodeTemplate), nodeTemplate.getId()));
+    }
+
+    /**
+     * Wait for the apps of a group to be resolved, resolving them in the calling thread if their resolution did not start yet.
+     */
+    private void awaitResolution(String groupId) {
+        final FutureTask<Void> resolution = pendingResolutions.get(groupId);
+        if (resolution == null)
+            return;
+        resolution.run();
+        try {
+            resolution.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (CancellationException e) {
+            // The group was registered again
+        } catch (ExecutionException e) {
+            log.error("Failure while resolving the apps of group " + groupId, e.getCause());
+        }
+    }
+
+    /**
+     * Wait for the apps of all the groups to be resolved.
+     */
+    public void awaitResolutions() {
+        Lists.newArrayList(pendingResolutions.keySet()).forEach(this::awaitResolution);
+    }
+
+    public int getUnresolvedGroupCount() {
+        return pendingResolutions.size();
+    }
+
+    public int getUnresolvedGroupCount(String orchestratorId) {
+        return (int) pendingResolutions.keySet().stream().map(marathonToAlienAppsMap::get)
+                .filter(mapping -> mapping != null && orchestratorId.equals(mapping.getOrchestratorId())).count();
+    }
+
+    private CompletableFuture<Void> initialization(String orchestratorId) {
+        return initializations.computeIfAbsent(orchestratorId, id -> new CompletableFuture<>());
+    }
+
+    /**
+     * Run an action once the groups of the active deployments of an orchestrator are registered, right away if they already are.
+     * @param orchestratorId the id of the orchestrator
+     * @param action the action
+     */
+    public void whenInitialized(String orchestratorId, Runnable action) {
+        initialization(orchestratorId).thenRun(action);
+    }
+
+    /**
+     * Forget that the mappings of an orchestrator were initialized, eg. once it is destroyed, so that the next orchestrator of its location waits for
+     * its own initialization.
+     * @param orchestratorId the id of the orchestrator
+     */
+    public void forgetInitialization(String orchestratorId) {
+        initializations.remove(orchestratorId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        resolutionExecutor.shutdownNow();
     }
 }
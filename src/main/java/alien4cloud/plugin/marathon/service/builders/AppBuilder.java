@@ -1,10 +1,17 @@
 package alien4cloud.plugin.marathon.service.builders;
 
+import java.util.Map;
+import java.util.function.Function;
+
 import org.springframework.util.StringUtils;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import alien4cloud.plugin.marathon.service.model.marathon.MarathonApp;
+import alien4cloud.plugin.marathon.service.model.marathon.NamedPort;
+import alien4cloud.plugin.marathon.service.model.marathon.ReadinessCheck;
+import alien4cloud.plugin.marathon.service.model.marathon.UpgradeStrategy;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import mesosphere.marathon.client.model.v2.*;
@@ -14,7 +21,7 @@ import mesosphere.marathon.client.model.v2.*;
  */
 @Slf4j
 public class AppBuilder {
-    private App app;
+    private MarathonApp app;
 
     // Keeping IDs is useful when building dependencies
     @Getter
@@ -24,12 +31,17 @@ public class AppBuilder {
 
     private AppBuilder(String id) {
         // Initialize the app as a docker container
-        this.app = new App();
+        this.app = new MarathonApp();
         appID = id.toLowerCase();
         Container container = new Container();
         app.setContainer(container);
     }
-    
+
+    private AppBuilder(MarathonApp app) {
+        this.app = app;
+        appID = app.getId();
+    }
+
     public App build() {
         assert app.getContainer().getDocker() == null || !StringUtils.isEmpty(app.getContainer().getDocker().getImage());
         if (!appID.matches("^(([a-z0-9]|[a-z0-9][a-z0-9\\-]*[a-z0-9])\\.)*([a-z0-9]|[a-z0-9][a-z0-9\\-]*[a-z0-9])|(\\.|\\.\\.)$")) {
@@ -43,6 +55,13 @@ public class AppBuilder {
         return new AppBuilder(id);
     }
 
+    /**
+     * Complete an existing App definition.
+     */
+    public static AppBuilder from(MarathonApp app) {
+        return new AppBuilder(app);
+    }
+
     public AppBuilder parentGroupID(String parentGroupID) {
         this.parentGroupID = parentGroupID;
         return this;
@@ -95,6 +114,26 @@ public class AppBuilder {
         return this;
     }
 
+    /**
+     * Set the service port of each port mapping, in order.
+     */
+    public AppBuilder servicePorts(Function<Port, Integer> servicePortAllocator) {
+        if (getDocker().getPortMappings() != null)
+            getDocker().getPortMappings().forEach(portMapping -> portMapping.setServicePort(servicePortAllocator.apply(portMapping)));
+        return this;
+    }
+
+    public AppBuilder virtualIPs(Function<Port, String> virtualIPAllocator) {
+        if (getDocker().getPortMappings() != null) {
+            for (int portIndex = 0; portIndex < getDocker().getPortMappings().size(); portIndex++) {
+                final NamedPort portMapping = (NamedPort) getDocker().getPortMappings().get(portIndex);
+                if (portMapping.getLabels() == null) portMapping.setLabels(Maps.newHashMap());
+                portMapping.getLabels().put("VIP_" + portIndex, virtualIPAllocator.apply(portMapping));
+            }
+        }
+        return this;
+    }
+
     public AppBuilder internallyLoadBalanced() {
         app.addLabel("HAPROXY_GROUP", "internal");
         return this;
@@ -140,24 +179,69 @@ public class AppBuilder {
         return this;
     }
 
+    /**
+     * Replace a placeholder input value by its actual value. Inputs without value are removed.
+     */
+    public AppBuilder replacePlaceholder(final String placeholder, final String value) {
+        if (app.getEnv() != null) {
+            app.getEnv().entrySet().stream().filter(env -> placeholder.equals(env.getValue())).map(Map.Entry::getKey).findFirst()
+                    .ifPresent(envName -> {
+                        if (value == null) app.getEnv().remove(envName);
+                        else app.getEnv().put(envName, value);
+                    });
+        }
+        if (app.getArgs() != null) {
+            final int index = app.getArgs().indexOf(placeholder);
+            if (index >= 0) {
+                if (value == null) app.getArgs().remove(index);
+                else app.getArgs().set(index, value);
+            }
+        }
+        if (getDocker().getParameters() != null) {
+            for (int i = 0; i < getDocker().getParameters().size(); i++) {
+                final Parameter parameter = getDocker().getParameters().get(i);
+                if (placeholder.equals(parameter.getValue())) {
+                    if (value == null) getDocker().getParameters().remove(i);
+                    else getDocker().getParameters().set(i, new Parameter(parameter.getKey(), value));
+                    break;
+                }
+            }
+        }
+        return this;
+    }
+
     public AppBuilder dependency(String appId) {
         app.addDependency(appId);
         return this;
     }
 
-    public AppBuilder defaultHealthCheck() {
+    public AppBuilder healthCheck(HealthCheck healthCheck) {
         if (app.getHealthChecks() == null)
             app.setHealthChecks(Lists.newArrayList());
-        HealthCheck healthCheck = new HealthCheck();
-        healthCheck.setPortIndex(0);
-        healthCheck.setProtocol("TCP");
-        healthCheck.setGracePeriodSeconds(300);
-        healthCheck.setIntervalSeconds(15);
-        healthCheck.setMaxConsecutiveFailures(1);
         app.getHealthChecks().add(healthCheck);
         return this;
     }
 
+    public AppBuilder readinessCheck(ReadinessCheck readinessCheck) {
+        if (app.getReadinessChecks() == null)
+            app.setReadinessChecks(Lists.newArrayList());
+        app.getReadinessChecks().add(readinessCheck);
+        return this;
+    }
+
+    /**
+     * Name a port mapping, eg. to target it with a readiness check.
+     */
+    public AppBuilder portName(int portIndex, String name) {
+        ((NamedPort) getDocker().getPortMappings().get(portIndex)).setName(name);
+        return this;
+    }
+
+    public AppBuilder upgradeStrategy(Double minimumHealthCapacity, Double maximumOverCapacity) {
+        app.setUpgradeStrategy(new UpgradeStrategy(minimumHealthCapacity, maximumOverCapacity));
+        return this;
+    }
+
     public AppBuilder externalVolume(ExternalVolume externalVolume) {
         if (app.getContainer().getVolumes() == null) app.getContainer().setVolumes(Lists.newArrayList());
         app.getContainer().getVolumes().add(externalVolume);
@@ -0,0 +1,148 @@
+package alien4cloud.plugin.marathon.service.builders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import org.alien4cloud.tosca.model.definitions.AbstractArtifact;
+import org.alien4cloud.tosca.model.definitions.ComplexPropertyValue;
+import org.alien4cloud.tosca.model.definitions.FunctionPropertyValue;
+import org.alien4cloud.tosca.model.definitions.Interface;
+import org.alien4cloud.tosca.model.definitions.ListPropertyValue;
+import org.alien4cloud.tosca.model.definitions.Operation;
+import org.alien4cloud.tosca.model.definitions.ScalarPropertyValue;
+import org.alien4cloud.tosca.model.templates.NodeTemplate;
+import org.alien4cloud.tosca.model.templates.RelationshipTemplate;
+import org.alien4cloud.tosca.model.templates.ScalingPolicy;
+
+import com.google.common.hash.Hashing;
+
+import alien4cloud.paas.model.PaaSNodeTemplate;
+import alien4cloud.paas.model.PaaSRelationshipTemplate;
+
+/**
+ * Bounded LRU cache of {@link AppDefinitionFragment}s, keyed by a stable hash of the node template content they were built from.
+ */
+public class AppDefinitionCache {
+
+    private final Map<String, AppDefinitionFragment> fragments;
+
+    public AppDefinitionCache(final int maxSize) {
+        this.fragments = new LinkedHashMap<String, AppDefinitionFragment>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AppDefinitionFragment> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the fragment built from the given node template content, or build and cache it.
+     *
+     * @param key the content hash of the node template, see {@link #keyOf(PaaSNodeTemplate)}
+     * @param fragmentBuilder builds the fragment on cache miss
+     * @return the App definition fragment
+     */
+    public AppDefinitionFragment get(String key, Supplier<AppDefinitionFragment> fragmentBuilder) {
+        synchronized (fragments) {
+            AppDefinitionFragment fragment = fragments.get(key);
+            if (fragment != null)
+                return fragment;
+        }
+        // Build outside of the lock, concurrent builds of the same fragment are harmless
+        final AppDefinitionFragment fragment = fragmentBuilder.get();
+        synchronized (fragments) {
+            fragments.put(key, fragment);
+        }
+        return fragment;
+    }
+
+    public int size() {
+        synchronized (fragments) {
+            return fragments.size();
+        }
+    }
+
+    /**
+     * Compute a stable hash of everything the deployment-agnostic App definition depends on: the node id, properties, create operation,
+     * capabilities, relationships and initial instances.
+     *
+     * @param paaSNodeTemplate the node template
+     * @return an hexadecimal SHA-256 hash
+     */
+    public static String keyOf(PaaSNodeTemplate paaSNodeTemplate) {
+        final NodeTemplate nodeTemplate = paaSNodeTemplate.getTemplate();
+        final StringBuilder content = new StringBuilder();
+        content.append("id=").append(paaSNodeTemplate.getId());
+        content.append(";type=").append(nodeTemplate.getType());
+        content.append(";instances=")
+                .append(Optional.ofNullable(paaSNodeTemplate.getScalingPolicy()).orElse(ScalingPolicy.NOT_SCALABLE_POLICY).getInitialInstances());
+        content.append(";properties=").append(canonical(nodeTemplate.getProperties()));
+
+        final Operation createOperation = Optional.ofNullable(paaSNodeTemplate.getInterfaces())
+                .map(interfaces -> interfaces.get("tosca.interfaces.node.lifecycle.Standard")).map(Interface::getOperations)
+                .map(operations -> operations.get("create")).orElse(null);
+        if (createOperation != null) {
+            content.append(";create=").append(Optional.ofNullable(createOperation.getImplementationArtifact()).map(AbstractArtifact::getArtifactRef).orElse(""));
+            content.append(";inputs=").append(canonical(createOperation.getInputParameters()));
+        }
+
+        if (nodeTemplate.getCapabilities() != null) {
+            final Map<String, Object> capabilities = new TreeMap<>();
+            nodeTemplate.getCapabilities()
+                    .forEach((name, capability) -> capabilities.put(name, capability.getType() + canonical(capability.getProperties())));
+            content.append(";capabilities=").append(capabilities);
+        }
+
+        if (paaSNodeTemplate.getRelationshipTemplates() != null) {
+            final Map<String, Object> relationships = new TreeMap<>();
+            paaSNodeTemplate.getRelationshipTemplates().stream().filter(rel -> paaSNodeTemplate.getId().equals(rel.getSource()))
+                    .forEach(rel -> relationships.put(rel.getId(), canonical(rel)));
+            content.append(";relationships=").append(relationships);
+        }
+
+        return Hashing.sha256().hashString(content, StandardCharsets.UTF_8).toString();
+    }
+
+    private static String canonical(PaaSRelationshipTemplate paaSRelationshipTemplate) {
+        final RelationshipTemplate template = paaSRelationshipTemplate.getTemplate();
+        final StringBuilder content = new StringBuilder();
+        content.append(template.getType()).append("->").append(template.getTarget()).append(".").append(template.getTargetedCapabilityName());
+        content.append("@").append(template.getRequirementName());
+        if (paaSRelationshipTemplate.getIndexedToscaElement() != null) {
+            // Relationship kinds (instanceOf) depend on the type hierarchy
+            content.append("<").append(paaSRelationshipTemplate.getIndexedToscaElement().getElementId());
+            content.append(canonical(paaSRelationshipTemplate.getIndexedToscaElement().getDerivedFrom()));
+        }
+        content.append(canonical(template.getProperties()));
+        return content.toString();
+    }
+
+    private static String canonical(Object value) {
+        if (value == null) {
+            return "null";
+        } else if (value instanceof Map) {
+            // Sort entries so that equal maps always produce the same output
+            final Map<String, String> sorted = new TreeMap<>();
+            ((Map<?, ?>) value).forEach((key, val) -> sorted.put(String.valueOf(key), canonical(val)));
+            return sorted.toString();
+        } else if (value instanceof Collection) {
+            final StringBuilder content = new StringBuilder("[");
+            ((Collection<?>) value).forEach(item -> content.append(canonical(item)).append(","));
+            return content.append("]").toString();
+        } else if (value instanceof ScalarPropertyValue) {
+            return "'" + ((ScalarPropertyValue) value).getValue() + "'";
+        } else if (value instanceof ComplexPropertyValue) {
+            return canonical(((ComplexPropertyValue) value).getValue());
+        } else if (value instanceof ListPropertyValue) {
+            return canonical(((ListPropertyValue) value).getValue());
+        } else if (value instanceof FunctionPropertyValue) {
+            return ((FunctionPropertyValue) value).getFunction() + canonical(((FunctionPropertyValue) value).getParameters());
+        }
+        return "'" + value + "'";
+    }
+}
@@ -0,0 +1,66 @@
+package alien4cloud.plugin.marathon.service.builders;
+
+import java.util.List;
+import java.util.Map;
+
+import org.alien4cloud.tosca.model.definitions.FunctionPropertyValue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+
+import alien4cloud.plugin.marathon.service.model.marathon.MarathonApp;
+import alien4cloud.plugin.marathon.service.model.marathon.NamedPort;
+import lombok.Getter;
+import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.model.v2.Port;
+
+/**
+ * Deployment-agnostic part of a Marathon App definition, as built from a node template.
+ * Service ports and inputs resolved from relationships targets are left out (as placeholders) and must be re-applied for each deployment.
+ *
+ * The App itself is kept serialized so that the fragment can be shared safely between builds.
+ */
+@Getter
+public class AppDefinitionFragment {
+
+    /**
+     * Reads port mappings back as named ports, so that they can still be named once copied.
+     */
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Port.class, (JsonDeserializer<Port>) (json, type, context) -> context.deserialize(json, NamedPort.class)).create();
+
+    private final String appDefinition;
+
+    /**
+     * Names of the endpoint capabilities, in the order of the App's port mappings.
+     */
+    private final List<String> endpoints;
+
+    /**
+     * Endpoints targeted by the node's ConnectsTo relationships, as <code>target_app_id/capability_name</code>.
+     */
+    private final List<String> targetedEndpoints;
+
+    /**
+     * Placeholder values set in the App in place of the inputs that have to be resolved against a relationship target.
+     */
+    private final Map<String, FunctionPropertyValue> placeholders;
+
+    public AppDefinitionFragment(App app, List<String> endpoints, List<String> targetedEndpoints, Map<String, FunctionPropertyValue> placeholders) {
+        this.appDefinition = GSON.toJson(app);
+        this.endpoints = ImmutableList.copyOf(endpoints);
+        this.targetedEndpoints = ImmutableList.copyOf(targetedEndpoints);
+        this.placeholders = ImmutableMap.copyOf(placeholders);
+    }
+
+    /**
+     * @return A new, mutable, copy of the App definition.
+     */
+    public MarathonApp newApp() {
+        return GSON.fromJson(appDefinition, MarathonApp.class);
+    }
+}
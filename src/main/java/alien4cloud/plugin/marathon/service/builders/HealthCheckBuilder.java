@@ -0,0 +1,58 @@
+package alien4cloud.plugin.marathon.service.builders;
+
+import mesosphere.marathon.client.model.v2.Command;
+import mesosphere.marathon.client.model.v2.HealthCheck;
+
+public class HealthCheckBuilder {
+    private final HealthCheck healthCheck;
+
+    private HealthCheckBuilder(String protocol) {
+        healthCheck = new HealthCheck();
+        healthCheck.setProtocol(protocol);
+    }
+
+    public static HealthCheckBuilder builder(String protocol) {
+        return new HealthCheckBuilder(protocol);
+    }
+
+    public HealthCheck build() {
+        return healthCheck;
+    }
+
+    public HealthCheckBuilder path(String path) {
+        healthCheck.setPath(path);
+        return this;
+    }
+
+    public HealthCheckBuilder command(String command) {
+        final Command healthCommand = new Command();
+        healthCommand.setValue(command);
+        healthCheck.setCommand(healthCommand);
+        return this;
+    }
+
+    public HealthCheckBuilder portIndex(Integer portIndex) {
+        healthCheck.setPortIndex(portIndex);
+        return this;
+    }
+
+    public HealthCheckBuilder gracePeriodSeconds(Integer gracePeriodSeconds) {
+        healthCheck.setGracePeriodSeconds(gracePeriodSeconds);
+        return this;
+    }
+
+    public HealthCheckBuilder intervalSeconds(Integer intervalSeconds) {
+        healthCheck.setIntervalSeconds(intervalSeconds);
+        return this;
+    }
+
+    public HealthCheckBuilder timeoutSeconds(Integer timeoutSeconds) {
+        healthCheck.setTimeoutSeconds(timeoutSeconds);
+        return this;
+    }
+
+    public HealthCheckBuilder maxConsecutiveFailures(Integer maxConsecutiveFailures) {
+        healthCheck.setMaxConsecutiveFailures(maxConsecutiveFailures);
+        return this;
+    }
+}
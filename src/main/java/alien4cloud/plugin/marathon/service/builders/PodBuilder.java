@@ -0,0 +1,158 @@
+package alien4cloud.plugin.marathon.service.builders;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.alien4cloud.tosca.model.definitions.ScalarPropertyValue;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import alien4cloud.paas.model.PaaSNodeTemplate;
+import alien4cloud.plugin.marathon.service.model.marathon.MarathonApp;
+import alien4cloud.plugin.marathon.service.model.marathon.NamedPort;
+import alien4cloud.plugin.marathon.service.model.marathon.Pod;
+import lombok.extern.slf4j.Slf4j;
+import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.model.v2.HealthCheck;
+import mesosphere.marathon.client.model.v2.Port;
+
+/**
+ * Builds a Marathon pod out of the App definitions of its containers. The containers of an instance share a bridged network: they reach each other on
+ * localhost, while the host ports of their endpoints are allocated by Marathon out of the ports offered by the agent.
+ */
+@Slf4j
+public class PodBuilder {
+    private final Pod pod;
+
+    private PodBuilder(String id) {
+        pod = new Pod();
+        pod.setId(id);
+        pod.setContainers(Lists.newArrayList());
+        pod.setNetworks(Lists.newArrayList(new Pod.Network("container/bridge")));
+        pod.setScaling(new Pod.Scaling("fixed", 0));
+    }
+
+    public static PodBuilder builder(String id) {
+        return new PodBuilder(id);
+    }
+
+    /**
+     * Nodes with the same <code>marathon_pod</code> property are the containers of a single pod.
+     *
+     * @param paaSNodeTemplate the node
+     * @return the name of the pod the node is a container of, if any.
+     */
+    public static Optional<String> podName(PaaSNodeTemplate paaSNodeTemplate) {
+        return Optional.ofNullable(paaSNodeTemplate.getTemplate().getProperties()).map(properties -> properties.get("marathon_pod"))
+                .filter(ScalarPropertyValue.class::isInstance).map(podName -> ((ScalarPropertyValue) podName).getValue())
+                .filter(podName -> podName != null && !podName.isEmpty()).map(podName -> podName.toLowerCase().replaceAll("[^a-z0-9-]", "-"));
+    }
+
+    /**
+     * @param paaSNodeTemplate the node
+     * @return the id the node's App, or container, is mapped with in its group: <code>pod.container</code> for the containers of pods.
+     */
+    public static String mappedAppId(PaaSNodeTemplate paaSNodeTemplate) {
+        final String appId = paaSNodeTemplate.getId().toLowerCase();
+        return podName(paaSNodeTemplate).map(podName -> podName + "." + appId).orElse(appId);
+    }
+
+    /**
+     * @param mappedAppId the id a node is mapped with in its group, see {@link #mappedAppId(PaaSNodeTemplate)}
+     * @param nodeTemplateId the id of the node
+     * @return the name of the pod the node is a container of, if any.
+     */
+    public static Optional<String> podName(String mappedAppId, String nodeTemplateId) {
+        final String containerSuffix = "." + nodeTemplateId.toLowerCase();
+        return mappedAppId.endsWith(containerSuffix) ? Optional.of(mappedAppId.substring(0, mappedAppId.length() - containerSuffix.length()))
+                : Optional.empty();
+    }
+
+    public Pod build() {
+        return pod;
+    }
+
+    /**
+     * Add a container built from an App definition. The pod runs as many instances as its most scaled container.
+     *
+     * @param app the App definition of the container
+     * @return this builder
+     */
+    public PodBuilder container(App app) {
+        final Pod.Container container = new Pod.Container();
+        container.setName(app.getId());
+        container.setResources(new Pod.Resources(app.getCpus(), app.getMem()));
+        container.setImage(new Pod.Image("DOCKER", app.getContainer().getDocker().getImage()));
+        container.setEnvironment(Optional.ofNullable(app.getEnv()).map(env -> Maps.newHashMap(Maps.transformValues(env, String::valueOf))).orElse(null));
+        if (app.getCmd() != null || app.getArgs() != null)
+            container.setExec(new Pod.Exec(new Pod.Command(Stream.concat(Stream.of(app.getCmd()), Optional.ofNullable(app.getArgs())
+                    .map(List::stream).orElse(Stream.empty())).filter(part -> part != null).collect(Collectors.joining(" ")))));
+        if (app.getContainer().getDocker().getParameters() != null || app.getContainer().getVolumes() != null)
+            log.warn("Docker options and volumes are not supported by pods, they are ignored for container " + app.getId() + " of pod " + pod.getId());
+
+        final List<Port> portMappings = Optional.ofNullable(app.getContainer().getDocker().getPortMappings()).orElse(Lists.newArrayList());
+        container.setEndpoints(Lists.newArrayList());
+        for (int portIndex = 0; portIndex < portMappings.size(); portIndex++) {
+            final Pod.Endpoint endpoint = new Pod.Endpoint();
+            endpoint.setName(endpointName(app, portIndex));
+            // The declared port is the one the containers of the pod reach each other on, the host port is allocated by Marathon
+            endpoint.setContainerPort(portMappings.get(portIndex).getContainerPort());
+            endpoint.setHostPort(0);
+            endpoint.setProtocol(Lists.newArrayList("tcp"));
+            if (portMappings.get(portIndex) instanceof NamedPort)
+                endpoint.setLabels(((NamedPort) portMappings.get(portIndex)).getLabels());
+            container.getEndpoints().add(endpoint);
+        }
+        Optional.ofNullable(app.getHealthChecks()).flatMap(healthChecks -> healthChecks.stream().findFirst())
+                .ifPresent(healthCheck -> container.setHealthCheck(healthCheck(app, healthCheck)));
+
+        if (app.getLabels() != null) {
+            if (pod.getLabels() == null) pod.setLabels(Maps.newHashMap());
+            pod.getLabels().putAll(app.getLabels());
+        }
+        if (app instanceof MarathonApp && pod.getScheduling() == null && ((MarathonApp) app).getUpgradeStrategy() != null)
+            pod.setScheduling(new Pod.Scheduling(((MarathonApp) app).getUpgradeStrategy()));
+        pod.getScaling().setInstances(Math.max(pod.getScaling().getInstances(), Optional.ofNullable(app.getInstances()).orElse(1)));
+        pod.getContainers().add(container);
+        return this;
+    }
+
+    private static Pod.HealthCheck healthCheck(App app, HealthCheck appHealthCheck) {
+        final Pod.HealthCheck healthCheck = new Pod.HealthCheck();
+        final String endpoint = endpointName(app, Optional.ofNullable(appHealthCheck.getPortIndex()).orElse(0));
+        switch (appHealthCheck.getProtocol()) {
+        case "COMMAND":
+            healthCheck.setExec(new Pod.Exec(new Pod.Command(appHealthCheck.getCommand().getValue())));
+            break;
+        case "HTTP":
+        case "MESOS_HTTP":
+            healthCheck.setHttp(new Pod.HttpCheck(endpoint, appHealthCheck.getPath(), "HTTP"));
+            break;
+        case "HTTPS":
+        case "MESOS_HTTPS":
+            healthCheck.setHttp(new Pod.HttpCheck(endpoint, appHealthCheck.getPath(), "HTTPS"));
+            break;
+        default:
+            healthCheck.setTcp(new Pod.TcpCheck(endpoint));
+        }
+        healthCheck.setGracePeriodSeconds(appHealthCheck.getGracePeriodSeconds());
+        healthCheck.setIntervalSeconds(appHealthCheck.getIntervalSeconds());
+        healthCheck.setTimeoutSeconds(appHealthCheck.getTimeoutSeconds());
+        healthCheck.setMaxConsecutiveFailures(appHealthCheck.getMaxConsecutiveFailures());
+        return healthCheck;
+    }
+
+    /**
+     * Endpoint names are unique within a pod: they are prefixed by the container's name.
+     */
+    private static String endpointName(App app, int portIndex) {
+        final Port portMapping = app.getContainer().getDocker().getPortMappings() == null ? null
+                : app.getContainer().getDocker().getPortMappings().get(portIndex);
+        final String portName = portMapping instanceof NamedPort && ((NamedPort) portMapping).getName() != null ? ((NamedPort) portMapping).getName()
+                : String.valueOf(portIndex);
+        return app.getId() + "-" + portName;
+    }
+}
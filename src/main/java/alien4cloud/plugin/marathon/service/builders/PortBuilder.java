@@ -1,15 +1,16 @@
 package alien4cloud.plugin.marathon.service.builders;
 
+import alien4cloud.plugin.marathon.service.model.marathon.NamedPort;
 import mesosphere.marathon.client.model.v2.Port;
 
 /**
  * @author Adrian Fraisse
  */
 public class PortBuilder {
-    final Port port;
+    final NamedPort port;
 
     private PortBuilder() {
-        this.port = new Port(0);
+        this.port = new NamedPort();
     }
 
     public static PortBuilder builder() {
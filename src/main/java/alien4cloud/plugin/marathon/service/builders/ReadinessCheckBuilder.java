@@ -0,0 +1,49 @@
+package alien4cloud.plugin.marathon.service.builders;
+
+import java.util.List;
+
+import alien4cloud.plugin.marathon.service.model.marathon.ReadinessCheck;
+
+public class ReadinessCheckBuilder {
+    private final ReadinessCheck readinessCheck;
+
+    private ReadinessCheckBuilder(String portName) {
+        readinessCheck = new ReadinessCheck();
+        readinessCheck.setName("readiness");
+        readinessCheck.setPortName(portName);
+        readinessCheck.setPreserveLastResponse(false);
+    }
+
+    public static ReadinessCheckBuilder builder(String portName) {
+        return new ReadinessCheckBuilder(portName);
+    }
+
+    public ReadinessCheck build() {
+        return readinessCheck;
+    }
+
+    public ReadinessCheckBuilder protocol(String protocol) {
+        readinessCheck.setProtocol(protocol);
+        return this;
+    }
+
+    public ReadinessCheckBuilder path(String path) {
+        readinessCheck.setPath(path);
+        return this;
+    }
+
+    public ReadinessCheckBuilder intervalSeconds(Integer intervalSeconds) {
+        readinessCheck.setIntervalSeconds(intervalSeconds);
+        return this;
+    }
+
+    public ReadinessCheckBuilder timeoutSeconds(Integer timeoutSeconds) {
+        readinessCheck.setTimeoutSeconds(timeoutSeconds);
+        return this;
+    }
+
+    public ReadinessCheckBuilder httpStatusCodesForReady(List<Integer> statusCodes) {
+        readinessCheck.setHttpStatusCodesForReady(statusCodes);
+        return this;
+    }
+}
@@ -0,0 +1,343 @@
+package alien4cloud.plugin.marathon.service.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import com.google.common.collect.Lists;
+
+import alien4cloud.paas.model.DeploymentStatus;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only journal of the changes of the Marathon to Alien mappings, with periodic snapshots, so that the mappings - including the ids of the
+ * Marathon deployments in flight - survive a restart.
+ *
+ * Both files are sequences of records: <code>length (int) | payload | CRC32 of the payload (int)</code>, the payload starting with the record type.
+ * Replay stops at the first incomplete or corrupted record, eg. one being written when the process died. Records are flushed to the OS as they are
+ * appended, snapshots and the journal restarted after them are forced to the disk before the previous journal is dropped.
+ */
+@Slf4j
+public class MappingJournal implements Closeable {
+
+    /**
+     * Receives mapping changes, either replayed from the journal or to be appended to it. All methods default to doing nothing.
+     */
+    public interface Handler {
+        default void deploymentRegistered(String marathonDeploymentId, String alienDeploymentId, DeploymentStatus status) {
+        }
+
+        default void batchDeploymentRegistered(String marathonDeploymentId, Collection<String> alienDeploymentIds, DeploymentStatus status) {
+        }
+
+        default void deploymentRemoved(String marathonDeploymentId) {
+        }
+
+        default void groupRegistered(String groupId, String alienDeploymentId) {
+        }
+
+        default void appRegistered(String groupId, String appId, String nodeTemplateId) {
+        }
+
+        default void groupRemoved(String groupId) {
+        }
+    }
+
+    static final String JOURNAL_FILE = "mappings.journal";
+
+    static final String SNAPSHOT_FILE = "mappings.snapshot";
+
+    private static final byte DEPLOYMENT_REGISTERED = 1;
+    private static final byte BATCH_DEPLOYMENT_REGISTERED = 2;
+    private static final byte DEPLOYMENT_REMOVED = 3;
+    private static final byte GROUP_REGISTERED = 4;
+    private static final byte APP_REGISTERED = 5;
+    private static final byte GROUP_REMOVED = 6;
+
+    private final Path directory;
+
+    private final int snapshotThreshold;
+
+    /**
+     * Writes the whole current state to a handler, to take snapshots.
+     */
+    private final Consumer<Handler> stateSource;
+
+    private FileChannel journalChannel;
+
+    private DataOutputStream journalOutput;
+
+    private int recordsSinceSnapshot = 0;
+
+    private final Handler writer = new RecordEncoder(this::append);
+
+    private MappingJournal(Path directory, int snapshotThreshold, Consumer<Handler> stateSource) {
+        this.directory = directory;
+        this.snapshotThreshold = snapshotThreshold;
+        this.stateSource = stateSource;
+    }
+
+    /**
+     * Replay the journal of a directory, then open it to append changes.
+     *
+     * @param directory the journal directory, created if needed
+     * @param snapshotThreshold number of records appended to the journal after which a snapshot replaces it
+     * @param replayTarget receives the replayed changes
+     * @param stateSource writes the current state to the given handler, to take snapshots
+     * @return the journal
+     * @throws IOException if the directory cannot be read or written
+     */
+    public static MappingJournal open(Path directory, int snapshotThreshold, Handler replayTarget, Consumer<Handler> stateSource) throws IOException {
+        Files.createDirectories(directory);
+        final MappingJournal journal = new MappingJournal(directory, snapshotThreshold, stateSource);
+
+        final long start = System.currentTimeMillis();
+        replay(directory.resolve(SNAPSHOT_FILE), replayTarget);
+        final long validLength = replay(directory.resolve(JOURNAL_FILE), replayTarget);
+        log.info("Replayed Marathon mappings journal in " + (System.currentTimeMillis() - start) + " ms");
+
+        // Drop any incomplete record before appending
+        try (FileChannel channel = FileChannel.open(directory.resolve(JOURNAL_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(validLength);
+        }
+        journal.openJournalOutput(StandardOpenOption.APPEND);
+        return journal;
+    }
+
+    private void openJournalOutput(OpenOption mode) throws IOException {
+        journalChannel = FileChannel.open(directory.resolve(JOURNAL_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode);
+        journalOutput = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(journalChannel)));
+    }
+
+    /**
+     * @return the length of the valid records of the file
+     */
+    private static long replay(Path file, Handler target) throws IOException {
+        if (!Files.exists(file))
+            return 0;
+        long validLength = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                final byte[] payload;
+                try {
+                    final int length = input.readInt();
+                    if (length <= 0 || length > 1 << 20)
+                        break;
+                    payload = new byte[length];
+                    input.readFully(payload);
+                    if (input.readInt() != (int) checksum(payload))
+                        break;
+                } catch (EOFException e) {
+                    break;
+                }
+                dispatch(new DataInputStream(new ByteArrayInputStream(payload)), target);
+                validLength += payload.length + 8;
+            }
+        }
+        if (validLength < Files.size(file))
+            log.warn("Ignored an incomplete record at the end of " + file);
+        return validLength;
+    }
+
+    private static void dispatch(DataInputStream record, Handler target) throws IOException {
+        switch (record.readByte()) {
+        case DEPLOYMENT_REGISTERED:
+            target.deploymentRegistered(record.readUTF(), record.readUTF(), DeploymentStatus.valueOf(record.readUTF()));
+            break;
+        case BATCH_DEPLOYMENT_REGISTERED:
+            final String marathonDeploymentId = record.readUTF();
+            final int count = record.readInt();
+            final List<String> alienDeploymentIds = Lists.newArrayListWithCapacity(count);
+            for (int i = 0; i < count; i++) {
+                alienDeploymentIds.add(record.readUTF());
+            }
+            target.batchDeploymentRegistered(marathonDeploymentId, alienDeploymentIds, DeploymentStatus.valueOf(record.readUTF()));
+            break;
+        case DEPLOYMENT_REMOVED:
+            target.deploymentRemoved(record.readUTF());
+            break;
+        case GROUP_REGISTERED:
+            target.groupRegistered(record.readUTF(), record.readUTF());
+            break;
+        case APP_REGISTERED:
+            target.appRegistered(record.readUTF(), record.readUTF(), record.readUTF());
+            break;
+        case GROUP_REMOVED:
+            target.groupRemoved(record.readUTF());
+            break;
+        default:
+            log.warn("Ignored unknown record in Marathon mappings journal");
+        }
+    }
+
+    /**
+     * @return a handler appending the changes it receives to the journal.
+     */
+    public Handler writer() {
+        return writer;
+    }
+
+    private synchronized void append(RecordWriter recordWriter) {
+        if (journalOutput == null)
+            return; // Closed
+        try {
+            writeRecord(journalOutput, recordWriter);
+            journalOutput.flush();
+            if (++recordsSinceSnapshot >= snapshotThreshold)
+                snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Failure while writing the Marathon mappings journal", e);
+        }
+    }
+
+    /**
+     * Write the current state to a new snapshot, then start a new journal.
+     */
+    private void snapshot() throws IOException {
+        final Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        final Path temporaryFile = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel snapshotChannel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+                DataOutputStream snapshotOutput = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(snapshotChannel)))) {
+            final List<IOException> failures = Lists.newArrayList();
+            stateSource.accept(new RecordEncoder(recordWriter -> {
+                try {
+                    if (failures.isEmpty())
+                        writeRecord(snapshotOutput, recordWriter);
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+            }));
+            if (!failures.isEmpty())
+                throw failures.get(0);
+            snapshotOutput.flush();
+            // On disk before it replaces the journal
+            snapshotChannel.force(true);
+        }
+        Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // The snapshot covers the whole journal
+        journalOutput.close();
+        openJournalOutput(StandardOpenOption.TRUNCATE_EXISTING);
+        journalChannel.force(true);
+        recordsSinceSnapshot = 0;
+    }
+
+    private static void writeRecord(OutputStream output, RecordWriter recordWriter) throws IOException {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        recordWriter.write(new DataOutputStream(payload));
+        final byte[] bytes = payload.toByteArray();
+        final DataOutputStream dataOutput = new DataOutputStream(output);
+        dataOutput.writeInt(bytes.length);
+        dataOutput.write(bytes);
+        dataOutput.writeInt((int) checksum(bytes));
+    }
+
+    private static long checksum(byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journalOutput != null) {
+            journalOutput.close();
+            journalOutput = null;
+            journalChannel = null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(DataOutputStream record) throws IOException;
+    }
+
+    /**
+     * Encodes the changes it receives as records.
+     */
+    private static class RecordEncoder implements Handler {
+
+        private final Consumer<RecordWriter> sink;
+
+        private RecordEncoder(Consumer<RecordWriter> sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void deploymentRegistered(String marathonDeploymentId, String alienDeploymentId, DeploymentStatus status) {
+            sink.accept(record -> {
+                record.writeByte(DEPLOYMENT_REGISTERED);
+                record.writeUTF(marathonDeploymentId);
+                record.writeUTF(alienDeploymentId);
+                record.writeUTF(status.name());
+            });
+        }
+
+        @Override
+        public void batchDeploymentRegistered(String marathonDeploymentId, Collection<String> alienDeploymentIds, DeploymentStatus status) {
+            sink.accept(record -> {
+                record.writeByte(BATCH_DEPLOYMENT_REGISTERED);
+                record.writeUTF(marathonDeploymentId);
+                record.writeInt(alienDeploymentIds.size());
+                for (String alienDeploymentId : alienDeploymentIds) {
+                    record.writeUTF(alienDeploymentId);
+                }
+                record.writeUTF(status.name());
+            });
+        }
+
+        @Override
+        public void deploymentRemoved(String marathonDeploymentId) {
+            sink.accept(record -> {
+                record.writeByte(DEPLOYMENT_REMOVED);
+                record.writeUTF(marathonDeploymentId);
+            });
+        }
+
+        @Override
+        public void groupRegistered(String groupId, String alienDeploymentId) {
+            sink.accept(record -> {
+                record.writeByte(GROUP_REGISTERED);
+                record.writeUTF(groupId);
+                record.writeUTF(alienDeploymentId);
+            });
+        }
+
+        @Override
+        public void appRegistered(String groupId, String appId, String nodeTemplateId) {
+            sink.accept(record -> {
+                record.writeByte(APP_REGISTERED);
+                record.writeUTF(groupId);
+                record.writeUTF(appId);
+                record.writeUTF(nodeTemplateId);
+            });
+        }
+
+        @Override
+        public void groupRemoved(String groupId) {
+            sink.accept(record -> {
+                record.writeByte(GROUP_REMOVED);
+                record.writeUTF(groupId);
+            });
+        }
+    }
+}
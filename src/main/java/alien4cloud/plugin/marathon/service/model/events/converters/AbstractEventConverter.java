@@ -1,9 +1,10 @@
 package alien4cloud.plugin.marathon.service.model.events.converters;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
-import java.util.TimeZone;
 
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -22,15 +23,13 @@ public abstract class AbstractEventConverter<T extends AbstractEvent, U extends
 
     private final MappingService mappingService;
     /**
-     * Date format of Marathon's events.
+     * Date format of Marathon's events. Immutable, as events are converted from several threads.
      */
-    private final SimpleDateFormat dateFormat;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
 
     @Autowired
     protected AbstractEventConverter(MappingService mappingService) {
         this.mappingService = mappingService;
-        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
     }
 
     protected abstract U createMonitorEvent();
@@ -39,8 +38,8 @@ public abstract class AbstractEventConverter<T extends AbstractEvent, U extends
         final U monitorEvent = createMonitorEvent();
 
         try {
-            monitorEvent.setDate(dateFormat.parse(marathonEvent.getTimestamp()).getTime());
-        } catch (ParseException e) {
+            monitorEvent.setDate(Instant.from(DATE_FORMAT.parse(marathonEvent.getTimestamp())).toEpochMilli());
+        } catch (DateTimeParseException e) {
             log.error("Unable to parse event time from Marathon", e);
             monitorEvent.setDate(new Date().getTime());
         }
@@ -1,9 +1,13 @@
 package alien4cloud.plugin.marathon.service.model.events.converters;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 import org.springframework.stereotype.Service;
 
 import alien4cloud.paas.model.DeploymentStatus;
 import alien4cloud.paas.model.PaaSDeploymentStatusMonitorEvent;
+import alien4cloud.plugin.marathon.metrics.DeploymentTrace;
 import alien4cloud.plugin.marathon.service.MappingService;
 import alien4cloud.plugin.marathon.service.model.events.deployments.AbstractDeploymentEvent;
 import alien4cloud.plugin.marathon.service.model.events.deployments.DeploymentFailedEvent;
@@ -25,10 +29,13 @@ public class DeploymentEventConverter extends AbstractEventConverter<AbstractDep
 
     @Override
     protected PaaSDeploymentStatusMonitorEvent fromMarathonEvent(AbstractDeploymentEvent marathonEvent) {
+        return fromMarathonEvent(marathonEvent, getMappingService().getAlienDeploymentInfo(marathonEvent.getId()).orElse(AlienDeploymentMapping.EMPTY));
+    }
+
+    private PaaSDeploymentStatusMonitorEvent fromMarathonEvent(AbstractDeploymentEvent marathonEvent, AlienDeploymentMapping deploymentMapping) {
         final PaaSDeploymentStatusMonitorEvent paaSDeploymentStatusMonitorEvent = super.fromMarathonEvent(marathonEvent);
 
         // Determine if this is a Deployment or an Undeployment (Marathon doesn't make the difference)
-        final AlienDeploymentMapping deploymentMapping = getMappingService().getAlienDeploymentInfo(marathonEvent.getId()).orElse(AlienDeploymentMapping.EMPTY);
         paaSDeploymentStatusMonitorEvent.setDeploymentId(deploymentMapping.getAlienDeploymentId());
         paaSDeploymentStatusMonitorEvent.setDeploymentStatus(deploymentMapping.getStatus());
 
@@ -43,6 +50,7 @@ public class DeploymentEventConverter extends AbstractEventConverter<AbstractDep
         final PaaSDeploymentStatusMonitorEvent paaSDeploymentStatusMonitorEvent = this.fromMarathonEvent(marathonEvent);
 
         paaSDeploymentStatusMonitorEvent.setDeploymentStatus(DeploymentStatus.FAILURE);
+        closeTrace(paaSDeploymentStatusMonitorEvent);
         getMappingService().removeAlienDeploymentInfo(marathonEvent.getId());
         return paaSDeploymentStatusMonitorEvent;
     }
@@ -51,19 +59,68 @@ public class DeploymentEventConverter extends AbstractEventConverter<AbstractDep
         final PaaSDeploymentStatusMonitorEvent paaSDeploymentStatusMonitorEvent = this.fromMarathonEvent(marathonEvent);
 
         // Determine if this is the end of a Deployment or an undeployment
-        switch (paaSDeploymentStatusMonitorEvent.getDeploymentStatus()) {
+        paaSDeploymentStatusMonitorEvent.setDeploymentStatus(completedStatus(paaSDeploymentStatusMonitorEvent, marathonEvent.getId()));
+        closeTrace(paaSDeploymentStatusMonitorEvent);
+
+        getMappingService().removeAlienDeploymentInfo(marathonEvent.getId());
+        if (paaSDeploymentStatusMonitorEvent.getDeploymentStatus() == DeploymentStatus.UNDEPLOYED)
+            // The group is gone
+            getMappingService().removeGroupMappings(paaSDeploymentStatusMonitorEvent.getDeploymentId());
+        return paaSDeploymentStatusMonitorEvent;
+    }
+
+    /**
+     * Convert an event of a Marathon deployment which covers several Alien deployments: one monitor event is issued for each Alien deployment.
+     *
+     * @param marathonEvent the Marathon deployment event
+     * @return a monitor event for each Alien deployment.
+     */
+    public List<PaaSDeploymentStatusMonitorEvent> fromBatchDeploymentEvent(AbstractDeploymentEvent marathonEvent) {
+        final List<PaaSDeploymentStatusMonitorEvent> monitorEvents = getMappingService().getAlienDeploymentInfos(marathonEvent.getId()).stream()
+                .map(deploymentMapping -> {
+                    final PaaSDeploymentStatusMonitorEvent monitorEvent = fromMarathonEvent(marathonEvent, deploymentMapping);
+                    if (marathonEvent instanceof DeploymentFailedEvent)
+                        monitorEvent.setDeploymentStatus(DeploymentStatus.FAILURE);
+                    else if (marathonEvent instanceof DeploymentSuccessEvent)
+                        monitorEvent.setDeploymentStatus(completedStatus(monitorEvent, marathonEvent.getId()));
+                    closeTrace(monitorEvent);
+                    if (monitorEvent.getDeploymentStatus() == DeploymentStatus.UNDEPLOYED)
+                        getMappingService().removeGroupMappings(monitorEvent.getDeploymentId());
+                    return monitorEvent;
+                }).collect(Collectors.toList());
+
+        if (!(marathonEvent instanceof DeploymentInfoEvent))
+            getMappingService().removeAlienDeploymentInfo(marathonEvent.getId());
+        return monitorEvents;
+    }
+
+    /**
+     * Finish the trace of an Alien deployment once its deployment succeeded or failed.
+     */
+    private void closeTrace(PaaSDeploymentStatusMonitorEvent monitorEvent) {
+        if (monitorEvent.getDeploymentStatus() == DeploymentStatus.DEPLOYED || monitorEvent.getDeploymentStatus() == DeploymentStatus.FAILURE)
+            getMappingService().getDeploymentTrace(monitorEvent.getDeploymentId()).ifPresent(DeploymentTrace::finish);
+    }
+
+    private DeploymentStatus completedStatus(PaaSDeploymentStatusMonitorEvent monitorEvent, String marathonDeploymentId) {
+        final boolean otherRunningDeployments = monitorEvent.getDeploymentId() != null
+                && getMappingService().hasOtherRunningDeployments(monitorEvent.getDeploymentId(), marathonDeploymentId);
+        if (monitorEvent.getDeploymentStatus() == DeploymentStatus.DEPLOYMENT_IN_PROGRESS && monitorEvent.getDeploymentId() != null
+                && (otherRunningDeployments ? getMappingService().hasFailedDeployments(monitorEvent.getDeploymentId())
+                        : getMappingService().removeFailedDeploymentInfos(monitorEvent.getDeploymentId())))
+            // One of the pods of the deployment could not be created: the last Marathon deployment to complete forgets it
+            return DeploymentStatus.FAILURE;
+        if (otherRunningDeployments)
+            // The Alien deployment is completed by another Marathon deployment, eg. of one of its pods
+            return monitorEvent.getDeploymentStatus();
+        switch (monitorEvent.getDeploymentStatus()) {
             case DEPLOYMENT_IN_PROGRESS:
-                paaSDeploymentStatusMonitorEvent.setDeploymentStatus(DeploymentStatus.DEPLOYED);
-                break;
+                return DeploymentStatus.DEPLOYED;
             case UNDEPLOYMENT_IN_PROGRESS:
-                paaSDeploymentStatusMonitorEvent.setDeploymentStatus(DeploymentStatus.UNDEPLOYED);
-                break;
+                return DeploymentStatus.UNDEPLOYED;
             default:
-                paaSDeploymentStatusMonitorEvent.setDeploymentStatus(DeploymentStatus.UNKNOWN);
+                return DeploymentStatus.UNKNOWN;
         }
-
-        getMappingService().removeAlienDeploymentInfo(marathonEvent.getId());
-        return paaSDeploymentStatusMonitorEvent;
     }
 
     @Override
@@ -1,16 +1,15 @@
 package alien4cloud.plugin.marathon.service.model.events.converters;
 
-import java.util.Optional;
-
 import org.springframework.stereotype.Service;
 
 import alien4cloud.paas.model.InstanceStatus;
 import alien4cloud.paas.model.PaaSInstanceStateMonitorEvent;
+import alien4cloud.plugin.marathon.metrics.DeploymentTrace;
 import alien4cloud.plugin.marathon.service.MappingService;
 import alien4cloud.plugin.marathon.service.model.events.status.AbstractStatusEvent;
 import alien4cloud.plugin.marathon.service.model.events.status.HealthStatusChangedEvent;
 import alien4cloud.plugin.marathon.service.model.events.status.StatusUpdateEvent;
-import alien4cloud.plugin.marathon.service.model.mapping.MarathonAppsMapping;
+import alien4cloud.plugin.marathon.service.model.mapping.AppMapping;
 
 /**
  * Converts Marathon task status related events into <code>PaaSInstanceStateMonitorEvent</code>.
@@ -29,13 +28,14 @@ public class StatusEventConverter extends AbstractEventConverter<AbstractStatusE
         final PaaSInstanceStateMonitorEvent monitorEvent = super.fromMarathonEvent(marathonEvent);
 
         // Retrieve deployment id and nodetemplate id from marathon app id (== /paasDeploymentId/nodetemplateid lower cased)
-        final String[] fullAppId = marathonEvent.getAppId().split("/");
-        final String groupId = fullAppId[1];
-        final String appId = fullAppId[2]; // This will throw for apps not started with alien, ex is silently caught afterwards
-
-        final Optional<MarathonAppsMapping> appMapping = getMappingService().getMarathonAppMapping(groupId);
-        monitorEvent.setDeploymentId(appMapping.map(MarathonAppsMapping::getAlienDeploymentId).orElse("UNKNOWN_DEPLOYMENT"));
-        monitorEvent.setNodeTemplateId(appMapping.map(mapping -> mapping.getNodeTemplateId(appId)).orElse("UNKNOWN_NODE"));
+        AppMapping appMapping = getMappingService().resolveApp(marathonEvent.getAppId());
+        if (AppMapping.UNKNOWN.getNodeTemplateId().equals(appMapping.getNodeTemplateId()) && marathonEvent.getTaskId() != null
+                && marathonEvent.getTaskId().lastIndexOf('.') > 0)
+            // The tasks of pods are containers, mapped as /paasDeploymentId/podName.containerName - the task id ends with the container name
+            appMapping = getMappingService()
+                    .resolveApp(marathonEvent.getAppId() + marathonEvent.getTaskId().substring(marathonEvent.getTaskId().lastIndexOf('.')));
+        monitorEvent.setDeploymentId(appMapping.getAlienDeploymentId());
+        monitorEvent.setNodeTemplateId(appMapping.getNodeTemplateId());
         monitorEvent.setInstanceId(marathonEvent.getTaskId());
         return monitorEvent;
     }
@@ -52,6 +52,8 @@ public class StatusEventConverter extends AbstractEventConverter<AbstractStatusE
             case "TASK_RUNNING":
                 instanceStateMonitorEvent.setInstanceState("started");
                 instanceStateMonitorEvent.setInstanceStatus(InstanceStatus.SUCCESS);
+                // Ends the launch phase of the deployment in progress, if any
+                getMappingService().getDeploymentTrace(instanceStateMonitorEvent.getDeploymentId()).ifPresent(DeploymentTrace::taskRunning);
                 break;
             case "TASK_STAGING":
                 instanceStateMonitorEvent.setInstanceState("creating");
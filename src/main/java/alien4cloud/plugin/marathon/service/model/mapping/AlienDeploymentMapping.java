@@ -15,5 +15,20 @@ public class AlienDeploymentMapping {
 
     private String alienDeploymentId;
     private DeploymentStatus status;
+    /**
+     * Time the mapping was registered at, to expire mappings of deployments whose end was missed.
+     */
+    private long registrationTime;
+    /**
+     * Id of the orchestrator the deployment belongs to, null if unknown.
+     */
+    private String orchestratorId;
 
+    public AlienDeploymentMapping(String alienDeploymentId, DeploymentStatus status) {
+        this(alienDeploymentId, status, null);
+    }
+
+    public AlienDeploymentMapping(String alienDeploymentId, DeploymentStatus status, String orchestratorId) {
+        this(alienDeploymentId, status, System.currentTimeMillis(), orchestratorId);
+    }
 }
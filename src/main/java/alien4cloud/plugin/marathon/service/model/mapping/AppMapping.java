@@ -0,0 +1,20 @@
+package alien4cloud.plugin.marathon.service.model.mapping;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * The Alien deployment and node template a Marathon app was deployed from.
+ */
+@Getter
+@EqualsAndHashCode
+@AllArgsConstructor
+public class AppMapping {
+
+    public static final AppMapping UNKNOWN = new AppMapping("UNKNOWN_DEPLOYMENT", "UNKNOWN_NODE");
+
+    private final String alienDeploymentId;
+    private final String nodeTemplateId;
+
+}
@@ -12,10 +12,21 @@ import java.util.Map;
 public class MarathonAppsMapping {
     private String alienDeploymentId;
     private Map<String, String> appIdToNodeTemplateIdMap;
+    private long registrationTime;
+    /**
+     * Id of the orchestrator the group was deployed by, null if unknown.
+     */
+    private String orchestratorId;
 
     public MarathonAppsMapping(String alienDeploymentId) {
+        this(alienDeploymentId, null);
+    }
+
+    public MarathonAppsMapping(String alienDeploymentId, String orchestratorId) {
         this.alienDeploymentId = alienDeploymentId;
-        this.appIdToNodeTemplateIdMap = Maps.newHashMap();
+        this.orchestratorId = orchestratorId;
+        this.registrationTime = System.currentTimeMillis();
+        this.appIdToNodeTemplateIdMap = Maps.newConcurrentMap();
     }
 
     public void addAppToNodeTemplateMapping(String appId, String nodeTemplateId) {
@@ -0,0 +1,19 @@
+package alien4cloud.plugin.marathon.service.model.marathon;
+
+import java.util.List;
+
+import lombok.Getter;
+import lombok.Setter;
+import mesosphere.marathon.client.model.v2.App;
+
+/**
+ * Marathon App definition, completed with the fields the Marathon java client does not support.
+ */
+@Getter
+@Setter
+public class MarathonApp extends App {
+
+    private List<ReadinessCheck> readinessChecks;
+
+    private UpgradeStrategy upgradeStrategy;
+}
@@ -0,0 +1,23 @@
+package alien4cloud.plugin.marathon.service.model.marathon;
+
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.Setter;
+import mesosphere.marathon.client.model.v2.Port;
+
+/**
+ * A port mapping with a name, so that readiness checks can target it, and labels, eg. to declare its virtual IP.
+ */
+@Getter
+@Setter
+public class NamedPort extends Port {
+
+    private String name;
+
+    private Map<String, String> labels;
+
+    public NamedPort() {
+        super(0);
+    }
+}
@@ -0,0 +1,143 @@
+package alien4cloud.plugin.marathon.service.model.marathon;
+
+import java.util.List;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Marathon pod definition: containers co-located on the same agent, which share their network and reach each other on localhost.
+ */
+@Getter
+@Setter
+public class Pod {
+
+    private String id;
+
+    private Map<String, String> labels;
+
+    private List<Container> containers;
+
+    private List<Network> networks;
+
+    private Scaling scaling;
+
+    private Scheduling scheduling;
+
+    @Getter
+    @Setter
+    public static class Container {
+        private String name;
+        private Resources resources;
+        private Image image;
+        private List<Endpoint> endpoints;
+        private Map<String, String> environment;
+        private Exec exec;
+        private HealthCheck healthCheck;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Resources {
+        private Double cpus;
+        private Double mem;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Image {
+        private String kind;
+        private String id;
+    }
+
+    @Getter
+    @Setter
+    public static class Endpoint {
+        private String name;
+        private Integer containerPort;
+        /**
+         * 0 to have Marathon allocate the port.
+         */
+        private Integer hostPort;
+        private List<String> protocol;
+        private Map<String, String> labels;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Exec {
+        private Command command;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Command {
+        private String shell;
+    }
+
+    @Getter
+    @Setter
+    public static class HealthCheck {
+        private HttpCheck http;
+        private TcpCheck tcp;
+        private Exec exec;
+        private Integer gracePeriodSeconds;
+        private Integer intervalSeconds;
+        private Integer timeoutSeconds;
+        private Integer maxConsecutiveFailures;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class HttpCheck {
+        private String endpoint;
+        private String path;
+        private String scheme;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class TcpCheck {
+        private String endpoint;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Network {
+        private String mode;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Scaling {
+        private String kind;
+        private Integer instances;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Scheduling {
+        private UpgradeStrategy upgrade;
+    }
+}
@@ -0,0 +1,57 @@
+package alien4cloud.plugin.marathon.service.model.marathon;
+
+import java.util.List;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Status of a Marathon pod: the state of the containers of each of its instances.
+ */
+@Getter
+@Setter
+public class PodStatus {
+
+    private String id;
+
+    /**
+     * The state of the pod, eg. STABLE, DEGRADED or DEPLOYING.
+     */
+    private String status;
+
+    private List<Instance> instances;
+
+    @Getter
+    @Setter
+    public static class Instance {
+        private String id;
+        private String agentHostname;
+        private List<ContainerStatus> containers;
+    }
+
+    @Getter
+    @Setter
+    public static class ContainerStatus {
+        private String name;
+        /**
+         * The Mesos state of the container's task, eg. TASK_RUNNING.
+         */
+        private String status;
+        private List<EndpointStatus> endpoints;
+        private List<Condition> conditions;
+    }
+
+    @Getter
+    @Setter
+    public static class EndpointStatus {
+        private String name;
+        private Integer allocatedHostPort;
+    }
+
+    @Getter
+    @Setter
+    public static class Condition {
+        private String name;
+        private String value;
+    }
+}
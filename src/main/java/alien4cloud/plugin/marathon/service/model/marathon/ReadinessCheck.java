@@ -0,0 +1,33 @@
+package alien4cloud.plugin.marathon.service.model.marathon;
+
+import java.util.List;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A Marathon readiness check: during deployments, the tasks of an app are only deemed ready once the check succeeds.
+ */
+@Getter
+@Setter
+public class ReadinessCheck {
+
+    private String name;
+
+    private String protocol;
+
+    private String path;
+
+    /**
+     * Name of the port mapping the check targets.
+     */
+    private String portName;
+
+    private Integer intervalSeconds;
+
+    private Integer timeoutSeconds;
+
+    private List<Integer> httpStatusCodesForReady;
+
+    private Boolean preserveLastResponse;
+}
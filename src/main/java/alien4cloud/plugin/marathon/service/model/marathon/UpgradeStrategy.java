@@ -0,0 +1,26 @@
+package alien4cloud.plugin.marathon.service.model.marathon;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * How Marathon replaces the tasks of an app when it is upgraded.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class UpgradeStrategy {
+
+    /**
+     * Ratio of the instances kept healthy during the upgrade, between 0 and 1.
+     */
+    private Double minimumHealthCapacity;
+
+    /**
+     * Ratio of the instances which may run on top of the app's instances during the upgrade, between 0 and 1.
+     */
+    private Double maximumOverCapacity;
+}
@@ -0,0 +1,193 @@
+package alien4cloud.plugin.marathon.service.replay;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+
+import alien4cloud.plugin.marathon.service.EventService;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only capture of Marathon's raw event stream, to replay it later through the conversion pipeline.
+ * <p>
+ * The file starts with a header (magic number, version, start time in epoch milliseconds), followed by a record for each event:
+ * the microseconds elapsed since the previous event and the length of the data as varints, the type of the event as the index of a
+ * known type (or 0xFF then the type as modified UTF-8), then the data in UTF-8.
+ */
+@Slf4j
+public class EventCapture implements Closeable {
+
+    private static final int MAGIC = 0x4d455654; // "MEVT"
+
+    private static final byte VERSION = 1;
+
+    private static final int UNKNOWN_TYPE = 0xFF;
+
+    private static final long FLUSH_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Getter
+    private final Path file;
+
+    private final DataOutputStream output;
+
+    private long lastEventNanos = System.nanoTime();
+
+    private long lastFlushNanos = lastEventNanos;
+
+    private boolean closed = false;
+
+    private EventCapture(Path file) throws IOException {
+        this.file = file;
+        output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)));
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeLong(System.currentTimeMillis());
+        output.flush();
+    }
+
+    /**
+     * Start a capture into a new file of a directory, named after the start time.
+     *
+     * @param directory the directory of the captures, created if needed
+     * @return the capture
+     * @throws IOException if the file cannot be created
+     */
+    public static EventCapture create(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new EventCapture(directory.resolve("marathon-events-" + System.currentTimeMillis() + ".capture"));
+    }
+
+    /**
+     * Append an event to the capture. A failure to write stops the capture, not the handling of the events.
+     *
+     * @param eventType the type of the event
+     * @param data the raw data of the event
+     */
+    public synchronized void record(String eventType, String data) {
+        if (closed)
+            return;
+        try {
+            final long now = System.nanoTime();
+            writeVarLong(output, TimeUnit.NANOSECONDS.toMicros(now - lastEventNanos));
+            lastEventNanos = now;
+            final int typeIndex = EventService.EVENT_TYPES.indexOf(eventType);
+            if (typeIndex >= 0) {
+                output.writeByte(typeIndex);
+            } else {
+                output.writeByte(UNKNOWN_TYPE);
+                output.writeUTF(eventType);
+            }
+            final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(output, bytes.length);
+            output.write(bytes);
+            if (now - lastFlushNanos > FLUSH_PERIOD_NANOS) {
+                output.flush();
+                lastFlushNanos = now;
+            }
+        } catch (IOException e) {
+            log.error("Failure while capturing Marathon events into " + file + " - Capture stopped with message: " + e.getMessage());
+            close();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            output.close();
+        } catch (IOException e) {
+            log.error("Failure while closing the capture of Marathon events " + file + " - Got message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * An event read from a capture.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class CapturedEvent {
+        /**
+         * Time of the event, in microseconds since the start of the capture.
+         */
+        private final long timeMicros;
+        private final String type;
+        private final String data;
+    }
+
+    /**
+     * Read the events of a capture. The last record may be truncated if the capture was not closed, it is then ignored.
+     *
+     * @param file the capture
+     * @return the events, in the order they were received
+     * @throws IOException if the file cannot be read or is not a capture
+     */
+    public static List<CapturedEvent> read(Path file) throws IOException {
+        final List<CapturedEvent> events = Lists.newArrayList();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC)
+                throw new IOException(file + " is not a capture of Marathon events");
+            final byte version = input.readByte();
+            if (version != VERSION)
+                throw new IOException("Unsupported version " + version + " of the capture " + file);
+            input.readLong(); // Start time, for the record
+
+            long timeMicros = 0;
+            try {
+                while (true) {
+                    final long delta;
+                    try {
+                        delta = readVarLong(input);
+                    } catch (EOFException e) {
+                        break; // End of the capture
+                    }
+                    timeMicros += delta;
+                    final int typeIndex = input.readUnsignedByte();
+                    final String type = typeIndex == UNKNOWN_TYPE ? input.readUTF() : EventService.EVENT_TYPES.get(typeIndex);
+                    final byte[] bytes = new byte[(int) readVarLong(input)];
+                    input.readFully(bytes);
+                    events.add(new CapturedEvent(timeMicros, type, new String(bytes, StandardCharsets.UTF_8)));
+                }
+            } catch (EOFException e) {
+                log.warn("Ignoring the truncated last event of the capture " + file);
+            }
+        }
+        return events;
+    }
+
+    private static void writeVarLong(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = input.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint in the capture");
+    }
+}
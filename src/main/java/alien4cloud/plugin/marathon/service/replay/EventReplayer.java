@@ -0,0 +1,141 @@
+package alien4cloud.plugin.marathon.service.replay;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import alien4cloud.plugin.marathon.service.EventService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.events.converters.DeploymentEventConverter;
+import alien4cloud.plugin.marathon.service.model.events.converters.StatusEventConverter;
+import alien4cloud.plugin.marathon.service.replay.EventCapture.CapturedEvent;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Replays a capture of Marathon's event stream through the real conversion pipeline, at the captured pace, faster, or as fast as possible,
+ * and reports the throughput, the latency of the conversions and the allocation rate.
+ * <p>
+ * The mappings of the deployments can be restored from a copy of the journal of a location, which the replay updates, otherwise the events are
+ * converted without knowing the Alien deployments.
+ */
+@RequiredArgsConstructor
+public class EventReplayer {
+
+    /**
+     * Events are flushed from the event service as often as Alien polls them.
+     */
+    private static final long FLUSH_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The replayed deployments are owned by the replayer.
+     */
+    public static final String REPLAY_ORCHESTRATOR_ID = "replay";
+
+    private final EventService eventService;
+
+    /**
+     * Create a replayer with its own conversion pipeline.
+     *
+     * @param mappingService the mappings of the deployments, initialized by the replayer if needed
+     */
+    public EventReplayer(MappingService mappingService) {
+        mappingService.init(REPLAY_ORCHESTRATOR_ID, Collections.emptyList());
+        eventService = new EventService(mappingService, new DeploymentEventConverter(mappingService), new StatusEventConverter(mappingService),
+                new MetricsRegistry());
+    }
+
+    /**
+     * Replay captured events.
+     *
+     * @param events the events, from {@link EventCapture#read(Path)}
+     * @param speed the speed relative to the capture, eg. 1 to replay at the captured pace, or 0 to replay as fast as possible
+     * @return the measures of the replay
+     */
+    public Report replay(List<CapturedEvent> events, double speed) throws InterruptedException {
+        eventService.convertOnceMapped(REPLAY_ORCHESTRATOR_ID);
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final long[] latencies = new long[events.size()];
+        long monitorEvents = 0;
+
+        final long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        long lastFlush = start;
+        for (int i = 0; i < events.size(); i++) {
+            final CapturedEvent event = events.get(i);
+            long scheduled = System.nanoTime();
+            if (speed > 0) {
+                scheduled = start + (long) (TimeUnit.MICROSECONDS.toNanos(event.getTimeMicros()) / speed);
+                final long wait = scheduled - System.nanoTime();
+                if (wait > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            eventService.onEvent(REPLAY_ORCHESTRATOR_ID, event.getType(), event.getData());
+            final long now = System.nanoTime();
+            latencies[i] = now - scheduled;
+            if (now - lastFlush > FLUSH_PERIOD_NANOS) {
+                monitorEvents += eventService.flushEvents(REPLAY_ORCHESTRATOR_ID).length;
+                lastFlush = now;
+            }
+        }
+        monitorEvents += eventService.flushEvents(REPLAY_ORCHESTRATOR_ID).length;
+        final long duration = System.nanoTime() - start;
+        final long allocated = threadBean.getThreadAllocatedBytes(threadId) - startAllocated;
+
+        Arrays.sort(latencies);
+        return new Report(events.size(), monitorEvents, duration, latencies, allocated);
+    }
+
+    /**
+     * Measures of a replay.
+     */
+    @Getter
+    public static class Report {
+        private final int events;
+        private final long monitorEvents;
+        private final long durationNanos;
+        private final long allocatedBytes;
+        /**
+         * Latencies of the events in nanoseconds, from their scheduled time to the end of their conversion, ascending.
+         */
+        private final long[] latencies;
+
+        private Report(int events, long monitorEvents, long durationNanos, long[] latencies, long allocatedBytes) {
+            this.events = events;
+            this.monitorEvents = monitorEvents;
+            this.durationNanos = durationNanos;
+            this.latencies = latencies;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public double getThroughput() {
+            return durationNanos == 0 ? 0 : events * 1e9 / durationNanos;
+        }
+
+        /**
+         * @return the latency of a percentile of the events, in microseconds
+         */
+        public double percentile(double percentile) {
+            if (latencies.length == 0)
+                return 0;
+            final int index = (int) Math.ceil(percentile * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1e3;
+        }
+
+        public double getAllocationRate() {
+            return durationNanos == 0 ? 0 : allocatedBytes * 1e9 / durationNanos / (1024 * 1024);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d events converted into %d monitor events in %d ms - %.0f events/s - latency p50 %.1f us, p90 %.1f us, p99 %.1f us, "
+                    + "max %.1f us - %d bytes allocated, %.1f MB/s", events, monitorEvents, TimeUnit.NANOSECONDS.toMillis(durationNanos), getThroughput(),
+                    percentile(0.5), percentile(0.9), percentile(0.99), percentile(1), allocatedBytes, getAllocationRate());
+        }
+    }
+}
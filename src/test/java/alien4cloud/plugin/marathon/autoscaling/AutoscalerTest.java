@@ -0,0 +1,123 @@
+package alien4cloud.plugin.marathon.autoscaling;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.alien4cloud.tosca.model.definitions.AbstractPropertyValue;
+import org.alien4cloud.tosca.model.definitions.ScalarPropertyValue;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.common.collect.Maps;
+
+import alien4cloud.paas.IPaaSCallback;
+import alien4cloud.paas.model.AbstractMonitorEvent;
+import alien4cloud.paas.model.PaaSMessageMonitorEvent;
+import alien4cloud.plugin.marathon.deployment.AppScaler;
+import alien4cloud.plugin.marathon.service.EventService;
+
+public class AutoscalerTest {
+
+    private final AppScaler appScaler = mock(AppScaler.class);
+
+    private final EventService eventService = mock(EventService.class);
+
+    private AppStatistics statistics;
+
+    private final Autoscaler autoscaler = new Autoscaler(appId -> Optional.ofNullable(statistics), appScaler, eventService, TimeUnit.HOURS.toMillis(1));
+
+    @After
+    public void tearDown() {
+        autoscaler.shutdown();
+    }
+
+    @Test
+    public void policyFromProperties() {
+        assertEquals(Optional.empty(), AutoscalingPolicy.fromProperties(Maps.newHashMap()));
+
+        AutoscalingPolicy policy = AutoscalingPolicy.fromProperties(policyProperties()).get();
+        assertEquals(2, policy.getMinInstances());
+        assertEquals(10, policy.getMaxInstances());
+        assertEquals(0.5, policy.getTargetCpu(), 0);
+        assertEquals(TimeUnit.MINUTES.toMillis(5), policy.getScaleDownCooldown());
+    }
+
+    @Test
+    public void desiredInstancesFollowTheMostConstrainedResource() {
+        AutoscalingPolicy policy = AutoscalingPolicy.fromProperties(policyProperties()).get();
+        // Within tolerance
+        assertEquals(4, policy.desiredInstances(4, new AppStatistics(4, 4, 0.52, 0.1)));
+        // cpu at 150% of the target
+        assertEquals(6, policy.desiredInstances(4, new AppStatistics(4, 4, 0.75, 0.1)));
+        // memory at 200% of the target, capped by the max instances
+        assertEquals(10, policy.desiredInstances(8, new AppStatistics(8, 8, 0.1, 1.6)));
+        // idle, bounded by the min instances
+        assertEquals(2, policy.desiredInstances(4, new AppStatistics(4, 4, 0.05, 0.05)));
+    }
+
+    @Test
+    public void scaleUpIsPublishedAndCooledDown() {
+        autoscaler.watch("deployment", "/group/app", "App", AutoscalingPolicy.fromProperties(policyProperties()).get());
+        statistics = new AppStatistics(4, 4, 0.75, 0.1);
+
+        autoscaler.evaluate();
+        verify(appScaler).scaleTo(eq("/group/app"), eq("deployment"), eq(6), any(IPaaSCallback.class));
+        ArgumentCaptor<AbstractMonitorEvent> event = ArgumentCaptor.forClass(AbstractMonitorEvent.class);
+        verify(eventService).publish(event.capture());
+        assertEquals("deployment", event.getValue().getDeploymentId());
+        assertEquals("Autoscaling App from 4 to 6 instances (cpu 75%, memory 10%)", ((PaaSMessageMonitorEvent) event.getValue()).getMessage());
+
+        // Still loaded, but within the cooldown
+        autoscaler.evaluate();
+        verify(appScaler, times(1)).scaleTo(anyString(), anyString(), anyInt(), any(IPaaSCallback.class));
+    }
+
+    @Test
+    public void statisticsProviderIsClosedOnShutdown() {
+        final TaskStatisticsProvider statisticsProvider = mock(TaskStatisticsProvider.class);
+        new Autoscaler(statisticsProvider, appScaler, eventService, TimeUnit.HOURS.toMillis(1)).shutdown();
+
+        verify(statisticsProvider).close();
+    }
+
+    @Test
+    public void instancesAreCountedFromTheAppDefinition() {
+        autoscaler.watch("deployment", "/group/app", "App", AutoscalingPolicy.fromProperties(policyProperties()).get());
+        // A single task of the 4 instances is running, at the target usage
+        statistics = new AppStatistics(4, 1, 0.5, 0.1);
+
+        autoscaler.evaluate();
+        verify(appScaler, never()).scaleTo(anyString(), anyString(), anyInt(), any(IPaaSCallback.class));
+    }
+
+    @Test
+    public void unwatchedAppsAreNotScaled() {
+        autoscaler.watch("deployment", "/group/app", "App", AutoscalingPolicy.fromProperties(policyProperties()).get());
+        autoscaler.unwatch("deployment");
+        statistics = new AppStatistics(4, 4, 0.75, 0.1);
+
+        autoscaler.evaluate();
+        verify(appScaler, never()).scaleTo(anyString(), anyString(), anyInt(), any(IPaaSCallback.class));
+    }
+
+    private Map<String, AbstractPropertyValue> policyProperties() {
+        Map<String, AbstractPropertyValue> properties = Maps.newHashMap();
+        properties.put("autoscaling_enabled", new ScalarPropertyValue("true"));
+        properties.put("autoscaling_min_instances", new ScalarPropertyValue("2"));
+        properties.put("autoscaling_target_cpu", new ScalarPropertyValue("0.5"));
+        properties.put("autoscaling_target_memory", new ScalarPropertyValue("0.8"));
+        return properties;
+    }
+}
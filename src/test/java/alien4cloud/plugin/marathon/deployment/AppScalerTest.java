@@ -0,0 +1,155 @@
+package alien4cloud.plugin.marathon.deployment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CancellationException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import alien4cloud.paas.IPaaSCallback;
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import mesosphere.marathon.client.Marathon;
+import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.model.v2.GetAppResponse;
+import mesosphere.marathon.client.utils.MarathonException;
+
+public class AppScalerTest {
+
+    private final Marathon marathonClient = mock(Marathon.class);
+
+    private final DeploymentScheduler deploymentScheduler = new DeploymentScheduler("test-orchestrator", 0, new MetricsRegistry());
+
+    private final MarathonRestClient marathonRestClient = mock(MarathonRestClient.class);
+
+    private final AppScaler appScaler = new AppScaler(marathonClient, marathonRestClient, deploymentScheduler, 100);
+
+    @After
+    public void tearDown() {
+        appScaler.shutdown();
+        deploymentScheduler.shutdown();
+    }
+
+    @Test
+    public void requestsWithinWindowAreMerged() throws MarathonException {
+        givenApp("/group/app", 2);
+        IPaaSCallback<?> first = mock(IPaaSCallback.class), second = mock(IPaaSCallback.class), third = mock(IPaaSCallback.class);
+
+        appScaler.scaleBy("/group/app", "deployment", 1, first);
+        appScaler.scaleBy("/group/app", "deployment", 2, second);
+        appScaler.scaleBy("/group/app", "deployment", -1, third);
+
+        verify(third, timeout(2000)).onSuccess(null);
+        verify(first).onSuccess(null);
+        verify(second).onSuccess(null);
+        verify(marathonClient, times(1)).getApp("/group/app");
+        verify(marathonClient, times(1)).updateApp(eq("/group/app"), argThat(hasInstances(4)), eq(true));
+    }
+
+    @Test
+    public void absoluteRequestOverridesPreviousDeltas() throws MarathonException {
+        givenApp("/group/app", 2);
+        IPaaSCallback<?> first = mock(IPaaSCallback.class), second = mock(IPaaSCallback.class), third = mock(IPaaSCallback.class);
+
+        appScaler.scaleBy("/group/app", "deployment", 3, first);
+        appScaler.scaleTo("/group/app", "deployment", 5, second);
+        appScaler.scaleBy("/group/app", "deployment", 1, third);
+
+        verify(third, timeout(2000)).onSuccess(null);
+        verify(marathonClient, times(1)).updateApp(eq("/group/app"), argThat(hasInstances(6)), eq(true));
+    }
+
+    @Test
+    public void noUpdateWhenTargetIsReached() throws MarathonException {
+        givenApp("/group/app", 3);
+        IPaaSCallback<?> callback = mock(IPaaSCallback.class);
+
+        appScaler.scaleTo("/group/app", "deployment", 3, callback);
+
+        verify(callback, timeout(2000)).onSuccess(null);
+        verify(marathonClient, never()).updateApp(anyString(), any(App.class), anyBoolean());
+    }
+
+    @Test
+    public void missingAppFailsEveryRequest() throws MarathonException {
+        MarathonException notFound = new MarathonException(404, "App '/group/app' does not exist");
+        when(marathonClient.getApp("/group/app")).thenThrow(notFound);
+        IPaaSCallback<?> first = mock(IPaaSCallback.class), second = mock(IPaaSCallback.class);
+
+        appScaler.scaleBy("/group/app", "deployment", 1, first);
+        appScaler.scaleBy("/group/app", "deployment", 1, second);
+
+        verify(second, timeout(2000)).onFailure(notFound);
+        verify(first).onFailure(notFound);
+        verify(first, never()).onSuccess(any());
+    }
+
+    @Test
+    public void cancelledRequestsAreNotApplied() throws MarathonException {
+        givenApp("/group/app", 2);
+        givenApp("/other-group/app", 2);
+        IPaaSCallback<?> cancelled = mock(IPaaSCallback.class), other = mock(IPaaSCallback.class);
+
+        appScaler.scaleBy("/group/app", "deployment", 1, cancelled);
+        appScaler.scaleBy("/other-group/app", "other-deployment", 1, other);
+        assertEquals(1, appScaler.cancel("deployment"));
+
+        verify(cancelled).onFailure(any(CancellationException.class));
+        verify(other, timeout(2000)).onSuccess(null);
+        verify(marathonClient, never()).getApp("/group/app");
+    }
+
+    @Test
+    public void podsAreScaledThroughTheirDefinition() throws MarathonException {
+        final JsonObject pod = new JsonParser().parse("{\"id\":\"/group/web\",\"version\":\"2017-03-01T23:29:29.158Z\","
+                + "\"scaling\":{\"kind\":\"fixed\",\"instances\":2},\"containers\":[{\"name\":\"web\"}]}").getAsJsonObject();
+        when(marathonRestClient.getPod("/group/web")).thenReturn(pod);
+        IPaaSCallback<?> callback = mock(IPaaSCallback.class);
+
+        appScaler.scalePodBy("/group/web", "deployment", 1, callback);
+
+        verify(callback, timeout(2000)).onSuccess(null);
+        final ArgumentCaptor<JsonObject> update = ArgumentCaptor.forClass(JsonObject.class);
+        verify(marathonRestClient).updatePod(eq("/group/web"), update.capture(), eq(true));
+        assertEquals(3, update.getValue().getAsJsonObject("scaling").get("instances").getAsInt());
+        assertEquals("The containers are kept", 1, update.getValue().getAsJsonArray("containers").size());
+        assertFalse("The version is set by Marathon", update.getValue().has("version"));
+        verify(marathonClient, never()).getApp(anyString());
+    }
+
+    private void givenApp(String appId, int instances) throws MarathonException {
+        App app = new App();
+        app.setId(appId);
+        app.setInstances(instances);
+        GetAppResponse response = mock(GetAppResponse.class);
+        when(response.getApp()).thenReturn(app);
+        when(marathonClient.getApp(appId)).thenReturn(response);
+    }
+
+    private ArgumentMatcher<App> hasInstances(int instances) {
+        return new ArgumentMatcher<App>() {
+            @Override
+            public boolean matches(Object argument) {
+                return argument instanceof App && ((App) argument).getInstances() == instances;
+            }
+        };
+    }
+}
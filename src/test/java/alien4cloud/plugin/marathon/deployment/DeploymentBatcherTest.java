@@ -0,0 +1,111 @@
+package alien4cloud.plugin.marathon.deployment;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import alien4cloud.model.deployment.Deployment;
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.paas.model.PaaSTopologyDeploymentContext;
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
+import alien4cloud.plugin.marathon.config.ServiceDiscoveryMode;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import alien4cloud.plugin.marathon.service.BuilderService;
+import alien4cloud.plugin.marathon.service.EventService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import mesosphere.marathon.client.model.v2.Result;
+import mesosphere.marathon.client.utils.MarathonException;
+
+public class DeploymentBatcherTest {
+
+    private final BuilderService builderService = mock(BuilderService.class);
+
+    private final MappingService mappingService = mock(MappingService.class);
+
+    private final MarathonRestClient marathonRestClient = mock(MarathonRestClient.class);
+
+    private final EventService eventService = mock(EventService.class);
+
+    private final DeploymentScheduler deploymentScheduler = new DeploymentScheduler("test-orchestrator", 0, new MetricsRegistry());
+
+    private DeploymentBatcher deploymentBatcher;
+
+    @Before
+    public void setUp() {
+        when(mappingService.getDeploymentTrace(anyString())).thenReturn(Optional.empty());
+        deploymentBatcher = new DeploymentBatcher(10, builderService, ServiceDiscoveryMode.MARATHON_LB, mappingService, marathonRestClient,
+                deploymentScheduler, eventService);
+    }
+
+    @After
+    public void tearDown() {
+        deploymentBatcher.shutdown();
+        deploymentScheduler.shutdown();
+    }
+
+    @Test
+    public void rejectedBatchesAreSubmittedOneByOne() throws MarathonException {
+        when(marathonRestClient.getTopLevelGroupIds()).thenReturn(Collections.emptyList());
+        when(marathonRestClient.updateRootGroup(any())).thenThrow(new MarathonException(422, "Invalid group"));
+        final Result result = mock(Result.class);
+        when(result.getDeploymentId()).thenReturn("marathon-deployment-1");
+        when(marathonRestClient.createGroup(any())).thenReturn(result).thenThrow(new MarathonException(422, "Invalid group"));
+
+        deploymentBatcher.submit(deploymentContext("alien-deployment-1"));
+        deploymentBatcher.submit(deploymentContext("alien-deployment-2"));
+
+        verify(eventService, timeout(1000)).publishDeploymentFailure(eq("alien-deployment-2"), anyString());
+        verify(mappingService).registerDeploymentInfo("marathon-deployment-1", "alien-deployment-1", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        verify(eventService, never()).publishDeploymentFailure(eq("alien-deployment-1"), anyString());
+    }
+
+    @Test
+    public void deploymentsCancelledWhileTheirBatchWaitsForASlotAreLeftOut() throws Exception {
+        final DeploymentScheduler busyScheduler = new DeploymentScheduler("test-orchestrator", 1, new MetricsRegistry());
+        final DeploymentBatcher batcher = new DeploymentBatcher(10, builderService, ServiceDiscoveryMode.MARATHON_LB, mappingService, marathonRestClient,
+                busyScheduler, eventService);
+        try {
+            busyScheduler.schedule(DeploymentScheduler.Priority.DEPLOY, "busy-deployment", () -> Optional.of("busy-marathon-deployment"), () -> {
+            });
+            final Result result = mock(Result.class);
+            when(result.getDeploymentId()).thenReturn("marathon-deployment-1");
+            when(marathonRestClient.createGroup(any())).thenReturn(result);
+
+            batcher.submit(deploymentContext("alien-deployment-1"));
+            batcher.submit(deploymentContext("alien-deployment-2"));
+            for (int i = 0; i < 100 && busyScheduler.getQueueLength() == 0; i++)
+                Thread.sleep(10);
+            assertTrue("The batch waits for a slot", batcher.cancel("alien-deployment-2"));
+            busyScheduler.onDeploymentCompleted("busy-marathon-deployment");
+
+            verify(mappingService, timeout(1000)).registerDeploymentInfo("marathon-deployment-1", "alien-deployment-1",
+                    DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+            verify(marathonRestClient, never()).updateRootGroup(any());
+        } finally {
+            batcher.shutdown();
+            busyScheduler.shutdown();
+        }
+    }
+
+    private PaaSTopologyDeploymentContext deploymentContext(String deploymentId) {
+        final PaaSTopologyDeploymentContext context = new PaaSTopologyDeploymentContext();
+        final Deployment deployment = new Deployment();
+        deployment.setId(deploymentId);
+        deployment.setOrchestratorDeploymentId(deploymentId + "-group");
+        context.setDeployment(deployment);
+        return context;
+    }
+}
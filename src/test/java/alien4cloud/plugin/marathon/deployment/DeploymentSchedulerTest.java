@@ -0,0 +1,146 @@
+package alien4cloud.plugin.marathon.deployment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import alien4cloud.plugin.marathon.deployment.DeploymentScheduler.Priority;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+
+public class DeploymentSchedulerTest {
+
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+    private DeploymentScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new DeploymentScheduler("test-orchestrator", 1, metricsRegistry);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void pendingWorkRunsByPriority() throws InterruptedException {
+        final List<String> runOrder = Collections.synchronizedList(Lists.newArrayList());
+        final CountDownLatch allRan = new CountDownLatch(4);
+
+        scheduler.schedule(Priority.DEPLOY, "first", () -> {
+            runOrder.add("first");
+            allRan.countDown();
+            return Optional.of("marathon-deployment-1");
+        }, () -> {
+        });
+        scheduler.schedule(Priority.DEPLOY, "deploy", record("deploy", runOrder, allRan), () -> {
+        });
+        scheduler.schedule(Priority.SCALE_UP, "scale-up", record("scale-up", runOrder, allRan), () -> {
+        });
+        scheduler.schedule(Priority.UNDEPLOY, "undeploy", record("undeploy", runOrder, allRan), () -> {
+        });
+
+        // The only slot is held until Marathon reports the end of the first deployment
+        assertTrue(waitFor(() -> runOrder.size() == 1));
+        assertEquals(3, scheduler.getQueueLength());
+        assertEquals(1, scheduler.getActiveDeployments());
+        assertEquals(3, metricsRegistry.snapshot().get("marathon_scheduler_queue_length{orchestrator=\"test-orchestrator\"}").intValue());
+
+        scheduler.onDeploymentCompleted("marathon-deployment-1");
+        assertTrue(allRan.await(5, TimeUnit.SECONDS));
+        assertEquals(Lists.newArrayList("first", "undeploy", "scale-up", "deploy"), runOrder);
+    }
+
+    @Test
+    public void cancelledWorkDoesNotRun() throws InterruptedException {
+        final List<String> runOrder = Collections.synchronizedList(Lists.newArrayList());
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final CountDownLatch lastRan = new CountDownLatch(1);
+
+        scheduler.schedule(Priority.DEPLOY, "first", () -> Optional.of("marathon-deployment-1"), () -> {
+        });
+        scheduler.schedule(Priority.SCALE_UP, "cancelled", record("cancelled", runOrder, new CountDownLatch(1)), () -> cancelled.set(true));
+        scheduler.schedule(Priority.DEPLOY, "last", record("last", runOrder, lastRan), () -> {
+        });
+
+        assertEquals(1, scheduler.cancel("cancelled"));
+        assertTrue(cancelled.get());
+
+        scheduler.onDeploymentCompleted("marathon-deployment-1");
+        assertTrue(lastRan.await(5, TimeUnit.SECONDS));
+        assertEquals(Lists.newArrayList("last"), runOrder);
+    }
+
+    @Test
+    public void workRunNowDoesNotWaitForASlot() throws InterruptedException {
+        final List<String> runOrder = Collections.synchronizedList(Lists.newArrayList());
+        final CountDownLatch forcedRan = new CountDownLatch(1);
+
+        scheduler.schedule(Priority.DEPLOY, "first", () -> Optional.of("marathon-deployment-1"), () -> {
+        });
+        scheduler.schedule(Priority.UNDEPLOY, "waiting", record("waiting", runOrder, new CountDownLatch(1)), () -> {
+        });
+        scheduler.runNow("forced", () -> {
+            runOrder.add("forced");
+            forcedRan.countDown();
+            return Optional.of("marathon-deployment-2");
+        });
+
+        assertTrue(forcedRan.await(5, TimeUnit.SECONDS));
+        // The forced deployment takes a slot too
+        assertTrue(waitFor(() -> scheduler.getActiveDeployments() == 2));
+        scheduler.onDeploymentCompleted("marathon-deployment-1");
+        assertEquals(1, scheduler.getQueueLength());
+        scheduler.onDeploymentCompleted("marathon-deployment-2");
+        assertTrue(waitFor(() -> runOrder.size() == 2));
+        assertEquals(Lists.newArrayList("forced", "waiting"), runOrder);
+    }
+
+    @Test
+    public void deploymentEndedBeforeItsRequestReturnedReleasesItsSlot() throws InterruptedException {
+        final List<String> runOrder = Collections.synchronizedList(Lists.newArrayList());
+        final CountDownLatch nextRan = new CountDownLatch(1);
+
+        scheduler.schedule(Priority.DEPLOY, "fast", () -> {
+            // Marathon reports the end of the deployment before the request returns
+            scheduler.onDeploymentCompleted("marathon-deployment-1");
+            return Optional.of("marathon-deployment-1");
+        }, () -> {
+        });
+        scheduler.schedule(Priority.DEPLOY, "next", record("next", runOrder, nextRan), () -> {
+        });
+
+        assertTrue("The slot is not held by the ended deployment", nextRan.await(5, TimeUnit.SECONDS));
+        assertTrue(waitFor(() -> scheduler.getActiveDeployments() == 0));
+    }
+
+    private DeploymentScheduler.DeploymentWork record(String name, List<String> runOrder, CountDownLatch ran) {
+        return () -> {
+            runOrder.add(name);
+            ran.countDown();
+            // No Marathon deployment: the slot is released right away
+            return Optional.empty();
+        };
+    }
+
+    private boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+        return condition.getAsBoolean();
+    }
+}
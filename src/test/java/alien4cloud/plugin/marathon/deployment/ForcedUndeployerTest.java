@@ -0,0 +1,98 @@
+package alien4cloud.plugin.marathon.deployment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import com.google.common.collect.Lists;
+
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
+import alien4cloud.plugin.marathon.service.EventService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.mapping.AlienDeploymentMapping;
+import alien4cloud.plugin.marathon.service.model.mapping.MarathonAppsMapping;
+import mesosphere.marathon.client.Marathon;
+import mesosphere.marathon.client.model.v2.Deployment;
+import mesosphere.marathon.client.model.v2.Result;
+import mesosphere.marathon.client.utils.MarathonException;
+
+public class ForcedUndeployerTest {
+
+    private final Marathon marathonClient = mock(Marathon.class);
+
+    private final MarathonRestClient marathonRestClient = mock(MarathonRestClient.class);
+
+    private final MappingService mappingService = mock(MappingService.class);
+
+    private final DeploymentScheduler deploymentScheduler = mock(DeploymentScheduler.class);
+
+    private final EventService eventService = mock(EventService.class);
+
+    private final ForcedUndeployer forcedUndeployer = new ForcedUndeployer(marathonClient, marathonRestClient, mappingService, deploymentScheduler,
+            eventService);
+
+    @Test
+    public void affectsGroup() {
+        final Deployment deployment = deployment("running", "/my-group/app", "/other/app");
+        assertTrue(ForcedUndeployer.affectsGroup(deployment, "my-group"));
+        assertTrue(ForcedUndeployer.affectsGroup(deployment, "/my-group"));
+        assertFalse(ForcedUndeployer.affectsGroup(deployment, "my-gr"));
+        assertFalse(ForcedUndeployer.affectsGroup(deployment, "app"));
+    }
+
+    @Test
+    public void runningDeploymentsAreCancelledBeforeDeletion() throws MarathonException {
+        when(mappingService.getMarathonAppMapping("my-group")).thenReturn(Optional.empty());
+        when(marathonClient.getDeployments()).thenReturn(Lists.newArrayList(deployment("on-group", "/my-group/app"), deployment("elsewhere", "/other/app")));
+        final Result result = new Result();
+        when(marathonRestClient.deleteGroup("my-group", true)).thenReturn(result);
+
+        assertEquals(result, forcedUndeployer.undeploy("my-group"));
+
+        final InOrder inOrder = inOrder(marathonRestClient);
+        inOrder.verify(marathonRestClient).cancelDeployment("on-group", true);
+        inOrder.verify(marathonRestClient).deleteGroup("my-group", true);
+        verify(marathonRestClient, never()).cancelDeployment("elsewhere", true);
+        verify(mappingService).removeAlienDeploymentInfo("on-group");
+        verify(deploymentScheduler).onDeploymentCompleted("on-group");
+    }
+
+    @Test
+    public void batchesSpanningOtherGroupsAreNotCancelled() throws MarathonException {
+        when(marathonClient.getDeployments()).thenReturn(Lists.newArrayList(deployment("batch", "/my-group/app", "/other/app")));
+        when(mappingService.getMarathonAppMapping("my-group")).thenReturn(Optional.of(new MarathonAppsMapping("my-deployment", "test-orchestrator")));
+        when(mappingService.getAlienDeploymentInfos("batch")).thenReturn(Lists.newArrayList(
+                new AlienDeploymentMapping("my-deployment", DeploymentStatus.DEPLOYMENT_IN_PROGRESS, "test-orchestrator"),
+                new AlienDeploymentMapping("other-deployment", DeploymentStatus.DEPLOYMENT_IN_PROGRESS, "test-orchestrator")));
+
+        forcedUndeployer.undeploy("my-group");
+
+        verify(marathonRestClient, never()).cancelDeployment("batch", true);
+        verify(marathonRestClient).deleteGroup("my-group", true);
+        // The forced deletion overrides the batch: the other deployment it rolled out is reported as failed
+        verify(eventService).publishDeploymentFailure(eq("other-deployment"), anyString());
+        verify(eventService, never()).publishDeploymentFailure(eq("my-deployment"), anyString());
+        verify(mappingService).removeAlienDeploymentInfo("batch");
+        verify(deploymentScheduler).onDeploymentCompleted("batch");
+    }
+
+    private Deployment deployment(String id, String... affectedApps) {
+        final Deployment deployment = mock(Deployment.class);
+        when(deployment.getId()).thenReturn(id);
+        when(deployment.getAffectedApps()).thenReturn(Lists.newArrayList(affectedApps));
+        return deployment;
+    }
+}
@@ -0,0 +1,68 @@
+package alien4cloud.plugin.marathon.deployment;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import alien4cloud.plugin.marathon.service.MappingService;
+import mesosphere.marathon.client.Marathon;
+import mesosphere.marathon.client.model.v2.Deployment;
+import mesosphere.marathon.client.utils.MarathonException;
+
+public class MappingReaperTest {
+
+    private final Marathon marathonClient = mock(Marathon.class);
+
+    private final MarathonRestClient marathonRestClient = mock(MarathonRestClient.class);
+
+    private final MappingService mappingService = new MappingService();
+
+    private MappingReaper mappingReaper;
+
+    @Before
+    public void setUp() {
+        mappingService.init("test-orchestrator", Collections.emptyList());
+        mappingService.claimDeployment("test-orchestrator", "alien-deployment");
+        for (int i = 0; i < 3; i++)
+            mappingService.registerDeploymentInfo("marathon-deployment-" + i, "alien-deployment", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        mappingReaper = new MappingReaper("test-orchestrator", marathonClient, marathonRestClient, mappingService, new MetricsRegistry(),
+                TimeUnit.HOURS.toMillis(1), 2);
+    }
+
+    @After
+    public void tearDown() {
+        mappingReaper.shutdown();
+    }
+
+    @Test
+    public void mappingsBeyondTheMaximumCountAreOnlyEvictedOnceTheirDeploymentIsOver() throws MarathonException {
+        final List<Deployment> running = Lists.newArrayList(deployment("marathon-deployment-0"), deployment("marathon-deployment-1"),
+                deployment("marathon-deployment-2"));
+        when(marathonClient.getDeployments()).thenReturn(running);
+        mappingReaper.reap();
+        assertEquals("Running deployments are not evicted", 3, mappingService.getDeploymentMappingCount("test-orchestrator"));
+
+        when(marathonClient.getDeployments()).thenReturn(Collections.emptyList());
+        mappingReaper.reap();
+        assertEquals(2, mappingService.getDeploymentMappingCount("test-orchestrator"));
+    }
+
+    private static Deployment deployment(String id) {
+        final Deployment deployment = mock(Deployment.class);
+        when(deployment.getId()).thenReturn(id);
+        return deployment;
+    }
+}
@@ -0,0 +1,117 @@
+package alien4cloud.plugin.marathon.deployment;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.gson.JsonObject;
+
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
+import alien4cloud.plugin.marathon.service.EventService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.marathon.Pod;
+import mesosphere.marathon.client.utils.MarathonException;
+
+public class PodDeployerTest {
+
+    private final MarathonRestClient marathonRestClient = mock(MarathonRestClient.class);
+
+    private final EventService eventService = mock(EventService.class);
+
+    private MappingService mappingService;
+
+    private PodDeployer podDeployer;
+
+    @Before
+    public void setUp() {
+        mappingService = new MappingService();
+        podDeployer = new PodDeployer(mappingService, marathonRestClient, eventService);
+    }
+
+    @Test
+    public void theGroupDoesNotCompleteTheDeploymentBeforeItsPodsAreCreated() throws MarathonException {
+        final ListMultimap<String, Pod> pods = pods("alien-deployment", "/group/first-pod", "/group/second-pod");
+        pods.values().forEach(pod -> podDeployer.register("alien-deployment", pod));
+        mappingService.registerDeploymentInfo("group-deployment", "alien-deployment", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        assertTrue("The pods are pending", mappingService.hasOtherRunningDeployments("alien-deployment", "group-deployment"));
+
+        when(marathonRestClient.createPod(pods.get("alien-deployment").get(0))).thenReturn("first-pod-deployment");
+        when(marathonRestClient.createPod(pods.get("alien-deployment").get(1))).thenReturn("second-pod-deployment");
+        podDeployer.create(pods);
+
+        mappingService.removeAlienDeploymentInfo("group-deployment");
+        mappingService.removeAlienDeploymentInfo("first-pod-deployment");
+        assertTrue("The second pod is deploying", mappingService.hasOtherRunningDeployments("alien-deployment", "second-pod-deployment"));
+        mappingService.removeAlienDeploymentInfo("second-pod-deployment");
+        assertFalse("No pending pod is left", mappingService.hasOtherRunningDeployments("alien-deployment", "group-deployment"));
+        verify(eventService, never()).publishDeploymentFailure(anyString(), anyString());
+    }
+
+    @Test
+    public void aPodWhichCannotBeCreatedFailsTheDeployment() throws MarathonException {
+        final ListMultimap<String, Pod> pods = pods("alien-deployment", "/group/first-pod", "/group/second-pod");
+        pods.values().forEach(pod -> podDeployer.register("alien-deployment", pod));
+        mappingService.registerDeploymentInfo("group-deployment", "alien-deployment", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+
+        when(marathonRestClient.createPod(pods.get("alien-deployment").get(0))).thenThrow(new MarathonException(422, "Invalid pod"));
+        podDeployer.create(pods);
+
+        verify(marathonRestClient, never()).createPod(pods.get("alien-deployment").get(1));
+        verify(eventService).publishDeploymentFailure(eq("alien-deployment"), anyString());
+        assertFalse("Only the group is deploying", mappingService.hasOtherRunningDeployments("alien-deployment", "group-deployment"));
+        assertTrue("The group's completion fails the deployment", mappingService.removeFailedDeploymentInfos("alien-deployment"));
+        assertFalse(mappingService.hasFailedDeployments("alien-deployment"));
+    }
+
+    @Test
+    public void theUpdateOfAGroupWaitsForItsPodsToBeUpdatedAndDeleted() throws MarathonException {
+        final ListMultimap<String, Pod> pods = pods("alien-deployment", "/group/first-pod");
+        pods.values().forEach(pod -> podDeployer.register("alien-deployment", pod));
+        mappingService.registerDeploymentInfo("group-deployment", "alien-deployment", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+
+        when(marathonRestClient.updatePod(eq("/group/first-pod"), any(JsonObject.class), eq(false))).thenReturn("first-pod-deployment");
+        when(marathonRestClient.deletePod("/group/removed-pod", false)).thenReturn("removed-pod-deployment");
+        podDeployer.update(pods);
+        podDeployer.delete("alien-deployment", Lists.newArrayList("/group/removed-pod"));
+
+        mappingService.removeAlienDeploymentInfo("group-deployment");
+        mappingService.removeAlienDeploymentInfo("first-pod-deployment");
+        assertTrue("The removed pod is being deleted", mappingService.hasOtherRunningDeployments("alien-deployment", "removed-pod-deployment"));
+        mappingService.removeAlienDeploymentInfo("removed-pod-deployment");
+        assertFalse(mappingService.hasOtherRunningDeployments("alien-deployment", "group-deployment"));
+        verify(eventService, never()).publishDeploymentFailure(anyString(), anyString());
+    }
+
+    @Test
+    public void podsOfAGroupWhichWasNotSubmittedAreForgotten() {
+        final ListMultimap<String, Pod> pods = pods("alien-deployment", "/group/first-pod");
+        pods.values().forEach(pod -> podDeployer.register("alien-deployment", pod));
+
+        podDeployer.discard(pods);
+
+        assertFalse(mappingService.hasOtherRunningDeployments("alien-deployment", "group-deployment"));
+    }
+
+    private static ListMultimap<String, Pod> pods(String alienDeploymentId, String... podIds) {
+        final ListMultimap<String, Pod> pods = ArrayListMultimap.create();
+        for (String podId : podIds) {
+            final Pod pod = new Pod();
+            pod.setId(podId);
+            pods.put(alienDeploymentId, pod);
+        }
+        return pods;
+    }
+}
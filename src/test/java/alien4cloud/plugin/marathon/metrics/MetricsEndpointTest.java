@@ -0,0 +1,30 @@
+package alien4cloud.plugin.marathon.metrics;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class MetricsEndpointTest {
+
+    private final PrometheusExporter exporter = new PrometheusExporter(new MetricsRegistry());
+
+    @Test
+    public void locationsOnTheSamePortShareTheEndpoint() throws IOException {
+        final MetricsEndpoint first = MetricsEndpoint.acquire(0, exporter);
+        final MetricsEndpoint second = MetricsEndpoint.acquire(0, exporter);
+        assertSame(first, second);
+
+        first.release();
+        final MetricsEndpoint third = MetricsEndpoint.acquire(0, exporter);
+        assertSame("Still used by the second location", second, third);
+
+        second.release();
+        third.release();
+        final MetricsEndpoint restarted = MetricsEndpoint.acquire(0, exporter);
+        assertNotSame("Stopped once released by every location", first, restarted);
+        restarted.release();
+    }
+}
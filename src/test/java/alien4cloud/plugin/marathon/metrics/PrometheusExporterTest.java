@@ -0,0 +1,68 @@
+package alien4cloud.plugin.marathon.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+import alien4cloud.plugin.marathon.client.MarathonApiMetrics;
+import mesosphere.marathon.client.Marathon;
+import mesosphere.marathon.client.utils.MarathonException;
+
+public class PrometheusExporterTest {
+
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+    private final PrometheusExporter exporter = new PrometheusExporter(metricsRegistry);
+
+    @Test
+    public void countersAndGaugesAreTypedOncePerName() {
+        metricsRegistry.counter(MetricsRegistry.id("marathon_events_received_total", "type", "deployment_info")).add(2);
+        metricsRegistry.counter(MetricsRegistry.id("marathon_events_received_total", "type", "status_update_event")).add(5);
+        metricsRegistry.gauge("marathon_event_queue_length", () -> 3);
+
+        assertEquals("# TYPE marathon_events_received_total counter\n" + "marathon_events_received_total{type=\"deployment_info\"} 2\n"
+                + "marathon_events_received_total{type=\"status_update_event\"} 5\n" + "# TYPE marathon_event_queue_length gauge\n"
+                + "marathon_event_queue_length 3\n", exporter.scrape());
+    }
+
+    @Test
+    public void histogramBucketsAreCumulative() {
+        final Histogram histogram = metricsRegistry.histogram("marathon_api_request_milliseconds", new double[] { 10, 100 }, "operation", "getGroup");
+        histogram.observe(5);
+        histogram.observe(10);
+        histogram.observe(50);
+        histogram.observe(500);
+
+        assertEquals("# TYPE marathon_api_request_milliseconds histogram\n"
+                + "marathon_api_request_milliseconds_bucket{operation=\"getGroup\",le=\"10\"} 2\n"
+                + "marathon_api_request_milliseconds_bucket{operation=\"getGroup\",le=\"100\"} 3\n"
+                + "marathon_api_request_milliseconds_bucket{operation=\"getGroup\",le=\"+Inf\"} 4\n"
+                + "marathon_api_request_milliseconds_sum{operation=\"getGroup\"} 565\n"
+                + "marathon_api_request_milliseconds_count{operation=\"getGroup\"} 4\n", exporter.scrape());
+    }
+
+    @Test
+    public void instrumentedClientRecordsLatencyAndErrorsByOperation() throws MarathonException {
+        final Marathon marathon = mock(Marathon.class);
+        when(marathon.getGroup("missing")).thenThrow(new MarathonException(404, "Group not found"));
+        final Marathon instrumented = new MarathonApiMetrics(metricsRegistry, "test-orchestrator").instrument(marathon);
+
+        instrumented.getGroup("existing");
+        try {
+            instrumented.getGroup("missing");
+            fail("The error of Marathon is propagated");
+        } catch (MarathonException e) {
+            assertEquals(404, e.getStatus());
+        }
+
+        assertEquals(2L, metricsRegistry.snapshot()
+                .get("marathon_api_request_milliseconds_count{orchestrator=\"test-orchestrator\",operation=\"getGroup\"}"));
+        assertEquals(1L, metricsRegistry.counter("marathon_api_errors_total{orchestrator=\"test-orchestrator\",operation=\"getGroup\",status=\"404\"}")
+                .sum());
+        assertTrue(exporter.scrape().contains("marathon_api_errors_total{orchestrator=\"test-orchestrator\",operation=\"getGroup\",status=\"404\"} 1\n"));
+    }
+}
@@ -0,0 +1,221 @@
+package alien4cloud.plugin.marathon.reconciliation;
+
+import static java.util.Collections.emptyMap;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import alien4cloud.paas.model.AbstractMonitorEvent;
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.paas.model.InstanceInformation;
+import alien4cloud.paas.model.InstanceStatus;
+import alien4cloud.paas.model.PaaSDeploymentStatusMonitorEvent;
+import alien4cloud.paas.model.PaaSInstanceStateMonitorEvent;
+import alien4cloud.plugin.marathon.client.MarathonRestClient;
+import alien4cloud.plugin.marathon.service.EventService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.mapping.AlienDeploymentMapping;
+import alien4cloud.plugin.marathon.service.model.mapping.MarathonAppsMapping;
+import mesosphere.marathon.client.Marathon;
+import mesosphere.marathon.client.model.v2.GetAppTasksResponse;
+import mesosphere.marathon.client.model.v2.Task;
+
+public class ReconcilerTest {
+
+    private final Marathon marathonClient = mock(Marathon.class);
+
+    private final MarathonRestClient marathonRestClient = mock(MarathonRestClient.class);
+
+    private final MappingService mappingService = mock(MappingService.class);
+
+    private final EventService eventService = mock(EventService.class);
+
+    @SuppressWarnings("unchecked")
+    private final Consumer<String> deploymentCompletionListener = mock(Consumer.class);
+
+    private final Map<String, MarathonAppsMapping> groupMappings = Maps.newHashMap();
+
+    private Reconciler reconciler;
+
+    @Before
+    public void setUp() throws Exception {
+        final MarathonAppsMapping groupMapping = new MarathonAppsMapping("alien-deployment-id");
+        groupMapping.addAppToNodeTemplateMapping("my-app", "My-App");
+        groupMappings.put("my-group", groupMapping);
+        when(mappingService.getGroupMappings("test-orchestrator")).thenReturn(groupMappings);
+        when(mappingService.getMarathonAppMapping(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(groupMappings.get((String) invocation.getArguments()[0])));
+        when(mappingService.getTrackedDeploymentIds("test-orchestrator")).thenReturn(Collections.emptySet());
+        when(marathonClient.getDeployments()).thenReturn(Collections.emptyList());
+
+        reconciler = new Reconciler("test-orchestrator", marathonClient, marathonRestClient, mappingService, eventService,
+                task -> new InstanceInformation("started", InstanceStatus.SUCCESS, emptyMap(), emptyMap(), emptyMap()), deploymentCompletionListener,
+                Long.MAX_VALUE, 10);
+    }
+
+    @After
+    public void tearDown() {
+        reconciler.shutdown();
+    }
+
+    @Test
+    public void missedDeploymentEndIsPublishedAfterAGracePeriod() throws Exception {
+        when(marathonRestClient.getTopLevelGroupDigests()).thenReturn(Collections.singletonMap("my-group", "digest"));
+        when(mappingService.getTrackedDeploymentIds("test-orchestrator")).thenReturn(Sets.newHashSet("marathon-deployment-id"));
+        when(mappingService.getAlienDeploymentInfos("marathon-deployment-id"))
+                .thenReturn(Collections.singletonList(new AlienDeploymentMapping("alien-deployment-id", DeploymentStatus.DEPLOYMENT_IN_PROGRESS)));
+
+        reconciler.reconcile();
+        verify(mappingService, never()).removeAlienDeploymentInfo(anyString());
+
+        reconciler.reconcile();
+        verify(mappingService).removeAlienDeploymentInfo("marathon-deployment-id");
+        verify(deploymentCompletionListener).accept("marathon-deployment-id");
+        final PaaSDeploymentStatusMonitorEvent event = (PaaSDeploymentStatusMonitorEvent) publishedEvents().get(0);
+        assertEquals("alien-deployment-id", event.getDeploymentId());
+        assertEquals(DeploymentStatus.DEPLOYED, event.getDeploymentStatus());
+    }
+
+    @Test
+    public void deletedGroupIsUndeployed() throws Exception {
+        when(marathonRestClient.getTopLevelGroupDigests()).thenReturn(Collections.emptyMap());
+
+        reconciler.reconcile();
+        verify(eventService, never()).publish(any(AbstractMonitorEvent.class));
+
+        reconciler.reconcile();
+        verify(mappingService).removeGroupMapping("my-group");
+        assertEquals(DeploymentStatus.UNDEPLOYED, ((PaaSDeploymentStatusMonitorEvent) publishedEvents().get(0)).getDeploymentStatus());
+    }
+
+    @Test
+    public void onlyChangedGroupsAreInspected() throws Exception {
+        final GetAppTasksResponse tasksResponse = mock(GetAppTasksResponse.class);
+        final Task task = mock(Task.class);
+        when(task.getId()).thenReturn("task-1");
+        when(tasksResponse.getTasks()).thenReturn(Collections.singletonList(task));
+        when(marathonClient.getAppTasks("/my-group/my-app")).thenReturn(tasksResponse);
+        when(marathonRestClient.getTopLevelGroupDigests()).thenReturn(Collections.singletonMap("my-group", "digest"));
+        // Mapped once the reconciler runs, eg. deployed meanwhile
+        final MarathonAppsMapping groupMapping = groupMappings.remove("my-group");
+        reconciler.reconcile();
+        groupMappings.put("my-group", groupMapping);
+
+        reconciler.reconcile();
+        reconciler.reconcile();
+        verify(marathonClient, times(1)).getAppTasks("/my-group/my-app");
+        final PaaSInstanceStateMonitorEvent event = (PaaSInstanceStateMonitorEvent) publishedEvents().get(0);
+        assertEquals("My-App", event.getNodeTemplateId());
+        assertEquals("task-1", event.getInstanceId());
+        assertEquals("started", event.getInstanceState());
+
+        // The task is gone
+        when(tasksResponse.getTasks()).thenReturn(Collections.emptyList());
+        when(marathonRestClient.getTopLevelGroupDigests()).thenReturn(Collections.singletonMap("my-group", "new-digest"));
+        reconciler.reconcile();
+        assertEquals("deleted", ((PaaSInstanceStateMonitorEvent) publishedEvents().get(1)).getInstanceState());
+    }
+
+    @Test
+    public void tasksOfTheGroupsMappedAtStartupAreRecordedWithoutPublishing() throws Exception {
+        final GetAppTasksResponse tasksResponse = mock(GetAppTasksResponse.class);
+        final Task task = mock(Task.class);
+        when(task.getId()).thenReturn("task-1");
+        when(tasksResponse.getTasks()).thenReturn(Collections.singletonList(task));
+        when(marathonClient.getAppTasks("/my-group/my-app")).thenReturn(tasksResponse);
+        when(marathonRestClient.getTopLevelGroupDigests()).thenReturn(Collections.singletonMap("my-group", "digest"));
+
+        reconciler.reconcile();
+        verify(marathonClient).getAppTasks("/my-group/my-app");
+        verify(eventService, never()).publish(any(AbstractMonitorEvent.class));
+
+        // The task is gone
+        when(tasksResponse.getTasks()).thenReturn(Collections.emptyList());
+        when(marathonRestClient.getTopLevelGroupDigests()).thenReturn(Collections.singletonMap("my-group", "new-digest"));
+        reconciler.reconcile();
+        assertEquals("deleted", ((PaaSInstanceStateMonitorEvent) publishedEvents().get(0)).getInstanceState());
+    }
+
+    @Test
+    public void inspectionIsBoundedByTheBudget() throws Exception {
+        final Map<String, String> digests = Maps.newHashMap();
+        for (int i = 0; i < 3; i++) {
+            final MarathonAppsMapping groupMapping = new MarathonAppsMapping("alien-deployment-" + i);
+            for (int j = 0; j < 6; j++)
+                groupMapping.addAppToNodeTemplateMapping("app-" + j, "App-" + j);
+            groupMappings.put("group-" + i, groupMapping);
+            digests.put("group-" + i, "digest");
+        }
+        groupMappings.remove("my-group");
+        final GetAppTasksResponse tasksResponse = mock(GetAppTasksResponse.class);
+        when(tasksResponse.getTasks()).thenReturn(Collections.emptyList());
+        when(marathonClient.getAppTasks(anyString())).thenReturn(tasksResponse);
+        when(marathonRestClient.getTopLevelGroupDigests()).thenReturn(digests);
+
+        // 6 apps fit in the budget of 10, the next group doesn't
+        reconciler.reconcile();
+        verify(marathonClient, times(6)).getAppTasks(anyString());
+        reconciler.reconcile();
+        verify(marathonClient, times(12)).getAppTasks(anyString());
+        reconciler.reconcile();
+        verify(marathonClient, times(18)).getAppTasks(anyString());
+        reconciler.reconcile();
+        verify(marathonClient, times(18)).getAppTasks(anyString());
+    }
+
+    @Test
+    public void inspectionResumesAfterTheLastInspectedGroup() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            final MarathonAppsMapping groupMapping = new MarathonAppsMapping("alien-deployment-" + i);
+            for (int j = 0; j < 6; j++)
+                groupMapping.addAppToNodeTemplateMapping("app-" + j, "App-" + j);
+            groupMappings.put("group-" + i, groupMapping);
+        }
+        groupMappings.remove("my-group");
+        final GetAppTasksResponse tasksResponse = mock(GetAppTasksResponse.class);
+        when(tasksResponse.getTasks()).thenReturn(Collections.emptyList());
+        when(marathonClient.getAppTasks(anyString())).thenReturn(tasksResponse);
+        // Every group changes between two cycles
+        final int[] cycle = { 0 };
+        when(marathonRestClient.getTopLevelGroupDigests()).thenAnswer(invocation -> {
+            final Map<String, String> digests = Maps.newHashMap();
+            groupMappings.keySet().forEach(groupId -> digests.put(groupId, "digest-" + cycle[0]));
+            cycle[0]++;
+            return digests;
+        });
+
+        reconciler.reconcile();
+        reconciler.reconcile();
+        reconciler.reconcile();
+        verify(marathonClient, times(1)).getAppTasks("/group-0/app-0");
+        verify(marathonClient, times(1)).getAppTasks("/group-1/app-0");
+        verify(marathonClient, times(1)).getAppTasks("/group-2/app-0");
+    }
+
+    private List<AbstractMonitorEvent> publishedEvents() {
+        final ArgumentCaptor<AbstractMonitorEvent> events = ArgumentCaptor.forClass(AbstractMonitorEvent.class);
+        verify(eventService, atLeastOnce()).publish(events.capture());
+        return Lists.newArrayList(events.getAllValues());
+    }
+}
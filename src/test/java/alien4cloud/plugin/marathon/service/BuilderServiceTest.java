@@ -2,6 +2,7 @@ package alien4cloud.plugin.marathon.service;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 
 import java.util.HashMap;
@@ -27,6 +28,13 @@ import alien4cloud.paas.model.PaaSNodeTemplate;
 import alien4cloud.paas.model.PaaSRelationshipTemplate;
 import alien4cloud.paas.model.PaaSTopology;
 import alien4cloud.paas.model.PaaSTopologyDeploymentContext;
+import alien4cloud.plugin.marathon.config.ServiceDiscoveryMode;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import alien4cloud.plugin.marathon.service.model.marathon.MarathonApp;
+import alien4cloud.plugin.marathon.service.model.marathon.NamedPort;
+import alien4cloud.plugin.marathon.service.model.marathon.Pod;
+import alien4cloud.plugin.marathon.service.model.marathon.ReadinessCheck;
+import alien4cloud.plugin.marathon.service.model.marathon.UpgradeStrategy;
 import mesosphere.marathon.client.model.v2.*;
 
 /**
@@ -40,7 +48,7 @@ public class BuilderServiceTest {
     @Before
     public void setUp() {
         mockMappingService = mock(MappingService.class);
-        builderService = new BuilderService(mockMappingService);
+        builderService = new BuilderService(mockMappingService, new MetricsRegistry());
     }
 
     @After
@@ -144,6 +152,9 @@ public class BuilderServiceTest {
         assertEquals("When an external volume is attached to it, apps can only be scaled to 1 instance", Integer.valueOf(1), appDefinition.getInstances());
         final ExternalVolume volDef = (ExternalVolume) appDefinition.getContainer().getVolumes().iterator().next();
         assertEquals("volumes are read/write by default","RW", volDef.getMode());
+        final UpgradeStrategy upgradeStrategy = ((MarathonApp) appDefinition).getUpgradeStrategy();
+        assertEquals("The single instance is stopped before it is replaced, to release the volume", 0.0, upgradeStrategy.getMinimumHealthCapacity(), 0);
+        assertEquals(0.0, upgradeStrategy.getMaximumOverCapacity(), 0);
         assertEquals("The volume's container path matches the mounting relationship property","path/volume", volDef.getContainerPath());
 
         // workaround ExternalVumeInfo has no getters
@@ -258,6 +269,118 @@ public class BuilderServiceTest {
         verify(mockMappingService).registerAppMapping("test-marathon-deployment", "target-template", "Target-Template");
     }
 
+    @Test
+    public void testBuildNodesWithVirtualIPs() {
+        NodeTemplate sourceNode = simpleNodeTemplate();
+        sourceNode.setName("Source-Template");
+        NodeTemplate targetNode = simpleNodeTemplate();
+        targetNode.setName("Target-Template");
+
+        sourceNode.setRelationships(Maps.newHashMap());
+        final RelationshipTemplate relationshipTemplate = new RelationshipTemplate();
+        relationshipTemplate.setType("tosca.relationships.Connectsto");
+        relationshipTemplate.setTarget("Target-Template");
+        relationshipTemplate.setTargetedCapabilityName("endpoint_cap");
+        relationshipTemplate.setRequirementName("endpoint_req");
+        sourceNode.getRelationships().put("mock-relationship", relationshipTemplate);
+
+        Operation createOp = sourceNode.getInterfaces().get("tosca.interfaces.node.lifecycle.Standard").getOperations().get("create");
+        createOp.setInputParameters(Maps.newHashMap());
+        createOp.getInputParameters().put("ENV_INPUT_IP", new FunctionPropertyValue("get_property", Lists.newArrayList("REQ_TARGET", "endpoint_req", "ip_address")));
+        createOp.getInputParameters().put("ENV_INPUT_PORT", new FunctionPropertyValue("get_property", Lists.newArrayList("REQ_TARGET", "endpoint_req", "port")));
+
+        PaaSNodeTemplate sourceTemplate = new PaaSNodeTemplate("Source-Template", sourceNode);
+        sourceTemplate.setInterfaces(sourceNode.getInterfaces());
+        sourceTemplate.setRelationshipTemplates(sourceNode.getRelationships().values().stream().map(template -> new PaaSRelationshipTemplate("mock-relationship", template, sourceNode.getName())).collect(Collectors.toList()));
+        final RelationshipType indexedToscaElement = new RelationshipType();
+        indexedToscaElement.setElementId("tosca.relationships.ConnectsTo");
+        sourceTemplate.getRelationshipTemplates().get(0).setIndexedToscaElement(indexedToscaElement);
+
+        PaaSNodeTemplate targetTemplate = new PaaSNodeTemplate("Target-Template", targetNode);
+        targetTemplate.setInterfaces(targetNode.getInterfaces());
+        targetTemplate.setRelationshipTemplates(Lists.newArrayList(sourceTemplate.getRelationshipTemplates()));
+
+        PaaSTopologyDeploymentContext context = preparePaaSContext(Lists.newArrayList(sourceTemplate, targetTemplate), null);
+        final Iterator<App> appIterator = builderService.buildGroupDefinition(context, ServiceDiscoveryMode.VIP, pods -> {}).getApps().iterator();
+        final App sourceApp = appIterator.next();
+        final App targetApp = appIterator.next();
+
+        final NamedPort targetPortMapping = (NamedPort) targetApp.getContainer().getDocker().getPortMappings().get(0);
+        assertEquals("Each endpoint is given a virtual IP", "/test-marathon-deployment-target-template-endpoint-cap:12345",
+                targetPortMapping.getLabels().get("VIP_0"));
+        assertNull("No service port is allocated", targetPortMapping.getServicePort());
+        assertNull("Apps do not register to Marathon-LB", targetApp.getLabels());
+        assertEquals("The plugin replaces an ip_address property mapping with the target's virtual IP address",
+                "test-marathon-deployment-target-template-endpoint-cap.marathon.l4lb.thisdcos.directory", sourceApp.getEnv().get("INPUT_IP"));
+        assertEquals("The plugin replaces a port property mapping with the target's virtual IP port", "12345", sourceApp.getEnv().get("INPUT_PORT"));
+    }
+
+    @Test
+    public void testBuildPod() {
+        NodeTemplate sourceNode = simpleNodeTemplate();
+        sourceNode.setName("Source-Template");
+        sourceNode.getProperties().put("marathon_pod", new ScalarPropertyValue("Web"));
+        NodeTemplate targetNode = simpleNodeTemplate();
+        targetNode.setName("Target-Template");
+        targetNode.getProperties().put("marathon_pod", new ScalarPropertyValue("Web"));
+        NodeTemplate otherNode = simpleNodeTemplate();
+        otherNode.setName("Other-Template");
+
+        sourceNode.setRelationships(Maps.newHashMap());
+        final RelationshipTemplate relationshipTemplate = new RelationshipTemplate();
+        relationshipTemplate.setType("tosca.relationships.Connectsto");
+        relationshipTemplate.setTarget("Target-Template");
+        relationshipTemplate.setTargetedCapabilityName("endpoint_cap");
+        relationshipTemplate.setRequirementName("endpoint_req");
+        sourceNode.getRelationships().put("mock-relationship", relationshipTemplate);
+
+        Operation createOp = sourceNode.getInterfaces().get("tosca.interfaces.node.lifecycle.Standard").getOperations().get("create");
+        createOp.setInputParameters(Maps.newHashMap());
+        createOp.getInputParameters().put("ENV_INPUT_IP", new FunctionPropertyValue("get_property", Lists.newArrayList("REQ_TARGET", "endpoint_req", "ip_address")));
+        createOp.getInputParameters().put("ENV_INPUT_PORT", new FunctionPropertyValue("get_property", Lists.newArrayList("REQ_TARGET", "endpoint_req", "port")));
+
+        PaaSNodeTemplate sourceTemplate = new PaaSNodeTemplate("Source-Template", sourceNode);
+        sourceTemplate.setInterfaces(sourceNode.getInterfaces());
+        sourceTemplate.setScalingPolicy(new ScalingPolicy(2, 2, 2));
+        sourceTemplate.setRelationshipTemplates(sourceNode.getRelationships().values().stream().map(template -> new PaaSRelationshipTemplate("mock-relationship", template, sourceNode.getName())).collect(Collectors.toList()));
+        final RelationshipType indexedToscaElement = new RelationshipType();
+        indexedToscaElement.setElementId("tosca.relationships.ConnectsTo");
+        sourceTemplate.getRelationshipTemplates().get(0).setIndexedToscaElement(indexedToscaElement);
+
+        PaaSNodeTemplate targetTemplate = new PaaSNodeTemplate("Target-Template", targetNode);
+        targetTemplate.setInterfaces(targetNode.getInterfaces());
+        targetTemplate.setRelationshipTemplates(Lists.newArrayList(sourceTemplate.getRelationshipTemplates()));
+
+        PaaSNodeTemplate otherTemplate = new PaaSNodeTemplate("Other-Template", otherNode);
+        otherTemplate.setInterfaces(otherNode.getInterfaces());
+
+        PaaSTopologyDeploymentContext context = preparePaaSContext(Lists.newArrayList(sourceTemplate, targetTemplate, otherTemplate), null);
+        final List<Pod> pods = Lists.newArrayList();
+        final Group groupDefinition = builderService.buildGroupDefinition(context, ServiceDiscoveryMode.MARATHON_LB, pods::add);
+
+        assertEquals("Nodes out of any pod are apps of the group", 1, groupDefinition.getApps().size());
+        assertEquals("other-template", groupDefinition.getApps().iterator().next().getId());
+        assertEquals("Nodes sharing a pod name are built into a single pod", 1, pods.size());
+        final Pod pod = pods.get(0);
+        assertEquals("/test-marathon-deployment/web", pod.getId());
+        assertEquals("The pod runs as many instances as its most scaled container", Integer.valueOf(2), pod.getScaling().getInstances());
+        assertEquals(2, pod.getContainers().size());
+        final Pod.Container sourceContainer = pod.getContainers().get(0);
+        assertEquals("source-template", sourceContainer.getName());
+        assertEquals("docker-img", sourceContainer.getImage().getId());
+        assertEquals("Containers of a pod connect on localhost", "localhost", sourceContainer.getEnvironment().get("INPUT_IP"));
+        assertEquals("Containers of a pod connect to the declared port", "12345", sourceContainer.getEnvironment().get("INPUT_PORT"));
+        assertEquals("source-template-0", sourceContainer.getEndpoints().get(0).getName());
+        assertEquals(Integer.valueOf(12345), sourceContainer.getEndpoints().get(0).getContainerPort());
+        assertEquals("Host ports are allocated by Marathon", Integer.valueOf(0), sourceContainer.getEndpoints().get(0).getHostPort());
+        assertEquals("container/bridge", pod.getNetworks().get(0).getMode());
+        assertEquals("The health check targets the container's endpoint", "source-template-0", sourceContainer.getHealthCheck().getTcp().getEndpoint());
+
+        verify(mockMappingService).registerAppMapping("test-marathon-deployment", "web.source-template", "Source-Template");
+        verify(mockMappingService).registerAppMapping("test-marathon-deployment", "web.target-template", "Target-Template");
+        verify(mockMappingService).registerAppMapping("test-marathon-deployment", "other-template", "Other-Template");
+    }
+
     @Test
     public void testBuildNodeWithUserProperties() {
         NodeTemplate template = simpleNodeTemplate();
@@ -293,6 +416,80 @@ public class BuilderServiceTest {
         assertEquals("env_val2", appDef.getEnv().get("env_name_2"));
     }
 
+    @Test
+    public void testRebuildSameTopology() {
+        NodeTemplate template = simpleNodeTemplate();
+        template.getProperties().put("docker_run_cmd", new ScalarPropertyValue("node server run"));
+
+        PaaSNodeTemplate singleNodeTemplate = new PaaSNodeTemplate("Single-Node-Template", template);
+        singleNodeTemplate.setInterfaces(template.getInterfaces());
+        singleNodeTemplate.setScalingPolicy(new ScalingPolicy(1, 1, 1));
+        PaaSTopologyDeploymentContext context = preparePaaSContext(Lists.newArrayList(singleNodeTemplate), null);
+
+        final App firstApp = builderService.buildGroupDefinition(context).getApps().iterator().next();
+        assertFalse("The group was not accepted by Marathon yet", builderService.isUnchanged(context));
+        builderService.groupDeployed(context);
+        assertTrue("Nothing changed since the group was deployed", builderService.isUnchanged(context));
+        reset(mockMappingService);
+
+        final App secondApp = builderService.buildGroupDefinition(context).getApps().iterator().next();
+        assertNotSame("Each build returns its own App definition", firstApp, secondApp);
+        assertEquals("single-node-template", secondApp.getId());
+        assertEquals("node server run", secondApp.getCmd());
+        assertEquals("docker-img", secondApp.getContainer().getDocker().getImage());
+        assertEquals("internal", secondApp.getLabels().get("HAPROXY_GROUP"));
+        assertEquals(1, secondApp.getHealthChecks().size());
+        assertEquals(Integer.valueOf(12345), secondApp.getContainer().getDocker().getPortMappings().iterator().next().getContainerPort());
+        assertEquals("Service ports are allocated for each deployment", Integer.valueOf(10001),
+                secondApp.getContainer().getDocker().getPortMappings().iterator().next().getServicePort());
+        assertEquals("The first build is not altered", Integer.valueOf(10000), firstApp.getContainer().getDocker().getPortMappings().iterator().next().getServicePort());
+
+        template.getProperties().put("docker_run_cmd", new ScalarPropertyValue("node server start"));
+        assertFalse("A property changed", builderService.isUnchanged(context));
+    }
+
+    @Test
+    public void testBuildHealthAndReadinessChecks() {
+        NodeTemplate template = simpleNodeTemplate();
+        template.getProperties().put("health_check_protocol", new ScalarPropertyValue("HTTP"));
+        template.getProperties().put("health_check_path", new ScalarPropertyValue("/health"));
+        template.getProperties().put("health_check_grace_period", new ScalarPropertyValue("30"));
+        template.getProperties().put("readiness_check_path", new ScalarPropertyValue("/ready"));
+        template.getProperties().put("readiness_check_status_codes", new ListPropertyValue(Lists.<Object> newArrayList("200", "204")));
+        Capability adminEndpoint = new Capability();
+        adminEndpoint.setType("alien.capabilities.endpoint.marathon.Checked");
+        adminEndpoint.setProperties(Maps.newHashMap());
+        adminEndpoint.getProperties().put("port", new ScalarPropertyValue("8081"));
+        adminEndpoint.getProperties().put("health_check", new ScalarPropertyValue("true"));
+        adminEndpoint.getProperties().put("readiness_check", new ScalarPropertyValue("true"));
+        template.getCapabilities().put("admin_endpoint", adminEndpoint);
+
+        PaaSNodeTemplate singleNodeTemplate = new PaaSNodeTemplate("Single-Node-Template", template);
+        singleNodeTemplate.setInterfaces(template.getInterfaces());
+        singleNodeTemplate.setScalingPolicy(new ScalingPolicy(1, 1, 1));
+        PaaSTopologyDeploymentContext context = preparePaaSContext(Lists.newArrayList(singleNodeTemplate), null);
+
+        final MarathonApp app = (MarathonApp) builderService.buildGroupDefinition(context).getApps().iterator().next();
+        final List<Port> portMappings = app.getContainer().getDocker().getPortMappings();
+        final int adminPortIndex = portMappings.get(0).getContainerPort() == 8081 ? 0 : 1;
+
+        final HealthCheck healthCheck = app.getHealthChecks().get(0);
+        assertEquals("HTTP", healthCheck.getProtocol());
+        assertEquals("/health", healthCheck.getPath());
+        assertEquals("The flagged endpoint is checked", Integer.valueOf(adminPortIndex), healthCheck.getPortIndex());
+        assertEquals(Integer.valueOf(30), healthCheck.getGracePeriodSeconds());
+        assertEquals(Integer.valueOf(3), healthCheck.getMaxConsecutiveFailures());
+
+        final ReadinessCheck readinessCheck = app.getReadinessChecks().get(0);
+        assertEquals("/ready", readinessCheck.getPath());
+        assertEquals("HTTP", readinessCheck.getProtocol());
+        assertEquals("Readiness checks target a named port", "admin-endpoint", readinessCheck.getPortName());
+        assertEquals("admin-endpoint", ((NamedPort) portMappings.get(adminPortIndex)).getName());
+        assertEquals(Lists.newArrayList(200, 204), readinessCheck.getHttpStatusCodesForReady());
+
+        assertNull("Stateless apps keep Marathon's default upgrade strategy", app.getUpgradeStrategy());
+    }
+
     private NodeTemplate simpleNodeTemplate() {
         NodeTemplate template = new NodeTemplate();
 
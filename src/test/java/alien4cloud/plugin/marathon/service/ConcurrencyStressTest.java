@@ -0,0 +1,229 @@
+package alien4cloud.plugin.marathon.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import alien4cloud.paas.model.AbstractMonitorEvent;
+import alien4cloud.paas.model.PaaSInstanceStateMonitorEvent;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import alien4cloud.plugin.marathon.service.model.events.converters.DeploymentEventConverter;
+import alien4cloud.plugin.marathon.service.model.events.converters.StatusEventConverter;
+import alien4cloud.plugin.marathon.service.model.mapping.AppMapping;
+import alien4cloud.plugin.marathon.service.model.mapping.MarathonAppsMapping;
+
+/**
+ * Hammers the event and mapping services from the threads which share them in production: the event stream, the deployments, the reaper and
+ * Alien's polling. Each round starts its threads together, then checks that no event is lost or duplicated and that no mapping is torn.
+ *
+ * The number of rounds is set by the <code>stress.rounds</code> system property.
+ */
+public class ConcurrencyStressTest {
+
+    private static final int ROUNDS = Integer.getInteger("stress.rounds", 10);
+    private static final int PRODUCERS = 4;
+    private static final int EVENTS_PER_PRODUCER = 2000;
+    private static final int GROUPS = 8;
+    private static final int APPS = 5;
+    private static final int REDEPLOYMENTS = 200;
+
+    @Test
+    public void eventsAreNeitherLostNorDuplicated() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            final MappingService mappingService = new MappingService();
+            final EventService eventService = new EventService(mappingService, new DeploymentEventConverter(mappingService),
+                    new StatusEventConverter(mappingService), new MetricsRegistry());
+            eventService.convertOnceMapped("test-orchestrator");
+
+            final AtomicBoolean producing = new AtomicBoolean(true);
+            final Queue<AbstractMonitorEvent> polled = new ConcurrentLinkedQueue<>();
+            final List<Runnable> tasks = Lists.newArrayList();
+            for (int producer = 0; producer < PRODUCERS; producer++) {
+                final int producerId = producer;
+                tasks.add(() -> {
+                    for (int i = 0; i < EVENTS_PER_PRODUCER; i++) {
+                        final String taskId = "task-" + producerId + "-" + i;
+                        if (i % 2 == 0)
+                            eventService.onEvent("test-orchestrator", "status_update_event", statusUpdateEvent(taskId));
+                        else
+                            eventService.onEvent("test-orchestrator", "health_status_changed_event", healthStatusChangedEvent(taskId));
+                    }
+                });
+            }
+            // Events received before the mappings are initialized are buffered meanwhile
+            tasks.add(() -> mappingService.init("test-orchestrator", Collections.emptyList()));
+            for (int poller = 0; poller < 2; poller++) {
+                tasks.add(() -> {
+                    while (producing.get())
+                        polled.addAll(Arrays.asList(eventService.flushEvents("test-orchestrator")));
+                });
+            }
+            runConcurrently(tasks, () -> producing.set(false), PRODUCERS + 1);
+            polled.addAll(Arrays.asList(eventService.flushEvents("test-orchestrator")));
+
+            final List<String> instanceIds = polled.stream().map(event -> ((PaaSInstanceStateMonitorEvent) event).getInstanceId())
+                    .collect(Collectors.toList());
+            assertEquals("No event is lost nor duplicated", PRODUCERS * EVENTS_PER_PRODUCER, instanceIds.size());
+            assertEquals("No event is duplicated", PRODUCERS * EVENTS_PER_PRODUCER, Sets.newHashSet(instanceIds).size());
+        }
+    }
+
+    @Test
+    public void mappingsAreNeverTorn() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            final MappingService mappingService = new MappingService();
+            final AtomicBoolean deploying = new AtomicBoolean(true);
+            final Queue<String> tornMappings = new ConcurrentLinkedQueue<>();
+            final List<Runnable> tasks = Lists.newArrayList();
+            for (int group = 0; group < GROUPS; group++) {
+                final String groupId = "group-" + group;
+                tasks.add(() -> {
+                    // Successive deployments of the group, each mapping its apps to node templates named after the deployment
+                    for (int deployment = 0; deployment < REDEPLOYMENTS; deployment++) {
+                        final String alienDeploymentId = groupId + "-deployment-" + deployment;
+                        mappingService.registerGroupMapping(groupId, alienDeploymentId);
+                        for (int app = 0; app < APPS; app++)
+                            mappingService.registerAppMapping(groupId, "app-" + app, alienDeploymentId + ":Node-" + app);
+                    }
+                });
+            }
+            // Undeployments and expired mappings
+            tasks.add(() -> {
+                while (deploying.get()) {
+                    final MarathonAppsMapping groupMapping = mappingService.getGroupMappings().get("group-" + ThreadLocalRandom.current().nextInt(GROUPS));
+                    if (groupMapping != null)
+                        mappingService.removeGroupMappings(groupMapping.getAlienDeploymentId());
+                }
+            });
+            // Event conversions
+            for (int reader = 0; reader < 2; reader++) {
+                tasks.add(() -> {
+                    while (deploying.get()) {
+                        final String appId = "/group-" + ThreadLocalRandom.current().nextInt(GROUPS) + "/app-" + ThreadLocalRandom.current().nextInt(APPS);
+                        final AppMapping appMapping = mappingService.resolveApp(appId);
+                        if (!appMapping.getNodeTemplateId().equals(AppMapping.UNKNOWN.getNodeTemplateId())
+                                && !appMapping.getNodeTemplateId().startsWith(appMapping.getAlienDeploymentId() + ":"))
+                            tornMappings.add(appId + " -> " + appMapping.getAlienDeploymentId() + "/" + appMapping.getNodeTemplateId());
+                    }
+                });
+            }
+            runConcurrently(tasks, () -> deploying.set(false), GROUPS);
+
+            assertTrue("No app is resolved with the node of another deployment: " + tornMappings, tornMappings.isEmpty());
+            int mappedApps = 0;
+            for (String groupId : mappingService.getGroupMappings().keySet()) {
+                final MarathonAppsMapping groupMapping = mappingService.getGroupMappings().get(groupId);
+                for (String appId : groupMapping.getAppIdToNodeTemplateIdMap().keySet()) {
+                    assertEquals("Indexed apps belong to the current deployment of their group", groupMapping.getAlienDeploymentId(),
+                            mappingService.resolveApp("/" + groupId + "/" + appId).getAlienDeploymentId());
+                    mappedApps++;
+                }
+            }
+            assertEquals("Only the apps of mapped groups are indexed", mappedApps, mappingService.getAppMappingCount());
+        }
+    }
+
+    @Test
+    public void undeploymentsNeverRemoveTheLatestDeploymentOfAGroup() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            final MappingService mappingService = new MappingService();
+            final AtomicBoolean deploying = new AtomicBoolean(true);
+            final List<Runnable> tasks = Lists.newArrayList();
+            for (int group = 0; group < GROUPS; group++) {
+                final String groupId = "group-" + group;
+                tasks.add(() -> {
+                    for (int deployment = 0; deployment < REDEPLOYMENTS; deployment++) {
+                        final String alienDeploymentId = deploymentId(groupId, deployment);
+                        mappingService.registerGroupMapping(groupId, alienDeploymentId);
+                        for (int app = 0; app < APPS; app++)
+                            mappingService.registerAppMapping(groupId, "app-" + app, alienDeploymentId + ":Node-" + app);
+                    }
+                });
+            }
+            // The reaper undeploys each previous deployment of a group while the group is redeployed
+            for (int group = 0; group < GROUPS; group++) {
+                final String groupId = "group-" + group;
+                tasks.add(() -> {
+                    while (deploying.get()) {
+                        final MarathonAppsMapping groupMapping = mappingService.getGroupMappings().get(groupId);
+                        if (groupMapping != null && !groupMapping.getAlienDeploymentId().equals(deploymentId(groupId, REDEPLOYMENTS - 1)))
+                            mappingService.removeGroupMappings(groupMapping.getAlienDeploymentId());
+                    }
+                });
+            }
+            runConcurrently(tasks, () -> deploying.set(false), GROUPS);
+
+            for (int group = 0; group < GROUPS; group++) {
+                final String groupId = "group-" + group;
+                final MarathonAppsMapping groupMapping = mappingService.getGroupMappings().get(groupId);
+                assertNotNull("The latest deployment of " + groupId + " is still mapped", groupMapping);
+                assertEquals("The latest deployment of " + groupId + " is still mapped", deploymentId(groupId, REDEPLOYMENTS - 1),
+                        groupMapping.getAlienDeploymentId());
+                assertEquals("The apps of the latest deployment of " + groupId + " are still mapped", APPS, groupMapping.getAppIdToNodeTemplateIdMap().size());
+            }
+        }
+    }
+
+    private static String deploymentId(String groupId, int deployment) {
+        return groupId + "-deployment-" + deployment;
+    }
+
+    /**
+     * Start tasks together, then signal the remaining tasks to stop once the first ones completed.
+     *
+     * @param tasks the tasks, the ones which complete on their own first
+     * @param stop stops the remaining tasks
+     * @param completingTasks the number of tasks which complete on their own
+     */
+    private static void runConcurrently(List<Runnable> tasks, Runnable stop, int completingTasks) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        final CyclicBarrier start = new CyclicBarrier(tasks.size());
+        try {
+            final List<Future<?>> futures = tasks.stream().map(task -> executor.submit(() -> {
+                start.await();
+                task.run();
+                return null;
+            })).collect(Collectors.toList());
+            try {
+                for (Future<?> future : futures.subList(0, completingTasks))
+                    future.get(60, TimeUnit.SECONDS);
+            } finally {
+                stop.run();
+            }
+            for (Future<?> future : futures.subList(completingTasks, futures.size()))
+                future.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String statusUpdateEvent(String taskId) {
+        return "{\"eventType\":\"status_update_event\",\"timestamp\":\"2017-03-01T23:29:30.158Z\",\"slaveId\":\"agent-0\",\"taskId\":\"" + taskId
+                + "\",\"taskStatus\":\"TASK_RUNNING\",\"appId\":\"/group-0/app-0\",\"host\":\"agent-0\",\"ports\":[31000],"
+                + "\"version\":\"2017-03-01T23:29:29.158Z\"}";
+    }
+
+    private static String healthStatusChangedEvent(String taskId) {
+        return "{\"eventType\":\"health_status_changed_event\",\"timestamp\":\"2017-03-01T23:29:30.158Z\",\"appId\":\"/group-0/app-0\",\"taskId\":\""
+                + taskId + "\",\"version\":\"2017-03-01T23:29:29.158Z\",\"alive\":true}";
+    }
+}
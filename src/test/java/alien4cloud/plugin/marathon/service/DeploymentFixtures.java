@@ -0,0 +1,53 @@
+package alien4cloud.plugin.marathon.service;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import alien4cloud.model.deployment.Deployment;
+import alien4cloud.paas.model.PaaSNodeTemplate;
+import alien4cloud.paas.model.PaaSTopology;
+import alien4cloud.paas.model.PaaSTopologyDeploymentContext;
+
+/**
+ * Deployments of groups of bare apps, named <code>App-0</code>, <code>App-1</code>..., to initialize the mappings of tests and benchmarks.
+ */
+public final class DeploymentFixtures {
+
+    private DeploymentFixtures() {
+    }
+
+    /**
+     * @param groups number of deployments
+     * @param apps number of apps of each group
+     * @return deployments <code>alien-deployment-i</code> of groups <code>Group-i</code>
+     */
+    public static List<PaaSTopologyDeploymentContext> deploymentContexts(int groups, int apps) {
+        final List<PaaSTopologyDeploymentContext> deployments = Lists.newArrayListWithCapacity(groups);
+        for (int group = 0; group < groups; group++) {
+            deployments.add(deploymentContext("alien-deployment-" + group, "Group-" + group, apps));
+        }
+        return deployments;
+    }
+
+    /**
+     * @param deploymentId the id of the deployment in Alien
+     * @param paasId the id of the group of the deployment
+     * @param apps number of apps of the group
+     * @return a deployment of a group of bare apps
+     */
+    public static PaaSTopologyDeploymentContext deploymentContext(String deploymentId, String paasId, int apps) {
+        final PaaSTopologyDeploymentContext context = new PaaSTopologyDeploymentContext();
+        final Deployment deployment = new Deployment();
+        deployment.setId(deploymentId);
+        deployment.setOrchestratorDeploymentId(paasId);
+        context.setDeployment(deployment);
+        final PaaSTopology topology = new PaaSTopology();
+        topology.setNonNatives(Lists.newArrayListWithCapacity(apps));
+        for (int app = 0; app < apps; app++) {
+            topology.getNonNatives().add(new PaaSNodeTemplate("App-" + app, null));
+        }
+        context.setPaaSTopology(topology);
+        return context;
+    }
+}
@@ -0,0 +1,178 @@
+package alien4cloud.plugin.marathon.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import alien4cloud.paas.model.AbstractMonitorEvent;
+import alien4cloud.paas.model.PaaSInstanceStateMonitorEvent;
+import alien4cloud.paas.model.PaaSMessageMonitorEvent;
+import alien4cloud.plugin.marathon.metrics.DeploymentTrace;
+import alien4cloud.plugin.marathon.metrics.Histogram;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import alien4cloud.plugin.marathon.service.model.events.converters.DeploymentEventConverter;
+import alien4cloud.plugin.marathon.service.model.events.converters.StatusEventConverter;
+
+public class EventServiceTest {
+
+    private static final String STATUS_UPDATE_EVENT = "{\"eventType\":\"status_update_event\",\"timestamp\":\"2017-03-01T23:29:30.158Z\","
+            + "\"slaveId\":\"agent-0\",\"taskId\":\"group-0_app-0.e3c2ba2c\",\"taskStatus\":\"TASK_RUNNING\",\"appId\":\"/group-0/app-0\","
+            + "\"host\":\"agent-0\",\"ports\":[31000],\"version\":\"2017-03-01T23:29:29.158Z\"}";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+    private MappingService mappingService;
+
+    private EventService eventService;
+
+    @Before
+    public void setUp() {
+        mappingService = new MappingService();
+        mappingService.init("test-orchestrator", Collections.emptyList());
+        eventService = new EventService(mappingService, new DeploymentEventConverter(mappingService), new StatusEventConverter(mappingService),
+                metricsRegistry);
+        eventService.convertOnceMapped("test-orchestrator");
+        mappingService.claimDeployment("test-orchestrator", "alien-deployment");
+    }
+
+    @Test
+    public void longPollIsParkedUntilEventsAreQueued() throws Exception {
+        final CompletableFuture<AbstractMonitorEvent[]> delivered = new CompletableFuture<>();
+        eventService.pollEvents("test-orchestrator", 100, 10000, 10, delivered::complete);
+        Thread.sleep(50);
+        assertFalse("The poll is parked while no event is queued", delivered.isDone());
+
+        eventService.publish(message("first"));
+        eventService.publish(message("second"));
+
+        assertEquals(2, delivered.get(1, TimeUnit.SECONDS).length);
+        assertEquals(0, eventService.flushEvents("test-orchestrator").length);
+        assertEquals(1L, metricsRegistry.counter(MetricsRegistry.id("marathon_event_polls_total", "result", "events")).sum());
+    }
+
+    @Test
+    public void longPollCompletesEmptyAfterTimeout() throws Exception {
+        final CompletableFuture<AbstractMonitorEvent[]> delivered = new CompletableFuture<>();
+        eventService.pollEvents("test-orchestrator", 100, 20, 10, delivered::complete);
+
+        assertEquals(0, delivered.get(1, TimeUnit.SECONDS).length);
+        assertEquals(1L, metricsRegistry.counter(MetricsRegistry.id("marathon_event_polls_total", "result", "empty")).sum());
+    }
+
+    @Test
+    public void longPollsAreServedInOrderWithTheirBatch() throws Exception {
+        for (int i = 0; i < 5; i++)
+            eventService.publish(message("event-" + i));
+        final CompletableFuture<AbstractMonitorEvent[]> first = new CompletableFuture<>();
+        final CompletableFuture<AbstractMonitorEvent[]> second = new CompletableFuture<>();
+        eventService.pollEvents("test-orchestrator", 3, 10000, 10000, first::complete);
+        eventService.pollEvents("test-orchestrator", 3, 10000, 10, second::complete);
+
+        assertEquals("A full batch is delivered without waiting for the linger", 3, first.get(1, TimeUnit.SECONDS).length);
+        assertEquals("event-0", ((PaaSMessageMonitorEvent) first.get()[0]).getMessage());
+        assertEquals(2, second.get(1, TimeUnit.SECONDS).length);
+        assertEquals("event-3", ((PaaSMessageMonitorEvent) second.get()[0]).getMessage());
+    }
+
+    @Test
+    public void failureDetectedByThePluginClosesTheTrace() {
+        mappingService.startDeploymentTrace("alien-deployment").endPhase(DeploymentTrace.QUEUE);
+
+        eventService.publishDeploymentFailure("alien-deployment", "Marathon rejected the deployment");
+
+        assertFalse("The trace is no longer tracked", mappingService.getDeploymentTrace("alien-deployment").isPresent());
+        assertEquals(1L, metricsRegistry.histogram("marathon_deployment_phase_milliseconds", Histogram.DEPLOYMENT_BUCKETS, "phase", DeploymentTrace.QUEUE,
+                "outcome", "failure").getCount());
+    }
+
+    @Test
+    public void eventsWaitForTheMappingsOfTheirOrchestrator() {
+        eventService.convertOnceMapped("test-orchestrator");
+        eventService.convertOnceMapped("other-orchestrator");
+
+        eventService.onEvent("other-orchestrator", "status_update_event", STATUS_UPDATE_EVENT);
+        eventService.onEvent("test-orchestrator", "status_update_event", STATUS_UPDATE_EVENT);
+        assertEquals("Only the events of the initialized orchestrator are converted", 1, eventService.flushEvents("test-orchestrator").length);
+
+        mappingService.init("other-orchestrator", Collections.emptyList());
+        assertEquals(0, eventService.flushEvents("test-orchestrator").length);
+        assertEquals(1, eventService.flushEvents("other-orchestrator").length);
+    }
+
+    @Test
+    public void pollsOnlyReceiveTheEventsOfTheirOrchestrator() throws Exception {
+        eventService.convertOnceMapped("other-orchestrator");
+        mappingService.claimDeployment("other-orchestrator", "other-deployment");
+        final CompletableFuture<AbstractMonitorEvent[]> delivered = new CompletableFuture<>();
+        final CompletableFuture<AbstractMonitorEvent[]> otherDelivered = new CompletableFuture<>();
+        eventService.pollEvents("test-orchestrator", 100, 10000, 10, delivered::complete);
+        eventService.pollEvents("other-orchestrator", 100, 10000, 10, otherDelivered::complete);
+
+        final PaaSMessageMonitorEvent otherEvent = message("other");
+        otherEvent.setDeploymentId("other-deployment");
+        eventService.publish(otherEvent);
+        assertEquals("other-deployment", otherDelivered.get(1, TimeUnit.SECONDS)[0].getDeploymentId());
+        assertFalse("The poll of the other orchestrator is still parked", delivered.isDone());
+
+        eventService.releaseParkedPolls("other-orchestrator");
+        Thread.sleep(50);
+        assertFalse("Only the polls of the released orchestrator are completed", delivered.isDone());
+        eventService.releaseParkedPolls("test-orchestrator");
+        assertEquals(0, delivered.get(1, TimeUnit.SECONDS).length);
+    }
+
+    @Test
+    public void rateCapOnlyAppliesToItsOrchestrator() {
+        eventService.convertOnceMapped("other-orchestrator");
+        mappingService.claimDeployment("other-orchestrator", "other-deployment");
+        eventService.setEventRateCap("test-orchestrator", 6);
+        for (int i = 0; i < 3; i++) {
+            eventService.publish(instanceEvent("alien-deployment", "task-" + i));
+            eventService.publish(instanceEvent("other-deployment", "task-" + i));
+        }
+
+        assertEquals("Instance events beyond the cap are summarized", 1, eventService.flushEvents("test-orchestrator").length);
+        assertEquals(3, eventService.flushEvents("other-orchestrator").length);
+    }
+
+    @Test
+    public void eachLocationHasASpillOfItsOwn() throws Exception {
+        eventService.enableSpill("test-orchestrator", temporaryFolder.newFolder("test-orchestrator").toPath(), 10);
+        eventService.enableSpill("other-orchestrator", temporaryFolder.newFolder("other-orchestrator").toPath(), 10);
+        final String spillGauge = MetricsRegistry.id("marathon_event_spill_events", "orchestrator", "test-orchestrator");
+        final String otherSpillGauge = MetricsRegistry.id("marathon_event_spill_events", "orchestrator", "other-orchestrator");
+        assertTrue(metricsRegistry.snapshot().containsKey(spillGauge));
+
+        eventService.disableSpill("test-orchestrator");
+        assertFalse(metricsRegistry.snapshot().containsKey(spillGauge));
+        assertTrue("The spill of the other location is still used", metricsRegistry.snapshot().containsKey(otherSpillGauge));
+        eventService.unsubscribe("other-orchestrator");
+        assertFalse(metricsRegistry.snapshot().containsKey(otherSpillGauge));
+    }
+
+    private static PaaSInstanceStateMonitorEvent instanceEvent(String deploymentId, String instanceId) {
+        final PaaSInstanceStateMonitorEvent event = new PaaSInstanceStateMonitorEvent();
+        event.setDeploymentId(deploymentId);
+        event.setInstanceId(instanceId);
+        return event;
+    }
+
+    private static PaaSMessageMonitorEvent message(String message) {
+        final PaaSMessageMonitorEvent event = new PaaSMessageMonitorEvent();
+        event.setDeploymentId("alien-deployment");
+        event.setMessage(message);
+        return event;
+    }
+}
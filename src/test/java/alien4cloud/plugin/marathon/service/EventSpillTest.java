@@ -0,0 +1,155 @@
+package alien4cloud.plugin.marathon.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+import alien4cloud.paas.model.AbstractMonitorEvent;
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.paas.model.InstanceStatus;
+import alien4cloud.paas.model.PaaSDeploymentStatusMonitorEvent;
+import alien4cloud.paas.model.PaaSInstanceStateMonitorEvent;
+import alien4cloud.paas.model.PaaSMessageMonitorEvent;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+
+public class EventSpillTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void spilledEventsAreReadBackInOrder() throws IOException {
+        final EventSpill spill = EventSpill.open(temporaryFolder.getRoot().toPath(), EventSpill.SEGMENT_SIZE);
+        spill.append(instanceEvent("deployment-1", "task-1", 1000));
+        final PaaSDeploymentStatusMonitorEvent statusEvent = new PaaSDeploymentStatusMonitorEvent();
+        statusEvent.setDeploymentId("deployment-1");
+        statusEvent.setDate(900);
+        statusEvent.setDeploymentStatus(DeploymentStatus.DEPLOYED);
+        spill.append(statusEvent);
+        final PaaSMessageMonitorEvent messageEvent = new PaaSMessageMonitorEvent();
+        messageEvent.setDate(1200);
+        messageEvent.setMessage("Déploiement terminé");
+        spill.append(messageEvent);
+        assertEquals(3, spill.size());
+
+        final PaaSInstanceStateMonitorEvent instanceEvent = (PaaSInstanceStateMonitorEvent) spill.poll();
+        assertEquals("deployment-1", instanceEvent.getDeploymentId());
+        assertEquals("Node", instanceEvent.getNodeTemplateId());
+        assertEquals("task-1", instanceEvent.getInstanceId());
+        assertEquals("started", instanceEvent.getInstanceState());
+        assertEquals(InstanceStatus.SUCCESS, instanceEvent.getInstanceStatus());
+        assertEquals(1000, instanceEvent.getDate());
+        final PaaSDeploymentStatusMonitorEvent readStatusEvent = (PaaSDeploymentStatusMonitorEvent) spill.poll();
+        assertEquals("deployment-1", readStatusEvent.getDeploymentId());
+        assertEquals(DeploymentStatus.DEPLOYED, readStatusEvent.getDeploymentStatus());
+        assertEquals(900, readStatusEvent.getDate());
+        final PaaSMessageMonitorEvent readMessageEvent = (PaaSMessageMonitorEvent) spill.poll();
+        assertNull(readMessageEvent.getDeploymentId());
+        assertEquals("Déploiement terminé", readMessageEvent.getMessage());
+        assertNull(spill.poll());
+        assertEquals(0, spill.byteSize());
+    }
+
+    @Test
+    public void segmentsAreRolledAndDeletedOnceRead() throws IOException {
+        final Path directory = temporaryFolder.getRoot().toPath();
+        final EventSpill spill = EventSpill.open(directory, 1024);
+        for (int i = 0; i < 1000; i++)
+            spill.append(instanceEvent("deployment-" + i % 10, "task-" + i, 1000 + i));
+        assertTrue("Events are spread over segments", segmentCount() > 1);
+        assertTrue("Repeated strings are written once per segment: " + spill.byteSize() + " bytes", spill.byteSize() < 1000 * 24);
+
+        for (int i = 0; i < 1000; i++)
+            assertEquals("task-" + i, ((PaaSInstanceStateMonitorEvent) spill.poll()).getInstanceId());
+        assertNull(spill.poll());
+        assertEquals("Read segments are deleted", 0, segmentCount());
+    }
+
+    @Test
+    public void eventsOverflowToTheSpillAndAreQueuedBackInOrder() throws IOException {
+        final FairEventQueue queue = new FairEventQueue(new MetricsRegistry(), "test-orchestrator", 4);
+        queue.setSpill(EventSpill.open(temporaryFolder.getRoot().toPath(), 1024), 10);
+        for (int i = 0; i < 100; i++)
+            queue.add(instanceEvent("deployment", "task-" + i, i));
+        assertEquals("Events beyond the threshold are spilled", 10, queue.size());
+
+        for (int i = 0; i < 100;) {
+            for (AbstractMonitorEvent event : queue.drain(7))
+                assertEquals("task-" + i++, ((PaaSInstanceStateMonitorEvent) event).getInstanceId());
+        }
+        assertTrue(queue.drain(10).isEmpty());
+    }
+
+    @Test
+    public void eventsWhichCannotBeSpilledFollowTheSpilledOnes() throws IOException {
+        final Path directory = temporaryFolder.newFolder("spill").toPath();
+        final FairEventQueue queue = new FairEventQueue(new MetricsRegistry(), "test-orchestrator", 4);
+        queue.setSpill(EventSpill.open(directory, 1024), 2);
+        for (int i = 0; i < 5; i++)
+            queue.add(instanceEvent("deployment", "task-" + i, i));
+        // The next segment cannot be created
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory)) {
+            for (Path segment : segments)
+                Files.delete(segment);
+        }
+        Files.delete(directory);
+        final PaaSMessageMonitorEvent messageEvent = new PaaSMessageMonitorEvent();
+        messageEvent.setDeploymentId("deployment");
+        messageEvent.setMessage(Strings.repeat("x", 2048));
+        queue.add(messageEvent);
+
+        final List<AbstractMonitorEvent> events = queue.drain(100);
+        assertEquals(6, events.size());
+        for (int i = 0; i < 5; i++)
+            assertEquals("task-" + i, ((PaaSInstanceStateMonitorEvent) events.get(i)).getInstanceId());
+        assertTrue(events.get(5) instanceof PaaSMessageMonitorEvent);
+    }
+
+    @Test
+    public void spilledEventsAreNotCappedAgainWhenReadBack() throws IOException {
+        final FairEventQueue queue = new FairEventQueue(new MetricsRegistry(), "test-orchestrator", 4);
+        queue.setRateCap(2);
+        queue.setSpill(EventSpill.open(temporaryFolder.getRoot().toPath(), 1024), 2);
+        for (int i = 0; i < 10; i++)
+            queue.add(instanceEvent("deployment", "task-" + i, i));
+        assertEquals("Spilled events are pending", 10, queue.pendingCount());
+
+        final List<AbstractMonitorEvent> events = Lists.newArrayList();
+        for (int drains = 0; drains < 10 && events.size() < 10; drains++)
+            events.addAll(queue.drain(100));
+        assertEquals(10, events.size());
+        for (int i = 0; i < 10; i++)
+            assertEquals("task-" + i, ((PaaSInstanceStateMonitorEvent) events.get(i)).getInstanceId());
+        assertEquals(0, queue.pendingCount());
+    }
+
+    private int segmentCount() {
+        final File[] segments = temporaryFolder.getRoot().listFiles((dir, name) -> name.endsWith(".spill"));
+        return segments == null ? 0 : segments.length;
+    }
+
+    private static PaaSInstanceStateMonitorEvent instanceEvent(String deploymentId, String instanceId, long date) {
+        final PaaSInstanceStateMonitorEvent event = new PaaSInstanceStateMonitorEvent();
+        event.setDeploymentId(deploymentId);
+        event.setDate(date);
+        event.setNodeTemplateId("Node");
+        event.setInstanceId(instanceId);
+        event.setInstanceState("started");
+        event.setInstanceStatus(InstanceStatus.SUCCESS);
+        return event;
+    }
+}
@@ -0,0 +1,108 @@
+package alien4cloud.plugin.marathon.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import alien4cloud.paas.model.AbstractMonitorEvent;
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.paas.model.PaaSDeploymentStatusMonitorEvent;
+import alien4cloud.paas.model.PaaSInstanceStateMonitorEvent;
+import alien4cloud.paas.model.PaaSMessageMonitorEvent;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+
+public class FairEventQueueTest {
+
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+    private final AtomicLong clock = new AtomicLong(0);
+
+    private final FairEventQueue queue = new FairEventQueue(metricsRegistry, "test-orchestrator", 4, clock::get);
+
+    @Test
+    public void noisyDeploymentDoesNotDelayTheOthers() {
+        for (int i = 0; i < 1000; i++)
+            queue.add(instanceEvent("noisy", "task-" + i, "stopped"));
+        for (int i = 0; i < 3; i++)
+            queue.add(instanceEvent("healthy", "task-" + i, "started"));
+
+        final List<AbstractMonitorEvent> events = queue.drain(20);
+        assertEquals(20, events.size());
+        assertEquals("The events of the healthy deployment are drained in the first rounds", 3,
+                events.stream().filter(event -> "healthy".equals(event.getDeploymentId())).count());
+        assertEquals("Events of a deployment keep their order", "task-0", ((PaaSInstanceStateMonitorEvent) events.get(0)).getInstanceId());
+        assertEquals(983, queue.size());
+    }
+
+    @Test
+    public void instanceEventsOverTheRateCapAreSummarizedToTheLatestStates() {
+        queue.setRateCap(5);
+        for (int i = 0; i < 50; i++)
+            queue.add(instanceEvent("crash-looping", "task-" + i % 2, i % 2 == 0 ? "creating" : "stopped"));
+        final PaaSDeploymentStatusMonitorEvent statusEvent = new PaaSDeploymentStatusMonitorEvent();
+        statusEvent.setDeploymentId("crash-looping");
+        statusEvent.setDeploymentStatus(DeploymentStatus.FAILURE);
+        queue.add(statusEvent);
+
+        List<AbstractMonitorEvent> events = queue.drain(100);
+        assertEquals("Events up to the cap, the summary and the status event are delivered", 9, events.size());
+        assertTrue(((PaaSMessageMonitorEvent) events.get(5)).getMessage().startsWith("45 instance events summarized"));
+        assertEquals("task-0", ((PaaSInstanceStateMonitorEvent) events.get(6)).getInstanceId());
+        assertEquals("creating", ((PaaSInstanceStateMonitorEvent) events.get(6)).getInstanceState());
+        assertEquals("stopped", ((PaaSInstanceStateMonitorEvent) events.get(7)).getInstanceState());
+        assertTrue("The status event follows the instance states", events.get(8) instanceof PaaSDeploymentStatusMonitorEvent);
+        assertEquals(45L, metricsRegistry.counter("marathon_events_summarized_total").sum());
+
+        queue.add(instanceEvent("crash-looping", "task-0", "stopped"));
+        assertTrue("The next instance events of the window are still summarized", queue.drain(100).isEmpty());
+        clock.addAndGet(FairEventQueue.RATE_WINDOW_MILLIS);
+        events = queue.drain(100);
+        assertEquals(2, events.size());
+        assertTrue(((PaaSMessageMonitorEvent) events.get(0)).getMessage().startsWith("1 instance events summarized"));
+        assertEquals("stopped", ((PaaSInstanceStateMonitorEvent) events.get(1)).getInstanceState());
+    }
+
+    @Test
+    public void summarizedEventsArePendingOnceTheirWindowEnds() {
+        queue.setRateCap(1);
+        queue.add(instanceEvent("crash-looping", "task-0", "creating"));
+        queue.add(instanceEvent("crash-looping", "task-0", "stopped"));
+        queue.drain(100);
+        assertEquals("The summary is not due yet", 0, queue.pendingCount());
+        assertEquals(FairEventQueue.RATE_WINDOW_MILLIS, queue.nextSummaryDelay());
+
+        clock.addAndGet(FairEventQueue.RATE_WINDOW_MILLIS);
+        assertEquals("The summary and the latest state are due", 2, queue.pendingCount());
+        assertEquals(0, queue.nextSummaryDelay());
+        assertEquals(2, queue.drain(100).size());
+        assertEquals(-1, queue.nextSummaryDelay());
+    }
+
+    @Test
+    public void backlogIsExportedByDeploymentUntilIdle() {
+        queue.add(instanceEvent("deployment", "task-0", "started"));
+        queue.add(instanceEvent("deployment", "task-1", "started"));
+        final String backlogGauge = MetricsRegistry.id("marathon_event_backlog", "deployment", "deployment");
+        assertEquals(2, metricsRegistry.snapshot().get(backlogGauge));
+
+        queue.drain(100);
+        assertEquals(0, metricsRegistry.snapshot().get(backlogGauge));
+        clock.addAndGet(FairEventQueue.RATE_WINDOW_MILLIS);
+        queue.add(instanceEvent("other", "task-0", "started"));
+        queue.drain(100);
+        assertFalse("The backlog of an idle deployment is no longer exported", metricsRegistry.snapshot().containsKey(backlogGauge));
+    }
+
+    private static PaaSInstanceStateMonitorEvent instanceEvent(String deploymentId, String instanceId, String state) {
+        final PaaSInstanceStateMonitorEvent event = new PaaSInstanceStateMonitorEvent();
+        event.setDeploymentId(deploymentId);
+        event.setInstanceId(instanceId);
+        event.setInstanceState(state);
+        return event;
+    }
+}
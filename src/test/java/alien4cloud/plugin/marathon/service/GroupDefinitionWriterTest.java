@@ -0,0 +1,189 @@
+package alien4cloud.plugin.marathon.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.alien4cloud.tosca.model.definitions.FunctionPropertyValue;
+import org.alien4cloud.tosca.model.definitions.ImplementationArtifact;
+import org.alien4cloud.tosca.model.definitions.Interface;
+import org.alien4cloud.tosca.model.definitions.Operation;
+import org.alien4cloud.tosca.model.definitions.ScalarPropertyValue;
+import org.alien4cloud.tosca.model.templates.Capability;
+import org.alien4cloud.tosca.model.templates.NodeTemplate;
+import org.alien4cloud.tosca.model.templates.RelationshipTemplate;
+import org.alien4cloud.tosca.model.templates.Requirement;
+import org.alien4cloud.tosca.model.templates.ScalingPolicy;
+import org.alien4cloud.tosca.model.types.RelationshipType;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import alien4cloud.model.deployment.Deployment;
+import alien4cloud.paas.model.PaaSNodeTemplate;
+import alien4cloud.paas.model.PaaSRelationshipTemplate;
+import alien4cloud.paas.model.PaaSTopology;
+import alien4cloud.paas.model.PaaSTopologyDeploymentContext;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import mesosphere.marathon.client.utils.ModelUtils;
+
+/**
+ * Verify that streamed group definitions match the serialization of the Marathon group model.
+ */
+public class GroupDefinitionWriterTest {
+
+    private final JsonParser jsonParser = new JsonParser();
+
+    @Test
+    public void testWriteSingleNodeTopology() throws IOException {
+        PaaSNodeTemplate node = paaSNodeTemplate("Single-Node-Template", simpleNodeTemplate());
+        PaaSTopologyDeploymentContext context = preparePaaSContext(Lists.newArrayList(node));
+
+        final JsonElement streamed = assertSameAsGroupModel(context);
+        assertMatchesGolden("golden/single-node-group.json", streamed);
+    }
+
+    @Test
+    public void testWriteNodesWithRelationshipTopology() throws IOException {
+        NodeTemplate sourceNode = simpleNodeTemplate();
+        sourceNode.setName("Source-Template");
+        sourceNode.setRequirements(Maps.newHashMap());
+        sourceNode.getRequirements().put("endpoint_req", new Requirement());
+        NodeTemplate targetNode = simpleNodeTemplate();
+        targetNode.setName("Target-Template");
+        targetNode.getCapabilities().get("endpoint_cap").getProperties().put("opt", new ScalarPropertyValue("abcd"));
+
+        sourceNode.setRelationships(Maps.newHashMap());
+        final RelationshipTemplate relationshipTemplate = new RelationshipTemplate();
+        relationshipTemplate.setType("tosca.relationships.Connectsto");
+        relationshipTemplate.setTarget("Target-Template");
+        relationshipTemplate.setTargetedCapabilityName("endpoint_cap");
+        relationshipTemplate.setRequirementName("endpoint_req");
+        sourceNode.getRelationships().put("mock-relationship", relationshipTemplate);
+
+        Operation createOp = sourceNode.getInterfaces().get("tosca.interfaces.node.lifecycle.Standard").getOperations().get("create");
+        createOp.setInputParameters(Maps.newLinkedHashMap());
+        createOp.getInputParameters().put("ENV_INPUT_IP", new FunctionPropertyValue("get_property", Lists.newArrayList("REQ_TARGET", "endpoint_req", "ip_address")));
+        createOp.getInputParameters().put("ARG_INPUT_PORT", new FunctionPropertyValue("get_property", Lists.newArrayList("REQ_TARGET", "endpoint_req", "port")));
+        createOp.getInputParameters().put("OPT_OPT", new FunctionPropertyValue("get_property", Lists.newArrayList("REQ_TARGET", "endpoint_req", "opt")));
+
+        PaaSNodeTemplate sourceTemplate = paaSNodeTemplate("Source-Template", sourceNode);
+        sourceTemplate.setRelationshipTemplates(sourceNode.getRelationships().values().stream()
+                .map(template -> new PaaSRelationshipTemplate("mock-relationship", template, sourceNode.getName())).collect(Collectors.toList()));
+        final RelationshipType indexedToscaElement = new RelationshipType();
+        indexedToscaElement.setElementId("tosca.relationships.ConnectsTo");
+        sourceTemplate.getRelationshipTemplates().get(0).setIndexedToscaElement(indexedToscaElement);
+        PaaSNodeTemplate targetTemplate = paaSNodeTemplate("Target-Template", targetNode);
+        targetTemplate.setRelationshipTemplates(Lists.newArrayList(sourceTemplate.getRelationshipTemplates()));
+
+        PaaSTopologyDeploymentContext context = preparePaaSContext(Lists.newArrayList(sourceTemplate, targetTemplate));
+
+        final JsonElement streamed = assertSameAsGroupModel(context);
+        assertMatchesGolden("golden/relationship-group.json", streamed);
+    }
+
+    /**
+     * Build the same deployment through the group model and through the streaming writer, with fresh services so that the same service ports are
+     * allocated, and check that both serializations are byte for byte the same.
+     */
+    private JsonElement assertSameAsGroupModel(PaaSTopologyDeploymentContext context) throws IOException {
+        final String modelJson = ModelUtils.GSON
+                .toJson(new BuilderService(mock(MappingService.class), new MetricsRegistry()).buildGroupDefinition(context));
+
+        // Written with the same settings as the request bodies sent to Marathon
+        final StringWriter streamedJson = new StringWriter();
+        final JsonWriter jsonWriter = ModelUtils.GSON.newJsonWriter(streamedJson);
+        new BuilderService(mock(MappingService.class), new MetricsRegistry()).writeGroupDefinition(context, jsonWriter);
+        jsonWriter.flush();
+
+        assertArrayEquals(modelJson.getBytes(StandardCharsets.UTF_8), streamedJson.toString().getBytes(StandardCharsets.UTF_8));
+        return jsonParser.parse(streamedJson.toString());
+    }
+
+    private void assertMatchesGolden(String goldenFile, JsonElement actual) throws IOException {
+        try (Reader reader = new InputStreamReader(getClass().getClassLoader().getResourceAsStream(goldenFile), StandardCharsets.UTF_8)) {
+            assertContains("$", jsonParser.parse(reader), actual);
+        }
+    }
+
+    /**
+     * Golden files only state the fields set by the plugin: every expected field must be present with the same value.
+     */
+    private void assertContains(String path, JsonElement expected, JsonElement actual) {
+        if (expected.isJsonObject()) {
+            assertTrue(path + " should be an object", actual.isJsonObject());
+            expected.getAsJsonObject().entrySet().forEach(entry -> {
+                assertTrue(path + "." + entry.getKey() + " is missing", actual.getAsJsonObject().has(entry.getKey()));
+                assertContains(path + "." + entry.getKey(), entry.getValue(), actual.getAsJsonObject().get(entry.getKey()));
+            });
+        } else if (expected.isJsonArray()) {
+            assertTrue(path + " should be an array", actual.isJsonArray());
+            assertEquals(path + " size", expected.getAsJsonArray().size(), actual.getAsJsonArray().size());
+            for (int i = 0; i < expected.getAsJsonArray().size(); i++) {
+                assertContains(path + "[" + i + "]", expected.getAsJsonArray().get(i), actual.getAsJsonArray().get(i));
+            }
+        } else {
+            assertEquals(path, expected, actual);
+        }
+    }
+
+    private PaaSNodeTemplate paaSNodeTemplate(String id, NodeTemplate template) {
+        PaaSNodeTemplate paaSNodeTemplate = new PaaSNodeTemplate(id, template);
+        paaSNodeTemplate.setInterfaces(template.getInterfaces());
+        paaSNodeTemplate.setScalingPolicy(new ScalingPolicy(1, 1, 1));
+        return paaSNodeTemplate;
+    }
+
+    private NodeTemplate simpleNodeTemplate() {
+        NodeTemplate template = new NodeTemplate();
+        template.setCapabilities(Maps.newHashMap());
+        template.setInterfaces(Maps.newHashMap());
+        template.setProperties(Maps.newHashMap());
+        template.getProperties().put("cpu_share", new ScalarPropertyValue("1.0"));
+        template.getProperties().put("mem_share", new ScalarPropertyValue("256.0"));
+
+        Capability endpointCapa = new Capability();
+        endpointCapa.setType("alien.capabilities.endpoint.Docker");
+        endpointCapa.setProperties(Maps.newHashMap());
+        endpointCapa.getProperties().put("port", new ScalarPropertyValue("12345"));
+        template.getCapabilities().put("endpoint_cap", endpointCapa);
+
+        final Interface standardInt = new Interface();
+        final Operation createOp = new Operation();
+        createOp.setImplementationArtifact(new ImplementationArtifact("docker-img"));
+        standardInt.setOperations(Maps.newHashMap());
+        standardInt.getOperations().put("create", createOp);
+        template.getInterfaces().put("tosca.interfaces.node.lifecycle.Standard", standardInt);
+        return template;
+    }
+
+    private PaaSTopologyDeploymentContext preparePaaSContext(List<PaaSNodeTemplate> nonNatives) {
+        PaaSTopologyDeploymentContext context = new PaaSTopologyDeploymentContext();
+        Deployment deployment = new Deployment();
+        deployment.setOrchestratorDeploymentId("test-marathon-deployment");
+        deployment.setId("mock-alien-deployment-id");
+        context.setDeployment(deployment);
+
+        PaaSTopology paaSTopology = new PaaSTopology();
+        paaSTopology.setNonNatives(nonNatives);
+        Map<String, PaaSNodeTemplate> allNodes = Maps.newHashMap();
+        nonNatives.forEach(paaSNodeTemplate -> allNodes.put(paaSNodeTemplate.getId(), paaSNodeTemplate));
+        paaSTopology.setAllNodes(allNodes);
+        context.setPaaSTopology(paaSTopology);
+        return context;
+    }
+}
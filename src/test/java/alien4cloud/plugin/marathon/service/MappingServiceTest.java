@@ -0,0 +1,129 @@
+package alien4cloud.plugin.marathon.service;
+
+import static alien4cloud.plugin.marathon.service.DeploymentFixtures.deploymentContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.plugin.marathon.service.model.mapping.AppMapping;
+
+public class MappingServiceTest {
+
+    private MappingService mappingService;
+
+    @Before
+    public void setUp() {
+        mappingService = new MappingService();
+        mappingService.registerGroupMapping("my-group", "alien-deployment-id");
+        mappingService.registerAppMapping("my-group", "my-app", "My-App");
+    }
+
+    @Test
+    public void resolveMappedApp() {
+        assertEquals(new AppMapping("alien-deployment-id", "My-App"), mappingService.resolveApp("/my-group/my-app"));
+    }
+
+    @Test
+    public void resolveUnmappedAppOfKnownGroup() {
+        assertEquals(new AppMapping("alien-deployment-id", "UNKNOWN_NODE"), mappingService.resolveApp("/my-group/nested/app"));
+        assertEquals(new AppMapping("alien-deployment-id", "UNKNOWN_NODE"), mappingService.resolveApp("/my-group/other-app"));
+    }
+
+    @Test
+    public void resolveForeignApps() {
+        assertEquals(AppMapping.UNKNOWN, mappingService.resolveApp("/other-group/my-app"));
+        assertEquals(AppMapping.UNKNOWN, mappingService.resolveApp("/top-level-app"));
+        assertEquals(AppMapping.UNKNOWN, mappingService.resolveApp("/"));
+        assertEquals(AppMapping.UNKNOWN, mappingService.resolveApp(""));
+        assertEquals(AppMapping.UNKNOWN, mappingService.resolveApp(null));
+    }
+
+    @Test
+    public void redeployedGroupForgetsPreviousApps() {
+        mappingService.registerGroupMapping("my-group", "new-alien-deployment-id");
+        mappingService.registerAppMapping("my-group", "new-app", "New-App");
+
+        assertEquals(new AppMapping("new-alien-deployment-id", "New-App"), mappingService.resolveApp("/my-group/new-app"));
+        assertEquals(new AppMapping("new-alien-deployment-id", "UNKNOWN_NODE"), mappingService.resolveApp("/my-group/my-app"));
+    }
+
+    @Test
+    public void removeGroupMappingsOfUndeployedDeployment() {
+        mappingService.registerGroupMapping("other-group", "other-alien-deployment-id");
+        mappingService.removeGroupMappings("alien-deployment-id");
+
+        assertEquals(AppMapping.UNKNOWN, mappingService.resolveApp("/my-group/my-app"));
+        assertEquals(1, mappingService.getGroupMappingCount());
+        assertEquals(0, mappingService.getAppMappingCount());
+    }
+
+    @Test
+    public void expiredDeploymentIds() throws InterruptedException {
+        Arrays.asList("alien-id", "alien-id-1", "alien-id-2").forEach(alienId -> mappingService.claimDeployment("test-orchestrator", alienId));
+        mappingService.claimDeployment("other-orchestrator", "other-alien-id");
+        mappingService.registerDeploymentInfo("old-id", "alien-id", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        mappingService.registerBatchDeploymentInfo("old-batch-id", Arrays.asList("alien-id-1", "alien-id-2"), DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        mappingService.registerDeploymentInfo("other-id", "other-alien-id", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        Thread.sleep(5);
+        final long registeredBefore = System.currentTimeMillis();
+        Thread.sleep(5);
+        mappingService.registerDeploymentInfo("new-id", "alien-id", DeploymentStatus.UNDEPLOYMENT_IN_PROGRESS);
+
+        assertEquals(3, mappingService.getDeploymentMappingCount("test-orchestrator"));
+        assertEquals(2, mappingService.getExpiredDeploymentIds("test-orchestrator", registeredBefore, Integer.MAX_VALUE).size());
+        assertEquals(Collections.emptyList(), mappingService.getExpiredDeploymentIds("test-orchestrator", Long.MIN_VALUE, 3));
+        // Beyond the maximum count, the oldest ones are expired
+        assertEquals(2, mappingService.getExpiredDeploymentIds("test-orchestrator", Long.MIN_VALUE, 1).size());
+        assertFalse(mappingService.getExpiredDeploymentIds("test-orchestrator", Long.MIN_VALUE, 1).contains("new-id"));
+        // The deployments of other orchestrators are left to them
+        assertEquals(Collections.singletonList("other-id"), mappingService.getExpiredDeploymentIds("other-orchestrator", registeredBefore, 0));
+    }
+
+    @Test
+    public void expiredGroupIdsOfAnOrchestrator() {
+        mappingService.claimDeployment("test-orchestrator", "alien-deployment-1");
+        mappingService.claimDeployment("other-orchestrator", "alien-deployment-2");
+        mappingService.registerGroupMapping("group-1", "alien-deployment-1");
+        mappingService.registerGroupMapping("group-2", "alien-deployment-2");
+
+        assertEquals(Collections.singletonList("group-1"), mappingService.getExpiredGroupIds("test-orchestrator", Long.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals(1, mappingService.getGroupMappingCount("other-orchestrator"));
+    }
+
+    @Test
+    public void initResolvesAppsLazily() {
+        final boolean[] initialized = { false };
+        final boolean[] otherInitialized = { false };
+        mappingService.whenInitialized("test-orchestrator", () -> initialized[0] = true);
+        mappingService.whenInitialized("other-orchestrator", () -> otherInitialized[0] = true);
+        mappingService.init("test-orchestrator",
+                Lists.newArrayList(deploymentContext("alien-deployment-1", "Group-1", 2), deploymentContext("alien-deployment-2", "Group-2", 2)));
+        assertTrue(initialized[0]);
+        assertFalse("Each orchestrator waits for its own initialization", otherInitialized[0]);
+
+        // Resolved on lookup if not yet in the background
+        assertEquals(new AppMapping("alien-deployment-1", "App-0"), mappingService.resolveApp("/group-1/app-0"));
+        mappingService.awaitResolutions();
+        assertEquals(0, mappingService.getUnresolvedGroupCount());
+        assertEquals(new AppMapping("alien-deployment-2", "App-1"), mappingService.resolveApp("/group-2/app-1"));
+        assertEquals(2, mappingService.getMarathonAppMapping("group-2").get().getAppIdToNodeTemplateIdMap().size());
+    }
+
+    @Test
+    public void redeployedGroupIsNotResolvedWithPreviousApps() {
+        mappingService.init("test-orchestrator", Lists.newArrayList(deploymentContext("alien-deployment-1", "Group-1", 2)));
+        mappingService.registerGroupMapping("group-1", "new-alien-deployment-id");
+        mappingService.awaitResolutions();
+
+        assertEquals(new AppMapping("new-alien-deployment-id", "UNKNOWN_NODE"), mappingService.resolveApp("/group-1/app-0"));
+    }
+}
@@ -0,0 +1,131 @@
+package alien4cloud.plugin.marathon.service.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.mapping.AlienDeploymentMapping;
+
+public class MappingJournalTest {
+
+    private static final String ORCHESTRATOR_ID = "test-orchestrator";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void inFlightDeploymentsSurviveRestart() throws IOException {
+        final Path directory = temporaryFolder.getRoot().toPath();
+
+        MappingService beforeRestart = new MappingService();
+        beforeRestart.openJournal(ORCHESTRATOR_ID, directory, 1000);
+        for (int i = 1; i <= 4; i++) {
+            beforeRestart.claimDeployment(ORCHESTRATOR_ID, "alien-deployment-" + i);
+        }
+        beforeRestart.registerDeploymentInfo("marathon-deployment-1", "alien-deployment-1", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        beforeRestart.registerDeploymentInfo("marathon-deployment-2", "alien-deployment-2", DeploymentStatus.UNDEPLOYMENT_IN_PROGRESS);
+        beforeRestart.registerBatchDeploymentInfo("marathon-batch", Lists.newArrayList("alien-deployment-3", "alien-deployment-4"),
+                DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        beforeRestart.removeAlienDeploymentInfo("marathon-deployment-2");
+        beforeRestart.closeJournal(ORCHESTRATOR_ID);
+
+        MappingService afterRestart = new MappingService();
+        afterRestart.openJournal(ORCHESTRATOR_ID, directory, 1000);
+        AlienDeploymentMapping mapping = afterRestart.getAlienDeploymentInfo("marathon-deployment-1").get();
+        assertEquals("alien-deployment-1", mapping.getAlienDeploymentId());
+        assertEquals(DeploymentStatus.DEPLOYMENT_IN_PROGRESS, mapping.getStatus());
+        assertFalse(afterRestart.getAlienDeploymentInfo("marathon-deployment-2").isPresent());
+        assertTrue(afterRestart.isBatchDeployment("marathon-batch"));
+        assertEquals(2, afterRestart.getAlienDeploymentInfos("marathon-batch").size());
+        afterRestart.closeJournal(ORCHESTRATOR_ID);
+    }
+
+    @Test
+    public void snapshotReplacesJournal() throws IOException {
+        final Path directory = temporaryFolder.getRoot().toPath();
+
+        MappingService beforeRestart = new MappingService();
+        beforeRestart.openJournal(ORCHESTRATOR_ID, directory, 10);
+        for (int i = 0; i < 25; i++) {
+            beforeRestart.claimDeployment(ORCHESTRATOR_ID, "alien-deployment-" + i);
+            beforeRestart.registerDeploymentInfo("marathon-deployment-" + i, "alien-deployment-" + i, DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+            if (i % 2 == 0)
+                beforeRestart.removeAlienDeploymentInfo("marathon-deployment-" + i);
+        }
+        beforeRestart.closeJournal(ORCHESTRATOR_ID);
+        assertTrue(Files.exists(directory.resolve(MappingJournal.SNAPSHOT_FILE)));
+
+        MappingService afterRestart = new MappingService();
+        afterRestart.openJournal(ORCHESTRATOR_ID, directory, 10);
+        for (int i = 0; i < 25; i++) {
+            assertEquals(i % 2 != 0, afterRestart.getAlienDeploymentInfo("marathon-deployment-" + i).isPresent());
+        }
+        afterRestart.closeJournal(ORCHESTRATOR_ID);
+    }
+
+    @Test
+    public void incompleteRecordIsIgnored() throws IOException {
+        final Path directory = temporaryFolder.getRoot().toPath();
+
+        MappingService beforeCrash = new MappingService();
+        beforeCrash.openJournal(ORCHESTRATOR_ID, directory, 1000);
+        beforeCrash.claimDeployment(ORCHESTRATOR_ID, "alien-deployment-1");
+        beforeCrash.registerDeploymentInfo("marathon-deployment-1", "alien-deployment-1", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        beforeCrash.closeJournal(ORCHESTRATOR_ID);
+        // A record being written when the process died
+        Files.write(directory.resolve(MappingJournal.JOURNAL_FILE), new byte[] { 0, 0, 0, 42, 1, 2 }, StandardOpenOption.APPEND);
+
+        MappingService afterCrash = new MappingService();
+        afterCrash.openJournal(ORCHESTRATOR_ID, directory, 1000);
+        assertTrue(afterCrash.getAlienDeploymentInfo("marathon-deployment-1").isPresent());
+        // The journal is still usable
+        afterCrash.claimDeployment(ORCHESTRATOR_ID, "alien-deployment-2");
+        afterCrash.registerDeploymentInfo("marathon-deployment-2", "alien-deployment-2", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        afterCrash.closeJournal(ORCHESTRATOR_ID);
+
+        MappingService afterRestart = new MappingService();
+        afterRestart.openJournal(ORCHESTRATOR_ID, directory, 1000);
+        assertTrue(afterRestart.getAlienDeploymentInfo("marathon-deployment-2").isPresent());
+        afterRestart.closeJournal(ORCHESTRATOR_ID);
+    }
+
+    @Test
+    public void eachOrchestratorJournalsItsOwnDeployments() throws IOException {
+        final Path directory = temporaryFolder.getRoot().toPath();
+
+        MappingService beforeRestart = new MappingService();
+        beforeRestart.openJournal("orchestrator-1", directory.resolve("orchestrator-1"), 1000);
+        beforeRestart.openJournal("orchestrator-2", directory.resolve("orchestrator-2"), 1000);
+        beforeRestart.claimDeployment("orchestrator-1", "alien-deployment-1");
+        beforeRestart.claimDeployment("orchestrator-2", "alien-deployment-2");
+        beforeRestart.registerDeploymentInfo("marathon-deployment-1", "alien-deployment-1", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        // Closing a journal does not stop the other one
+        beforeRestart.closeJournal("orchestrator-1");
+        beforeRestart.registerDeploymentInfo("marathon-deployment-2", "alien-deployment-2", DeploymentStatus.DEPLOYMENT_IN_PROGRESS);
+        beforeRestart.closeJournal("orchestrator-2");
+
+        MappingService afterRestart = new MappingService();
+        afterRestart.openJournal("orchestrator-2", directory.resolve("orchestrator-2"), 1000);
+        assertFalse(afterRestart.getAlienDeploymentInfo("marathon-deployment-1").isPresent());
+        assertEquals("orchestrator-2", afterRestart.getAlienDeploymentInfo("marathon-deployment-2").get().getOrchestratorId());
+        assertEquals(Collections.singleton("marathon-deployment-2"), afterRestart.getTrackedDeploymentIds("orchestrator-2"));
+        afterRestart.openJournal("orchestrator-1", directory.resolve("orchestrator-1"), 1000);
+        assertEquals("orchestrator-1", afterRestart.getAlienDeploymentInfo("marathon-deployment-1").get().getOrchestratorId());
+        afterRestart.closeJournal("orchestrator-1");
+        afterRestart.closeJournal("orchestrator-2");
+    }
+}
@@ -1,16 +1,21 @@
 package alien4cloud.plugin.marathon.service.model.events.converters;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
+import java.util.List;
 import java.util.Optional;
 
 import alien4cloud.plugin.marathon.service.model.events.deployments.AbstractDeploymentEvent;
+import com.google.common.collect.Lists;
 import org.junit.Before;
 import org.junit.Test;
 
 import alien4cloud.paas.model.DeploymentStatus;
 import alien4cloud.paas.model.PaaSDeploymentStatusMonitorEvent;
+import alien4cloud.plugin.marathon.metrics.DeploymentTrace;
 import alien4cloud.plugin.marathon.service.MappingService;
 import alien4cloud.plugin.marathon.service.model.events.deployments.DeploymentFailedEvent;
 import alien4cloud.plugin.marathon.service.model.events.deployments.DeploymentInfoEvent;
@@ -107,6 +112,7 @@ public class DeploymentEventConverterTest {
     public void setUp() {
         mockMappingService = mock(MappingService.class);
         eventConverter = new DeploymentEventConverter(mockMappingService);
+        when(mockMappingService.getDeploymentTrace(any())).thenReturn(Optional.empty());
     }
 
 
@@ -162,6 +168,71 @@ public class DeploymentEventConverterTest {
         assertEquals("mock-alien-id", undeployedEvent.getDeploymentId());
         verify(mockMappingService).getAlienDeploymentInfo("867ed450-f6a8-4d33-9b0e-e11c5513990b");
         verify(mockMappingService).removeAlienDeploymentInfo("867ed450-f6a8-4d33-9b0e-e11c5513990b");
+        verify(mockMappingService).removeGroupMappings("mock-alien-id");
+    }
+
+    @Test
+    public void fromDeploymentSuccessEventWhilePodsDeploy() throws Exception {
+        DeploymentSuccessEvent event = ModelUtils.GSON.fromJson(deploymentSuccessEvent, DeploymentSuccessEvent.class);
+
+        when(mockMappingService.getAlienDeploymentInfo("867ed450-f6a8-4d33-9b0e-e11c5513990b"))
+                .thenReturn(Optional.of(new AlienDeploymentMapping("mock-alien-id", DeploymentStatus.DEPLOYMENT_IN_PROGRESS)));
+        when(mockMappingService.hasOtherRunningDeployments("mock-alien-id", "867ed450-f6a8-4d33-9b0e-e11c5513990b")).thenReturn(true);
+
+        final PaaSDeploymentStatusMonitorEvent monitorEvent = eventConverter.fromDeploymentSuccessEvent(event);
+        assertEquals("The deployment of a pod of the group is still running", DeploymentStatus.DEPLOYMENT_IN_PROGRESS, monitorEvent.getDeploymentStatus());
+        verify(mockMappingService).removeAlienDeploymentInfo("867ed450-f6a8-4d33-9b0e-e11c5513990b");
+    }
+
+    @Test
+    public void fromDeploymentSuccessEventAfterAPodFailed() throws Exception {
+        DeploymentSuccessEvent event = ModelUtils.GSON.fromJson(deploymentSuccessEvent, DeploymentSuccessEvent.class);
+
+        when(mockMappingService.getAlienDeploymentInfo("867ed450-f6a8-4d33-9b0e-e11c5513990b"))
+                .thenReturn(Optional.of(new AlienDeploymentMapping("mock-alien-id", DeploymentStatus.DEPLOYMENT_IN_PROGRESS)));
+        when(mockMappingService.removeFailedDeploymentInfos("mock-alien-id")).thenReturn(true);
+
+        final PaaSDeploymentStatusMonitorEvent monitorEvent = eventConverter.fromDeploymentSuccessEvent(event);
+        assertEquals("A pod of the group could not be created", DeploymentStatus.FAILURE, monitorEvent.getDeploymentStatus());
+    }
+
+    @Test
+    public void fromDeploymentSuccessEventClosesTrace() throws Exception {
+        DeploymentSuccessEvent event = ModelUtils.GSON.fromJson(deploymentSuccessEvent, DeploymentSuccessEvent.class);
+        final DeploymentTrace trace = new DeploymentTrace("mock-alien-id");
+        trace.endPhase(DeploymentTrace.QUEUE);
+        trace.endPhase(DeploymentTrace.SUBMIT);
+
+        when(mockMappingService.getAlienDeploymentInfo("867ed450-f6a8-4d33-9b0e-e11c5513990b"))
+                .thenReturn(Optional.of(new AlienDeploymentMapping("mock-alien-id", DeploymentStatus.DEPLOYMENT_IN_PROGRESS)));
+        when(mockMappingService.getDeploymentTrace("mock-alien-id")).thenReturn(Optional.of(trace));
+        when(mockMappingService.hasOtherRunningDeployments("mock-alien-id", "867ed450-f6a8-4d33-9b0e-e11c5513990b")).thenReturn(true);
+
+        eventConverter.fromDeploymentSuccessEvent(event);
+        assertFalse("The trace is open while a pod of the group deploys", trace.getDurations().isPresent());
+
+        when(mockMappingService.hasOtherRunningDeployments("mock-alien-id", "867ed450-f6a8-4d33-9b0e-e11c5513990b")).thenReturn(false);
+        eventConverter.fromDeploymentSuccessEvent(event);
+        assertTrue("The trace is closed once deployed", trace.getDurations().isPresent());
+        assertEquals(Lists.newArrayList(DeploymentTrace.QUEUE, DeploymentTrace.SUBMIT, DeploymentTrace.LAUNCH, DeploymentTrace.TOTAL),
+                Lists.newArrayList(trace.getDurations().get().keySet()));
+    }
+
+    @Test
+    public void fromBatchDeploymentSuccessEvent() throws Exception {
+        DeploymentSuccessEvent event = ModelUtils.GSON.fromJson(deploymentSuccessEvent, DeploymentSuccessEvent.class);
+
+        when(mockMappingService.getAlienDeploymentInfos("867ed450-f6a8-4d33-9b0e-e11c5513990b"))
+                .thenReturn(Lists.newArrayList(new AlienDeploymentMapping("mock-alien-id-1", DeploymentStatus.DEPLOYMENT_IN_PROGRESS),
+                        new AlienDeploymentMapping("mock-alien-id-2", DeploymentStatus.DEPLOYMENT_IN_PROGRESS)));
+
+        final List<PaaSDeploymentStatusMonitorEvent> deployedEvents = eventConverter.fromBatchDeploymentEvent(event);
+        assertEquals("One event per Alien deployment of the batch", 2, deployedEvents.size());
+        assertEquals("mock-alien-id-1", deployedEvents.get(0).getDeploymentId());
+        assertEquals(DeploymentStatus.DEPLOYED, deployedEvents.get(0).getDeploymentStatus());
+        assertEquals("mock-alien-id-2", deployedEvents.get(1).getDeploymentId());
+        assertEquals(DeploymentStatus.DEPLOYED, deployedEvents.get(1).getDeploymentStatus());
+        verify(mockMappingService).removeAlienDeploymentInfo("867ed450-f6a8-4d33-9b0e-e11c5513990b");
     }
 
     @Test
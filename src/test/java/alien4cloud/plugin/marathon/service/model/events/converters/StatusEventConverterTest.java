@@ -14,7 +14,7 @@ import alien4cloud.paas.model.PaaSInstanceStateMonitorEvent;
 import alien4cloud.plugin.marathon.service.MappingService;
 import alien4cloud.plugin.marathon.service.model.events.status.HealthStatusChangedEvent;
 import alien4cloud.plugin.marathon.service.model.events.status.StatusUpdateEvent;
-import alien4cloud.plugin.marathon.service.model.mapping.MarathonAppsMapping;
+import alien4cloud.plugin.marathon.service.model.mapping.AppMapping;
 import mesosphere.marathon.client.utils.ModelUtils;
 
 /**
@@ -24,15 +24,13 @@ public class StatusEventConverterTest {
 
     private StatusEventConverter eventConverter;
     private MappingService mockMappingService;
-    private MarathonAppsMapping mockAppMapping;
 
     @Before
     public void setUp() throws Exception {
         mockMappingService = mock(MappingService.class);
         eventConverter = new StatusEventConverter(mockMappingService);
-        mockAppMapping = new MarathonAppsMapping("alien-deployment-id");
-        mockAppMapping.addAppToNodeTemplateMapping("my-app", "my-node-template");
-        when(mockMappingService.getMarathonAppMapping("my-group")).thenReturn(Optional.of(mockAppMapping));
+        when(mockMappingService.resolveApp("/my-group/my-app")).thenReturn(new AppMapping("alien-deployment-id", "my-node-template"));
+        when(mockMappingService.getDeploymentTrace(any())).thenReturn(Optional.empty());
     }
 
     private final String statusUpdateEventRunning = "{\n"+
@@ -97,7 +95,7 @@ public class StatusEventConverterTest {
         PaaSInstanceStateMonitorEvent monitorEvent = eventConverter.fromStatusUpdateEvent(event);
         assertEquals(InstanceStatus.SUCCESS, monitorEvent.getInstanceStatus());
         assertEquals("started", monitorEvent.getInstanceState());
-        verify(mockMappingService).getMarathonAppMapping("my-group");
+        verify(mockMappingService).resolveApp("/my-group/my-app");
     }
 
     @Test
@@ -107,7 +105,7 @@ public class StatusEventConverterTest {
         PaaSInstanceStateMonitorEvent monitorEvent = eventConverter.fromStatusUpdateEvent(event);
         assertEquals(InstanceStatus.PROCESSING, monitorEvent.getInstanceStatus());
         assertEquals("creating", monitorEvent.getInstanceState());
-        verify(mockMappingService).getMarathonAppMapping("my-group");
+        verify(mockMappingService).resolveApp("/my-group/my-app");
     }
 
     @Test
@@ -117,7 +115,21 @@ public class StatusEventConverterTest {
         PaaSInstanceStateMonitorEvent monitorEvent = eventConverter.fromStatusUpdateEvent(event);
         assertEquals(InstanceStatus.FAILURE, monitorEvent.getInstanceStatus());
         assertEquals("stopped", monitorEvent.getInstanceState());
-        verify(mockMappingService).getMarathonAppMapping("my-group");
+        verify(mockMappingService).resolveApp("/my-group/my-app");
+    }
+
+    @Test
+    public void fromPodStatusUpdateEvent() throws Exception {
+        StatusUpdateEvent event = ModelUtils.GSON.fromJson(statusUpdateEventRunning
+                .replace("my-app_0-1396592784349", "my-group_my-pod.instance-2f3c5e1a-9a1b-11e7-8b5f-70b3d5800001.my-container")
+                .replace("/my-group/my-app", "/my-group/my-pod"), StatusUpdateEvent.class);
+        when(mockMappingService.resolveApp("/my-group/my-pod")).thenReturn(new AppMapping("alien-deployment-id", AppMapping.UNKNOWN.getNodeTemplateId()));
+        when(mockMappingService.resolveApp("/my-group/my-pod.my-container")).thenReturn(new AppMapping("alien-deployment-id", "my-container-node"));
+
+        PaaSInstanceStateMonitorEvent monitorEvent = eventConverter.fromStatusUpdateEvent(event);
+        assertEquals("The container of the pod instance is mapped to its node", "my-container-node", monitorEvent.getNodeTemplateId());
+        assertEquals("alien-deployment-id", monitorEvent.getDeploymentId());
+        assertEquals(InstanceStatus.SUCCESS, monitorEvent.getInstanceStatus());
     }
 
     @Test
@@ -133,7 +145,7 @@ public class StatusEventConverterTest {
         PaaSInstanceStateMonitorEvent monitorEventDown = eventConverter.fromHealthStatusChangedEvent(eventDown);
         assertEquals(InstanceStatus.FAILURE, monitorEventDown.getInstanceStatus());
 
-        verify(mockMappingService, times(2)).getMarathonAppMapping("my-group");
+        verify(mockMappingService, times(2)).resolveApp("/my-group/my-app");
     }
 
     @Test
@@ -145,7 +157,7 @@ public class StatusEventConverterTest {
         assertEquals("my-node-template", monitorEvent.getNodeTemplateId());
         assertEquals("alien-deployment-id", monitorEvent.getDeploymentId());
         assertEquals(1393716570158L, monitorEvent.getDate()); // 01/03/2014 - 23:29:30+158 GMT
-        verify(mockMappingService).getMarathonAppMapping("my-group");
+        verify(mockMappingService).resolveApp("/my-group/my-app");
     }
 
 }
\ No newline at end of file
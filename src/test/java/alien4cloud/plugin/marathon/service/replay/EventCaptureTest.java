@@ -0,0 +1,94 @@
+package alien4cloud.plugin.marathon.service.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import alien4cloud.plugin.marathon.service.EventService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.events.converters.DeploymentEventConverter;
+import alien4cloud.plugin.marathon.service.model.events.converters.StatusEventConverter;
+import alien4cloud.plugin.marathon.service.replay.EventCapture.CapturedEvent;
+
+public class EventCaptureTest {
+
+    private static final String STATUS_UPDATE_EVENT = "{\"eventType\":\"status_update_event\",\"timestamp\":\"2017-03-01T23:29:30.158Z\","
+            + "\"slaveId\":\"agent-0\",\"taskId\":\"group-0_app-0.e3c2ba2c\",\"taskStatus\":\"TASK_RUNNING\",\"appId\":\"/group-0/app-0\","
+            + "\"host\":\"agent-0\",\"ports\":[31000],\"version\":\"2017-03-01T23:29:29.158Z\"}";
+
+    private static final String DEPLOYMENT_SUCCESS_EVENT = "{\"eventType\":\"deployment_success\",\"timestamp\":\"2017-03-01T23:29:30.158Z\","
+            + "\"id\":\"marathon-deployment-0\"}";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void capturedEventsAreReadInOrder() throws IOException {
+        final Path file;
+        try (EventCapture capture = EventCapture.create(temporaryFolder.getRoot().toPath())) {
+            file = capture.getFile();
+            capture.record("status_update_event", STATUS_UPDATE_EVENT);
+            capture.record("framework_message_event", "{\"message\":\"événement\"}");
+            capture.record("deployment_success", DEPLOYMENT_SUCCESS_EVENT);
+        }
+
+        final List<CapturedEvent> events = EventCapture.read(file);
+        assertEquals(3, events.size());
+        assertEquals("status_update_event", events.get(0).getType());
+        assertEquals(STATUS_UPDATE_EVENT, events.get(0).getData());
+        assertEquals("Unknown types are captured by name", "framework_message_event", events.get(1).getType());
+        assertEquals("{\"message\":\"événement\"}", events.get(1).getData());
+        assertEquals(DEPLOYMENT_SUCCESS_EVENT, events.get(2).getData());
+        assertTrue(events.get(0).getTimeMicros() <= events.get(1).getTimeMicros() && events.get(1).getTimeMicros() <= events.get(2).getTimeMicros());
+    }
+
+    @Test
+    public void truncatedLastEventIsIgnored() throws IOException {
+        final Path file;
+        try (EventCapture capture = EventCapture.create(temporaryFolder.getRoot().toPath())) {
+            file = capture.getFile();
+            capture.record("status_update_event", STATUS_UPDATE_EVENT);
+            capture.record("deployment_success", DEPLOYMENT_SUCCESS_EVENT);
+        }
+        final byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+
+        final List<CapturedEvent> events = EventCapture.read(file);
+        assertEquals(1, events.size());
+        assertEquals(STATUS_UPDATE_EVENT, events.get(0).getData());
+    }
+
+    @Test
+    public void eventStreamIsCapturedAndReplayed() throws IOException, InterruptedException {
+        final MappingService mappingService = new MappingService();
+        mappingService.init("test-orchestrator", Collections.emptyList());
+        final EventService eventService = new EventService(mappingService, new DeploymentEventConverter(mappingService),
+                new StatusEventConverter(mappingService), new MetricsRegistry());
+        eventService.convertOnceMapped("test-orchestrator");
+        eventService.startCapture("test-orchestrator", temporaryFolder.getRoot().toPath());
+        for (int i = 0; i < 100; i++)
+            eventService.onEvent("test-orchestrator", "status_update_event", STATUS_UPDATE_EVENT);
+        eventService.onEvent("test-orchestrator", "deployment_success", DEPLOYMENT_SUCCESS_EVENT);
+        eventService.stopCapture("test-orchestrator");
+        final int liveMonitorEvents = eventService.flushEvents("test-orchestrator").length;
+
+        final List<CapturedEvent> events = EventCapture.read(temporaryFolder.getRoot().listFiles()[0].toPath());
+        assertEquals(101, events.size());
+        final EventReplayer.Report report = new EventReplayer(new MappingService()).replay(events, 0);
+        assertEquals(101, report.getEvents());
+        assertEquals("The replay converts the events as they were live", liveMonitorEvents, report.getMonitorEvents());
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.percentile(0.5) <= report.percentile(1));
+    }
+}
@@ -0,0 +1,584 @@
+package alien4cloud.plugin.marathon.simulator;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-process stand-in for Marathon, to load test the plugin without a Mesos cluster.
+ *
+ * It implements the REST endpoints used by the plugin (<code>/v2/groups</code>, <code>/v2/apps</code>, <code>/v2/apps/{id}/tasks</code>,
+ * <code>/v2/deployments</code>, <code>/v2/leader</code>) and the <code>/v2/events</code> SSE stream. Deployments complete after a configurable
+ * duration, launching or killing the tasks of their apps on a simulated cluster of agents. Response latency, REST errors, deployment failures and
+ * background event rates are configurable.
+ */
+@Slf4j
+public class MarathonSimulator {
+
+    /**
+     * Date format of Marathon's events and versions.
+     */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    private int agents = 10;
+    private long minLatencyMs = 0;
+    private long maxLatencyMs = 0;
+    private double errorRate = 0;
+    private double deploymentFailureRate = 0;
+    private long deploymentDurationMs = 100;
+    private double backgroundEventsPerSecond = 0;
+
+    private HttpServer server;
+    private ExecutorService requestExecutor;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Groups by id without leading slash, guarded by the simulator.
+     */
+    private final Map<String, SimulatedGroup> groups = Maps.newLinkedHashMap();
+
+    /**
+     * Running deployments by id, guarded by the simulator.
+     */
+    private final Map<String, SimulatedDeployment> deployments = Maps.newLinkedHashMap();
+
+    private final List<OutputStream> eventSubscribers = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger nextHostPort = new AtomicInteger(31000);
+
+    @Getter
+    private final AtomicLong requestCount = new AtomicLong();
+
+    @Getter
+    private final AtomicLong eventCount = new AtomicLong();
+
+    /**
+     * @param agents number of agents tasks are spread over
+     * @return this simulator
+     */
+    public MarathonSimulator agents(int agents) {
+        this.agents = agents;
+        return this;
+    }
+
+    /**
+     * @param minLatencyMs minimum delay before a REST call is answered
+     * @param maxLatencyMs maximum delay before a REST call is answered
+     * @return this simulator
+     */
+    public MarathonSimulator latency(long minLatencyMs, long maxLatencyMs) {
+        this.minLatencyMs = minLatencyMs;
+        this.maxLatencyMs = maxLatencyMs;
+        return this;
+    }
+
+    /**
+     * @param errorRate ratio of REST calls answered with a 503 error
+     * @return this simulator
+     */
+    public MarathonSimulator errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param deploymentFailureRate ratio of deployments which fail
+     * @return this simulator
+     */
+    public MarathonSimulator deploymentFailureRate(double deploymentFailureRate) {
+        this.deploymentFailureRate = deploymentFailureRate;
+        return this;
+    }
+
+    /**
+     * @param deploymentDurationMs delay after which deployments complete
+     * @return this simulator
+     */
+    public MarathonSimulator deploymentDuration(long deploymentDurationMs) {
+        this.deploymentDurationMs = deploymentDurationMs;
+        return this;
+    }
+
+    /**
+     * @param backgroundEventsPerSecond rate of the status and health events emitted for running tasks, on top of the deployments' events
+     * @return this simulator
+     */
+    public MarathonSimulator backgroundEvents(double backgroundEventsPerSecond) {
+        this.backgroundEventsPerSecond = backgroundEventsPerSecond;
+        return this;
+    }
+
+    /**
+     * Start listening on a free local port.
+     *
+     * @return the Marathon URL of the simulator
+     * @throws IOException if the server cannot be started
+     */
+    public String start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        requestExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("marathon-simulator-%d").setDaemon(true).build());
+        scheduler = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder().setNameFormat("marathon-simulator-scheduler-%d").setDaemon(true).build());
+        server.setExecutor(requestExecutor);
+        server.createContext("/v2/events", this::subscribe);
+        server.createContext("/v2/", exchange -> {
+            try {
+                handle(exchange);
+            } catch (RuntimeException e) {
+                log.error("Simulator failure on " + exchange.getRequestURI(), e);
+                respond(exchange, 500, message("Internal error: " + e.getMessage()));
+            }
+        });
+        server.start();
+        if (backgroundEventsPerSecond > 0)
+            scheduler.scheduleAtFixedRate(this::emitBackgroundEvent, 0, (long) (TimeUnit.SECONDS.toMicros(1) / backgroundEventsPerSecond),
+                    TimeUnit.MICROSECONDS);
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public void stop() {
+        eventSubscribers.forEach(subscriber -> {
+            try {
+                subscriber.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        });
+        server.stop(0);
+        scheduler.shutdownNow();
+        requestExecutor.shutdownNow();
+    }
+
+    public synchronized Set<String> getGroupIds() {
+        return Sets.newHashSet(groups.keySet());
+    }
+
+    public synchronized int getRunningDeploymentCount() {
+        return deployments.size();
+    }
+
+    public synchronized int getTaskCount() {
+        return groups.values().stream().flatMap(group -> group.apps.values().stream()).mapToInt(app -> app.tasks.size()).sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        if (maxLatencyMs > 0)
+            sleep(ThreadLocalRandom.current().nextLong(minLatencyMs, maxLatencyMs + 1));
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            respond(exchange, 503, message("Injected error"));
+            return;
+        }
+
+        final URI uri = exchange.getRequestURI();
+        final String path = uri.getPath().replaceFirst("^/v2/", "").replaceAll("/+$", "");
+        final String method = exchange.getRequestMethod();
+        if (path.equals("leader")) {
+            final JsonObject leader = new JsonObject();
+            leader.addProperty("leader", "localhost:" + server.getAddress().getPort());
+            respond(exchange, 200, leader);
+        } else if (path.equals("groups") && method.equals("POST")) {
+            respond(exchange, 201, deploy(Lists.newArrayList(readBody(exchange)), false));
+        } else if (path.equals("groups") && method.equals("PUT")) {
+            final JsonObject rootUpdate = readBody(exchange);
+            final List<JsonObject> groupDefinitions = Lists.newArrayList();
+            Optional.ofNullable(rootUpdate.getAsJsonArray("groups")).ifPresent(array -> array.forEach(group -> groupDefinitions.add(group.getAsJsonObject())));
+            respond(exchange, 200, deploy(groupDefinitions, true));
+        } else if (path.equals("groups") && method.equals("GET")) {
+            respond(exchange, 200, rootGroup());
+        } else if (path.startsWith("groups/") && method.equals("GET")) {
+            final JsonObject group = group(path.substring("groups/".length()));
+            respond(exchange, group == null ? 404 : 200, group == null ? message("Group not found") : group);
+        } else if (path.startsWith("groups/") && method.equals("DELETE")) {
+            final JsonObject result = deleteGroup(path.substring("groups/".length()));
+            respond(exchange, result == null ? 404 : 200, result == null ? message("Group not found") : result);
+        } else if (path.startsWith("apps/") && path.endsWith("/tasks") && method.equals("GET")) {
+            final JsonObject tasks = appTasks("/" + path.substring("apps/".length(), path.length() - "/tasks".length()));
+            respond(exchange, tasks == null ? 404 : 200, tasks == null ? message("App not found") : tasks);
+        } else if (path.startsWith("apps/") && method.equals("GET")) {
+            final JsonObject app = app("/" + path.substring("apps/".length()));
+            respond(exchange, app == null ? 404 : 200, app == null ? message("App not found") : app);
+        } else if (path.startsWith("apps/") && method.equals("PUT")) {
+            final JsonObject result = scaleApp("/" + path.substring("apps/".length()), readBody(exchange));
+            respond(exchange, result == null ? 404 : 200, result == null ? message("App not found") : result);
+        } else if (path.equals("deployments") && method.equals("GET")) {
+            respond(exchange, 200, runningDeployments());
+        } else if (path.startsWith("deployments/") && method.equals("DELETE")) {
+            final boolean cancelled = cancelDeployment(path.substring("deployments/".length()));
+            respond(exchange, cancelled ? 200 : 404, cancelled ? new JsonObject() : message("Deployment not found"));
+        } else {
+            respond(exchange, 404, message("Not simulated: " + method + " " + uri));
+        }
+    }
+
+    /**
+     * Deploy groups as a single deployment.
+     *
+     * @param groupDefinitions the definitions of the groups
+     * @param rootUpdate if true, the definitions replace the whole root group: listed groups without apps are left untouched, others are removed
+     * @return the result of the call
+     */
+    private synchronized JsonObject deploy(List<JsonObject> groupDefinitions, boolean rootUpdate) {
+        final SimulatedDeployment deployment = new SimulatedDeployment("StartApplication");
+        final Set<String> listedGroupIds = Sets.newHashSet();
+        for (JsonObject groupDefinition : groupDefinitions) {
+            final String groupId = trimSlashes(groupDefinition.get("id").getAsString());
+            listedGroupIds.add(groupId);
+            if (!groupDefinition.has("apps"))
+                continue; // Left untouched
+            final SimulatedGroup group = new SimulatedGroup(groupId);
+            groupDefinition.getAsJsonArray("apps").forEach(appDefinition -> {
+                final JsonObject definition = appDefinition.getAsJsonObject();
+                final String appId = definition.get("id").getAsString().startsWith("/") ? definition.get("id").getAsString()
+                        : "/" + groupId + "/" + definition.get("id").getAsString();
+                definition.addProperty("id", appId);
+                group.apps.put(appId, new SimulatedApp(definition));
+                deployment.affectedApps.add(appId);
+            });
+            Optional.ofNullable(groups.put(groupId, group)).ifPresent(previous -> previous.apps.values().forEach(app -> killTasks(app, app.tasks.size())));
+        }
+        if (rootUpdate)
+            Lists.newArrayList(groups.keySet()).stream().filter(groupId -> !listedGroupIds.contains(groupId))
+                    .forEach(groupId -> groups.remove(groupId).apps.values().forEach(app -> killTasks(app, app.tasks.size())));
+        return startDeployment(deployment, () -> deployment.affectedApps.forEach(appId -> Optional.ofNullable(findApp(appId))
+                .ifPresent(app -> launchTasks(app, app.definition.get("instances") == null ? 1 : app.definition.get("instances").getAsInt()))));
+    }
+
+    private synchronized JsonObject deleteGroup(String groupId) {
+        final SimulatedGroup group = groups.get(trimSlashes(groupId));
+        if (group == null)
+            return null;
+        final SimulatedDeployment deployment = new SimulatedDeployment("StopApplication");
+        deployment.affectedApps.addAll(group.apps.keySet());
+        return startDeployment(deployment, () -> {
+            group.apps.values().forEach(app -> killTasks(app, app.tasks.size()));
+            groups.remove(group.id, group);
+        });
+    }
+
+    private synchronized JsonObject scaleApp(String appId, JsonObject appUpdate) {
+        final SimulatedApp app = findApp(appId);
+        if (app == null)
+            return null;
+        final int instances = appUpdate.get("instances").getAsInt();
+        app.definition.addProperty("instances", instances);
+        final SimulatedDeployment deployment = new SimulatedDeployment("ScaleApplication");
+        deployment.affectedApps.add(appId);
+        return startDeployment(deployment, () -> {
+            if (instances > app.tasks.size())
+                launchTasks(app, instances - app.tasks.size());
+            else
+                killTasks(app, app.tasks.size() - instances);
+        });
+    }
+
+    private synchronized boolean cancelDeployment(String deploymentId) {
+        return deployments.remove(deploymentId) != null;
+    }
+
+    /**
+     * Register a deployment, then apply it once its duration elapsed, unless it is cancelled meanwhile.
+     */
+    private JsonObject startDeployment(SimulatedDeployment deployment, Runnable completion) {
+        deployments.put(deployment.id, deployment);
+        final JsonObject plan = new JsonObject();
+        plan.addProperty("id", deployment.id);
+        final JsonObject infoEvent = new JsonObject();
+        infoEvent.add("plan", plan);
+        emit("deployment_info", infoEvent);
+
+        final boolean failure = deploymentFailureRate > 0 && ThreadLocalRandom.current().nextDouble() < deploymentFailureRate;
+        scheduler.schedule(() -> {
+            synchronized (MarathonSimulator.this) {
+                if (deployments.remove(deployment.id) == null)
+                    return; // Cancelled
+                if (!failure)
+                    completion.run();
+            }
+            final JsonObject endEvent = new JsonObject();
+            endEvent.addProperty("id", deployment.id);
+            emit(failure ? "deployment_failed" : "deployment_success", endEvent);
+        }, deploymentDurationMs, TimeUnit.MILLISECONDS);
+
+        final JsonObject result = new JsonObject();
+        result.addProperty("deploymentId", deployment.id);
+        result.addProperty("version", now());
+        return result;
+    }
+
+    private void launchTasks(SimulatedApp app, int count) {
+        for (int i = 0; i < count; i++) {
+            final JsonObject task = new JsonObject();
+            task.addProperty("id", trimSlashes(app.definition.get("id").getAsString()).replace('/', '_') + "." + UUID.randomUUID());
+            task.addProperty("appId", app.definition.get("id").getAsString());
+            task.addProperty("host", "agent-" + ThreadLocalRandom.current().nextInt(agents) + ".simulator");
+            task.addProperty("slaveId", "simulated-agent");
+            final JsonArray ports = new JsonArray();
+            ports.add(new JsonPrimitive(nextHostPort.getAndIncrement()));
+            task.add("ports", ports);
+            task.addProperty("stagedAt", now());
+            task.addProperty("startedAt", now());
+            task.addProperty("version", now());
+            task.addProperty("state", "TASK_RUNNING");
+            app.tasks.add(task);
+            emit("status_update_event", statusUpdate(task, "TASK_STAGING"));
+            emit("status_update_event", statusUpdate(task, "TASK_RUNNING"));
+        }
+    }
+
+    private void killTasks(SimulatedApp app, int count) {
+        for (int i = 0; i < count && !app.tasks.isEmpty(); i++)
+            emit("status_update_event", statusUpdate(app.tasks.remove(app.tasks.size() - 1), "TASK_KILLED"));
+    }
+
+    private static JsonObject statusUpdate(JsonObject task, String taskStatus) {
+        final JsonObject event = new JsonObject();
+        event.addProperty("appId", task.get("appId").getAsString());
+        event.addProperty("taskId", task.get("id").getAsString());
+        event.addProperty("slaveId", task.get("slaveId").getAsString());
+        event.addProperty("host", task.get("host").getAsString());
+        event.addProperty("taskStatus", taskStatus);
+        event.add("ports", task.get("ports"));
+        event.addProperty("version", task.get("version").getAsString());
+        return event;
+    }
+
+    private void emitBackgroundEvent() {
+        final JsonObject task;
+        synchronized (this) {
+            final List<JsonObject> tasks = groups.values().stream().flatMap(group -> group.apps.values().stream()).flatMap(app -> app.tasks.stream())
+                    .collect(Collectors.toList());
+            if (tasks.isEmpty())
+                return;
+            task = tasks.get(ThreadLocalRandom.current().nextInt(tasks.size()));
+        }
+        if (ThreadLocalRandom.current().nextBoolean()) {
+            emit("status_update_event", statusUpdate(task, "TASK_RUNNING"));
+        } else {
+            final JsonObject event = new JsonObject();
+            event.addProperty("appId", task.get("appId").getAsString());
+            event.addProperty("taskId", task.get("id").getAsString());
+            event.addProperty("version", task.get("version").getAsString());
+            event.addProperty("alive", true);
+            emit("health_status_changed_event", event);
+        }
+    }
+
+    private synchronized JsonObject rootGroup() {
+        final JsonObject root = new JsonObject();
+        root.addProperty("id", "/");
+        root.add("apps", new JsonArray());
+        final JsonArray groupArray = new JsonArray();
+        groups.keySet().forEach(groupId -> groupArray.add(group(groupId)));
+        root.add("groups", groupArray);
+        return root;
+    }
+
+    private synchronized JsonObject group(String groupId) {
+        final SimulatedGroup group = groups.get(trimSlashes(groupId));
+        if (group == null)
+            return null;
+        final JsonObject groupJson = new JsonObject();
+        groupJson.addProperty("id", "/" + group.id);
+        groupJson.addProperty("version", group.version);
+        final JsonArray apps = new JsonArray();
+        group.apps.values().forEach(app -> apps.add(appJson(app)));
+        groupJson.add("apps", apps);
+        groupJson.add("groups", new JsonArray());
+        groupJson.add("dependencies", new JsonArray());
+        return groupJson;
+    }
+
+    private synchronized JsonObject app(String appId) {
+        final SimulatedApp app = findApp(appId);
+        if (app == null)
+            return null;
+        final JsonObject response = new JsonObject();
+        response.add("app", appJson(app));
+        return response;
+    }
+
+    private synchronized JsonObject appTasks(String appId) {
+        final SimulatedApp app = findApp(appId);
+        if (app == null)
+            return null;
+        final JsonArray tasks = new JsonArray();
+        app.tasks.forEach(tasks::add);
+        final JsonObject response = new JsonObject();
+        response.add("tasks", tasks);
+        return response;
+    }
+
+    private synchronized JsonArray runningDeployments() {
+        final JsonArray array = new JsonArray();
+        deployments.values().forEach(deployment -> {
+            final JsonObject deploymentJson = new JsonObject();
+            deploymentJson.addProperty("id", deployment.id);
+            deploymentJson.addProperty("version", deployment.version);
+            final JsonArray affectedApps = new JsonArray();
+            final JsonArray currentActions = new JsonArray();
+            deployment.affectedApps.forEach(appId -> {
+                affectedApps.add(new JsonPrimitive(appId));
+                final JsonObject action = new JsonObject();
+                action.addProperty("action", deployment.action);
+                action.addProperty("type", deployment.action);
+                action.addProperty("app", appId);
+                currentActions.add(action);
+            });
+            deploymentJson.add("affectedApps", affectedApps);
+            deploymentJson.add("currentActions", currentActions);
+            deploymentJson.addProperty("currentStep", 1);
+            deploymentJson.addProperty("totalSteps", 1);
+            array.add(deploymentJson);
+        });
+        return array;
+    }
+
+    private JsonObject appJson(SimulatedApp app) {
+        final JsonObject appJson = new JsonObject();
+        app.definition.entrySet().forEach(entry -> appJson.add(entry.getKey(), entry.getValue()));
+        final int running = app.tasks.size();
+        appJson.addProperty("tasksStaged", 0);
+        appJson.addProperty("tasksRunning", running);
+        appJson.addProperty("tasksHealthy", running);
+        appJson.addProperty("tasksUnhealthy", 0);
+        return appJson;
+    }
+
+    private SimulatedApp findApp(String appId) {
+        final String groupId = trimSlashes(appId).split("/")[0];
+        return Optional.ofNullable(groups.get(groupId)).map(group -> group.apps.get(appId.startsWith("/") ? appId : "/" + appId)).orElse(null);
+    }
+
+    /**
+     * Hold the exchange open and stream the events to it until the client disconnects.
+     */
+    private void subscribe(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        final OutputStream outputStream = exchange.getResponseBody();
+        // Flush the headers so that the client considers the stream open
+        outputStream.write(":\n\n".getBytes(StandardCharsets.UTF_8));
+        outputStream.flush();
+        eventSubscribers.add(outputStream);
+    }
+
+    private void emit(String eventType, JsonObject event) {
+        event.addProperty("eventType", eventType);
+        event.addProperty("timestamp", now());
+        final byte[] frame = ("event: " + eventType + "\ndata: " + event + "\n\n").getBytes(StandardCharsets.UTF_8);
+        eventCount.incrementAndGet();
+        for (OutputStream subscriber : eventSubscribers) {
+            try {
+                synchronized (subscriber) {
+                    subscriber.write(frame);
+                    subscriber.flush();
+                }
+            } catch (IOException e) {
+                // The client disconnected
+                eventSubscribers.remove(subscriber);
+            }
+        }
+    }
+
+    private static JsonObject readBody(HttpExchange exchange) {
+        final JsonElement body = new JsonParser().parse(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        return body.isJsonObject() ? body.getAsJsonObject() : new JsonObject();
+    }
+
+    private static void respond(HttpExchange exchange, int status, JsonElement body) throws IOException {
+        final byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    private static JsonObject message(String message) {
+        final JsonObject json = new JsonObject();
+        json.addProperty("message", message);
+        return json;
+    }
+
+    private static String now() {
+        return DATE_FORMAT.format(Instant.now());
+    }
+
+    private static String trimSlashes(String id) {
+        return id.replaceAll("^/+", "").replaceAll("/+$", "");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class SimulatedGroup {
+        private final String id;
+        private final String version = now();
+        private final Map<String, SimulatedApp> apps = Maps.newLinkedHashMap();
+
+        private SimulatedGroup(String id) {
+            this.id = id;
+        }
+    }
+
+    private static class SimulatedApp {
+        private final JsonObject definition;
+        private final List<JsonObject> tasks = Lists.newArrayList();
+
+        private SimulatedApp(JsonObject definition) {
+            this.definition = definition;
+        }
+    }
+
+    private static class SimulatedDeployment {
+        private final String id = UUID.randomUUID().toString();
+        private final String version = now();
+        private final String action;
+        private final Collection<String> affectedApps = Lists.newArrayList();
+
+        private SimulatedDeployment(String action) {
+            this.action = action;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package alien4cloud.plugin.marathon.simulator;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.alien4cloud.tosca.model.definitions.ImplementationArtifact;
+import org.alien4cloud.tosca.model.definitions.Interface;
+import org.alien4cloud.tosca.model.definitions.Operation;
+import org.alien4cloud.tosca.model.definitions.ScalarPropertyValue;
+import org.alien4cloud.tosca.model.templates.Capability;
+import org.alien4cloud.tosca.model.templates.NodeTemplate;
+import org.alien4cloud.tosca.model.templates.ScalingPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import alien4cloud.model.deployment.Deployment;
+import alien4cloud.paas.IPaaSCallback;
+import alien4cloud.paas.model.AbstractMonitorEvent;
+import alien4cloud.paas.model.DeploymentStatus;
+import alien4cloud.paas.model.PaaSDeploymentStatusMonitorEvent;
+import alien4cloud.paas.model.PaaSNodeTemplate;
+import alien4cloud.paas.model.PaaSTopology;
+import alien4cloud.paas.model.PaaSTopologyDeploymentContext;
+import alien4cloud.plugin.marathon.MarathonOrchestrator;
+import alien4cloud.plugin.marathon.config.MarathonConfig;
+import alien4cloud.plugin.marathon.location.MarathonLocationConfiguratorFactory;
+import alien4cloud.plugin.marathon.metrics.MetricsRegistry;
+import alien4cloud.plugin.marathon.service.BuilderService;
+import alien4cloud.plugin.marathon.service.EventService;
+import alien4cloud.plugin.marathon.service.MappingService;
+import alien4cloud.plugin.marathon.service.model.events.converters.DeploymentEventConverter;
+import alien4cloud.plugin.marathon.service.model.events.converters.StatusEventConverter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Deploys and undeploys topologies end to end through the orchestrator, against the Marathon simulator, and reports the latency of the deployments.
+ *
+ * The load is set by the <code>simulator.deployments</code>, <code>simulator.nodes</code> and <code>simulator.latency</code> system properties.
+ * Events are polled as Alien does, every <code>simulator.pollInterval</code> milliseconds, or long polled when
+ * <code>simulator.eventPollTimeout</code> is set, to compare the delivery latency and the number of idle polls of both modes.
+ *
+ * Not part of the unit tests: run with <code>mvn -Pload-test verify</code>.
+ */
+@Slf4j
+public class MarathonSimulatorLoadIT {
+
+    private static final int DEPLOYMENTS = Integer.getInteger("simulator.deployments", 20);
+    private static final int NODES = Integer.getInteger("simulator.nodes", 3);
+    private static final int LATENCY = Integer.getInteger("simulator.latency", 5);
+    private static final int POLL_INTERVAL = Integer.getInteger("simulator.pollInterval", 10);
+    private static final int EVENT_POLL_TIMEOUT = Integer.getInteger("simulator.eventPollTimeout", 0);
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+
+    private MarathonSimulator simulator;
+    private MarathonOrchestrator orchestrator;
+    private int polls;
+    private int emptyPolls;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = new MarathonSimulator().agents(20).latency(0, LATENCY).deploymentDuration(50).backgroundEvents(100);
+        final String marathonURL = simulator.start();
+
+        final MappingService mappingService = new MappingService();
+        final MetricsRegistry metricsRegistry = new MetricsRegistry();
+        final EventService eventService = new EventService(mappingService, new DeploymentEventConverter(mappingService),
+                new StatusEventConverter(mappingService), metricsRegistry);
+        orchestrator = new MarathonOrchestrator(new BuilderService(mappingService, metricsRegistry), mappingService, eventService, metricsRegistry,
+                new MarathonLocationConfiguratorFactory());
+        final MarathonConfig config = new MarathonConfig(marathonURL);
+        config.setReconciliationPeriod(0);
+        config.setEventPollTimeout(EVENT_POLL_TIMEOUT);
+        orchestrator.setConfiguration("simulator", config);
+        orchestrator.init(Collections.emptyMap());
+    }
+
+    @After
+    public void tearDown() {
+        orchestrator.destroy();
+        simulator.stop();
+    }
+
+    @Test
+    public void deployAndUndeployUnderLoad() throws Exception {
+        final List<PaaSTopologyDeploymentContext> contexts = IntStream.range(0, DEPLOYMENTS).mapToObj(this::deploymentContext)
+                .collect(Collectors.toList());
+        final Map<String, Long> submissionTimes = Maps.newHashMap();
+        contexts.forEach(context -> {
+            submissionTimes.put(context.getDeploymentId(), System.nanoTime());
+            orchestrator.deploy(context, mock(IPaaSCallback.class));
+        });
+        final Map<String, Long> deploymentLatencies = awaitStatus(DeploymentStatus.DEPLOYED, submissionTimes);
+        assertEquals("All the topologies are deployed", DEPLOYMENTS, deploymentLatencies.size());
+        assertEquals("Each topology is a group", DEPLOYMENTS, simulator.getGroupIds().size());
+        assertEquals("Each node of each topology runs a task", DEPLOYMENTS * NODES, simulator.getTaskCount());
+        report("Deployment", deploymentLatencies);
+
+        submissionTimes.clear();
+        contexts.forEach(context -> {
+            submissionTimes.put(context.getDeploymentId(), System.nanoTime());
+            orchestrator.undeploy(context, mock(IPaaSCallback.class));
+        });
+        final Map<String, Long> undeploymentLatencies = awaitStatus(DeploymentStatus.UNDEPLOYED, submissionTimes);
+        assertEquals("All the topologies are undeployed", DEPLOYMENTS, undeploymentLatencies.size());
+        assertTrue("No group is left", simulator.getGroupIds().isEmpty());
+        report("Undeployment", undeploymentLatencies);
+    }
+
+    /**
+     * Poll the orchestrator's events until each deployment reached the expected status.
+     *
+     * @return the latency, in nanoseconds, of each deployment which reached the status
+     */
+    private Map<String, Long> awaitStatus(DeploymentStatus expectedStatus, Map<String, Long> submissionTimes) throws Exception {
+        final Map<String, Long> latencies = Maps.newHashMap();
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (latencies.size() < submissionTimes.size() && System.currentTimeMillis() < deadline) {
+            // Long polls complete asynchronously
+            final CompletableFuture<AbstractMonitorEvent[]> events = new CompletableFuture<>();
+            orchestrator.getEventsSince(new Date(), Integer.MAX_VALUE, new IPaaSCallback<AbstractMonitorEvent[]>() {
+                @Override
+                public void onSuccess(AbstractMonitorEvent[] data) {
+                    events.complete(data);
+                }
+
+                @Override
+                public void onFailure(Throwable throwable) {
+                    events.completeExceptionally(throwable);
+                }
+            });
+            final AbstractMonitorEvent[] polledEvents = events.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            final long now = System.nanoTime();
+            polls++;
+            if (polledEvents.length == 0)
+                emptyPolls++;
+            Arrays.stream(polledEvents).filter(PaaSDeploymentStatusMonitorEvent.class::isInstance).map(PaaSDeploymentStatusMonitorEvent.class::cast)
+                    .filter(event -> event.getDeploymentStatus() == expectedStatus && submissionTimes.containsKey(event.getDeploymentId()))
+                    .forEach(event -> latencies.putIfAbsent(event.getDeploymentId(), now - submissionTimes.get(event.getDeploymentId())));
+            if (EVENT_POLL_TIMEOUT == 0)
+                Thread.sleep(POLL_INTERVAL);
+        }
+        return latencies;
+    }
+
+    private void report(String operation, Map<String, Long> latencies) {
+        final List<Long> sorted = latencies.values().stream().sorted().collect(Collectors.toList());
+        log.info(operation + " of " + sorted.size() + " topologies of " + NODES + " nodes - p50 " + percentile(sorted, 0.5) + " ms, p90 "
+                + percentile(sorted, 0.9) + " ms, p99 " + percentile(sorted, 0.99) + " ms, max " + percentile(sorted, 1) + " ms - "
+                + simulator.getRequestCount() + " requests and " + simulator.getEventCount() + " events served by the simulator - " + polls + " polls, "
+                + emptyPolls + " empty (" + (EVENT_POLL_TIMEOUT > 0 ? "long polls of " + EVENT_POLL_TIMEOUT + " ms" : "every " + POLL_INTERVAL + " ms") + ")");
+        polls = 0;
+        emptyPolls = 0;
+    }
+
+    private static long percentile(List<Long> sortedLatencies, double percentile) {
+        final int index = (int) Math.ceil(percentile * sortedLatencies.size()) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sortedLatencies.get(Math.max(0, index)));
+    }
+
+    private PaaSTopologyDeploymentContext deploymentContext(int index) {
+        final List<PaaSNodeTemplate> nodes = Lists.newArrayList();
+        for (int i = 0; i < NODES; i++) {
+            final NodeTemplate template = nodeTemplate();
+            final PaaSNodeTemplate paaSNodeTemplate = new PaaSNodeTemplate("Node-" + i, template);
+            paaSNodeTemplate.setInterfaces(template.getInterfaces());
+            paaSNodeTemplate.setScalingPolicy(new ScalingPolicy(1, 1, 1));
+            nodes.add(paaSNodeTemplate);
+        }
+
+        final PaaSTopologyDeploymentContext context = new PaaSTopologyDeploymentContext();
+        final Deployment deployment = new Deployment();
+        deployment.setOrchestratorDeploymentId("simulated-deployment-" + index);
+        deployment.setId("alien-deployment-" + index);
+        context.setDeployment(deployment);
+        final PaaSTopology paaSTopology = new PaaSTopology();
+        paaSTopology.setNonNatives(nodes);
+        paaSTopology.setVolumes(Lists.newArrayList());
+        paaSTopology.setAllNodes(nodes.stream().collect(Collectors.toMap(PaaSNodeTemplate::getId, node -> node)));
+        context.setPaaSTopology(paaSTopology);
+        return context;
+    }
+
+    private static NodeTemplate nodeTemplate() {
+        final NodeTemplate template = new NodeTemplate();
+        template.setCapabilities(Maps.newHashMap());
+        template.setInterfaces(Maps.newHashMap());
+        template.setProperties(Maps.newHashMap());
+        template.getProperties().put("cpu_share", new ScalarPropertyValue("0.1"));
+        template.getProperties().put("mem_share", new ScalarPropertyValue("64.0"));
+
+        final Capability endpoint = new Capability();
+        endpoint.setType("alien.capabilities.endpoint.Docker");
+        endpoint.setProperties(Maps.newHashMap());
+        endpoint.getProperties().put("port", new ScalarPropertyValue("8080"));
+        template.getCapabilities().put("endpoint", endpoint);
+
+        final Interface standard = new Interface();
+        final Operation create = new Operation();
+        create.setImplementationArtifact(new ImplementationArtifact("nginx:latest"));
+        standard.setOperations(Maps.newHashMap());
+        standard.getOperations().put("create", create);
+        template.getInterfaces().put("tosca.interfaces.node.lifecycle.Standard", standard);
+        return template;
+    }
+}